@@ -14,22 +14,36 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.Surface;
 
+import com.serenegiant.usb.BurstCapture;
+import com.serenegiant.usb.CapabilityCache;
+import com.serenegiant.usb.FrameGrabber;
+import com.serenegiant.usb.FramePool;
+import com.serenegiant.usb.FrameStillEncoder;
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.PixelBufferPool;
+import com.serenegiant.usb.StillCapturePipeline;
+import com.serenegiant.usb.StillImageFormat;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.usb.encoder.AdaptiveBitrateController;
+import com.serenegiant.usb.encoder.BitmapStillEncoder;
+import com.serenegiant.usb.encoder.EncoderConfig;
+import com.serenegiant.usb.encoder.FrameImageCompressor;
 import com.serenegiant.usb.encoder.MediaAudioEncoder;
 import com.serenegiant.usb.encoder.MediaEncoder;
 import com.serenegiant.usb.encoder.MediaMuxerWrapper;
 import com.serenegiant.usb.encoder.MediaSurfaceEncoder;
+import com.serenegiant.usb.encoder.MediaVideoBufferEncoder;
 import com.serenegiant.usb.encoder.MediaVideoEncoder;
+import com.serenegiant.usb.encoder.MjpegAviRecorder;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.util.Locale;
 
+import widget.BitmapAllocator;
 import widget.CameraViewInterface;
 import widget.UVCCameraTextureView;
 
@@ -42,7 +56,9 @@ public class CameraHandler extends Handler {
     private static final int MSG_CAPTURE_START = 5;
     private static final int MSG_CAPTURE_STOP = 6;
     private static final int MSG_MEDIA_UPDATE = 7;
+    private static final int MSG_PREROLL_START = 8;
     private static final int MSG_RELEASE = 9;
+    private static final int MSG_CAPTURE_BURST = 10;
 
     /**
      * set true if you want to record movie using MediaSurfaceEncoder
@@ -51,16 +67,78 @@ public class CameraHandler extends Handler {
      * set false if you want to record movie using MediaVideoEncoder
      */
     private static final boolean USE_SURFACE_ENCODER = false;
+    /**
+     * set true if you want to record movie using MediaVideoBufferEncoder
+     * (writing frame data from IFrameCallback into MediaCodec without rendering),
+     * this is ignored when USE_SURFACE_ENCODER is true
+     */
+    private static final boolean USE_BUFFER_ENCODER = false;
+    /**
+     * set true if you want to run encoders in asynchronous mode with MediaCodec.Callback,
+     * this is ignored on API < 21 and encoders run in synchronous mode
+     */
+    private static final boolean USE_ASYNC_ENCODER = false;
+    /**
+     * duration of pre-event recording in seconds, samples of this duration before
+     * #startRecording are written to the movie after #startPreRoll
+     */
+    private static final int PRE_ROLL_DURATION_SEC = 10;
+    /**
+     * maximum number of still images that are being grabbed, encoded or written at the same time
+     */
+    private static final int MAX_STILL_IN_FLIGHT = StillCapturePipeline.DEFAULT_MAX_IN_FLIGHT;
+    /**
+     * number of preallocated Bitmaps for burst capture,
+     * frames are skipped while all of them are being encoded
+     */
+    private static final int BURST_POOL_SIZE = MAX_STILL_IN_FLIGHT;
+    /**
+     * format of still images, StillImageFormat#FORMAT_XXX.
+     * raw dump(FORMAT_YUYV/FORMAT_NV21) is available only when USE_FRAME_STILL is effective
+     */
+    private static final int STILL_FORMAT = StillImageFormat.FORMAT_JPEG;
+    private static final int STILL_QUALITY = StillImageFormat.DEFAULT_QUALITY;
+    /**
+     * set true if you want to take still images from frame data of the camera in MJPEG mode
+     * instead of reading back the preview image, JPEG is written as is without decoding and encoding.
+     * this is ignored in YUYV mode and while recording with MediaVideoBufferEncoder
+     */
+    private static final boolean USE_FRAME_STILL = true;
+    /**
+     * set true if you want to record MJPEG frames as is into Motion-JPEG AVI in MJPEG mode
+     * instead of encoding H.264/AAC mp4, there is no audio and pre-event recording is not available.
+     * still images come from the view while recording
+     */
+    private static final boolean USE_MJPEG_PASSTHROUGH = false;
+    /**
+     * set true if you want to write fragmented mp4, the movie file is written every fragment(about 1 second)
+     * so it survives the process being killed and can be read while recording
+     */
+    private static final boolean USE_FRAGMENTED_MP4 = false;
 
     private final WeakReference<CameraThread> mWeakThread;
 
-    static int previewWidth = 640;
-    static int previewHeight = 480;
-    static int previewMode = 1;
-
+    /**
+     * create handler with 640x480@15fps MJPEG preview and recording
+     * @param parent
+     * @param cameraView
+     * @return
+     */
     public static CameraHandler createHandler(final Activity parent, final UVCCameraTextureView cameraView) {
-        ((CameraViewInterface) cameraView).setAspectRatio(previewWidth / (float)previewHeight);
-        final CameraThread thread = new CameraThread(parent, cameraView);
+        return createHandler(parent, cameraView,
+            new EncoderConfig().setPreviewMode(UVCCamera.FRAME_FORMAT_MJPEG));
+    }
+
+    /**
+     * create handler
+     * @param parent
+     * @param cameraView
+     * @param config preview size/mode and parameters for recording
+     * @return
+     */
+    public static CameraHandler createHandler(final Activity parent, final UVCCameraTextureView cameraView, final EncoderConfig config) {
+        ((CameraViewInterface) cameraView).setAspectRatio(config.getWidth() / (float)config.getHeight());
+        final CameraThread thread = new CameraThread(parent, cameraView, config);
         thread.start();
         return thread.getHandler();
     }
@@ -113,6 +191,22 @@ public class CameraHandler extends Handler {
         sendEmptyMessage(MSG_CAPTURE_STILL);
     }
 
+    /**
+     * take still images of count frames at the interval
+     * @param count
+     * @param intervalMs 0 means every frame
+     */
+    public void captureBurst(final int count, final int intervalMs) {
+        sendMessage(obtainMessage(MSG_CAPTURE_BURST, count, intervalMs));
+    }
+
+    /**
+     * start encoding into memory, #startRecording writes the movie from PRE_ROLL_DURATION_SEC seconds before
+     */
+    public void startPreRoll() {
+        sendEmptyMessage(MSG_PREROLL_START);
+    }
+
     public void startRecording() {
         sendEmptyMessage(MSG_CAPTURE_START);
     }
@@ -137,7 +231,7 @@ public class CameraHandler extends Handler {
                 thread.handleClose();
                 break;
             case MSG_PREVIEW_START:
-                thread.handleStartPreview((Surface)msg.obj, previewWidth, previewHeight, previewMode);
+                thread.handleStartPreview((Surface)msg.obj);
                 break;
             case MSG_PREVIEW_STOP:
                 thread.handleStopPreview();
@@ -145,9 +239,15 @@ public class CameraHandler extends Handler {
             case MSG_CAPTURE_STILL:
                 thread.handleCaptureStill();
                 break;
+            case MSG_CAPTURE_BURST:
+                thread.handleCaptureBurst(msg.arg1, msg.arg2);
+                break;
             case MSG_CAPTURE_START:
                 thread.handleStartRecording();
                 break;
+            case MSG_PREROLL_START:
+                thread.handleStartPreRoll();
+                break;
             case MSG_CAPTURE_STOP:
                 thread.handleStopRecording();
                 break;
@@ -168,6 +268,10 @@ public class CameraHandler extends Handler {
         private final Object mSync = new Object();
         private final WeakReference<Activity> mWeakParent;
         private final WeakReference<CameraViewInterface> mWeakCameraView;
+        /**
+         * preview size/mode and parameters for recording
+         */
+        private final EncoderConfig mEncoderConfig;
         private boolean mIsRecording;
         /**
          * shutter sound
@@ -183,11 +287,40 @@ public class CameraHandler extends Handler {
          * muxer for audio/video recording
          */
         private MediaMuxerWrapper mMuxer;
+        /**
+         * recorder for MJPEG passthrough recording
+         */
+        private MjpegAviRecorder mAviRecorder;
+        /**
+         * capabilities of cameras that were opened before, to shorten the time to the first frame
+         */
+        private final CapabilityCache mCapabilityCache;
+        /**
+         * encode and write still images on their own threads
+         */
+        private final StillCapturePipeline<Bitmap> mStillCapture;
+        /**
+         * preallocated Bitmaps for burst capture, created on the first burst
+         */
+        private PixelBufferPool<Bitmap> mStillImagePool;
+        private BurstCapture mBurstCapture;
+        /**
+         * take still images from frame data of the camera, effective while mIsFrameStillActive is true
+         */
+        private final FrameGrabber mFrameGrabber = new FrameGrabber();
+        private final StillCapturePipeline<FramePool.Frame> mFrameStillCapture;
+        private boolean mIsFrameStillActive;
 
-        private CameraThread(Activity parent, final CameraViewInterface cameraView) {
+        private CameraThread(Activity parent, final CameraViewInterface cameraView, final EncoderConfig config) {
             super("CameraThread");
             mWeakParent = new WeakReference<Activity>(parent);
             mWeakCameraView = new WeakReference<CameraViewInterface>(cameraView);
+            mEncoderConfig = new EncoderConfig(config);
+            mCapabilityCache = new CapabilityCache(new File(parent.getCacheDir(), "uvc"));
+            mStillCapture = new StillCapturePipeline<Bitmap>(cameraView,
+                new BitmapStillEncoder(STILL_FORMAT, STILL_QUALITY), MAX_STILL_IN_FLIGHT);
+            mFrameStillCapture = new StillCapturePipeline<FramePool.Frame>(mFrameGrabber,
+                new FrameStillEncoder(STILL_FORMAT, STILL_QUALITY, new FrameImageCompressor()), MAX_STILL_IN_FLIGHT);
             loadSutterSound(parent);
         }
 
@@ -212,17 +345,21 @@ public class CameraHandler extends Handler {
         }
 
         public boolean isRecording() {
-            return (mUVCCamera != null) && (mMuxer != null);
+            return (mUVCCamera != null)
+                && (((mMuxer != null) && !mMuxer.isPreRolling()) || (mAviRecorder != null));
         }
 
         public void handleOpen(final USBMonitor.UsbControlBlock ctrlBlock) {
             handleClose();
             mUVCCamera = new UVCCamera();
+            mUVCCamera.setCapabilityCache(mCapabilityCache);
             mUVCCamera.open(ctrlBlock);
+            Log.i(TAG_THREAD, "open:" + mUVCCamera.getOpenDurationMs() + "ms, cached=" + mUVCCamera.isCapabilitiesCached());
         }
 
         public void handleClose() {
             handleStopRecording();
+            stopFrameStill();
             if (mUVCCamera != null) {
                 mUVCCamera.stopPreview();
                 mUVCCamera.destroy();
@@ -230,14 +367,18 @@ public class CameraHandler extends Handler {
             }
         }
 
-        public void handleStartPreview(final Surface surface, int previewWidth, int previewHeight, int previewMode) {
+        public void handleStartPreview(final Surface surface) {
             if (mUVCCamera == null) return;
+            final EncoderConfig config = mEncoderConfig;
             try {
-                mUVCCamera.setPreviewSize(previewWidth, previewHeight, previewMode);
+                // check the size before changing the camera to get an error for unsupported size
+                config.validate(mUVCCamera);
+                mUVCCamera.setPreviewSize(config.getWidth(), config.getHeight(), config.getPreviewMode());
             } catch (final IllegalArgumentException e) {
                 try {
                     // fallback to YUV mode
-                    mUVCCamera.setPreviewSize(previewWidth, previewHeight, UVCCamera.DEFAULT_PREVIEW_MODE);
+                    mUVCCamera.setPreviewSize(config.getWidth(), config.getHeight(), UVCCamera.DEFAULT_PREVIEW_MODE);
+                    config.setPreviewMode(UVCCamera.DEFAULT_PREVIEW_MODE);
                 } catch (final IllegalArgumentException e1) {
                     handleClose();
                 }
@@ -246,10 +387,31 @@ public class CameraHandler extends Handler {
 //					mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_YUV);
                 mUVCCamera.setPreviewDisplay(surface);
                 mUVCCamera.startPreview();
+                if (USE_FRAME_STILL && (config.getPreviewMode() == UVCCamera.FRAME_FORMAT_MJPEG)) {
+                    startFrameStill();
+                }
+            }
+        }
+
+        /**
+         * receive MJPEG frames as is for still images.
+         * this costs only copying compressed data of each frame into FramePool
+         */
+        private void startFrameStill() {
+            // frames are retained until encoded, keep some frames for the frames that are arriving
+            mFrameGrabber.attach(mUVCCamera, UVCCamera.PIXEL_FORMAT_RAW, MAX_STILL_IN_FLIGHT + 2);
+            mIsFrameStillActive = true;
+        }
+
+        private void stopFrameStill() {
+            if (mIsFrameStillActive) {
+                mIsFrameStillActive = false;
+                mFrameGrabber.detach(mUVCCamera);
             }
         }
 
         public void handleStopPreview() {
+            stopFrameStill();
             if (mUVCCamera != null) {
                 mUVCCamera.stopPreview();
             }
@@ -262,42 +424,129 @@ public class CameraHandler extends Handler {
             final Activity parent = mWeakParent.get();
             if (parent == null) return;
             mSoundPool.play(mSoundId, 0.2f, 0.2f, 0, 0, 1.0f);	// play shutter sound
-            final Bitmap bitmap = mWeakCameraView.get().captureStillImage();
+            // save a captured still image as a file on external storage.
+            // the file name is came from current time.
+            final File outputFile = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM,
+                StillImageFormat.getExtension(STILL_FORMAT));
+            if (mIsFrameStillActive) {
+                // the next MJPEG frame is written as is on StillCapturePipeline
+                mFrameStillCapture.capture(outputFile, mStillCaptureCallback);
+            } else {
+                // this returns immediately, the bitmap is grabbed on UI thread and encoded/written on StillCapturePipeline
+                mStillCapture.capture(outputFile, mStillCaptureCallback);
+            }
+        }
+
+        public void handleCaptureBurst(final int count, final int intervalMs) {
+            final Activity parent = mWeakParent.get();
+            final CameraViewInterface cameraView = mWeakCameraView.get();
+            if ((parent == null) || (cameraView == null)) return;
+            if (mBurstCapture == null) {
+                // capture at the frame size of the camera
+                mStillImagePool = new PixelBufferPool<Bitmap>(
+                    new BitmapAllocator(mEncoderConfig.getWidth(), mEncoderConfig.getHeight()), BURST_POOL_SIZE);
+                cameraView.setStillImagePool(mStillImagePool);
+                mBurstCapture = new BurstCapture(mStillCapture, mStillImagePool);
+            }
+            final File base = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, "");
+            if (base == null) return;
+            final boolean started = mBurstCapture.startCount(count, intervalMs, new BurstCapture.OutputFactory() {
+                @Override
+                public File getOutputFile(final int index) {
+                    return new File(base.getPath() + String.format(Locale.US, "_%03d", index)
+                        + StillImageFormat.getExtension(STILL_FORMAT));
+                }
+            }, mBurstListener);
+            if (started)
+                mSoundPool.play(mSoundId, 0.2f, 0.2f, 0, 0, 1.0f);	// play shutter sound
+        }
+
+        public void handleStartRecording() {
+            if ((mMuxer != null) && mMuxer.isPreRolling()) {
+                // write samples in memory and continue recording
+                mMuxer.trigger();
+                return;
+            }
+            if (USE_MJPEG_PASSTHROUGH && (mEncoderConfig.getPreviewMode() == UVCCamera.FRAME_FORMAT_MJPEG)) {
+                startAviRecorder();
+            } else {
+                startMuxer(false);
+            }
+        }
+
+        public void handleStartPreRoll() {
+            startMuxer(true);
+        }
+
+        /**
+         * write MJPEG frames as is, this costs neither decoding nor encoding
+         */
+        private void startAviRecorder() {
+            if ((mUVCCamera == null) || (mMuxer != null) || (mAviRecorder != null)) return;
+            final File outputFile = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_MOVIES, ".avi");
+            if (outputFile == null) return;
             try {
-                // get buffered output stream for saving a captured still image as a file on external storage.
-                // the file name is came from current time.
-                // You should use extension name as same as CompressFormat when calling Bitmap#compress.
-                final File outputFile = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, ".png");
-                final BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile));
+                final MjpegAviRecorder recorder = new MjpegAviRecorder(outputFile,
+                    mEncoderConfig.getWidth(), mEncoderConfig.getHeight(), mEncoderConfig.getFrameRate());
+                // MjpegAviRecorder takes over the frame callback, still images come from the view
+                stopFrameStill();
+                recorder.start(mUVCCamera, MjpegAviRecorder.DEFAULT_QUEUE_SIZE);
+                mAviRecorder = recorder;
+            } catch (final IOException e) {
+                Log.w(TAG_THREAD, "failed to start MJPEG recording", e);
+            }
+        }
+
+        private void stopAviRecorder() {
+            if (mAviRecorder != null) {
+                final MjpegAviRecorder recorder = mAviRecorder;
+                mAviRecorder = null;
                 try {
-                    try {
-                        bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
-                        os.flush();
-                        mHandler.sendMessage(mHandler.obtainMessage(MSG_MEDIA_UPDATE, outputFile.getPath()));
-                    } catch (final IOException e) {
-                    }
-                } finally {
-                    os.close();
+                    recorder.stop(mUVCCamera);
+                    Log.i(TAG_THREAD, "MJPEG recording:" + recorder.getFrameCount() + "frames, dropped="
+                        + recorder.getDroppedCount() + ", skipped=" + recorder.getSkippedCount());
+                    mHandler.sendMessage(mHandler.obtainMessage(MSG_MEDIA_UPDATE, recorder.getFile().getPath()));
+                } catch (final IOException e) {
+                    Log.w(TAG_THREAD, "failed to write MJPEG recording", e);
                 }
-            } catch (final FileNotFoundException e) {
-            } catch (final IOException e) {
+                // take back the frame callback for still images
+                if (USE_FRAME_STILL && (mUVCCamera != null))
+                    startFrameStill();
             }
         }
 
-        public void handleStartRecording() {
+        private void startMuxer(final boolean preRoll) {
             try {
-                if ((mUVCCamera == null) || (mMuxer != null)) return;
-                mMuxer = new MediaMuxerWrapper(".mp4");	// if you record audio only, ".m4a" is also OK.
+                if ((mUVCCamera == null) || (mMuxer != null) || (mAviRecorder != null)) return;
+                // samples before the first key frame in memory are discarded,
+                // so use short I-frame interval for pre-event recording
+                final EncoderConfig config = preRoll
+                    ? new EncoderConfig(mEncoderConfig).setIFrameInterval(1) : mEncoderConfig;
+                mMuxer = new MediaMuxerWrapper(".mp4", config, USE_FRAGMENTED_MP4);	// if you record audio only, ".m4a" is also OK.
+                if (preRoll) {
+                    // keep 1.5 times of the planned bitrate for video and 128kbps for audio
+                    final long bytes = ((long)mEncoderConfig.getBitRate() * 3 / 2 + 128000) / 8 * PRE_ROLL_DURATION_SEC;
+                    mMuxer.setPreRoll(PRE_ROLL_DURATION_SEC, (int)Math.min(bytes, Integer.MAX_VALUE));
+                }
+                final MediaEncoder videoEncoder;
                 if (USE_SURFACE_ENCODER) {
                     // for video capturing using MediaSurfaceEncoder
-                    new MediaSurfaceEncoder(mMuxer, mMediaEncoderListener);
+                    videoEncoder = new MediaSurfaceEncoder(mMuxer, mMediaEncoderListener);
+                } else if (USE_BUFFER_ENCODER) {
+                    // for video capturing using MediaVideoBufferEncoder
+                    videoEncoder = new MediaVideoBufferEncoder(mMuxer, mMediaEncoderListener);
                 } else {
                     // for video capturing using MediaVideoEncoder
-                    new MediaVideoEncoder(mMuxer, mMediaEncoderListener);
+                    final MediaVideoEncoder encoder = new MediaVideoEncoder(mMuxer, mMediaEncoderListener);
+                    // lower bitrate/frame rate when the encoder can not keep up (e.g. thermal throttling)
+                    encoder.setBitrateController(new AdaptiveBitrateController(mEncoderConfig));
+                    videoEncoder = encoder;
                 }
+                videoEncoder.setAsyncMode(USE_ASYNC_ENCODER);
                 if (true) {
                     // for audio capturing
-                    new MediaAudioEncoder(mMuxer, mMediaEncoderListener);
+                    final MediaEncoder audioEncoder = new MediaAudioEncoder(mMuxer, mMediaEncoderListener);
+                    audioEncoder.setAsyncMode(USE_ASYNC_ENCODER);
                 }
                 mMuxer.prepare();
                 mMuxer.startRecording();
@@ -306,6 +555,7 @@ public class CameraHandler extends Handler {
         }
 
         public void handleStopRecording() {
+            stopAviRecorder();
             if (mMuxer != null) {
                 mMuxer.stopRecording();
                 mMuxer = null;
@@ -335,6 +585,18 @@ public class CameraHandler extends Handler {
         public void handleRelease() {
 
             handleClose();
+            if (mBurstCapture != null) {
+                mBurstCapture.stop();
+            }
+            mStillCapture.release();
+            mFrameStillCapture.release();
+            if (mStillImagePool != null) {
+                final CameraViewInterface cameraView = mWeakCameraView.get();
+                if (cameraView != null)
+                    cameraView.setStillImagePool(null);
+                mStillImagePool.release();
+                mStillImagePool = null;
+            }
             if (!mIsRecording)
                 Looper.myLooper().quit();
         }
@@ -346,6 +608,32 @@ public class CameraHandler extends Handler {
 				}
 			}; */
 
+        private final StillCapturePipeline.Callback mStillCaptureCallback = new StillCapturePipeline.Callback() {
+            @Override
+            public void onComplete(final StillCapturePipeline.Shot shot) {
+                if (shot.getError() == null && !shot.isCancelled()) {
+                    Log.i(TAG_THREAD, "still:" + shot.getSize() + "bytes, grab=" + shot.getGrabMs()
+                        + "ms, encode=" + shot.getEncodeMs() + "ms, write=" + shot.getWriteMs() + "ms");
+                    mHandler.sendMessage(mHandler.obtainMessage(MSG_MEDIA_UPDATE, shot.getFile().getPath()));
+                } else {
+                    Log.w(TAG_THREAD, "failed to capture still image", shot.getError());
+                }
+            }
+        };
+
+        private final BurstCapture.Listener mBurstListener = new BurstCapture.Listener() {
+            @Override
+            public void onShot(final StillCapturePipeline.Shot shot) {
+                // mStillCaptureCallback is not called for shots of burst
+                mStillCaptureCallback.onComplete(shot);
+            }
+
+            @Override
+            public void onFinished(final BurstCapture.Result result) {
+                Log.i(TAG_THREAD, "burst:" + result);
+            }
+        };
+
         private final MediaEncoder.MediaEncoderListener mMediaEncoderListener = new MediaEncoder.MediaEncoderListener() {
             @Override
             public void onPrepared(final MediaEncoder encoder) {
@@ -361,16 +649,32 @@ public class CameraHandler extends Handler {
                         mUVCCamera.startCapture(((MediaSurfaceEncoder)encoder).getInputSurface());
                     } catch (final Exception e) {
                     }
+                if (encoder instanceof MediaVideoBufferEncoder)
+                    try {
+                        final MediaVideoBufferEncoder bufferEncoder = (MediaVideoBufferEncoder)encoder;
+                        // MediaVideoBufferEncoder takes over the frame callback, still images come from the view
+                        stopFrameStill();
+                        mUVCCamera.setFrameCallback(bufferEncoder, bufferEncoder.getPixelFormat());
+                    } catch (final Exception e) {
+                    }
             }
 
             @Override
             public void onStopped(final MediaEncoder encoder) {
                 if ((encoder instanceof MediaVideoEncoder)
-                        || (encoder instanceof MediaSurfaceEncoder))
+                        || (encoder instanceof MediaSurfaceEncoder)
+                        || (encoder instanceof MediaVideoBufferEncoder))
                     try {
                         mIsRecording = false;
+                        Log.i(TAG_THREAD, "encode latency:" + encoder.getLatencyTracker());
                         final Activity parent = mWeakParent.get();
                         mWeakCameraView.get().setVideoEncoder(null);
+                        if (encoder instanceof MediaVideoBufferEncoder) {
+                            mUVCCamera.setFrameCallback((IFrameCallback)null, 0);
+                            // take back the frame callback for still images
+                            if (USE_FRAME_STILL && (mEncoderConfig.getPreviewMode() == UVCCamera.FRAME_FORMAT_MJPEG))
+                                startFrameStill();
+                        }
                         mUVCCamera.stopCapture();
                         final String path = encoder.getOutputPath();
                         if (!TextUtils.isEmpty(path)) {
@@ -0,0 +1,72 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: DeviceFilterBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.serenegiant.usb.DeviceFilter;
+
+/**
+ * Matching a device against the filters of device_filter.xml.
+ * UsbDevice can not be created on JVM, so the device is represented by DeviceFilter
+ * that has same values as DeviceFilter(UsbDevice) creates, and DeviceFilter#matches(DeviceFilter) is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceFilterBenchmark {
+	private final DeviceFilter[] mFilters = {
+		new DeviceFilter(0x046d, 0x0825, -1, -1, -1, null, null, null),
+		new DeviceFilter(0x046d, 0x082d, -1, -1, -1, null, null, null),
+		new DeviceFilter(0x045e, -1, -1, -1, -1, null, null, null),
+		new DeviceFilter(-1, -1, 239, 2, -1, null, null, null),	// all device of UVC
+	};
+	private final DeviceFilter mUvcDevice = new DeviceFilter(0x1908, 0x2311, 239, 2, 1, null, null, null);
+	private final DeviceFilter mOtherDevice = new DeviceFilter(0x0781, 0x5567, 0, 0, 0, null, null, null);
+
+	@Benchmark
+	public boolean matchUvcDevice() {
+		return matches(mUvcDevice);
+	}
+
+	@Benchmark
+	public boolean matchOtherDevice() {
+		return matches(mOtherDevice);
+	}
+
+	private boolean matches(final DeviceFilter device) {
+		for (final DeviceFilter filter: mFilters) {
+			if (filter.matches(device))
+				return true;
+		}
+		return false;
+	}
+}
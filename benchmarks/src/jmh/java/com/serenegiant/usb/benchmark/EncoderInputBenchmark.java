@@ -0,0 +1,104 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: EncoderInputBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Buffer copying of MediaEncoder#encode, that copies a NV21 frame into codec input buffers.
+ * #copyThenEncode is the current path of frames from IFrameCallback,
+ * that copies the direct buffer into byte array and then encode it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncoderInputBenchmark {
+	@Param({"640x480", "1280x720", "1920x1080"})
+	public String size;
+
+	private FakeCodec mCodec;
+	private ByteBuffer mDirectFrame;
+	private byte[] mArrayFrame;
+
+	@Setup
+	public void setup() {
+		final String[] sz = size.split("x");
+		final int frameBytes = Integer.parseInt(sz[0]) * Integer.parseInt(sz[1]) * 3 / 2;
+		// most of codec has input buffers that are enough large for a frame
+		mCodec = new FakeCodec(4, frameBytes);
+		mDirectFrame = ByteBuffer.allocateDirect(frameBytes);
+		mArrayFrame = new byte[frameBytes];
+		for (int i = 0; i < frameBytes; i++) {
+			mArrayFrame[i] = (byte)i;
+		}
+		mDirectFrame.put(mArrayFrame).flip();
+	}
+
+	@Benchmark
+	public long encodeArray() {
+		encode(mCodec, mArrayFrame, mArrayFrame.length, 0);
+		return mCodec.getQueuedBytes();
+	}
+
+	@Benchmark
+	public long copyThenEncode() {
+		final ByteBuffer frame = mDirectFrame.duplicate();
+		final byte[] buf = new byte[frame.remaining()];
+		frame.get(buf);
+		encode(mCodec, buf, buf.length, 0);
+		return mCodec.getQueuedBytes();
+	}
+
+	/**
+	 * same logic as MediaEncoder#encode(byte[], int, long)
+	 */
+	private static void encode(final FakeCodec codec, final byte[] buffer, final int length, final long presentationTimeUs) {
+		int ix = 0, sz;
+		final ByteBuffer[] inputBuffers = codec.getInputBuffers();
+		while (ix < length) {
+			final int inputBufferIndex = codec.dequeueInputBuffer(10000);
+			if (inputBufferIndex >= 0) {
+				final ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
+				inputBuffer.clear();
+				sz = inputBuffer.remaining();
+				sz = (ix + sz < length) ? sz : length - ix;
+				if (sz > 0 && (buffer != null)) {
+					inputBuffer.put(buffer, ix, sz);
+				}
+				ix += sz;
+				codec.queueInputBuffer(inputBufferIndex, 0, sz, presentationTimeUs, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeCodec.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stand-in of the input side of MediaCodec for benchmarking on JVM.
+ * This has fixed number of direct input buffers that are dequeued round-robin
+ * and #queueInputBuffer just accumulates queued bytes.
+ */
+public final class FakeCodec {
+	public static final int BUFFER_FLAG_END_OF_STREAM = 4;
+
+	private final ByteBuffer[] mInputBuffers;
+	private int mNext;
+	private long mQueuedBytes;
+
+	/**
+	 * @param numBuffers number of input buffers
+	 * @param capacity capacity of each input buffer
+	 */
+	public FakeCodec(final int numBuffers, final int capacity) {
+		mInputBuffers = new ByteBuffer[numBuffers];
+		for (int i = 0; i < numBuffers; i++) {
+			mInputBuffers[i] = ByteBuffer.allocateDirect(capacity);
+		}
+	}
+
+	public ByteBuffer[] getInputBuffers() {
+		return mInputBuffers;
+	}
+
+	public int dequeueInputBuffer(final long timeoutUs) {
+		final int result = mNext;
+		mNext = (mNext + 1) % mInputBuffers.length;
+		return result;
+	}
+
+	public void queueInputBuffer(final int index, final int offset, final int size, final long presentationTimeUs, final int flags) {
+		mQueuedBytes += size;
+	}
+
+	public long getQueuedBytes() {
+		return mQueuedBytes;
+	}
+}
@@ -0,0 +1,173 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameHandOffBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.serenegiant.usb.FrameRingBuffer;
+
+/**
+ * Hand-off of frames from a producer thread to the benchmark thread.
+ * "monitor" is same pattern as MediaEncoder#frameAvailableSoon/#run (synchronized + wait/notifyAll),
+ * others are FrameRingBuffer with each wait strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameHandOffBenchmark {
+	private static final int BATCH = 1000;
+	private static final long TIMEOUT_NS = 100000000L;	// 100[msec]
+
+	@Param({"monitor", "spin", "yield", "park"})
+	public String transport;
+
+	private final Object mFrame = new Object();
+	private HandOff mHandOff;
+	private Thread mProducer;
+	private volatile boolean mIsRunning;
+
+	private interface HandOff {
+		public boolean put(Object frame);
+		public Object take();
+	}
+
+	/**
+	 * bounded queue with synchronized + wait/notifyAll
+	 */
+	private static final class MonitorHandOff implements HandOff {
+		private final Object mSync = new Object();
+		private final Object[] mQueue = new Object[64];
+		private int mHead, mCount;
+
+		@Override
+		public boolean put(final Object frame) {
+			synchronized (mSync) {
+				while (mCount == mQueue.length) {
+					try {
+						mSync.wait(TIMEOUT_NS / 1000000L);
+					} catch (final InterruptedException e) {
+						return false;
+					}
+				}
+				mQueue[(mHead + mCount) % mQueue.length] = frame;
+				mCount++;
+				mSync.notifyAll();
+				return true;
+			}
+		}
+
+		@Override
+		public Object take() {
+			synchronized (mSync) {
+				while (mCount == 0) {
+					try {
+						mSync.wait(TIMEOUT_NS / 1000000L);
+					} catch (final InterruptedException e) {
+						return null;
+					}
+				}
+				final Object result = mQueue[mHead];
+				mQueue[mHead] = null;
+				mHead = (mHead + 1) % mQueue.length;
+				mCount--;
+				mSync.notifyAll();
+				return result;
+			}
+		}
+	}
+
+	private static final class RingHandOff implements HandOff {
+		private final FrameRingBuffer<Object> mBuffer;
+
+		private RingHandOff(final int waitStrategy) {
+			mBuffer = new FrameRingBuffer<Object>(64, false, waitStrategy);
+		}
+
+		@Override
+		public boolean put(final Object frame) {
+			return mBuffer.put(frame, TIMEOUT_NS);
+		}
+
+		@Override
+		public Object take() {
+			return mBuffer.take(TIMEOUT_NS);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		if ("monitor".equals(transport)) {
+			mHandOff = new MonitorHandOff();
+		} else if ("spin".equals(transport)) {
+			mHandOff = new RingHandOff(FrameRingBuffer.WAIT_BUSY_SPIN);
+		} else if ("yield".equals(transport)) {
+			mHandOff = new RingHandOff(FrameRingBuffer.WAIT_YIELD);
+		} else {
+			mHandOff = new RingHandOff(FrameRingBuffer.WAIT_PARK);
+		}
+		mIsRunning = true;
+		mProducer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (mIsRunning) {
+					mHandOff.put(mFrame);
+				}
+			}
+		}, "producer");
+		mProducer.start();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws InterruptedException {
+		mIsRunning = false;
+		mProducer.interrupt();
+		// drain so that producer can exit
+		while (mProducer.isAlive()) {
+			mHandOff.take();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int handOff() {
+		int result = 0;
+		for (int i = 0; i < BATCH; i++) {
+			if (mHandOff.take() != null)
+				result++;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,209 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: StillEncodeBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.serenegiant.usb.FramePool;
+import com.serenegiant.usb.FrameStillEncoder;
+import com.serenegiant.usb.PixelConverter;
+import com.serenegiant.usb.StillImageFormat;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * Encode latency and output size of still image formats with FrameStillEncoder.
+ * mjpeg writes MJPEG frame from the camera as is, yuyv/nv21 are raw dumps.
+ * jpeg/png compress a YUYV frame with javax.imageio as a reference of compressing on CPU,
+ * on the device FrameImageCompressor uses libjpeg/libpng of Android framework instead
+ * and WebP is not available on JVM.
+ * The output size of each format is reported as secondary results encode:outputBytes
+ * and encode:passthrough(1 if the frame was written as is) with OutputSize.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StillEncodeBenchmark {
+	@Param({"640x480", "1920x1080"})
+	public String size;
+
+	@Param({"mjpeg", "yuyv", "nv21", "jpeg", "png"})
+	public String format;
+
+	private FramePool.Frame mFrame;
+	private FrameStillEncoder mEncoder;
+	private ByteArrayOutputStream mOut;
+
+	/**
+	 * output size of the last encode in each iteration, reported by JMH as secondary results.
+	 * values are assigned instead of accumulated so that they are not scaled by the number of operations
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class OutputSize {
+		public long outputBytes;
+		public long passthrough;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			outputBytes = 0;
+			passthrough = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		final String[] sz = size.split("x");
+		final int width = Integer.parseInt(sz[0]);
+		final int height = Integer.parseInt(sz[1]);
+		final ByteBuffer yuyv = createYuyv(width, height);
+		final ByteBuffer data;
+		final int stillFormat;
+		if ("mjpeg".equals(format)) {
+			// MJPEG frame from the camera is emulated by compressing the same image
+			final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+			new ImageIOCompressor().compress(yuyv, width, height,
+				StillImageFormat.FORMAT_YUYV, StillImageFormat.FORMAT_JPEG, StillImageFormat.DEFAULT_QUALITY, jpeg);
+			data = ByteBuffer.allocateDirect(jpeg.size());
+			data.put(jpeg.toByteArray()).flip();
+			stillFormat = StillImageFormat.FORMAT_JPEG;
+		} else {
+			data = yuyv;
+			stillFormat = "yuyv".equals(format) ? StillImageFormat.FORMAT_YUYV
+				: "nv21".equals(format) ? StillImageFormat.FORMAT_NV21
+				: "jpeg".equals(format) ? StillImageFormat.FORMAT_JPEG : StillImageFormat.FORMAT_PNG;
+		}
+		final FramePool pool = new FramePool(width, height, UVCCamera.PIXEL_FORMAT_RAW, 1);
+		mFrame = pool.obtain(data);
+		mEncoder = new FrameStillEncoder(stillFormat, StillImageFormat.DEFAULT_QUALITY, new ImageIOCompressor());
+		mOut = new ByteArrayOutputStream(width * height * 4);
+	}
+
+	@Benchmark
+	public int encode(final OutputSize counters) throws IOException {
+		mOut.reset();
+		mEncoder.encode(mFrame, mOut);
+		final int bytes = mOut.size();
+		counters.outputBytes = bytes;
+		counters.passthrough = mEncoder.isPassthrough(mFrame) ? 1 : 0;
+		return bytes;
+	}
+
+	/**
+	 * YUYV frame of smooth gradients with a little noise like a real scene
+	 */
+	private static ByteBuffer createYuyv(final int width, final int height) {
+		final ByteBuffer result = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.nativeOrder());
+		final Random random = new Random(0);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x += 2) {
+				final int ix = (y * width + x) * 2;
+				final int luma = (x * 255 / width + y * 255 / height) / 2;
+				result.put(ix, (byte)(luma + random.nextInt(8)));
+				result.put(ix + 1, (byte)(128 + (x - width / 2) * 64 / width));
+				result.put(ix + 2, (byte)(luma + random.nextInt(8)));
+				result.put(ix + 3, (byte)(128 + (y - height / 2) * 64 / height));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * FrameStillEncoder.Compressor with javax.imageio, only JPEG and PNG from YUYV/NV21
+	 */
+	private static final class ImageIOCompressor implements FrameStillEncoder.Compressor {
+		private ByteBuffer mNV21, mRGBX;
+		private BufferedImage mImage;
+		private int[] mPixels;
+
+		@Override
+		public void compress(final ByteBuffer data, final int width, final int height,
+			final int dataFormat, final int format, final int quality, final OutputStream out) throws IOException {
+
+			if ((dataFormat == StillImageFormat.FORMAT_JPEG)
+				|| ((format != StillImageFormat.FORMAT_JPEG) && (format != StillImageFormat.FORMAT_PNG))) {
+				throw new IOException("not supported on JVM");
+			}
+			if ((mImage == null) || (mImage.getWidth() != width) || (mImage.getHeight() != height)) {
+				mNV21 = ByteBuffer.allocateDirect(width * height * 3 / 2).order(ByteOrder.nativeOrder());
+				mRGBX = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.BIG_ENDIAN);
+				mImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				mPixels = new int[width * height];
+			}
+			final ByteBuffer nv21;
+			if (dataFormat == StillImageFormat.FORMAT_YUYV) {
+				PixelConverter.yuyv2nv21(data, mNV21, width, height);
+				nv21 = mNV21;
+			} else {
+				nv21 = data;
+			}
+			PixelConverter.nv212rgbx(nv21, mRGBX, width, height);
+			// RGBX in big endian int is 0xRRGGBBXX
+			for (int i = 0; i < mPixels.length; i++) {
+				mPixels[i] = mRGBX.getInt(i * 4) >>> 8;
+			}
+			mImage.setRGB(0, 0, width, height, mPixels, 0, width);
+			if (format == StillImageFormat.FORMAT_PNG) {
+				ImageIO.write(mImage, "png", out);
+			} else {
+				final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+				final ImageWriteParam param = writer.getDefaultWriteParam();
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(quality / 100.0f);
+				final ImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+				try {
+					writer.setOutput(ios);
+					writer.write(null, new IIOImage(mImage, null, null), param);
+				} finally {
+					ios.close();
+					writer.dispose();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SupportedSizeParseBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.serenegiant.usb.FrameDescriptor;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.SupportedFormats;
+
+/**
+ * Parsing the supported size string that native library returns.
+ * UVCCamera can not be loaded on JVM because it loads native libraries,
+ * so this benchmark has the org.json based logic that UVCCamera#getSupportedSize(int, String) used
+ * and compares it with SupportedFormats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SupportedSizeParseBenchmark {
+	/**
+	 * output of nativeGetSupportedSize with a typical 720p web camera
+	 */
+	public static final String SUPPORTED_SIZE = "{\"formats\":["
+		+ "{\"index\":1,\"type\":6,\"default\":1,\"size\":["
+		+ "\"1280x720\",\"160x120\",\"176x144\",\"320x176\",\"320x240\",\"352x288\",\"432x240\","
+		+ "\"544x288\",\"640x360\",\"640x480\",\"752x416\",\"800x448\",\"800x600\",\"864x480\",\"960x544\",\"960x720\",\"1024x576\"]},"
+		+ "{\"index\":2,\"type\":4,\"default\":1,\"size\":["
+		+ "\"640x480\",\"160x120\",\"176x144\",\"320x176\",\"320x240\",\"352x288\",\"432x240\","
+		+ "\"544x288\",\"640x360\",\"752x416\",\"800x448\",\"800x600\",\"864x480\",\"960x544\",\"960x720\",\"1024x576\",\"1280x720\"]}"
+		+ "]}";
+
+	@Benchmark
+	public List<Size> parseMJPEG() {
+		return getSupportedSize(6, SUPPORTED_SIZE);
+	}
+
+	@Benchmark
+	public List<Size> parseAll() {
+		return getSupportedSize(-1, SUPPORTED_SIZE);
+	}
+
+	@Benchmark
+	public SupportedFormats parseTyped() {
+		return SupportedFormats.parse(SUPPORTED_SIZE);
+	}
+
+	/**
+	 * lookup on the cached formats
+	 */
+	@Benchmark
+	public FrameDescriptor findFrameCached() {
+		return SupportedFormats.getCached("bench", SUPPORTED_SIZE).findFrame(-1, 640, 480, 30);
+	}
+
+	/**
+	 * org.json based logic that UVCCamera#getSupportedSize(int, String) used before SupportedFormats
+	 */
+	private static List<Size> getSupportedSize(final int type, final String supportedSize) {
+		final List<Size> result = new ArrayList<Size>();
+		if ((supportedSize != null) && (supportedSize.length() > 0))
+		try {
+			final JSONObject json = new JSONObject(supportedSize);
+			final JSONArray formats = json.getJSONArray("formats");
+			final int format_nums = formats.length();
+			for (int i = 0; i < format_nums; i++) {
+				final JSONObject format = formats.getJSONObject(i);
+				final int format_type = format.getInt("type");
+				if ((format_type == type) || (type == -1)) {
+					addSize(format, format_type, result);
+				}
+			}
+		} catch (final JSONException e) {
+		}
+		return result;
+	}
+
+	private static void addSize(final JSONObject format, final int type, final List<Size> size_list) throws JSONException {
+		final JSONArray size = format.getJSONArray("size");
+		final int size_nums = size.length();
+		for (int j = 0; j < size_nums; j++) {
+			final String[] sz = size.getString(j).split("x");
+			try {
+				size_list.add(new Size(type, j, Integer.parseInt(sz[0]), Integer.parseInt(sz[1])));
+			} catch (final Exception e) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.serenegiant.usb.benchmark;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: YuvConversionBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.serenegiant.usb.PixelConverter;
+import com.serenegiant.usb.StripeExecutor;
+
+/**
+ * Conversion of YUYV frames that come from IFrameCallback with PIXEL_FORMAT_RAW/PIXEL_FORMAT_YUV.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvConversionBenchmark {
+	@Param({"640x480", "1280x720", "1920x1080"})
+	public String size;
+
+	protected int mWidth, mHeight;
+	protected ByteBuffer mYuyv;
+	protected ByteBuffer mNV21;
+	protected ByteBuffer mRGBX;
+	protected ByteBuffer mRGB565;
+	protected StripeExecutor mExecutor;
+	protected PixelConverter mConverter;
+
+	@Setup
+	public void setup() {
+		final String[] sz = size.split("x");
+		mWidth = Integer.parseInt(sz[0]);
+		mHeight = Integer.parseInt(sz[1]);
+		mYuyv = ByteBuffer.allocateDirect(mWidth * mHeight * 2).order(ByteOrder.nativeOrder());
+		for (int i = 0; i < mYuyv.capacity(); i++) {
+			mYuyv.put(i, (byte)(i * 7));
+		}
+		mNV21 = ByteBuffer.allocateDirect(mWidth * mHeight * 3 / 2).order(ByteOrder.nativeOrder());
+		mRGBX = ByteBuffer.allocateDirect(mWidth * mHeight * 4).order(ByteOrder.nativeOrder());
+		mRGB565 = ByteBuffer.allocateDirect(mWidth * mHeight * 2).order(ByteOrder.nativeOrder());
+		PixelConverter.yuyv2nv21(mYuyv, mNV21, mWidth, mHeight);
+		mExecutor = new StripeExecutor(Runtime.getRuntime().availableProcessors());
+		mConverter = new PixelConverter(mExecutor);
+	}
+
+	@TearDown
+	public void tearDown() {
+		mExecutor.release();
+	}
+
+	/**
+	 * per pixel conversion of YUYV to NV21 with absolute get/put
+	 */
+	@Benchmark
+	public ByteBuffer yuyv2nv21PerPixel() {
+		final int width = mWidth, height = mHeight;
+		final ByteBuffer src = mYuyv, dst = mNV21;
+		final int uvOffset = width * height;
+		for (int y = 0; y < height; y++) {
+			final int srcRow = y * width * 2;
+			for (int x = 0; x < width; x++) {
+				dst.put(y * width + x, src.get(srcRow + x * 2));
+			}
+			if ((y & 1) == 0) {
+				final int uvRow = uvOffset + (y >> 1) * width;
+				for (int x = 0; x < width; x += 2) {
+					final int ix = srcRow + x * 2;
+					dst.put(uvRow + x, src.get(ix + 3));		// V
+					dst.put(uvRow + x + 1, src.get(ix + 1));	// U
+				}
+			}
+		}
+		return dst;
+	}
+
+	@Benchmark
+	public ByteBuffer yuyv2nv21() {
+		PixelConverter.yuyv2nv21(mYuyv, mNV21, mWidth, mHeight);
+		return mNV21;
+	}
+
+	@Benchmark
+	public ByteBuffer yuyv2nv21Parallel() {
+		mConverter.yuyv2nv21Parallel(mYuyv, mNV21, mWidth, mHeight);
+		return mNV21;
+	}
+
+	@Benchmark
+	public ByteBuffer yuyv2i420() {
+		PixelConverter.yuyv2i420(mYuyv, mNV21, mWidth, mHeight);
+		return mNV21;
+	}
+
+	@Benchmark
+	public ByteBuffer nv212rgbx() {
+		PixelConverter.nv212rgbx(mNV21, mRGBX, mWidth, mHeight);
+		return mRGBX;
+	}
+
+	@Benchmark
+	public ByteBuffer nv212rgbxParallel() {
+		mConverter.nv212rgbxParallel(mNV21, mRGBX, mWidth, mHeight);
+		return mRGBX;
+	}
+
+	@Benchmark
+	public ByteBuffer nv212rgb565() {
+		PixelConverter.nv212rgb565(mNV21, mRGB565, mWidth, mHeight);
+		return mRGB565;
+	}
+}
@@ -0,0 +1,384 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BurstCapture.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Take a burst of still images with StillCapturePipeline,
+ * N images at a target interval (#startCount) or every frame for a duration (#startDuration).
+ * In every frame mode the next shot is requested right after the previous shot was grabbed,
+ * so Grabber that serves one request per frame (e.g. UVCCameraTextureView) captures consecutive frames.
+ * Use PixelBufferPool in Grabber to avoid allocation while taking a burst,
+ * frames are skipped (and counted as pool exhaustion) while the encoder can not keep up.
+ * This class does not depend on Android framework.
+ */
+public class BurstCapture {
+	/**
+	 * delay before requesting again after a frame could not be grabbed (e.g. pool exhaustion)
+	 */
+	private static final long RETRY_DELAY_MS = 5;
+
+	public interface OutputFactory {
+		/**
+		 * @param index index of the shot in the burst, starting from 0
+		 * @return output file of the shot
+		 */
+		public File getOutputFile(int index);
+	}
+
+	public interface Listener {
+		/**
+		 * called when each shot completed, on the thread of StillCapturePipeline.Callback
+		 * @param shot
+		 */
+		public void onShot(StillCapturePipeline.Shot shot);
+		/**
+		 * called once when all shots of the burst completed
+		 * @param result
+		 */
+		public void onFinished(Result result);
+	}
+
+	/**
+	 * statistics of a burst
+	 */
+	public static final class Result {
+		/**
+		 * number of shots that were requested to StillCapturePipeline
+		 */
+		public final int requested;
+		/**
+		 * number of shots whose pixels were grabbed
+		 */
+		public final int grabbed;
+		/**
+		 * number of shots that were written to files
+		 */
+		public final int written;
+		/**
+		 * number of shots that failed after they were accepted, including failure of grabbing
+		 */
+		public final int failed;
+		/**
+		 * number of shots that were rejected because too many shots were in flight
+		 */
+		public final int rejected;
+		/**
+		 * number of pool exhaustion events of PixelBufferPool while this burst was running
+		 */
+		public final long poolExhausted;
+		/**
+		 * milliseconds from the first grab to the last grab
+		 */
+		public final float grabMs;
+		/**
+		 * milliseconds from the start of the burst until the last shot completed
+		 */
+		public final float totalMs;
+
+		private Result(final int requested, final int grabbed, final int written,
+			final int failed, final int rejected, final long poolExhausted,
+			final float grabMs, final float totalMs) {
+
+			this.requested = requested;
+			this.grabbed = grabbed;
+			this.written = written;
+			this.failed = failed;
+			this.rejected = rejected;
+			this.poolExhausted = poolExhausted;
+			this.grabMs = grabMs;
+			this.totalMs = totalMs;
+		}
+
+		/**
+		 * @return frame rate of grabbed images during the burst
+		 */
+		public float getCaptureFps() {
+			return (grabbed > 1) && (grabMs > 0) ? (grabbed - 1) * 1000.0f / grabMs : 0;
+		}
+
+		/**
+		 * @return number of written images per second including encoding and writing
+		 */
+		public float getThroughputFps() {
+			return totalMs > 0 ? written * 1000.0f / totalMs : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US,
+				"requested=%d,grabbed=%d,written=%d,failed=%d,rejected=%d,poolExhausted=%d,captureFps=%.2f,throughputFps=%.2f,total=%.2fms",
+				requested, grabbed, written, failed, rejected, poolExhausted,
+				getCaptureFps(), getThroughputFps(), totalMs);
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final StillCapturePipeline<?> mPipeline;
+	private final PixelBufferPool<?> mPool;
+	private ScheduledExecutorService mExecutor;
+	private ScheduledFuture<?> mTickFuture;
+	private OutputFactory mOutputFactory;
+	private Listener mListener;
+	private boolean mIsRunning, mIsRequesting;
+	/**
+	 * true if the next shot is requested after grabbing the previous shot
+	 */
+	private boolean mEveryFrame;
+	private boolean mGrabPending;
+	private int mCount;
+	private long mDeadlineNs;
+	private int mRequested, mGrabbed, mWritten, mFailed, mRejected, mPending;
+	private long mExhaustedBase;
+	private long mStartNs, mFirstGrabNs, mLastGrabNs;
+
+	/**
+	 * Constructor
+	 * @param pipeline
+	 * @param pool PixelBufferPool that Grabber of the pipeline uses, only for statistics, can be null
+	 */
+	public BurstCapture(final StillCapturePipeline<?> pipeline, final PixelBufferPool<?> pool) {
+		if (pipeline == null) throw new NullPointerException("pipeline is null");
+		mPipeline = pipeline;
+		mPool = pool;
+	}
+
+	/**
+	 * take count images at the interval,
+	 * shots that could not be grabbed because of pool exhaustion are included in count
+	 * @param count
+	 * @param intervalMs interval of shots, 0 or negative means every frame
+	 * @param factory
+	 * @param listener
+	 * @return false if the burst is already running
+	 */
+	public boolean startCount(final int count, final long intervalMs,
+		final OutputFactory factory, final Listener listener) {
+
+		if (count <= 0)
+			throw new IllegalArgumentException("count should be positive");
+		return start(count, intervalMs, 0, factory, listener);
+	}
+
+	/**
+	 * take images of every frame for the duration
+	 * @param durationMs
+	 * @param factory
+	 * @param listener
+	 * @return false if the burst is already running
+	 */
+	public boolean startDuration(final long durationMs,
+		final OutputFactory factory, final Listener listener) {
+
+		if (durationMs <= 0)
+			throw new IllegalArgumentException("duration should be positive");
+		return start(Integer.MAX_VALUE, 0, durationMs, factory, listener);
+	}
+
+	private boolean start(final int count, final long intervalMs, final long durationMs,
+		final OutputFactory factory, final Listener listener) {
+
+		if (factory == null) throw new NullPointerException("factory is null");
+		synchronized (mSync) {
+			if (mIsRunning) return false;
+			mIsRunning = mIsRequesting = true;
+			mOutputFactory = factory;
+			mListener = listener;
+			mCount = count;
+			mEveryFrame = intervalMs <= 0;
+			mGrabPending = false;
+			mRequested = mGrabbed = mWritten = mFailed = mRejected = mPending = 0;
+			mExhaustedBase = mPool != null ? mPool.getExhaustedCount() : 0;
+			mStartNs = System.nanoTime();
+			mFirstGrabNs = mLastGrabNs = 0;
+			mDeadlineNs = durationMs > 0 ? mStartNs + durationMs * 1000000L : 0;
+			mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					return new Thread(r, "BurstCapture");
+				}
+			});
+			if (durationMs > 0) {
+				mExecutor.schedule(mStopTask, durationMs, TimeUnit.MILLISECONDS);
+			}
+			if (!mEveryFrame) {
+				mTickFuture = mExecutor.scheduleAtFixedRate(mRequestTask, 0, intervalMs, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (mEveryFrame) {
+			requestNext();
+		}
+		return true;
+	}
+
+	/**
+	 * stop requesting new shots, Listener#onFinished is called after shots in flight completed
+	 */
+	public void stop() {
+		synchronized (mSync) {
+			stopRequesting();
+		}
+		checkFinished();
+	}
+
+	public boolean isRunning() {
+		synchronized (mSync) {
+			return mIsRunning;
+		}
+	}
+
+	private final Runnable mRequestTask = new Runnable() {
+		@Override
+		public void run() {
+			requestNext();
+		}
+	};
+
+	private final Runnable mStopTask = new Runnable() {
+		@Override
+		public void run() {
+			stop();
+		}
+	};
+
+	/**
+	 * should be called with mSync locked
+	 */
+	private void stopRequesting() {
+		mIsRequesting = false;
+		if (mTickFuture != null) {
+			mTickFuture.cancel(false);
+			mTickFuture = null;
+		}
+	}
+
+	private void requestNext() {
+		final int index;
+		final File file;
+		synchronized (mSync) {
+			if (!mIsRequesting) return;
+			if ((mRequested >= mCount)
+				|| ((mDeadlineNs != 0) && (System.nanoTime() - mDeadlineNs >= 0))) {
+
+				stopRequesting();
+				index = -1;
+			} else {
+				index = mRequested++;
+				mPending++;
+				mGrabPending = true;
+				if (mRequested >= mCount) {
+					stopRequesting();
+				}
+			}
+			file = index >= 0 ? mOutputFactory.getOutputFile(index) : null;
+		}
+		if (index >= 0) {
+			mPipeline.capture(file, mCallback, mGrabListener);
+		} else {
+			checkFinished();
+		}
+	}
+
+	private final StillCapturePipeline.GrabListener mGrabListener
+		= new StillCapturePipeline.GrabListener() {
+		@Override
+		public void onGrabbed(final StillCapturePipeline.Shot shot) {
+			final boolean next;
+			synchronized (mSync) {
+				final long now = System.nanoTime();
+				if (mFirstGrabNs == 0)
+					mFirstGrabNs = now;
+				mLastGrabNs = now;
+				mGrabbed++;
+				mGrabPending = false;
+				next = mEveryFrame;
+			}
+			if (next) {
+				// the grabber serves this request on the next frame
+				requestNext();
+			}
+		}
+	};
+
+	private final StillCapturePipeline.Callback mCallback = new StillCapturePipeline.Callback() {
+		@Override
+		public void onComplete(final StillCapturePipeline.Shot shot) {
+			final Exception error = shot.getError();
+			final Listener listener;
+			synchronized (mSync) {
+				mPending--;
+				if ((error == null) && !shot.isCancelled()) {
+					mWritten++;
+				} else if (error instanceof RejectedExecutionException) {
+					mRejected++;
+				} else {
+					mFailed++;
+				}
+				if (mEveryFrame && mGrabPending && (shot.getGrabMs() == 0)) {
+					// this shot failed before grabbing (e.g. pool exhaustion or too many shots in flight),
+					// request again a little later. requesting here directly would call this recursively
+					// when StillCapturePipeline#capture rejects the shot synchronously.
+					mGrabPending = false;
+					if (mIsRequesting) {
+						mExecutor.schedule(mRequestTask, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+					}
+				}
+				listener = mListener;
+			}
+			if (listener != null) {
+				listener.onShot(shot);
+			}
+			checkFinished();
+		}
+	};
+
+	private void checkFinished() {
+		final Result result;
+		final Listener listener;
+		synchronized (mSync) {
+			if (!mIsRunning || mIsRequesting || (mPending > 0)) return;
+			mIsRunning = false;
+			mExecutor.shutdown();
+			mExecutor = null;
+			result = new Result(mRequested, mGrabbed, mWritten, mFailed, mRejected,
+				mPool != null ? mPool.getExhaustedCount() - mExhaustedBase : 0,
+				mLastGrabNs != mFirstGrabNs ? (mLastGrabNs - mFirstGrabNs) / 1000000.0f : 0,
+				(System.nanoTime() - mStartNs) / 1000000.0f);
+			listener = mListener;
+			mListener = null;
+			mOutputFactory = null;
+		}
+		if (listener != null) {
+			listener.onFinished(result);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CapabilityCache.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of camera capabilities(supported formats, supported control flags
+ * and min/max/default values of controls) to skip the control transfers
+ * that UVCCamera#updateCameraParams issues on every open.
+ * Each camera is stored in its own small binary file in the directory,
+ * the key contains vendor id, product id, serial and the hash of raw descriptors
+ * so the entry is not used after firmware update.
+ * Entries are loaded lazily from the file when they are requested first time.
+ * This class does not depend on Android framework.
+ */
+public class CapabilityCache {
+	private static final int MAGIC = 0x55564343;	// 'UVCC'
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".cap";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// index of control limits, same order as UVCCamera#updateCameraParams
+	public static final int CONTROL_BRIGHTNESS = 0;
+	public static final int CONTROL_CONTRAST = 1;
+	public static final int CONTROL_SHARPNESS = 2;
+	public static final int CONTROL_GAIN = 3;
+	public static final int CONTROL_GAMMA = 4;
+	public static final int CONTROL_SATURATION = 5;
+	public static final int CONTROL_HUE = 6;
+	public static final int CONTROL_ZOOM = 7;
+	public static final int CONTROL_WHITE_BLANCE = 8;
+	public static final int CONTROL_FOCUS = 9;
+	public static final int CONTROL_NUM = 10;
+
+	/**
+	 * capabilities of one camera
+	 */
+	public static class Capabilities {
+		public final String supportedSize;
+		public final long controlSupports;
+		public final long procSupports;
+		/** min, max and default of each control, CONTROL_NUM x 3 */
+		private final int[] mLimits;
+
+		/**
+		 * @param supportedSize UVCCamera#getSupportedSize
+		 * @param controlSupports
+		 * @param procSupports
+		 * @param limits min, max and default of each control, CONTROL_NUM x 3
+		 */
+		public Capabilities(final String supportedSize, final long controlSupports,
+			final long procSupports, final int[] limits) {
+
+			if (limits.length != CONTROL_NUM * 3)
+				throw new IllegalArgumentException("limits should have " + (CONTROL_NUM * 3) + " values");
+			this.supportedSize = supportedSize != null ? supportedSize : "";
+			this.controlSupports = controlSupports;
+			this.procSupports = procSupports;
+			mLimits = limits.clone();
+		}
+
+		/**
+		 * @return copy of min, max and default of each control, CONTROL_NUM x 3
+		 */
+		public int[] getLimits() {
+			return mLimits.clone();
+		}
+
+		public int getMin(final int control) {
+			return mLimits[control * 3];
+		}
+
+		public int getMax(final int control) {
+			return mLimits[control * 3 + 1];
+		}
+
+		public int getDef(final int control) {
+			return mLimits[control * 3 + 2];
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Capabilities)) return false;
+			final Capabilities other = (Capabilities)o;
+			return (controlSupports == other.controlSupports) && (procSupports == other.procSupports)
+				&& supportedSize.equals(other.supportedSize) && Arrays.equals(mLimits, other.mLimits);
+		}
+
+		@Override
+		public int hashCode() {
+			return (supportedSize.hashCode() * 31 + (int)(controlSupports ^ procSupports)) * 31 + Arrays.hashCode(mLimits);
+		}
+	}
+
+	private final File mDir;
+	/** entries that were loaded or stored, null value means the file does not exist or is broken */
+	private final Map<String, Capabilities> mEntries = new HashMap<String, Capabilities>();
+	/** keys of the entries that were confirmed with the camera by #put */
+	private final Set<String> mValidatedKeys = new HashSet<String>();
+	private int mHitCount, mMissCount;
+
+	/**
+	 * @param dir directory to store the entries, e.g. new File(context.getCacheDir(), "uvc")
+	 */
+	public CapabilityCache(final File dir) {
+		if (dir == null) throw new NullPointerException("dir is null");
+		mDir = dir;
+	}
+
+	/**
+	 * @param vendorId
+	 * @param productId
+	 * @param serial can be null
+	 * @param rawDescriptors UsbControlBlock#getRawDescriptors, can be null
+	 * @return key of the entry
+	 */
+	public static String getKey(final int vendorId, final int productId,
+		final String serial, final byte[] rawDescriptors) {
+
+		final CRC32 crc = new CRC32();
+		if (rawDescriptors != null)
+			crc.update(rawDescriptors);
+		return String.format(Locale.US, "%04x_%04x_%s_%08x", vendorId, productId,
+			serial != null ? serial.replaceAll("[^0-9A-Za-z]", "") : "", crc.getValue());
+	}
+
+	/**
+	 * @param key #getKey
+	 * @return null if the entry is not cached
+	 */
+	public synchronized Capabilities get(final String key) {
+		Capabilities result;
+		if (mEntries.containsKey(key)) {
+			result = mEntries.get(key);
+		} else {
+			result = load(getFile(key), key);
+			mEntries.put(key, result);
+		}
+		if (result != null) {
+			mHitCount++;
+		} else {
+			mMissCount++;
+		}
+		return result;
+	}
+
+	/**
+	 * store the entry into memory and the file, this method writes the file on the caller thread
+	 * @param key #getKey
+	 * @param capabilities
+	 * @return false if the file could not be written, the entry is still kept in memory
+	 */
+	public synchronized boolean put(final String key, final Capabilities capabilities) {
+		mValidatedKeys.add(key);
+		if (capabilities.equals(mEntries.get(key)))
+			return true;
+		mEntries.put(key, capabilities);
+		return save(getFile(key), key, capabilities);
+	}
+
+	/**
+	 * @param key #getKey
+	 * @return true if the entry was stored or confirmed by #put since this cache was created,
+	 * the camera does not need to be queried again because the key contains the hash of descriptors
+	 */
+	public synchronized boolean isValidated(final String key) {
+		return mValidatedKeys.contains(key);
+	}
+
+	public synchronized void remove(final String key) {
+		mValidatedKeys.remove(key);
+		mEntries.remove(key);
+		getFile(key).delete();
+	}
+
+	/**
+	 * remove all entries in memory and files
+	 */
+	public synchronized void clear() {
+		mEntries.clear();
+		mValidatedKeys.clear();
+		final File[] files = mDir.listFiles();
+		if (files != null) {
+			for (final File file: files) {
+				if (file.getName().endsWith(SUFFIX))
+					file.delete();
+			}
+		}
+	}
+
+	public synchronized int getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int getMissCount() {
+		return mMissCount;
+	}
+
+//================================================================================
+	private File getFile(final String key) {
+		return new File(mDir, key + SUFFIX);
+	}
+
+	private static Capabilities load(final File file, final String key) {
+		if (!file.isFile()) return null;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || !key.equals(in.readUTF()))
+					return null;
+				final long controlSupports = in.readLong();
+				final long procSupports = in.readLong();
+				final int n = in.readInt();
+				if (n != CONTROL_NUM * 3) return null;
+				final int[] limits = new int[n];
+				for (int i = 0; i < n; i++) {
+					limits[i] = in.readInt();
+				}
+				final int len = in.readInt();
+				if ((len < 0) || (len > file.length())) return null;
+				final byte[] supportedSize = new byte[len];
+				in.readFully(supportedSize);
+				return new Capabilities(new String(supportedSize, UTF8), controlSupports, procSupports, limits);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			// broken file, it will be overwritten with the next #put
+			return null;
+		}
+	}
+
+	private boolean save(final File file, final String key, final Capabilities capabilities) {
+		if (!mDir.isDirectory() && !mDir.mkdirs())
+			return false;
+		// write into temporary file and rename it so that the reader never see partially written file
+		final File tmp = new File(mDir, key + SUFFIX + ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeLong(capabilities.controlSupports);
+				out.writeLong(capabilities.procSupports);
+				out.writeInt(capabilities.mLimits.length);
+				for (final int limit: capabilities.mLimits) {
+					out.writeInt(limit);
+				}
+				final byte[] supportedSize = capabilities.supportedSize.getBytes(UTF8);
+				out.writeInt(supportedSize.length);
+				out.write(supportedSize);
+			} finally {
+				out.close();
+			}
+			return tmp.renameTo(file);
+		} catch (final IOException e) {
+			tmp.delete();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FormatDescriptor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Format descriptor of UVC video streaming interface and its frame descriptors.
+ * This class does not depend on Android framework.
+ */
+public class FormatDescriptor {
+	/** bDescriptorSubtype of uncompressed(YUYV) format, same as the type of Size */
+	public static final int TYPE_UNCOMPRESSED = 4;
+	/** bDescriptorSubtype of MJPEG format, same as the type of Size */
+	public static final int TYPE_MJPEG = 6;
+
+	/** TYPE_UNCOMPRESSED or TYPE_MJPEG */
+	public final int type;
+	/** bFormatIndex */
+	public final int index;
+	/** bDefaultFrameIndex */
+	public final int defaultFrameIndex;
+	private final List<FrameDescriptor> mFrames;
+
+	public FormatDescriptor(final int type, final int index, final int defaultFrameIndex,
+		final FrameDescriptor[] frames) {
+
+		this.type = type;
+		this.index = index;
+		this.defaultFrameIndex = defaultFrameIndex;
+		mFrames = Collections.unmodifiableList(Arrays.asList(frames.clone()));
+	}
+
+	/**
+	 * @return preview mode for UVCCamera#setPreviewSize
+	 */
+	public int getPreviewMode() {
+		return type == TYPE_MJPEG ? UVCCamera.FRAME_FORMAT_MJPEG : UVCCamera.FRAME_FORMAT_YUYV;
+	}
+
+	/**
+	 * @return frame descriptors in the order of the descriptors
+	 */
+	public List<FrameDescriptor> getFrames() {
+		return mFrames;
+	}
+
+	/**
+	 * @return frame descriptor of bDefaultFrameIndex, the first frame if not found,
+	 * null if this format has no frame
+	 */
+	public FrameDescriptor getDefaultFrame() {
+		for (final FrameDescriptor frame: mFrames) {
+			if (frame.index == defaultFrameIndex)
+				return frame;
+		}
+		return mFrames.isEmpty() ? null : mFrames.get(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "Format(type:%d,index:%d,default:%d,frames:%d)",
+			type, index, defaultFrameIndex, mFrames.size());
+	}
+}
@@ -0,0 +1,176 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameDescriptor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Frame descriptor of UVC video streaming interface, one size of a format and its frame intervals.
+ * Frame intervals are in 100ns units same as UVC descriptors.
+ * If the native library is old one that does not report frame intervals,
+ * #hasFrameIntervals returns false and frame rates are unknown.
+ * This class does not depend on Android framework.
+ */
+public class FrameDescriptor {
+	private static final float INTERVAL_PER_SEC = 10000000.0f;
+
+	/** FormatDescriptor#TYPE_UNCOMPRESSED or FormatDescriptor#TYPE_MJPEG */
+	public final int type;
+	/** bFrameIndex(1-based), or position in the size list if the native library did not report it */
+	public final int index;
+	public final int width;
+	public final int height;
+	/** default frame interval in 100ns units, 0 if unknown */
+	public final int defaultInterval;
+	private final int[] mIntervals;
+	private final int mMinInterval, mMaxInterval, mIntervalStep;
+
+	/**
+	 * Constructor
+	 * @param type
+	 * @param index
+	 * @param width
+	 * @param height
+	 * @param defaultInterval
+	 * @param intervals discrete frame intervals, null or empty for continuous frame intervals
+	 * @param minInterval minimum frame interval of continuous frame intervals
+	 * @param maxInterval maximum frame interval of continuous frame intervals
+	 * @param intervalStep granularity of continuous frame intervals
+	 */
+	public FrameDescriptor(final int type, final int index, final int width, final int height,
+		final int defaultInterval, final int[] intervals,
+		final int minInterval, final int maxInterval, final int intervalStep) {
+
+		this.type = type;
+		this.index = index;
+		this.width = width;
+		this.height = height;
+		this.defaultInterval = defaultInterval;
+		if ((intervals != null) && (intervals.length > 0)) {
+			mIntervals = intervals.clone();
+			Arrays.sort(mIntervals);
+			mMinInterval = mIntervals[0];
+			mMaxInterval = mIntervals[mIntervals.length - 1];
+			mIntervalStep = 0;
+		} else {
+			mIntervals = new int[0];
+			mMinInterval = minInterval;
+			mMaxInterval = maxInterval;
+			mIntervalStep = intervalStep;
+		}
+	}
+
+	/**
+	 * @return true if frame intervals are known
+	 */
+	public boolean hasFrameIntervals() {
+		return mMinInterval > 0;
+	}
+
+	/**
+	 * @return true if the camera supports continuous frame intervals
+	 */
+	public boolean isContinuous() {
+		return (mIntervals.length == 0) && (mMinInterval > 0);
+	}
+
+	/**
+	 * @return discrete frame intervals in ascending order(descending order of frame rate),
+	 * empty if the frame intervals are continuous or unknown
+	 */
+	public int[] getIntervals() {
+		return mIntervals.clone();
+	}
+
+	public int getMinInterval() {
+		return mMinInterval;
+	}
+
+	public int getMaxInterval() {
+		return mMaxInterval;
+	}
+
+	public int getIntervalStep() {
+		return mIntervalStep;
+	}
+
+	public int getArea() {
+		return width * height;
+	}
+
+	/**
+	 * @return maximum frame rate, 0 if unknown
+	 */
+	public float getMaxFrameRate() {
+		return mMinInterval > 0 ? INTERVAL_PER_SEC / mMinInterval : 0;
+	}
+
+	/**
+	 * @return minimum frame rate, 0 if unknown
+	 */
+	public float getMinFrameRate() {
+		return mMaxInterval > 0 ? INTERVAL_PER_SEC / mMaxInterval : 0;
+	}
+
+	/**
+	 * @return default frame rate, 0 if unknown
+	 */
+	public float getDefaultFrameRate() {
+		return defaultInterval > 0 ? INTERVAL_PER_SEC / defaultInterval : 0;
+	}
+
+	/**
+	 * @return discrete frame rates in descending order, or maximum and minimum frame rate
+	 * if the frame intervals are continuous, empty if unknown
+	 */
+	public float[] getFrameRates() {
+		if (mIntervals.length > 0) {
+			final float[] result = new float[mIntervals.length];
+			for (int i = 0; i < mIntervals.length; i++) {
+				result[i] = INTERVAL_PER_SEC / mIntervals[i];
+			}
+			return result;
+		} else if (mMinInterval > 0) {
+			return new float[] {getMaxFrameRate(), getMinFrameRate()};
+		}
+		return new float[0];
+	}
+
+	/**
+	 * @param frameRate
+	 * @return true if this frame can stream at the frame rate or faster,
+	 * always true if frame intervals are unknown
+	 */
+	public boolean supportsFrameRate(final float frameRate) {
+		// allow rounding error like 333333 for 30fps
+		return (mMinInterval <= 0) || (getMaxFrameRate() + 0.01f >= frameRate);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "Frame(%dx%d,type:%d,index:%d,fps:%s)",
+			width, height, type, index, Arrays.toString(getFrameRates()));
+	}
+}
@@ -0,0 +1,349 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameDispatcher.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import android.util.Log;
+
+/**
+ * Dispatch frames from UVCCamera to multiple consumers asynchronously.
+ * Each consumer has its own thread and bounded queue of pooled frames,
+ * so a slow consumer only drops its own frames according to its policy
+ * and does not stall the native callback thread nor other consumers
+ * (except POLICY_BLOCK, that blocks the callback thread until timeout).
+ */
+public class FrameDispatcher implements IPooledFrameCallback {
+	private static final String TAG = "FrameDispatcher";
+
+	/**
+	 * drop the oldest queued frame when the queue is full
+	 */
+	public static final int POLICY_DROP_OLDEST = 0;
+	/**
+	 * drop the incoming frame when the queue is full
+	 */
+	public static final int POLICY_DROP_NEWEST = 1;
+	/**
+	 * block the callback thread until the queue has space or timeout, the frame is dropped on timeout
+	 */
+	public static final int POLICY_BLOCK = 2;
+	/**
+	 * keep only the latest frame, queue size is always 1
+	 */
+	public static final int POLICY_KEEP_LATEST = 3;
+
+	public interface FrameConsumer {
+		/**
+		 * called on the private thread of the consumer.
+		 * the frame is released after this method returned,
+		 * call FramePool.Frame#retain if you need to keep it.
+		 * @param frame
+		 */
+		public void onFrame(FramePool.Frame frame);
+	}
+
+	private final Object mSync = new Object();
+	private volatile Consumer[] mConsumers = new Consumer[0];
+
+	public FrameDispatcher() {
+	}
+
+	/**
+	 * start dispatching frames from the camera.
+	 * the number of pooled frames should be larger than #getRequiredFrames
+	 * otherwise frames are dropped by FramePool before they are queued.
+	 * @param camera
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 * @param maxFrames
+	 */
+	public void attach(final UVCCamera camera, final int pixelFormat, final int maxFrames) {
+		camera.setFrameCallback(this, pixelFormat, maxFrames);
+	}
+
+	/**
+	 * start dispatching frames from the camera with enough number of pooled frames for current consumers
+	 * @param camera
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 */
+	public void attach(final UVCCamera camera, final int pixelFormat) {
+		attach(camera, pixelFormat, getRequiredFrames());
+	}
+
+	/**
+	 * @return number of frames that can be used at the same time by current consumers
+	 */
+	public int getRequiredFrames() {
+		final Consumer[] consumers = mConsumers;
+		int result = 1;	// for the frame that is being dispatched
+		for (int i = 0; i < consumers.length; i++) {
+			// queued frames and the frame that is being processed
+			result += consumers[i].mQueue.length + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * add consumer and start its thread
+	 * @param name name of consumer thread
+	 * @param consumer
+	 * @param queueSize maximum number of queued frames
+	 * @param policy POLICY_XXX
+	 * @param timeoutMs timeout for POLICY_BLOCK, ignored for other policies
+	 * @return
+	 */
+	public Consumer addConsumer(final String name, final FrameConsumer consumer,
+		final int queueSize, final int policy, final long timeoutMs) {
+
+		if (consumer == null) throw new NullPointerException("FrameConsumer is null");
+		if ((policy < POLICY_DROP_OLDEST) || (policy > POLICY_KEEP_LATEST))
+			throw new IllegalArgumentException("unknown policy:" + policy);
+		if (queueSize <= 0)
+			throw new IllegalArgumentException("queueSize should be positive");
+		final Consumer result = new Consumer(name, consumer,
+			policy == POLICY_KEEP_LATEST ? 1 : queueSize, policy, timeoutMs);
+		synchronized (mSync) {
+			final Consumer[] consumers = new Consumer[mConsumers.length + 1];
+			System.arraycopy(mConsumers, 0, consumers, 0, mConsumers.length);
+			consumers[mConsumers.length] = result;
+			mConsumers = consumers;
+		}
+		new Thread(result, name).start();
+		return result;
+	}
+
+	/**
+	 * remove consumer and stop its thread, queued frames are released
+	 * @param consumer
+	 */
+	public void removeConsumer(final Consumer consumer) {
+		synchronized (mSync) {
+			final int n = mConsumers.length;
+			for (int i = 0; i < n; i++) {
+				if (mConsumers[i] == consumer) {
+					final Consumer[] consumers = new Consumer[n - 1];
+					System.arraycopy(mConsumers, 0, consumers, 0, i);
+					System.arraycopy(mConsumers, i + 1, consumers, i, n - i - 1);
+					mConsumers = consumers;
+					break;
+				}
+			}
+		}
+		consumer.stop();
+	}
+
+	public Consumer[] getConsumers() {
+		return mConsumers.clone();
+	}
+
+	/**
+	 * remove all consumers. you should call UVCCamera#setFrameCallback with null before calling this.
+	 */
+	public void release() {
+		final Consumer[] consumers;
+		synchronized (mSync) {
+			consumers = mConsumers;
+			mConsumers = new Consumer[0];
+		}
+		for (int i = 0; i < consumers.length; i++) {
+			consumers[i].stop();
+		}
+	}
+
+	@Override
+	public void onFrame(final FramePool.Frame frame) {
+		final Consumer[] consumers = mConsumers;
+		final int n = consumers.length;
+		for (int i = 0; i < n; i++) {
+			consumers[i].offer(frame);
+		}
+	}
+
+	/**
+	 * consumer with its own thread and bounded queue
+	 */
+	public static final class Consumer implements Runnable {
+		private final Object mSync = new Object();
+		private final String mName;
+		private final FrameConsumer mConsumer;
+		private final int mPolicy;
+		private final long mTimeoutMs;
+		private final FramePool.Frame[] mQueue;
+		private int mHead, mCount;
+		private boolean mIsRunning = true;
+		private long mDeliveredCount, mDroppedCount, mFailedCount;
+
+		private Consumer(final String name, final FrameConsumer consumer,
+			final int queueSize, final int policy, final long timeoutMs) {
+
+			mName = name;
+			mConsumer = consumer;
+			mPolicy = policy;
+			mTimeoutMs = timeoutMs;
+			mQueue = new FramePool.Frame[queueSize];
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public int getPolicy() {
+			return mPolicy;
+		}
+
+		/**
+		 * @return number of frames that FrameConsumer#onFrame processed successfully
+		 */
+		public long getDeliveredCount() {
+			synchronized (mSync) {
+				return mDeliveredCount;
+			}
+		}
+
+		/**
+		 * @return number of frames that FrameConsumer#onFrame failed to process with RuntimeException
+		 */
+		public long getFailedCount() {
+			synchronized (mSync) {
+				return mFailedCount;
+			}
+		}
+
+		/**
+		 * @return number of frames that were dropped by the policy of this consumer
+		 */
+		public long getDroppedCount() {
+			synchronized (mSync) {
+				return mDroppedCount;
+			}
+		}
+
+		/**
+		 * @return number of frames that are waiting in the queue now
+		 */
+		public int getQueuedCount() {
+			synchronized (mSync) {
+				return mCount;
+			}
+		}
+
+		private void offer(final FramePool.Frame frame) {
+			synchronized (mSync) {
+				if (!mIsRunning) return;
+				final int capacity = mQueue.length;
+				if (mCount == capacity) {
+					switch (mPolicy) {
+					case POLICY_DROP_OLDEST:
+					case POLICY_KEEP_LATEST:
+						poll().release();
+						mDroppedCount++;
+						break;
+					case POLICY_DROP_NEWEST:
+						mDroppedCount++;
+						return;
+					case POLICY_BLOCK:
+						final long deadline = System.nanoTime() + mTimeoutMs * 1000000L;
+						long remaining = mTimeoutMs;
+						while (mIsRunning && (mCount == capacity) && (remaining > 0)) {
+							try {
+								mSync.wait(remaining);
+							} catch (final InterruptedException e) {
+								// keep interrupted status for the caller
+								Thread.currentThread().interrupt();
+								break;
+							}
+							remaining = (deadline - System.nanoTime()) / 1000000L;
+						}
+						if (!mIsRunning || (mCount == capacity)) {
+							mDroppedCount++;
+							return;
+						}
+						break;
+					}
+				}
+				mQueue[(mHead + mCount) % capacity] = frame.retain();
+				mCount++;
+				mSync.notifyAll();
+			}
+		}
+
+		private FramePool.Frame poll() {
+			final FramePool.Frame result = mQueue[mHead];
+			mQueue[mHead] = null;
+			mHead = (mHead + 1) % mQueue.length;
+			mCount--;
+			return result;
+		}
+
+		private void stop() {
+			synchronized (mSync) {
+				mIsRunning = false;
+				while (mCount > 0) {
+					poll().release();
+				}
+				mSync.notifyAll();
+			}
+		}
+
+		@Override
+		public void run() {
+			FramePool.Frame frame;
+			for ( ; ; ) {
+				synchronized (mSync) {
+					while (mIsRunning && (mCount == 0)) {
+						try {
+							mSync.wait();
+						} catch (final InterruptedException e) {
+							mIsRunning = false;
+						}
+					}
+					if (!mIsRunning) break;
+					frame = poll();
+					// wake up the callback thread that is waiting with POLICY_BLOCK
+					mSync.notifyAll();
+				}
+				boolean delivered = false;
+				try {
+					mConsumer.onFrame(frame);
+					delivered = true;
+				} catch (final RuntimeException e) {
+					// keep this consumer running even if it failed to process a frame
+					Log.w(TAG, "consumer " + mName + " failed to process frame", e);
+				} finally {
+					frame.release();
+				}
+				synchronized (mSync) {
+					if (delivered) {
+						mDeliveredCount++;
+					} else {
+						mFailedCount++;
+					}
+				}
+			}
+			synchronized (mSync) {
+				while (mCount > 0) {
+					poll().release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameGrabber.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayDeque;
+
+/**
+ * Grabber of StillCapturePipeline that grabs frames from IPooledFrameCallback
+ * instead of reading back the preview image, so still images can be taken
+ * from raw camera data (e.g. MJPEG data as is with UVCCamera#PIXEL_FORMAT_RAW).
+ * One request is served on each frame, the frame is retained until the encoder finished
+ * so the number of frames of FramePool should be larger than the number of shots in flight.
+ * This class does not depend on Android framework.
+ */
+public class FrameGrabber implements IPooledFrameCallback, StillCapturePipeline.Grabber<FramePool.Frame> {
+
+	private final Object mSync = new Object();
+	private final ArrayDeque<StillCapturePipeline.GrabCallback<FramePool.Frame>> mRequests
+		= new ArrayDeque<StillCapturePipeline.GrabCallback<FramePool.Frame>>();
+	private boolean mIsAttached;
+
+	public FrameGrabber() {
+	}
+
+	/**
+	 * start receiving frames from the camera
+	 * @param camera
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 * @param maxFrames should be larger than maximum number of shots in flight
+	 */
+	public void attach(final UVCCamera camera, final int pixelFormat, final int maxFrames) {
+		synchronized (mSync) {
+			mIsAttached = true;
+		}
+		camera.setFrameCallback(this, pixelFormat, maxFrames);
+	}
+
+	/**
+	 * stop receiving frames, pending requests fail
+	 * @param camera
+	 */
+	public void detach(final UVCCamera camera) {
+		if (camera != null) {
+			camera.setFrameCallback((IPooledFrameCallback)null, 0, 0);
+		}
+		final StillCapturePipeline.GrabCallback<?>[] requests;
+		synchronized (mSync) {
+			mIsAttached = false;
+			requests = mRequests.toArray(new StillCapturePipeline.GrabCallback<?>[mRequests.size()]);
+			mRequests.clear();
+		}
+		for (final StillCapturePipeline.GrabCallback<?> request: requests) {
+			request.onError(new IllegalStateException("detached from camera"));
+		}
+	}
+
+	@Override
+	public void grab(final StillCapturePipeline.GrabCallback<FramePool.Frame> callback) {
+		synchronized (mSync) {
+			if (mIsAttached) {
+				mRequests.add(callback);
+				return;
+			}
+		}
+		callback.onError(new IllegalStateException("not attached to camera"));
+	}
+
+	@Override
+	public void recycle(final FramePool.Frame pixels) {
+		pixels.release();
+	}
+
+	@Override
+	public void onFrame(final FramePool.Frame frame) {
+		final StillCapturePipeline.GrabCallback<FramePool.Frame> request;
+		synchronized (mSync) {
+			request = mRequests.poll();
+		}
+		if (request != null) {
+			// the frame is released after this method returned, retain it until #recycle
+			request.onGrabbed(frame.retain());
+		}
+	}
+}
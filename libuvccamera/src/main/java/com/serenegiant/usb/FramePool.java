@@ -0,0 +1,302 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FramePool.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size pool of reference counted direct ByteBuffers for frame data.
+ * All buffers have same capacity that is calculated from frame size and pixel format,
+ * and they are allocated lazily up to maxFrames and recycled after that,
+ * so there is no allocation while streaming once the pool is warmed up.
+ * This class does not depend on Android framework.
+ */
+public class FramePool {
+	/**
+	 * Frame that came from FramePool.
+	 * Frame has reference count and it returns to the pool when the count reaches zero.
+	 * If you need to keep the frame after IPooledFrameCallback#onFrame returned
+	 * (e.g. passing it to worker thread), call #retain and call #release when you finished.
+	 */
+	public static final class Frame {
+		private final FramePool mPool;
+		private final ByteBuffer mBuffer;
+		private final AtomicInteger mRefCount = new AtomicInteger();
+		private long mSequence;
+		private long mTimestampNs;
+
+		private Frame(final FramePool pool, final int capacity) {
+			mPool = pool;
+			mBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		}
+
+		/**
+		 * get frame data, position is 0 and limit is size of frame data.
+		 * This buffer is shared with other holders of this frame,
+		 * so use absolute get/put or ByteBuffer#duplicate if you need to change position.
+		 * @return
+		 */
+		public ByteBuffer getBuffer() {
+			return mBuffer;
+		}
+
+		public int getWidth() {
+			return mPool.mWidth;
+		}
+
+		public int getHeight() {
+			return mPool.mHeight;
+		}
+
+		public int getPixelFormat() {
+			return mPool.mPixelFormat;
+		}
+
+		/**
+		 * @return sequence number of this frame in the pool, starting from 0
+		 */
+		public long getSequence() {
+			return mSequence;
+		}
+
+		/**
+		 * @return System#nanoTime when frame data was set to this frame
+		 */
+		public long getTimestamp() {
+			return mTimestampNs;
+		}
+
+		public int getRefCount() {
+			return mRefCount.get();
+		}
+
+		/**
+		 * increment reference count
+		 * @return this frame
+		 */
+		public Frame retain() {
+			for ( ; ; ) {
+				final int count = mRefCount.get();
+				if (count <= 0)
+					throw new IllegalStateException("frame already released");
+				if (mRefCount.compareAndSet(count, count + 1))
+					return this;
+			}
+		}
+
+		/**
+		 * decrement reference count and return this frame to the pool when the count reaches zero.
+		 * You should not access this frame after the last release.
+		 */
+		public void release() {
+			final int count = mRefCount.decrementAndGet();
+			if (count == 0) {
+				mPool.recycle(this);
+			} else if (count < 0) {
+				mRefCount.set(0);
+				throw new IllegalStateException("frame released too many times");
+			}
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final int mWidth, mHeight, mPixelFormat;
+	private final int mFrameBytes;
+	private final Frame[] mFreeFrames;
+	private int mFreeCount;
+	private int mAllocatedCount;
+	private long mSequence;
+	private long mDropCount;
+	private boolean mReleased;
+
+	/**
+	 * Constructor
+	 * @param width
+	 * @param height
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 * @param maxFrames maximum number of frames that this pool allocates
+	 */
+	public FramePool(final int width, final int height, final int pixelFormat, final int maxFrames) {
+		this(width, height, pixelFormat, getFrameBytes(width, height, pixelFormat), maxFrames);
+	}
+
+	/**
+	 * Constructor
+	 * @param width
+	 * @param height
+	 * @param pixelFormat
+	 * @param frameBytes capacity of each frame
+	 * @param maxFrames maximum number of frames that this pool allocates
+	 */
+	public FramePool(final int width, final int height, final int pixelFormat, final int frameBytes, final int maxFrames) {
+		if ((frameBytes <= 0) || (maxFrames <= 0))
+			throw new IllegalArgumentException("invalid frame size or number of frames");
+		mWidth = width;
+		mHeight = height;
+		mPixelFormat = pixelFormat;
+		mFrameBytes = frameBytes;
+		mFreeFrames = new Frame[maxFrames];
+	}
+
+	/**
+	 * calculate bytes of a frame that native library passes to IFrameCallback
+	 * @param width
+	 * @param height
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 * @return
+	 */
+	public static int getFrameBytes(final int width, final int height, final int pixelFormat) {
+		final int sz = width * height;
+		switch (pixelFormat) {
+		case UVCCamera.PIXEL_FORMAT_RAW:
+		case UVCCamera.PIXEL_FORMAT_YUV:
+		case UVCCamera.PIXEL_FORMAT_RGB565:
+			return sz * 2;
+		case UVCCamera.PIXEL_FORMAT_RGBX:
+			return sz * 4;
+		case UVCCamera.PIXEL_FORMAT_YUV420SP:
+		case UVCCamera.PIXEL_FORMAT_NV21:
+			return (sz * 3) / 2;
+		default:
+			throw new IllegalArgumentException("unknown pixel format:" + pixelFormat);
+		}
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public int getPixelFormat() {
+		return mPixelFormat;
+	}
+
+	public int getFrameBytes() {
+		return mFrameBytes;
+	}
+
+	public int getMaxFrames() {
+		return mFreeFrames.length;
+	}
+
+	/**
+	 * @return number of frames that were allocated until now
+	 */
+	public int getAllocatedCount() {
+		synchronized (mSync) {
+			return mAllocatedCount;
+		}
+	}
+
+	/**
+	 * @return number of frames in the pool that are not used now
+	 */
+	public int getAvailableCount() {
+		synchronized (mSync) {
+			return mFreeCount + (mFreeFrames.length - mAllocatedCount);
+		}
+	}
+
+	/**
+	 * @return number of frames that were dropped because of pool exhaustion or too large frame data
+	 */
+	public long getDropCount() {
+		synchronized (mSync) {
+			return mDropCount;
+		}
+	}
+
+	/**
+	 * get a frame from the pool with reference count = 1
+	 * @return null if all frames are in use
+	 */
+	public Frame acquire() {
+		Frame frame = null;
+		synchronized (mSync) {
+			if (mReleased) return null;
+			if (mFreeCount > 0) {
+				frame = mFreeFrames[--mFreeCount];
+				mFreeFrames[mFreeCount] = null;
+			} else if (mAllocatedCount < mFreeFrames.length) {
+				frame = new Frame(this, mFrameBytes);
+				mAllocatedCount++;
+			} else {
+				mDropCount++;
+				return null;
+			}
+			frame.mSequence = mSequence++;
+		}
+		frame.mBuffer.clear();
+		frame.mRefCount.set(1);
+		return frame;
+	}
+
+	/**
+	 * get a frame from the pool and copy data from remaining bytes of the specified buffer
+	 * @param data
+	 * @return null if the pool is exhausted or data is larger than frame capacity
+	 */
+	public Frame obtain(final ByteBuffer data) {
+		if (data.remaining() > mFrameBytes) {
+			synchronized (mSync) {
+				mDropCount++;
+			}
+			return null;
+		}
+		final Frame frame = acquire();
+		if (frame != null) {
+			final ByteBuffer buf = frame.mBuffer;
+			buf.put(data);
+			buf.flip();
+			frame.mTimestampNs = System.nanoTime();
+		}
+		return frame;
+	}
+
+	/**
+	 * discard all frames in the pool.
+	 * frames that are still in use are discarded when they are released.
+	 */
+	public void release() {
+		synchronized (mSync) {
+			mReleased = true;
+			for (int i = 0; i < mFreeCount; i++)
+				mFreeFrames[i] = null;
+			mFreeCount = 0;
+		}
+	}
+
+	private void recycle(final Frame frame) {
+		synchronized (mSync) {
+			if (!mReleased && (mFreeCount < mFreeFrames.length)) {
+				mFreeFrames[mFreeCount++] = frame;
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameRingBuffer.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring buffer to hand off frames (or any objects) between threads
+ * without monitor and wait/notify.
+ * Each slot has its own sequence number so producer and consumer only touch
+ * the slot and their own counter, head and tail counters are padded to avoid false sharing.
+ * Multiple producers are allowed when multiProducer is true, consumer should be single thread.
+ * FrameRingTransport uses this to pass pooled frames from UVCCamera to a consumer thread.
+ * @param <E>
+ */
+public class FrameRingBuffer<E> {
+	/**
+	 * busy spin while waiting, lowest latency but occupies a core
+	 */
+	public static final int WAIT_BUSY_SPIN = 0;
+	/**
+	 * call Thread#yield while waiting
+	 */
+	public static final int WAIT_YIELD = 1;
+	/**
+	 * spin and yield for a while and then park the thread, lowest CPU usage
+	 */
+	public static final int WAIT_PARK = 2;
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50000L;	// 50[usec]
+
+	/**
+	 * AtomicLong that occupies whole cache line(64 bytes) to avoid false sharing
+	 */
+	@SuppressWarnings("serial")
+	private static final class PaddedAtomicLong extends AtomicLong {
+		@SuppressWarnings("unused")
+		private long p1, p2, p3, p4, p5, p6, p7;
+		private PaddedAtomicLong(final long initialValue) {
+			super(initialValue);
+		}
+	}
+
+	private final Object[] mBuffer;
+	private final AtomicLongArray mSequences;
+	private final int mMask;
+	private final boolean mMultiProducer;
+	private final int mWaitStrategy;
+	private final PaddedAtomicLong mTail = new PaddedAtomicLong(0);
+	private final PaddedAtomicLong mHead = new PaddedAtomicLong(0);
+
+	/**
+	 * Constructor
+	 * @param capacity capacity of this buffer, rounded up to power of 2 and at least 2
+	 * @param multiProducer true if #offer/#put may be called from multiple threads
+	 * @param waitStrategy WAIT_BUSY_SPIN, WAIT_YIELD or WAIT_PARK
+	 */
+	public FrameRingBuffer(final int capacity, final boolean multiProducer, final int waitStrategy) {
+		if ((capacity <= 0) || (capacity > (1 << 30)))
+			throw new IllegalArgumentException("invalid capacity:" + capacity);
+		if ((waitStrategy < WAIT_BUSY_SPIN) || (waitStrategy > WAIT_PARK))
+			throw new IllegalArgumentException("unknown wait strategy:" + waitStrategy);
+		// with a single slot, sequence of a published element(pos + 1) is same as
+		// sequence of a free slot for the next round(pos + capacity), so at least 2 slots
+		int n = 2;
+		while (n < capacity) n <<= 1;
+		mBuffer = new Object[n];
+		mSequences = new AtomicLongArray(n);
+		for (int i = 0; i < n; i++) {
+			mSequences.set(i, i);
+		}
+		mMask = n - 1;
+		mMultiProducer = multiProducer;
+		mWaitStrategy = waitStrategy;
+	}
+
+	public int capacity() {
+		return mBuffer.length;
+	}
+
+	/**
+	 * @return approximate number of queued elements
+	 */
+	public int size() {
+		final long size = mTail.get() - mHead.get();
+		return size < 0 ? 0 : (size > mBuffer.length ? mBuffer.length : (int)size);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * add element without waiting
+	 * @param element
+	 * @return false if this buffer is full
+	 */
+	public boolean offer(final E element) {
+		if (element == null) throw new NullPointerException();
+		for ( ; ; ) {
+			final long pos = mTail.get();
+			final int ix = (int)pos & mMask;
+			final long dif = mSequences.get(ix) - pos;
+			if (dif == 0) {
+				if (mMultiProducer) {
+					if (!mTail.compareAndSet(pos, pos + 1))
+						continue;
+				} else {
+					mTail.lazySet(pos + 1);
+				}
+				mBuffer[ix] = element;
+				// publish the element to consumer
+				mSequences.lazySet(ix, pos + 1);
+				return true;
+			} else if (dif < 0) {
+				// consumer has not taken the element in this slot yet
+				return false;
+			}
+			// other producer took this slot, retry
+		}
+	}
+
+	/**
+	 * add element, wait with the wait strategy while this buffer is full
+	 * @param element
+	 * @param timeoutNs maximum waiting time in nanoseconds
+	 * @return false if timeout
+	 */
+	public boolean put(final E element, final long timeoutNs) {
+		if (offer(element)) return true;
+		final long deadline = System.nanoTime() + timeoutNs;
+		int counter = 0;
+		for ( ; ; ) {
+			counter = idle(counter);
+			if (offer(element))
+				return true;
+			if (deadline - System.nanoTime() <= 0)
+				return false;
+		}
+	}
+
+	/**
+	 * remove the first element without waiting, this method should be called from single thread
+	 * @return null if this buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		final long pos = mHead.get();
+		final int ix = (int)pos & mMask;
+		if (mSequences.get(ix) - (pos + 1) < 0) {
+			// producer has not published the element in this slot yet
+			return null;
+		}
+		final E result = (E)mBuffer[ix];
+		mBuffer[ix] = null;
+		mHead.lazySet(pos + 1);
+		// release this slot for the next round of producer
+		mSequences.lazySet(ix, pos + mMask + 1);
+		return result;
+	}
+
+	/**
+	 * remove the first element, wait with the wait strategy while this buffer is empty
+	 * this method should be called from single thread
+	 * @param timeoutNs maximum waiting time in nanoseconds
+	 * @return null if timeout
+	 */
+	public E take(final long timeoutNs) {
+		E result = poll();
+		if (result != null) return result;
+		final long deadline = System.nanoTime() + timeoutNs;
+		int counter = 0;
+		for ( ; ; ) {
+			counter = idle(counter);
+			if ((result = poll()) != null)
+				return result;
+			if (deadline - System.nanoTime() <= 0)
+				return null;
+		}
+	}
+
+	/**
+	 * remove all elements, this method should be called from consumer thread
+	 * @return number of removed elements
+	 */
+	public int clear() {
+		int result = 0;
+		while (poll() != null) result++;
+		return result;
+	}
+
+	private int idle(final int counter) {
+		switch (mWaitStrategy) {
+		case WAIT_YIELD:
+			Thread.yield();
+			break;
+		case WAIT_PARK:
+			if (counter < SPIN_TRIES) {
+				// just spin
+			} else if (counter < SPIN_TRIES + YIELD_TRIES) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+				return counter;
+			}
+			break;
+		default:
+			// WAIT_BUSY_SPIN
+			break;
+		}
+		return counter + 1;
+	}
+}
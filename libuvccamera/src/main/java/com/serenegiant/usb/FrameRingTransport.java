@@ -0,0 +1,162 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameRingTransport.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pass pooled frames from the callback thread to a consumer thread through FrameRingBuffer,
+ * e.g. from UVCCamera to MediaVideoBufferEncoder or an analytics sink.
+ * <pre>
+ * transport = new FrameRingTransport("encoder", videoEncoder, 4, FrameRingBuffer.WAIT_PARK);
+ * camera.setFrameCallback(transport, UVCCamera.PIXEL_FORMAT_NV21, transport.getRequiredFrames());
+ * </pre>
+ * This can also be added to FrameDispatcher as a FrameConsumer, but a frame goes through
+ * two threads then.
+ * Unlike FrameDispatcher, the queue is lock-free and the callback thread never blocks,
+ * frames are dropped when the queue is full.
+ * #onFrame should be called from single thread at a time.
+ * This class does not depend on Android framework.
+ */
+public class FrameRingTransport implements IPooledFrameCallback, FrameDispatcher.FrameConsumer {
+	/**
+	 * maximum waiting time of the consumer thread before checking it should stop
+	 */
+	private static final long TAKE_TIMEOUT_NS = 100000000L;	// 100[msec]
+
+	private final FrameRingBuffer<FramePool.Frame> mRing;
+	private final FrameDispatcher.FrameConsumer mConsumer;
+	private final Thread mThread;
+	private final AtomicLong mDeliveredCount = new AtomicLong();
+	private final AtomicLong mDroppedCount = new AtomicLong();
+	private final AtomicLong mFailedCount = new AtomicLong();
+	private volatile boolean mIsRunning = true;
+
+	/**
+	 * Constructor, the consumer thread is started
+	 * @param name name of the consumer thread
+	 * @param consumer called on the consumer thread
+	 * @param queueSize maximum number of queued frames, rounded up to power of 2
+	 * @param waitStrategy FrameRingBuffer#WAIT_XXX for the consumer thread
+	 */
+	public FrameRingTransport(final String name, final FrameDispatcher.FrameConsumer consumer,
+		final int queueSize, final int waitStrategy) {
+
+		if (consumer == null) throw new NullPointerException("FrameConsumer is null");
+		mRing = new FrameRingBuffer<FramePool.Frame>(queueSize, false, waitStrategy);
+		mConsumer = consumer;
+		mThread = new Thread(mConsumerRunnable, name);
+		mThread.start();
+	}
+
+	/**
+	 * @return number of frames that should be pooled so that frames are not dropped by FramePool
+	 */
+	public int getRequiredFrames() {
+		// queued frames, the frame on the consumer thread and the frame on the callback thread
+		return mRing.capacity() + 2;
+	}
+
+	/**
+	 * @return number of frames that FrameConsumer#onFrame processed successfully
+	 */
+	public long getDeliveredCount() {
+		return mDeliveredCount.get();
+	}
+
+	/**
+	 * @return number of frames that were dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	/**
+	 * @return number of frames that FrameConsumer#onFrame failed to process with RuntimeException
+	 */
+	public long getFailedCount() {
+		return mFailedCount.get();
+	}
+
+	/**
+	 * @return number of frames that are waiting in the queue now
+	 */
+	public int getQueuedCount() {
+		return mRing.size();
+	}
+
+	/**
+	 * queue the frame without blocking
+	 * @param frame
+	 */
+	@Override
+	public void onFrame(final FramePool.Frame frame) {
+		if (!mIsRunning) return;
+		if (!mRing.offer(frame.retain())) {
+			frame.release();
+			mDroppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * stop the consumer thread and release queued frames.
+	 * you should call UVCCamera#setFrameCallback with null before calling this.
+	 */
+	public void release() {
+		mIsRunning = false;
+		if (Thread.currentThread() != mThread) {
+			try {
+				mThread.join();
+			} catch (final InterruptedException e) {
+				// keep interrupted status for the caller
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final Runnable mConsumerRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while (mIsRunning) {
+				final FramePool.Frame frame = mRing.take(TAKE_TIMEOUT_NS);
+				if (frame == null) continue;
+				try {
+					mConsumer.onFrame(frame);
+					mDeliveredCount.incrementAndGet();
+				} catch (final RuntimeException e) {
+					// keep this consumer running even if it failed to process a frame
+					mFailedCount.incrementAndGet();
+				} finally {
+					frame.release();
+				}
+			}
+			// only this thread polls the ring
+			FramePool.Frame frame;
+			while ((frame = mRing.poll()) != null) {
+				frame.release();
+			}
+		}
+	};
+}
@@ -0,0 +1,298 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameStillEncoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encoder of StillCapturePipeline for frames from FrameGrabber.
+ * When the frame is already in the requested format it is written as is,
+ * e.g. MJPEG frame(UVCCamera#PIXEL_FORMAT_RAW in MJPEG mode) is written as JPEG
+ * without decoding and encoding and YUYV/NV21 frames are dumped as raw data.
+ * UVC MJPEG payloads usually omit the Huffman tables(DHT), so the default tables of
+ * ISO/IEC 10918-1 Annex K.3 are inserted before SOS when writing them as a standalone JPEG.
+ * YUYV is converted to NV21 with PixelConverter, other conversions
+ * (compressing YUV into JPEG/WebP/PNG, decoding MJPEG) are delegated to Compressor.
+ * This class does not depend on Android framework.
+ */
+public class FrameStillEncoder implements StillCapturePipeline.Encoder<FramePool.Frame> {
+
+	public interface Compressor {
+		/**
+		 * compress frame data into the stream, called on the encoder thread
+		 * @param data frame data from position to limit, use absolute get or ByteBuffer#duplicate
+		 * @param width
+		 * @param height
+		 * @param dataFormat format of data, StillImageFormat#FORMAT_JPEG(MJPEG), FORMAT_YUYV or FORMAT_NV21
+		 * @param format StillImageFormat#FORMAT_XXX to write
+		 * @param quality
+		 * @param out
+		 * @throws IOException the conversion is not supported or failed
+		 */
+		public void compress(ByteBuffer data, int width, int height,
+			int dataFormat, int format, int quality, OutputStream out) throws IOException;
+	}
+
+	private static final int MARKER_TEM = 0x01;
+	private static final int MARKER_DHT = 0xc4;
+	private static final int MARKER_RST0 = 0xd0;
+	private static final int MARKER_RST7 = 0xd7;
+	private static final int MARKER_SOS = 0xda;
+
+	// default Huffman tables of ISO/IEC 10918-1 Annex K.3, same as jni/libuvc/src/frame-mjpeg.c
+	private static final int[] DC_LUMINANCE_BITS = {
+		0x00, 0x01, 0x05, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00
+	};
+	private static final int[] DC_LUMINANCE_VALUES = {
+		0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b
+	};
+	private static final int[] AC_LUMINANCE_BITS = {
+		0x00, 0x02, 0x01, 0x03, 0x03, 0x02, 0x04, 0x03, 0x05, 0x05, 0x04, 0x04, 0x00, 0x00, 0x01, 0x7d
+	};
+	private static final int[] AC_LUMINANCE_VALUES = {
+		0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06,
+		0x13, 0x51, 0x61, 0x07, 0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+		0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0, 0x24, 0x33, 0x62, 0x72,
+		0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+		0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45,
+		0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+		0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74, 0x75,
+		0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+		0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3,
+		0xa4, 0xa5, 0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+		0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9,
+		0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+		0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4,
+		0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa
+	};
+	private static final int[] DC_CHROMINANCE_BITS = {
+		0x00, 0x03, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00
+	};
+	private static final int[] DC_CHROMINANCE_VALUES = {
+		0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b
+	};
+	private static final int[] AC_CHROMINANCE_BITS = {
+		0x00, 0x02, 0x01, 0x02, 0x04, 0x04, 0x03, 0x04, 0x07, 0x05, 0x04, 0x04, 0x00, 0x01, 0x02, 0x77
+	};
+	private static final int[] AC_CHROMINANCE_VALUES = {
+		0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41,
+		0x51, 0x07, 0x61, 0x71, 0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+		0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0, 0x15, 0x62, 0x72, 0xd1,
+		0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+		0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44,
+		0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+		0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74,
+		0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+		0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a,
+		0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+		0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7,
+		0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+		0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4,
+		0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa
+	};
+
+	/**
+	 * DHT segment with all of default Huffman tables
+	 */
+	private static final byte[] DEFAULT_DHT = createDht(new int[][] {
+		DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES,
+		AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES,
+		DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES,
+		AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES,
+	}, new int[] { 0x00, 0x10, 0x01, 0x11 });
+
+	private final int mFormat;
+	private final int mQuality;
+	private final Compressor mCompressor;
+	/**
+	 * work buffer for YUYV to NV21 conversion
+	 */
+	private ByteBuffer mWorkBuffer;
+
+	/**
+	 * Constructor
+	 * @param format StillImageFormat#FORMAT_XXX
+	 * @param quality 0-100, ignored if StillImageFormat#hasQuality returns false
+	 * @param compressor can be null if only passthrough and raw dump are used
+	 */
+	public FrameStillEncoder(final int format, final int quality, final Compressor compressor) {
+		StillImageFormat.getExtension(format);	// check format
+		mFormat = format;
+		mQuality = quality;
+		mCompressor = compressor;
+	}
+
+	public int getFormat() {
+		return mFormat;
+	}
+
+	public int getQuality() {
+		return mQuality;
+	}
+
+	/**
+	 * @param frame
+	 * @return true if the frame is written as is without any conversion,
+	 * except default Huffman tables that may be inserted into MJPEG frame
+	 */
+	public boolean isPassthrough(final FramePool.Frame frame) {
+		return getDataFormat(frame) == mFormat;
+	}
+
+	@Override
+	public void encode(final FramePool.Frame frame, final OutputStream out) throws IOException {
+		final ByteBuffer data = frame.getBuffer();
+		final int dataFormat = getDataFormat(frame);
+		if (dataFormat == mFormat) {
+			final int sos = (mFormat == StillImageFormat.FORMAT_JPEG) ? findDhtInsertPosition(data) : -1;
+			if (sos >= 0) {
+				final ByteBuffer buf = data.duplicate();
+				buf.limit(sos);
+				write(buf, out);
+				out.write(DEFAULT_DHT);
+				buf.limit(data.limit()).position(sos);
+				write(buf, out);
+			} else {
+				write(data, out);
+			}
+		} else if ((dataFormat == StillImageFormat.FORMAT_YUYV) && (mFormat == StillImageFormat.FORMAT_NV21)) {
+			synchronized (this) {
+				final int bytes = FramePool.getFrameBytes(frame.getWidth(), frame.getHeight(), UVCCamera.PIXEL_FORMAT_NV21);
+				if ((mWorkBuffer == null) || (mWorkBuffer.capacity() < bytes)) {
+					mWorkBuffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+				}
+				mWorkBuffer.clear();
+				PixelConverter.yuyv2nv21(data, mWorkBuffer, frame.getWidth(), frame.getHeight());
+				mWorkBuffer.limit(bytes);
+				write(mWorkBuffer, out);
+			}
+		} else if (mCompressor != null) {
+			mCompressor.compress(data, frame.getWidth(), frame.getHeight(), dataFormat, mFormat, mQuality, out);
+		} else {
+			throw new IOException("can not convert " + StillImageFormat.getExtension(dataFormat)
+				+ " to " + StillImageFormat.getExtension(mFormat) + " without Compressor");
+		}
+	}
+
+	/**
+	 * @param frame
+	 * @return format of the frame data, StillImageFormat#FORMAT_JPEG(MJPEG), FORMAT_YUYV or FORMAT_NV21
+	 * @throws IllegalArgumentException pixel format of the frame is not supported
+	 */
+	public static int getDataFormat(final FramePool.Frame frame) {
+		switch (frame.getPixelFormat()) {
+		case UVCCamera.PIXEL_FORMAT_RAW:
+			return StillImageFormat.isMjpeg(frame.getBuffer(), frame.getWidth(), frame.getHeight())
+				? StillImageFormat.FORMAT_JPEG : StillImageFormat.FORMAT_YUYV;
+		case UVCCamera.PIXEL_FORMAT_YUV:
+			return StillImageFormat.FORMAT_YUYV;
+		case UVCCamera.PIXEL_FORMAT_NV21:
+			return StillImageFormat.FORMAT_NV21;
+		default:
+			throw new IllegalArgumentException("unsupported pixel format:" + frame.getPixelFormat());
+		}
+	}
+
+	/**
+	 * scan JPEG markers from SOI to SOS
+	 * @param data JPEG data from position to limit, the position is not changed
+	 * @return absolute position of SOS marker if there is no DHT before it,
+	 * -1 if the data already has DHT or is not a JPEG that can be parsed
+	 */
+	/*package*/ static int findDhtInsertPosition(final ByteBuffer data) {
+		final int limit = data.limit();
+		int pos = data.position();
+		if ((limit - pos < 2)
+			|| ((data.get(pos) & 0xff) != 0xff) || ((data.get(pos + 1) & 0xff) != 0xd8)) {
+
+			return -1;
+		}
+		pos += 2;
+		while (pos + 1 < limit) {
+			if ((data.get(pos) & 0xff) != 0xff) return -1;
+			final int marker = data.get(pos + 1) & 0xff;
+			if (marker == 0xff) {
+				// fill byte
+				pos++;
+			} else if (marker == MARKER_SOS) {
+				return pos;
+			} else if (marker == MARKER_DHT) {
+				return -1;
+			} else if ((marker == MARKER_TEM) || ((marker >= MARKER_RST0) && (marker <= MARKER_RST7))) {
+				// marker without length
+				pos += 2;
+			} else {
+				if (pos + 3 >= limit) return -1;
+				final int length = ((data.get(pos + 2) & 0xff) << 8) | (data.get(pos + 3) & 0xff);
+				if (length < 2) return -1;
+				pos += 2 + length;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param tables pairs of the number of codes for each length(16 entries) and the values
+	 * @param classIds table class(0: DC, 1: AC) << 4 | table id, for each pair
+	 * @return DHT segment with marker and length
+	 */
+	private static byte[] createDht(final int[][] tables, final int[] classIds) {
+		int length = 2;
+		for (int i = 0; i < tables.length; i += 2) {
+			length += 1 + tables[i].length + tables[i + 1].length;
+		}
+		final byte[] result = new byte[length + 2];
+		int pos = 0;
+		result[pos++] = (byte)0xff;
+		result[pos++] = (byte)MARKER_DHT;
+		result[pos++] = (byte)(length >> 8);
+		result[pos++] = (byte)length;
+		for (int i = 0; i < tables.length; i += 2) {
+			result[pos++] = (byte)classIds[i / 2];
+			for (final int v: tables[i]) {
+				result[pos++] = (byte)v;
+			}
+			for (final int v: tables[i + 1]) {
+				result[pos++] = (byte)v;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * write remaining bytes of the buffer without changing its position
+	 */
+	private static void write(final ByteBuffer data, final OutputStream out) throws IOException {
+		final WritableByteChannel channel = Channels.newChannel(out);
+		final ByteBuffer buf = data.duplicate();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+}
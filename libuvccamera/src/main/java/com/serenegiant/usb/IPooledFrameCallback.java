@@ -0,0 +1,40 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2015 saki t_saki@serenegiant.com
+ *
+ * File name: IPooledFrameCallback.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Callback interface for UVCCamera class
+ * If you need frame data that is still valid after the callback returned,
+ * you can use this callback interface with UVCCamera#setFrameCallback(IPooledFrameCallback, int, int)
+ */
+public interface IPooledFrameCallback {
+	/**
+	 * This method is called on the same thread as IFrameCallback#onFrame.
+	 * The frame is released after this method returned,
+	 * so call FramePool.Frame#retain if you need to keep it and FramePool.Frame#release when you finished.
+	 * Frames are dropped when all frames in the pool are retained.
+	 * @param frame
+	 */
+	public void onFrame(FramePool.Frame frame);
+}
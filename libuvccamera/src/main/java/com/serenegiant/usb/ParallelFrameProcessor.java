@@ -0,0 +1,420 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ParallelFrameProcessor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Process frames from IFrameCallback with chain of kernels on multiple threads.
+ * Each frame is split into horizontal stripes and each stripe is processed by
+ * a kernel on StripeExecutor, so all cores work on the same frame.
+ * Kernels write their result directly into the rows of the output buffer of the stage,
+ * so stripes are merged without copying.
+ * Output of the last stage is passed to the callback on the same thread as IFrameCallback#onFrame.
+ */
+public class ParallelFrameProcessor implements IFrameCallback {
+	/**
+	 * default size of L2 cache per core in bytes, used to decide rows of each stripe
+	 */
+	public static final int DEFAULT_L2_CACHE_BYTES = 256 * 1024;
+
+	public interface Kernel {
+		/**
+		 * process rows in [rowStart, rowEnd) of the frame.
+		 * this method is called from multiple threads at the same time with different rows,
+		 * so kernel should only write into the rows of dst that correspond to the specified rows.
+		 * use absolute get/put of the buffers.
+		 * @param src input of this stage
+		 * @param dst output of this stage, null if output bytes of this stage is zero (in-place stage)
+		 * @param width
+		 * @param height
+		 * @param rowStart
+		 * @param rowEnd
+		 */
+		public void process(ByteBuffer src, ByteBuffer dst, int width, int height, int rowStart, int rowEnd);
+	}
+
+	/**
+	 * YUYV to NV21 with PixelConverter
+	 */
+	public static final Kernel YUYV2NV21 = new Kernel() {
+		@Override
+		public void process(final ByteBuffer src, final ByteBuffer dst,
+			final int width, final int height, final int rowStart, final int rowEnd) {
+			PixelConverter.yuyv2nv21(src, dst, width, height, rowStart, rowEnd);
+		}
+	};
+
+	/**
+	 * YUYV to I420 with PixelConverter
+	 */
+	public static final Kernel YUYV2I420 = new Kernel() {
+		@Override
+		public void process(final ByteBuffer src, final ByteBuffer dst,
+			final int width, final int height, final int rowStart, final int rowEnd) {
+			PixelConverter.yuyv2i420(src, dst, width, height, rowStart, rowEnd);
+		}
+	};
+
+	/**
+	 * NV21 to RGBX with PixelConverter
+	 */
+	public static final Kernel NV212RGBX = new Kernel() {
+		@Override
+		public void process(final ByteBuffer src, final ByteBuffer dst,
+			final int width, final int height, final int rowStart, final int rowEnd) {
+			PixelConverter.nv212rgbx(src, dst, width, height, rowStart, rowEnd);
+		}
+	};
+
+	/**
+	 * NV21 to RGB565 with PixelConverter
+	 */
+	public static final Kernel NV212RGB565 = new Kernel() {
+		@Override
+		public void process(final ByteBuffer src, final ByteBuffer dst,
+			final int width, final int height, final int rowStart, final int rowEnd) {
+			PixelConverter.nv212rgb565(src, dst, width, height, rowStart, rowEnd);
+		}
+	};
+
+	private final Object mSync = new Object();
+	private final int mWidth, mHeight;
+	private final int mPixelFormat;
+	private final StripeExecutor mExecutor;
+	private int mL2CacheBytes = DEFAULT_L2_CACHE_BYTES;
+	private volatile Stage[] mStages = new Stage[0];
+	private IFrameCallback mCallback;
+	private long mFrameCount;
+	private long mLastFrameNs, mTotalFrameNs, mMaxFrameNs;
+
+	/**
+	 * Constructor with shared StripeExecutor
+	 * @param width
+	 * @param height
+	 * @param pixelFormat pixel format of input frames, UVCCamera#PIXEL_FORMAT_XXX
+	 */
+	public ParallelFrameProcessor(final int width, final int height, final int pixelFormat) {
+		this(width, height, pixelFormat, StripeExecutor.getDefault());
+	}
+
+	/**
+	 * Constructor
+	 * @param width
+	 * @param height
+	 * @param pixelFormat pixel format of input frames, UVCCamera#PIXEL_FORMAT_XXX
+	 * @param executor
+	 */
+	public ParallelFrameProcessor(final int width, final int height, final int pixelFormat, final StripeExecutor executor) {
+		if ((width <= 0) || (height <= 0))
+			throw new IllegalArgumentException("invalid frame size:" + width + "x" + height);
+		if (executor == null) throw new NullPointerException("executor is null");
+		mWidth = width;
+		mHeight = height;
+		mPixelFormat = pixelFormat;
+		mExecutor = executor;
+	}
+
+	/**
+	 * start processing frames from the camera
+	 * @param camera
+	 */
+	public void attach(final UVCCamera camera) {
+		camera.setFrameCallback(this, mPixelFormat);
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * set L2 cache size per core, rows of each stripe are chosen so that
+	 * input and output rows of a stripe fit into this size.
+	 * @param bytes
+	 */
+	public void setL2CacheBytes(final int bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException("invalid cache size:" + bytes);
+		synchronized (mSync) {
+			mL2CacheBytes = bytes;
+			final Stage[] stages = mStages;
+			for (int i = 0; i < stages.length; i++) {
+				stages[i].mStripeRows = calcStripeRows(stages[i].mInRowBytes, stages[i].mOutRowBytes);
+			}
+		}
+	}
+
+	/**
+	 * add processing stage at the end of the chain
+	 * @param name name of the stage
+	 * @param kernel
+	 * @param inBytes bytes of input frame of this stage, used to decide rows of each stripe
+	 * @param outBytes bytes of output frame of this stage, 0 if the kernel modifies the input in place
+	 * @return
+	 */
+	public Stage addStage(final String name, final Kernel kernel, final int inBytes, final int outBytes) {
+		if (kernel == null) throw new NullPointerException("kernel is null");
+		if ((inBytes <= 0) || (outBytes < 0))
+			throw new IllegalArgumentException("invalid frame bytes");
+		synchronized (mSync) {
+			final Stage stage = new Stage(this, name, kernel, inBytes / mHeight, outBytes / mHeight,
+				outBytes > 0 ? ByteBuffer.allocateDirect(outBytes).order(ByteOrder.nativeOrder()) : null);
+			final Stage[] stages = new Stage[mStages.length + 1];
+			System.arraycopy(mStages, 0, stages, 0, mStages.length);
+			stages[mStages.length] = stage;
+			mStages = stages;
+			return stage;
+		}
+	}
+
+	/**
+	 * add processing stage at the end of the chain
+	 * @param name name of the stage
+	 * @param kernel
+	 * @param inPixelFormat pixel format of input frame of this stage, UVCCamera#PIXEL_FORMAT_XXX
+	 * @param outPixelFormat pixel format of output frame of this stage, UVCCamera#PIXEL_FORMAT_XXX
+	 * @return
+	 */
+	public Stage addStageWithFormat(final String name, final Kernel kernel, final int inPixelFormat, final int outPixelFormat) {
+		return addStage(name, kernel,
+			FramePool.getFrameBytes(mWidth, mHeight, inPixelFormat),
+			FramePool.getFrameBytes(mWidth, mHeight, outPixelFormat));
+	}
+
+	/**
+	 * remove all stages
+	 */
+	public void clearStages() {
+		synchronized (mSync) {
+			mStages = new Stage[0];
+		}
+	}
+
+	public Stage[] getStages() {
+		return mStages.clone();
+	}
+
+	/**
+	 * set callback to receive output of the last stage.
+	 * the buffer is reused for the next frame, so copy it if you need it after the callback returned.
+	 * @param callback
+	 */
+	public void setCallback(final IFrameCallback callback) {
+		synchronized (mSync) {
+			mCallback = callback;
+		}
+	}
+
+	@Override
+	public void onFrame(final ByteBuffer frame) {
+		final Stage[] stages = mStages;
+		final IFrameCallback callback;
+		synchronized (mSync) {
+			callback = mCallback;
+		}
+		// frame from native library is big endian, kernels are faster with native order
+		frame.order(ByteOrder.nativeOrder());
+		final long start = System.nanoTime();
+		ByteBuffer src = frame;
+		for (int i = 0; i < stages.length; i++) {
+			src = stages[i].process(src);
+		}
+		final long elapsed = System.nanoTime() - start;
+		synchronized (mSync) {
+			mFrameCount++;
+			mLastFrameNs = elapsed;
+			mTotalFrameNs += elapsed;
+			if (elapsed > mMaxFrameNs) mMaxFrameNs = elapsed;
+		}
+		if (callback != null) {
+			src.clear();
+			callback.onFrame(src);
+		}
+	}
+
+	/**
+	 * @return number of processed frames
+	 */
+	public long getFrameCount() {
+		synchronized (mSync) {
+			return mFrameCount;
+		}
+	}
+
+	/**
+	 * @return processing time of all stages for the last frame in nanoseconds
+	 */
+	public long getLastFrameNs() {
+		synchronized (mSync) {
+			return mLastFrameNs;
+		}
+	}
+
+	/**
+	 * @return average processing time of all stages in nanoseconds
+	 */
+	public long getAverageFrameNs() {
+		synchronized (mSync) {
+			return mFrameCount > 0 ? mTotalFrameNs / mFrameCount : 0;
+		}
+	}
+
+	/**
+	 * @return maximum processing time of all stages in nanoseconds
+	 */
+	public long getMaxFrameNs() {
+		synchronized (mSync) {
+			return mMaxFrameNs;
+		}
+	}
+
+	/**
+	 * clear timing of this processor and all stages
+	 */
+	public void resetTiming() {
+		synchronized (mSync) {
+			mFrameCount = mLastFrameNs = mTotalFrameNs = mMaxFrameNs = 0;
+		}
+		final Stage[] stages = mStages;
+		for (int i = 0; i < stages.length; i++) {
+			stages[i].resetTiming();
+		}
+	}
+
+	/**
+	 * rows of each stripe so that input and output rows fit into L2 cache, always even for YUV420
+	 */
+	private int calcStripeRows(final int inRowBytes, final int outRowBytes) {
+		final int rowBytes = inRowBytes + outRowBytes;
+		int rows = rowBytes > 0 ? mL2CacheBytes / rowBytes : mHeight;
+		if (rows < 2) rows = 2;
+		return rows & ~1;
+	}
+
+	/**
+	 * a stage of the processing chain with its own output buffer and timing
+	 */
+	public static final class Stage implements StripeExecutor.StripeTask {
+		private final ParallelFrameProcessor mParent;
+		private final String mName;
+		private final Kernel mKernel;
+		private final int mInRowBytes, mOutRowBytes;
+		private final ByteBuffer mOutput;
+		private volatile int mStripeRows;
+		private ByteBuffer mSrc;
+		private long mFrameCount;
+		private long mLastNs, mTotalNs, mMaxNs;
+
+		private Stage(final ParallelFrameProcessor parent, final String name, final Kernel kernel,
+			final int inRowBytes, final int outRowBytes, final ByteBuffer output) {
+
+			mParent = parent;
+			mName = name;
+			mKernel = kernel;
+			mInRowBytes = inRowBytes;
+			mOutRowBytes = outRowBytes;
+			mOutput = output;
+			mStripeRows = parent.calcStripeRows(inRowBytes, outRowBytes);
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * @return rows of each stripe of this stage
+		 */
+		public int getStripeRows() {
+			return mStripeRows;
+		}
+
+		/**
+		 * @return output buffer of this stage, null if this stage processes in place
+		 */
+		public ByteBuffer getOutput() {
+			return mOutput;
+		}
+
+		public synchronized long getFrameCount() {
+			return mFrameCount;
+		}
+
+		/**
+		 * @return processing time of the last frame in nanoseconds
+		 */
+		public synchronized long getLastNs() {
+			return mLastNs;
+		}
+
+		/**
+		 * @return average processing time in nanoseconds
+		 */
+		public synchronized long getAverageNs() {
+			return mFrameCount > 0 ? mTotalNs / mFrameCount : 0;
+		}
+
+		/**
+		 * @return maximum processing time in nanoseconds
+		 */
+		public synchronized long getMaxNs() {
+			return mMaxNs;
+		}
+
+		public synchronized void resetTiming() {
+			mFrameCount = mLastNs = mTotalNs = mMaxNs = 0;
+		}
+
+		/**
+		 * @param src
+		 * @return output of this stage, that is input of the next stage
+		 */
+		private ByteBuffer process(final ByteBuffer src) {
+			final long start = System.nanoTime();
+			mSrc = src;
+			try {
+				mParent.mExecutor.execute(this, mParent.mHeight, mStripeRows);
+			} finally {
+				mSrc = null;
+			}
+			final long elapsed = System.nanoTime() - start;
+			synchronized (this) {
+				mFrameCount++;
+				mLastNs = elapsed;
+				mTotalNs += elapsed;
+				if (elapsed > mMaxNs) mMaxNs = elapsed;
+			}
+			return mOutput != null ? mOutput : src;
+		}
+
+		@Override
+		public void run(final int rowStart, final int rowEnd) {
+			mKernel.process(mSrc, mOutput, mParent.mWidth, mParent.mHeight, rowStart, rowEnd);
+		}
+	}
+}
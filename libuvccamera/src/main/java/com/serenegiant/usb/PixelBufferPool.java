@@ -0,0 +1,183 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PixelBufferPool.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Fixed size pool of preallocated pixel buffers (e.g. android.graphics.Bitmap) for still image capture.
+ * All buffers are allocated in the constructor and recycled after use,
+ * so there is no allocation while taking a burst of still images.
+ * #acquire returns null instead of allocating when all buffers are in use
+ * and the number of such pool exhaustion events is counted.
+ * This class does not depend on Android framework.
+ * @param <P> type of pixel buffer
+ */
+public class PixelBufferPool<P> {
+
+	public interface Allocator<P> {
+		public P allocate();
+		/**
+		 * release resources of the buffer, called when the pool is released
+		 * @param buffer
+		 */
+		public void free(P buffer);
+	}
+
+	private final Object mSync = new Object();
+	private final Allocator<P> mAllocator;
+	private final Object[] mBuffers;
+	private final Object[] mFreeBuffers;
+	private int mFreeCount;
+	private int mMinFreeCount;
+	private long mAcquiredCount, mExhaustedCount;
+	private boolean mReleased;
+
+	/**
+	 * Constructor, allocate all buffers here
+	 * @param allocator
+	 * @param size number of buffers
+	 */
+	public PixelBufferPool(final Allocator<P> allocator, final int size) {
+		if (allocator == null) throw new NullPointerException("allocator is null");
+		if (size <= 0)
+			throw new IllegalArgumentException("size should be positive");
+		mAllocator = allocator;
+		mBuffers = new Object[size];
+		mFreeBuffers = new Object[size];
+		for (int i = 0; i < size; i++) {
+			mBuffers[i] = mFreeBuffers[i] = allocator.allocate();
+		}
+		mFreeCount = mMinFreeCount = size;
+	}
+
+	public int getSize() {
+		return mBuffers.length;
+	}
+
+	/**
+	 * @return number of buffers in the pool that are not used now
+	 */
+	public int getAvailableCount() {
+		synchronized (mSync) {
+			return mFreeCount;
+		}
+	}
+
+	/**
+	 * @return the lowest number of available buffers until now, 0 means the pool was exhausted
+	 */
+	public int getMinAvailableCount() {
+		synchronized (mSync) {
+			return mMinFreeCount;
+		}
+	}
+
+	public long getAcquiredCount() {
+		synchronized (mSync) {
+			return mAcquiredCount;
+		}
+	}
+
+	/**
+	 * @return number of #acquire calls that returned null because all buffers were in use
+	 */
+	public long getExhaustedCount() {
+		synchronized (mSync) {
+			return mExhaustedCount;
+		}
+	}
+
+	/**
+	 * get a buffer from the pool
+	 * @return null if all buffers are in use or this pool was released
+	 */
+	@SuppressWarnings("unchecked")
+	public P acquire() {
+		synchronized (mSync) {
+			if (mReleased) return null;
+			if (mFreeCount == 0) {
+				mExhaustedCount++;
+				return null;
+			}
+			final P result = (P)mFreeBuffers[--mFreeCount];
+			mFreeBuffers[mFreeCount] = null;
+			if (mFreeCount < mMinFreeCount)
+				mMinFreeCount = mFreeCount;
+			mAcquiredCount++;
+			return result;
+		}
+	}
+
+	/**
+	 * return the buffer to the pool
+	 * @param buffer
+	 * @return false if the buffer did not come from this pool, the caller should release it by itself
+	 */
+	public boolean recycle(final P buffer) {
+		if (!contains(buffer)) return false;
+		boolean free = false;
+		synchronized (mSync) {
+			if (mReleased) {
+				free = true;
+			} else if (mFreeCount < mFreeBuffers.length) {
+				mFreeBuffers[mFreeCount++] = buffer;
+			}
+		}
+		if (free) {
+			mAllocator.free(buffer);
+		}
+		return true;
+	}
+
+	/**
+	 * @param buffer
+	 * @return true if the buffer came from this pool
+	 */
+	public boolean contains(final P buffer) {
+		// the pool is small, linear search with identity is enough
+		for (int i = 0; i < mBuffers.length; i++) {
+			if (mBuffers[i] == buffer) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * free all available buffers, buffers that are still in use are freed when they are recycled
+	 */
+	@SuppressWarnings("unchecked")
+	public void release() {
+		final Object[] buffers;
+		synchronized (mSync) {
+			if (mReleased) return;
+			mReleased = true;
+			buffers = new Object[mFreeCount];
+			System.arraycopy(mFreeBuffers, 0, buffers, 0, mFreeCount);
+			for (int i = 0; i < mFreeCount; i++)
+				mFreeBuffers[i] = null;
+			mFreeCount = 0;
+		}
+		for (int i = 0; i < buffers.length; i++) {
+			mAllocator.free((P)buffers[i]);
+		}
+	}
+}
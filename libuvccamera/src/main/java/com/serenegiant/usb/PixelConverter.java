@@ -0,0 +1,434 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PixelConverter.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pixel format conversion of frames from IFrameCallback on Java side.
+ * Static methods convert rows in [rowStart, rowEnd) on the calling thread
+ * and the instance methods split rows into stripes and convert them on StripeExecutor.
+ * All methods use absolute get/put of direct ByteBuffer with 64bit words
+ * and never allocate, position/limit of buffers are not changed.
+ * Width should be multiple of 2 and rowStart/rowEnd should be even for YUV420 output/input.
+ * If height is odd, chroma planes of YUV420 have (height + 1) / 2 rows.
+ */
+public class PixelConverter implements StripeExecutor.StripeTask {
+	/**
+	 * frames smaller than this are converted on the calling thread even if parallel method is called
+	 */
+	public static final int PARALLEL_THRESHOLD_PIXELS = 1920 * 1080;
+	/**
+	 * rows of each stripe, this should be even
+	 */
+	private static final int STRIPE_ROWS = 64;
+
+	private static final int YUYV2NV21 = 0;
+	private static final int YUYV2I420 = 1;
+	private static final int NV212RGBX = 2;
+	private static final int NV212RGB565 = 3;
+
+	private final StripeExecutor mExecutor;
+	private int mType;
+	private ByteBuffer mSrc, mDst;
+	private int mWidth, mHeight;
+
+	public PixelConverter() {
+		this(StripeExecutor.getDefault());
+	}
+
+	public PixelConverter(final StripeExecutor executor) {
+		mExecutor = executor;
+	}
+
+//================================================================================
+	/**
+	 * convert YUYV to NV21(YVU420SemiPlanar) using multiple threads
+	 * @param src YUYV, width * height * 2 bytes
+	 * @param dst NV21, width * height * 3 / 2 bytes
+	 * @param width
+	 * @param height
+	 */
+	public synchronized void yuyv2nv21Parallel(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		execute(YUYV2NV21, src, dst, width, height);
+	}
+
+	/**
+	 * convert YUYV to I420(YUV420Planar) using multiple threads
+	 * @param src YUYV, width * height * 2 bytes
+	 * @param dst I420, width * height * 3 / 2 bytes
+	 * @param width
+	 * @param height
+	 */
+	public synchronized void yuyv2i420Parallel(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		execute(YUYV2I420, src, dst, width, height);
+	}
+
+	/**
+	 * convert NV21 to RGBX using multiple threads
+	 * @param src NV21, width * height * 3 / 2 bytes
+	 * @param dst RGBX, width * height * 4 bytes
+	 * @param width
+	 * @param height
+	 */
+	public synchronized void nv212rgbxParallel(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		execute(NV212RGBX, src, dst, width, height);
+	}
+
+	/**
+	 * convert NV21 to RGB565 using multiple threads
+	 * @param src NV21, width * height * 3 / 2 bytes
+	 * @param dst RGB565, width * height * 2 bytes
+	 * @param width
+	 * @param height
+	 */
+	public synchronized void nv212rgb565Parallel(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		execute(NV212RGB565, src, dst, width, height);
+	}
+
+	private void execute(final int type, final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		mType = type;
+		mSrc = src;
+		mDst = dst;
+		mWidth = width;
+		mHeight = height;
+		try {
+			if ((width * height < PARALLEL_THRESHOLD_PIXELS) || (mExecutor == null)) {
+				run(0, height);
+			} else {
+				mExecutor.execute(this, height, STRIPE_ROWS);
+			}
+		} finally {
+			mSrc = mDst = null;
+		}
+	}
+
+	@Override
+	public void run(final int rowStart, final int rowEnd) {
+		switch (mType) {
+		case YUYV2NV21:
+			yuyv2nv21(mSrc, mDst, mWidth, mHeight, rowStart, rowEnd);
+			break;
+		case YUYV2I420:
+			yuyv2i420(mSrc, mDst, mWidth, mHeight, rowStart, rowEnd);
+			break;
+		case NV212RGBX:
+			nv212rgbx(mSrc, mDst, mWidth, mHeight, rowStart, rowEnd);
+			break;
+		case NV212RGB565:
+			nv212rgb565(mSrc, mDst, mWidth, mHeight, rowStart, rowEnd);
+			break;
+		}
+	}
+
+//================================================================================
+	public static void yuyv2nv21(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		yuyv2nv21(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * convert YUYV to NV21, chroma is taken from even rows
+	 * @param src YUYV, width * height * 2 bytes
+	 * @param dst NV21, width * height * 3 / 2 bytes
+	 * @param width
+	 * @param height
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	public static void yuyv2nv21(final ByteBuffer src, final ByteBuffer dst,
+		final int width, final int height, final int rowStart, final int rowEnd) {
+
+		final boolean srcLE = src.order() == ByteOrder.LITTLE_ENDIAN;
+		final boolean dstLE = dst.order() == ByteOrder.LITTLE_ENDIAN;
+		final int srcStride = width * 2;
+		final int uvOffset = width * height;
+		final int wideWidth = width & ~7;
+		for (int y = rowStart; y < rowEnd; y++) {
+			final int srcRow = y * srcStride;
+			final int yRow = y * width;
+			final boolean hasUV = (y & 1) == 0;
+			final int uvRow = uvOffset + (y >> 1) * width;
+			int x = 0;
+			for ( ; x < wideWidth; x += 8) {
+				// 8 pixels = 16 bytes of YUYV
+				long v0 = src.getLong(srcRow + x * 2);
+				long v1 = src.getLong(srcRow + x * 2 + 8);
+				if (!srcLE) {
+					v0 = Long.reverseBytes(v0);
+					v1 = Long.reverseBytes(v1);
+				}
+				long luma = packEven(v0) | (packEven(v1) << 32);
+				dst.putLong(yRow + x, dstLE ? luma : Long.reverseBytes(luma));
+				if (hasUV) {
+					// packOdd gives U0 V0 U1 V1, NV21 needs V0 U0 V1 U1
+					long chroma = swapBytePairs(packOdd(v0)) | (swapBytePairs(packOdd(v1)) << 32);
+					dst.putLong(uvRow + x, dstLE ? chroma : Long.reverseBytes(chroma));
+				}
+			}
+			for ( ; x < width; x += 2) {
+				final int ix = srcRow + x * 2;
+				dst.put(yRow + x, src.get(ix));
+				dst.put(yRow + x + 1, src.get(ix + 2));
+				if (hasUV) {
+					dst.put(uvRow + x, src.get(ix + 3));		// V
+					dst.put(uvRow + x + 1, src.get(ix + 1));	// U
+				}
+			}
+		}
+	}
+
+	public static void yuyv2i420(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		yuyv2i420(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * convert YUYV to I420, chroma is taken from even rows
+	 * @param src YUYV, width * height * 2 bytes
+	 * @param dst I420, width * height * 3 / 2 bytes
+	 * @param width
+	 * @param height
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	public static void yuyv2i420(final ByteBuffer src, final ByteBuffer dst,
+		final int width, final int height, final int rowStart, final int rowEnd) {
+
+		final boolean srcLE = src.order() == ByteOrder.LITTLE_ENDIAN;
+		final boolean dstLE = dst.order() == ByteOrder.LITTLE_ENDIAN;
+		final int srcStride = width * 2;
+		final int chromaWidth = width >> 1;
+		final int uOffset = width * height;
+		final int vOffset = uOffset + chromaWidth * ((height + 1) >> 1);
+		final int wideWidth = width & ~7;
+		for (int y = rowStart; y < rowEnd; y++) {
+			final int srcRow = y * srcStride;
+			final int yRow = y * width;
+			final boolean hasUV = (y & 1) == 0;
+			final int uRow = uOffset + (y >> 1) * chromaWidth;
+			final int vRow = vOffset + (y >> 1) * chromaWidth;
+			int x = 0;
+			for ( ; x < wideWidth; x += 8) {
+				long v0 = src.getLong(srcRow + x * 2);
+				long v1 = src.getLong(srcRow + x * 2 + 8);
+				if (!srcLE) {
+					v0 = Long.reverseBytes(v0);
+					v1 = Long.reverseBytes(v1);
+				}
+				long luma = packEven(v0) | (packEven(v1) << 32);
+				dst.putLong(yRow + x, dstLE ? luma : Long.reverseBytes(luma));
+				if (hasUV) {
+					// U0 V0 U1 V1 | U2 V2 U3 V3
+					final long c0 = packOdd(v0), c1 = packOdd(v1);
+					final int u = (int)((c0 & 0xff) | ((c0 >>> 8) & 0xff00)
+						| ((c1 & 0xff) << 16) | ((c1 << 8) & 0xff000000L));
+					final int v = (int)(((c0 >>> 8) & 0xff) | ((c0 >>> 16) & 0xff00)
+						| (((c1 >>> 8) & 0xff) << 16) | (c1 & 0xff000000L));
+					dst.putInt(uRow + (x >> 1), dstLE ? u : Integer.reverseBytes(u));
+					dst.putInt(vRow + (x >> 1), dstLE ? v : Integer.reverseBytes(v));
+				}
+			}
+			for ( ; x < width; x += 2) {
+				final int ix = srcRow + x * 2;
+				dst.put(yRow + x, src.get(ix));
+				dst.put(yRow + x + 1, src.get(ix + 2));
+				if (hasUV) {
+					dst.put(uRow + (x >> 1), src.get(ix + 1));
+					dst.put(vRow + (x >> 1), src.get(ix + 3));
+				}
+			}
+		}
+	}
+
+	public static void nv212rgbx(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		nv212rgbx(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * convert NV21 to RGBX(R, G, B, 0xff in byte order) with BT.601
+	 * @param src NV21, width * height * 3 / 2 bytes
+	 * @param dst RGBX, width * height * 4 bytes
+	 * @param width
+	 * @param height
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	public static void nv212rgbx(final ByteBuffer src, final ByteBuffer dst,
+		final int width, final int height, final int rowStart, final int rowEnd) {
+
+		final boolean srcLE = src.order() == ByteOrder.LITTLE_ENDIAN;
+		final boolean dstLE = dst.order() == ByteOrder.LITTLE_ENDIAN;
+		final int uvOffset = width * height;
+		final int dstStride = width * 4;
+		final int wideWidth = width & ~7;
+		for (int y = rowStart; y < rowEnd; y++) {
+			final int yRow = y * width;
+			final int uvRow = uvOffset + (y >> 1) * width;
+			final int dstRow = y * dstStride;
+			int x = 0;
+			for ( ; x < wideWidth; x += 8) {
+				long lumas = src.getLong(yRow + x);
+				long chromas = src.getLong(uvRow + x);
+				if (!srcLE) {
+					lumas = Long.reverseBytes(lumas);
+					chromas = Long.reverseBytes(chromas);
+				}
+				final int dstIx = dstRow + x * 4;
+				for (int i = 0; i < 4; i++) {
+					// V, U for 2 pixels
+					final int v = (int)(chromas >>> (i * 16)) & 0xff;
+					final int u = (int)(chromas >>> (i * 16 + 8)) & 0xff;
+					final int y0 = (int)(lumas >>> (i * 16)) & 0xff;
+					final int y1 = (int)(lumas >>> (i * 16 + 8)) & 0xff;
+					final long rgbx = (rgbx(y0, u, v) & 0xffffffffL) | ((long)rgbx(y1, u, v) << 32);
+					dst.putLong(dstIx + i * 8, dstLE ? rgbx : Long.reverseBytes(rgbx));
+				}
+			}
+			for ( ; x < width; x += 2) {
+				final int v = src.get(uvRow + x) & 0xff;
+				final int u = src.get(uvRow + x + 1) & 0xff;
+				final int p0 = rgbx(src.get(yRow + x) & 0xff, u, v);
+				final int p1 = rgbx(src.get(yRow + x + 1) & 0xff, u, v);
+				final int dstIx = dstRow + x * 4;
+				dst.putInt(dstIx, dstLE ? p0 : Integer.reverseBytes(p0));
+				dst.putInt(dstIx + 4, dstLE ? p1 : Integer.reverseBytes(p1));
+			}
+		}
+	}
+
+	public static void nv212rgb565(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		nv212rgb565(src, dst, width, height, 0, height);
+	}
+
+	/**
+	 * convert NV21 to RGB565(little endian, same as Bitmap.Config.RGB_565) with BT.601
+	 * @param src NV21, width * height * 3 / 2 bytes
+	 * @param dst RGB565, width * height * 2 bytes
+	 * @param width
+	 * @param height
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	public static void nv212rgb565(final ByteBuffer src, final ByteBuffer dst,
+		final int width, final int height, final int rowStart, final int rowEnd) {
+
+		final boolean srcLE = src.order() == ByteOrder.LITTLE_ENDIAN;
+		final boolean dstLE = dst.order() == ByteOrder.LITTLE_ENDIAN;
+		final int uvOffset = width * height;
+		final int dstStride = width * 2;
+		final int wideWidth = width & ~7;
+		for (int y = rowStart; y < rowEnd; y++) {
+			final int yRow = y * width;
+			final int uvRow = uvOffset + (y >> 1) * width;
+			final int dstRow = y * dstStride;
+			int x = 0;
+			for ( ; x < wideWidth; x += 8) {
+				long lumas = src.getLong(yRow + x);
+				long chromas = src.getLong(uvRow + x);
+				if (!srcLE) {
+					lumas = Long.reverseBytes(lumas);
+					chromas = Long.reverseBytes(chromas);
+				}
+				long rgb0 = 0, rgb1 = 0;
+				for (int i = 0; i < 4; i++) {
+					final int v = (int)(chromas >>> (i * 16)) & 0xff;
+					final int u = (int)(chromas >>> (i * 16 + 8)) & 0xff;
+					final int y0 = (int)(lumas >>> (i * 16)) & 0xff;
+					final int y1 = (int)(lumas >>> (i * 16 + 8)) & 0xff;
+					final long pair = rgb565(y0, u, v) | ((long)rgb565(y1, u, v) << 16);
+					if (i < 2) {
+						rgb0 |= pair << (i * 32);
+					} else {
+						rgb1 |= pair << ((i - 2) * 32);
+					}
+				}
+				final int dstIx = dstRow + x * 2;
+				dst.putLong(dstIx, dstLE ? rgb0 : Long.reverseBytes(rgb0));
+				dst.putLong(dstIx + 8, dstLE ? rgb1 : Long.reverseBytes(rgb1));
+			}
+			for ( ; x < width; x += 2) {
+				final int v = src.get(uvRow + x) & 0xff;
+				final int u = src.get(uvRow + x + 1) & 0xff;
+				final int p0 = rgb565(src.get(yRow + x) & 0xff, u, v);
+				final int p1 = rgb565(src.get(yRow + x + 1) & 0xff, u, v);
+				final int dstIx = dstRow + x * 2;
+				dst.put(dstIx, (byte)p0);
+				dst.put(dstIx + 1, (byte)(p0 >> 8));
+				dst.put(dstIx + 2, (byte)p1);
+				dst.put(dstIx + 3, (byte)(p1 >> 8));
+			}
+		}
+	}
+
+//================================================================================
+	/**
+	 * gather bytes at 0, 2, 4, 6 of little endian word into lower 32 bits
+	 */
+	private static long packEven(final long v) {
+		long t = v & 0x00ff00ff00ff00ffL;
+		t = (t | (t >>> 8)) & 0x0000ffff0000ffffL;
+		return (t | (t >>> 16)) & 0xffffffffL;
+	}
+
+	/**
+	 * gather bytes at 1, 3, 5, 7 of little endian word into lower 32 bits
+	 */
+	private static long packOdd(final long v) {
+		return packEven(v >>> 8);
+	}
+
+	/**
+	 * swap byte 0 and 1, byte 2 and 3 of lower 32 bits
+	 */
+	private static long swapBytePairs(final long v) {
+		return ((v & 0x00ff00ffL) << 8) | ((v >>> 8) & 0x00ff00ffL);
+	}
+
+	private static int clip(final int v) {
+		return v < 0 ? 0 : (v > 255 ? 255 : v);
+	}
+
+	/**
+	 * @return R, G, B, 0xff in byte order of little endian int
+	 */
+	private static int rgbx(final int y, final int u, final int v) {
+		final int c = 298 * (y - 16) + 128;
+		final int d = u - 128;
+		final int e = v - 128;
+		final int r = clip((c + 409 * e) >> 8);
+		final int g = clip((c - 100 * d - 208 * e) >> 8);
+		final int b = clip((c + 516 * d) >> 8);
+		return r | (g << 8) | (b << 16) | 0xff000000;
+	}
+
+	private static int rgb565(final int y, final int u, final int v) {
+		final int c = 298 * (y - 16) + 128;
+		final int d = u - 128;
+		final int e = v - 128;
+		final int r = clip((c + 409 * e) >> 8);
+		final int g = clip((c - 100 * d - 208 * e) >> 8);
+		final int b = clip((c + 516 * d) >> 8);
+		return ((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3);
+	}
+}
@@ -0,0 +1,53 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PooledFrameCallback.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+
+/**
+ * IFrameCallback that copies frame data from native buffer into pooled frame
+ * and pass it to IPooledFrameCallback, this is used by UVCCamera#setFrameCallback(IPooledFrameCallback, int, int).
+ * This class does not depend on Android framework.
+ */
+/*package*/ final class PooledFrameCallback implements IFrameCallback {
+	private final FramePool mPool;
+	private final IPooledFrameCallback mCallback;
+
+	/*package*/ PooledFrameCallback(final FramePool pool, final IPooledFrameCallback callback) {
+		mPool = pool;
+		mCallback = callback;
+	}
+
+	@Override
+	public void onFrame(final ByteBuffer frame) {
+		final FramePool.Frame pooled = mPool.obtain(frame);
+		if (pooled != null) {
+			try {
+				mCallback.onFrame(pooled);
+			} finally {
+				pooled.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,542 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: StillCapturePipeline.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Non-blocking still image capture.
+ * Each shot goes through three stages, grab -> encode -> write,
+ * and encode and write stages run on their own executors,
+ * so the caller(e.g. camera thread) only requests the grab and returns immediately
+ * and encoding of a shot overlaps with writing of the previous shot.
+ * Number of shots in flight is bounded, #capture fails immediately with RejectedExecutionException
+ * when the limit is reached instead of queueing pixels without limit.
+ * This class does not depend on Android framework.
+ * @param <P> type of pixels that Grabber passes to Encoder (e.g. android.graphics.Bitmap)
+ */
+public class StillCapturePipeline<P> {
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+	public interface Grabber<P> {
+		/**
+		 * request pixels of the next frame. this method should not block,
+		 * call GrabCallback#onGrabbed or GrabCallback#onError on any thread when the pixels are ready.
+		 * @param callback
+		 */
+		public void grab(GrabCallback<P> callback);
+		/**
+		 * called on the encoder thread when the pixels that came from #grab are not used anymore
+		 * @param pixels
+		 */
+		public void recycle(P pixels);
+	}
+
+	public interface GrabCallback<P> {
+		public void onGrabbed(P pixels);
+		public void onError(Exception e);
+	}
+
+	public interface Encoder<P> {
+		/**
+		 * encode pixels into the stream, called on the encoder thread
+		 * @param pixels
+		 * @param out
+		 * @throws IOException
+		 */
+		public void encode(P pixels, OutputStream out) throws IOException;
+	}
+
+	public interface Callback {
+		/**
+		 * called when the shot finished, failed or was cancelled.
+		 * this is called on the writer thread except the shot failed before it reached the writer.
+		 * @param shot
+		 */
+		public void onComplete(Shot shot);
+	}
+
+	public interface GrabListener {
+		/**
+		 * called on the thread of Grabber right after the pixels of the shot were grabbed,
+		 * e.g. to request the next frame for burst capture
+		 * @param shot
+		 */
+		public void onGrabbed(Shot shot);
+	}
+
+	private static final int STATE_GRABBING = 0;
+	private static final int STATE_ENCODING = 1;
+	private static final int STATE_WRITING = 2;
+	private static final int STATE_DONE = 3;
+
+	/**
+	 * Future of a still image, the result is the written file.
+	 * Elapsed time of each stage is available after the shot completed.
+	 */
+	public static final class Shot implements Future<File> {
+		private final Object mSync = new Object();
+		private final File mFile;
+		private final Callback mCallback;
+		private int mState = STATE_GRABBING;
+		private boolean mCancelled;
+		private Exception mError;
+		private long mRequestNs, mGrabbedNs, mEncodedNs, mWrittenNs;
+		private int mSize;
+
+		private Shot(final File file, final Callback callback) {
+			mFile = file;
+			mCallback = callback;
+			mRequestNs = System.nanoTime();
+		}
+
+		public File getFile() {
+			return mFile;
+		}
+
+		/**
+		 * @return null if the shot succeeded or is not completed yet
+		 */
+		public Exception getError() {
+			synchronized (mSync) {
+				return mError;
+			}
+		}
+
+		/**
+		 * @return bytes of the encoded image
+		 */
+		public int getSize() {
+			synchronized (mSync) {
+				return mSize;
+			}
+		}
+
+		/**
+		 * @return milliseconds from #capture until the pixels were grabbed
+		 */
+		public float getGrabMs() {
+			synchronized (mSync) {
+				return elapsedMs(mRequestNs, mGrabbedNs);
+			}
+		}
+
+		public float getEncodeMs() {
+			synchronized (mSync) {
+				return elapsedMs(mGrabbedNs, mEncodedNs);
+			}
+		}
+
+		public float getWriteMs() {
+			synchronized (mSync) {
+				return elapsedMs(mEncodedNs, mWrittenNs);
+			}
+		}
+
+		/**
+		 * @return milliseconds from #capture until the file was written
+		 */
+		public float getTotalMs() {
+			synchronized (mSync) {
+				return elapsedMs(mRequestNs, mWrittenNs);
+			}
+		}
+
+		/**
+		 * cancel this shot. a shot that is being encoded or written stops at the end of the stage
+		 * and its file is deleted.
+		 * @param mayInterruptIfRunning ignored
+		 */
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			synchronized (mSync) {
+				if (mState == STATE_DONE) return false;
+				mCancelled = true;
+				return true;
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			synchronized (mSync) {
+				return mCancelled;
+			}
+		}
+
+		@Override
+		public boolean isDone() {
+			synchronized (mSync) {
+				return mState == STATE_DONE;
+			}
+		}
+
+		@Override
+		public File get() throws InterruptedException, ExecutionException {
+			synchronized (mSync) {
+				while (mState != STATE_DONE) {
+					mSync.wait();
+				}
+				return getResult();
+			}
+		}
+
+		@Override
+		public File get(final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+
+			synchronized (mSync) {
+				final long deadline = System.nanoTime() + unit.toNanos(timeout);
+				long remaining = unit.toMillis(timeout);
+				while ((mState != STATE_DONE) && (remaining > 0)) {
+					mSync.wait(remaining);
+					remaining = (deadline - System.nanoTime()) / 1000000L;
+				}
+				if (mState != STATE_DONE)
+					throw new TimeoutException();
+				return getResult();
+			}
+		}
+
+		private File getResult() throws ExecutionException {
+			if (mCancelled)
+				throw new CancellationException();
+			if (mError != null)
+				throw new ExecutionException(mError);
+			return mFile;
+		}
+
+		/**
+		 * move to the next stage
+		 * @param state
+		 * @return false if this shot was cancelled
+		 */
+		private boolean advance(final int state) {
+			synchronized (mSync) {
+				if (mCancelled) return false;
+				final long now = System.nanoTime();
+				switch (state) {
+				case STATE_ENCODING:	mGrabbedNs = now; break;
+				case STATE_WRITING:		mEncodedNs = now; break;
+				}
+				mState = state;
+				return true;
+			}
+		}
+
+		private void finish(final Exception error) {
+			synchronized (mSync) {
+				if (mState == STATE_DONE) return;
+				if ((error != null) && !mCancelled)
+					mError = error;
+				mWrittenNs = System.nanoTime();
+				mState = STATE_DONE;
+				mSync.notifyAll();
+			}
+			if (mCallback != null) {
+				mCallback.onComplete(this);
+			}
+		}
+
+		private static float elapsedMs(final long startNs, final long endNs) {
+			return (startNs != 0) && (endNs != 0) ? (endNs - startNs) / 1000000.0f : 0;
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final Grabber<P> mGrabber;
+	private final Encoder<P> mEncoder;
+	private final int mMaxInFlight;
+	private final Executor mEncodeExecutor, mWriteExecutor;
+	private final boolean mOwnExecutors;
+	private int mInFlight;
+	private int mLastSize = 64 * 1024;
+	private long mCompletedCount, mFailedCount, mRejectedCount;
+	private boolean mReleased;
+
+	/**
+	 * Constructor, encoder and writer run on their own private threads
+	 * @param grabber
+	 * @param encoder
+	 * @param maxInFlight maximum number of shots that are grabbing, encoding or writing at the same time
+	 */
+	public StillCapturePipeline(final Grabber<P> grabber, final Encoder<P> encoder, final int maxInFlight) {
+		this(grabber, encoder, maxInFlight,
+			Executors.newSingleThreadExecutor(new NamedThreadFactory("StillEncoder")),
+			Executors.newSingleThreadExecutor(new NamedThreadFactory("StillWriter")), true);
+	}
+
+	/**
+	 * Constructor with shared executors, the executors are not shut down by #release
+	 * @param grabber
+	 * @param encoder
+	 * @param maxInFlight
+	 * @param encodeExecutor
+	 * @param writeExecutor
+	 */
+	public StillCapturePipeline(final Grabber<P> grabber, final Encoder<P> encoder, final int maxInFlight,
+		final Executor encodeExecutor, final Executor writeExecutor) {
+
+		this(grabber, encoder, maxInFlight, encodeExecutor, writeExecutor, false);
+	}
+
+	private StillCapturePipeline(final Grabber<P> grabber, final Encoder<P> encoder, final int maxInFlight,
+		final Executor encodeExecutor, final Executor writeExecutor, final boolean ownExecutors) {
+
+		if ((grabber == null) || (encoder == null))
+			throw new NullPointerException("grabber and encoder should not be null");
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight should be positive");
+		mGrabber = grabber;
+		mEncoder = encoder;
+		mMaxInFlight = maxInFlight;
+		mEncodeExecutor = encodeExecutor;
+		mWriteExecutor = writeExecutor;
+		mOwnExecutors = ownExecutors;
+	}
+
+	/**
+	 * request a still image, this method returns immediately.
+	 * @param file output file
+	 * @param callback optional, can be null
+	 * @return future of the shot, it already failed with RejectedExecutionException
+	 * if too many shots are in flight or this pipeline was released
+	 */
+	public Shot capture(final File file, final Callback callback) {
+		return capture(file, callback, null);
+	}
+
+	/**
+	 * request a still image, this method returns immediately.
+	 * @param file output file
+	 * @param callback optional, can be null
+	 * @param grabListener optional, can be null
+	 * @return future of the shot, it already failed with RejectedExecutionException
+	 * if too many shots are in flight or this pipeline was released
+	 */
+	public Shot capture(final File file, final Callback callback, final GrabListener grabListener) {
+		final Shot shot = new Shot(file, callback);
+		synchronized (mSync) {
+			if (mReleased || (mInFlight >= mMaxInFlight)) {
+				mRejectedCount++;
+				shot.finish(new RejectedExecutionException(mReleased ? "already released" : "too many shots in flight"));
+				return shot;
+			}
+			mInFlight++;
+		}
+		mGrabber.grab(new Task(shot, grabListener));
+		return shot;
+	}
+
+	public int getMaxInFlight() {
+		return mMaxInFlight;
+	}
+
+	/**
+	 * @return number of shots that are grabbing, encoding or writing now
+	 */
+	public int getInFlightCount() {
+		synchronized (mSync) {
+			return mInFlight;
+		}
+	}
+
+	public long getCompletedCount() {
+		synchronized (mSync) {
+			return mCompletedCount;
+		}
+	}
+
+	/**
+	 * @return number of shots that failed or were cancelled after they were accepted
+	 */
+	public long getFailedCount() {
+		synchronized (mSync) {
+			return mFailedCount;
+		}
+	}
+
+	/**
+	 * @return number of shots that were rejected by #capture
+	 */
+	public long getRejectedCount() {
+		synchronized (mSync) {
+			return mRejectedCount;
+		}
+	}
+
+	/**
+	 * reject new shots, shots in flight still complete.
+	 * private executors are shut down after the queued shots.
+	 */
+	public void release() {
+		synchronized (mSync) {
+			if (mReleased) return;
+			mReleased = true;
+		}
+		if (mOwnExecutors) {
+			((ExecutorService)mEncodeExecutor).shutdown();
+			((ExecutorService)mWriteExecutor).shutdown();
+		}
+	}
+
+	private void complete(final Shot shot, final Exception error) {
+		synchronized (mSync) {
+			mInFlight--;
+			if ((error == null) && !shot.isCancelled())
+				mCompletedCount++;
+			else
+				mFailedCount++;
+		}
+		shot.finish(error);
+	}
+
+	/**
+	 * carry a shot through the stages
+	 */
+	private final class Task implements GrabCallback<P> {
+		private final Shot mShot;
+		private final GrabListener mGrabListener;
+
+		private Task(final Shot shot, final GrabListener grabListener) {
+			mShot = shot;
+			mGrabListener = grabListener;
+		}
+
+		@Override
+		public void onGrabbed(final P pixels) {
+			if (!mShot.advance(STATE_ENCODING)) {
+				mGrabber.recycle(pixels);
+				complete(mShot, null);
+				return;
+			}
+			try {
+				mEncodeExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						encode(pixels);
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				mGrabber.recycle(pixels);
+				complete(mShot, e);
+				return;
+			}
+			if (mGrabListener != null) {
+				mGrabListener.onGrabbed(mShot);
+			}
+		}
+
+		@Override
+		public void onError(final Exception e) {
+			complete(mShot, e);
+		}
+
+		private void encode(final P pixels) {
+			final ByteArrayOutputStream buf;
+			synchronized (mSync) {
+				// start with the size of the last image to avoid growing the buffer
+				buf = new ByteArrayOutputStream(mLastSize);
+			}
+			Exception error = null;
+			try {
+				mEncoder.encode(pixels, buf);
+			} catch (final Exception e) {
+				error = e;
+			} finally {
+				mGrabber.recycle(pixels);
+			}
+			if (error != null) {
+				complete(mShot, error);
+				return;
+			}
+			synchronized (mSync) {
+				mLastSize = buf.size();
+			}
+			synchronized (mShot.mSync) {
+				mShot.mSize = buf.size();
+			}
+			if (!mShot.advance(STATE_WRITING)) {
+				complete(mShot, null);
+				return;
+			}
+			try {
+				mWriteExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						write(buf);
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				complete(mShot, e);
+			}
+		}
+
+		private void write(final ByteArrayOutputStream buf) {
+			final File file = mShot.getFile();
+			Exception error = null;
+			try {
+				final FileOutputStream os = new FileOutputStream(file);
+				try {
+					buf.writeTo(os);
+					os.flush();
+				} finally {
+					os.close();
+				}
+			} catch (final IOException e) {
+				error = e;
+			}
+			if ((error != null) || mShot.isCancelled()) {
+				file.delete();
+			}
+			complete(mShot, error);
+		}
+	}
+
+	private static final class NamedThreadFactory implements ThreadFactory {
+		private final String mName;
+
+		private NamedThreadFactory(final String name) {
+			mName = name;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Thread(r, mName);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: StillImageFormat.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+
+/**
+ * formats of still images
+ * This class does not depend on Android framework.
+ */
+public class StillImageFormat {
+	/**
+	 * JPEG, MJPEG frame from the camera is written as is without decoding and encoding
+	 */
+	public static final int FORMAT_JPEG = 0;
+	public static final int FORMAT_WEBP = 1;
+	/**
+	 * PNG, lossless but slow and large
+	 */
+	public static final int FORMAT_PNG = 2;
+	/**
+	 * raw YUYV(YUY2) dump without header
+	 */
+	public static final int FORMAT_YUYV = 3;
+	/**
+	 * raw NV21 dump without header
+	 */
+	public static final int FORMAT_NV21 = 4;
+
+	public static final int DEFAULT_QUALITY = 90;
+
+	private StillImageFormat() {
+	}
+
+	/**
+	 * @param format FORMAT_XXX
+	 * @return extension of file name including period
+	 */
+	public static String getExtension(final int format) {
+		switch (format) {
+		case FORMAT_JPEG:	return ".jpg";
+		case FORMAT_WEBP:	return ".webp";
+		case FORMAT_PNG:	return ".png";
+		case FORMAT_YUYV:	return ".yuyv";
+		case FORMAT_NV21:	return ".nv21";
+		default:
+			throw new IllegalArgumentException("unknown format:" + format);
+		}
+	}
+
+	/**
+	 * @param format FORMAT_XXX
+	 * @return true if quality is used by the format
+	 */
+	public static boolean hasQuality(final int format) {
+		return (format == FORMAT_JPEG) || (format == FORMAT_WEBP);
+	}
+
+	/**
+	 * check whether the frame data is MJPEG(JPEG) or not.
+	 * frame data of UVCCamera#PIXEL_FORMAT_RAW is MJPEG in MJPEG mode and YUYV in YUYV mode,
+	 * MJPEG frame is shorter than YUYV frame and starts with SOI marker.
+	 * @param data frame data from position to limit
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static boolean isMjpeg(final ByteBuffer data, final int width, final int height) {
+		final int pos = data.position();
+		return (data.remaining() < width * height * 2) && (data.remaining() >= 2)
+			&& ((data.get(pos) & 0xff) == 0xff) && ((data.get(pos + 1) & 0xff) == 0xd8);
+	}
+}
@@ -0,0 +1,207 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: StripeExecutor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execute a task on horizontal stripes of a frame in parallel.
+ * Worker threads are created on constructing and the calling thread also processes stripes,
+ * so nothing is allocated on each #execute call.
+ * ForkJoinPool is not available before API 21, so this class has its own worker threads.
+ */
+public class StripeExecutor {
+
+	public interface StripeTask {
+		/**
+		 * process rows in [rowStart, rowEnd), this method is called from multiple threads at the same time
+		 * @param rowStart
+		 * @param rowEnd
+		 */
+		public void run(int rowStart, int rowEnd);
+	}
+
+	private static StripeExecutor sDefault;
+
+	private final Object mExecuteSync = new Object();
+	private final Object mSync = new Object();
+	private final Thread[] mWorkers;
+	private final AtomicInteger mNextStripe = new AtomicInteger();
+	private final AtomicInteger mPendingStripes = new AtomicInteger();
+	private StripeTask mTask;
+	private int mRows, mStripeRows, mNumStripes;
+	private long mJobId;
+	private int mActiveWorkers;
+	private Throwable mError;
+	private volatile boolean mReleased;
+
+	/**
+	 * get shared instance that has same number of threads as available processors
+	 * @return
+	 */
+	public static synchronized StripeExecutor getDefault() {
+		if (sDefault == null) {
+			sDefault = new StripeExecutor(Runtime.getRuntime().availableProcessors());
+		}
+		return sDefault;
+	}
+
+	/**
+	 * Constructor
+	 * @param parallelism number of threads including the calling thread of #execute
+	 */
+	public StripeExecutor(final int parallelism) {
+		final int n = parallelism > 1 ? parallelism - 1 : 0;
+		mWorkers = new Thread[n];
+		for (int i = 0; i < n; i++) {
+			mWorkers[i] = new Thread(mWorkerRunnable, "StripeExecutor" + i);
+			mWorkers[i].setDaemon(true);
+			mWorkers[i].start();
+		}
+	}
+
+	/**
+	 * @return number of threads including the calling thread of #execute
+	 */
+	public int getParallelism() {
+		return mWorkers.length + 1;
+	}
+
+	/**
+	 * split rows into stripes and run the task on them in parallel.
+	 * this method blocks until all stripes are processed.
+	 * @param task
+	 * @param rows number of rows
+	 * @param stripeRows number of rows of each stripe
+	 */
+	public void execute(final StripeTask task, final int rows, final int stripeRows) {
+		if (stripeRows <= 0)
+			throw new IllegalArgumentException("stripeRows should be positive");
+		final int numStripes = (rows + stripeRows - 1) / stripeRows;
+		if ((numStripes <= 1) || (mWorkers.length == 0) || mReleased) {
+			task.run(0, rows);
+			return;
+		}
+		synchronized (mExecuteSync) {
+			synchronized (mSync) {
+				mTask = task;
+				mRows = rows;
+				mStripeRows = stripeRows;
+				mNumStripes = numStripes;
+				mNextStripe.set(0);
+				mPendingStripes.set(numStripes);
+				mError = null;
+				mJobId++;
+				mSync.notifyAll();
+			}
+			runStripes(task, rows, stripeRows, numStripes);
+			final Throwable error;
+			synchronized (mSync) {
+				while ((mPendingStripes.get() > 0) || (mActiveWorkers > 0)) {
+					try {
+						mSync.wait();
+					} catch (final InterruptedException e) {
+						// stripes that are being processed still refer the buffers
+					}
+				}
+				mTask = null;
+				error = mError;
+				mError = null;
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException)error;
+			} else if (error instanceof Error) {
+				throw (Error)error;
+			}
+		}
+	}
+
+	/**
+	 * stop worker threads, #execute runs task on the calling thread after this call
+	 */
+	public void release() {
+		synchronized (mSync) {
+			mReleased = true;
+			mSync.notifyAll();
+		}
+		synchronized (StripeExecutor.class) {
+			if (sDefault == this) sDefault = null;
+		}
+	}
+
+	private void runStripes(final StripeTask task, final int rows, final int stripeRows, final int numStripes) {
+		int stripe;
+		while ((stripe = mNextStripe.getAndIncrement()) < numStripes) {
+			final int rowStart = stripe * stripeRows;
+			final int rowEnd = Math.min(rowStart + stripeRows, rows);
+			try {
+				task.run(rowStart, rowEnd);
+			} catch (final Throwable e) {
+				synchronized (mSync) {
+					if (mError == null) mError = e;
+				}
+			}
+			if (mPendingStripes.decrementAndGet() == 0) {
+				synchronized (mSync) {
+					mSync.notifyAll();
+				}
+			}
+		}
+	}
+
+	private final Runnable mWorkerRunnable = new Runnable() {
+		@Override
+		public void run() {
+			long lastJobId = 0;
+			StripeTask task;
+			int rows, stripeRows, numStripes;
+			for ( ; ; ) {
+				synchronized (mSync) {
+					while (!mReleased && ((mTask == null) || (mJobId == lastJobId))) {
+						try {
+							mSync.wait();
+						} catch (final InterruptedException e) {
+							return;
+						}
+					}
+					if (mReleased) break;
+					lastJobId = mJobId;
+					task = mTask;
+					rows = mRows;
+					stripeRows = mStripeRows;
+					numStripes = mNumStripes;
+					mActiveWorkers++;
+				}
+				try {
+					runStripes(task, rows, stripeRows, numStripes);
+				} finally {
+					synchronized (mSync) {
+						mActiveWorkers--;
+						mSync.notifyAll();
+					}
+				}
+			}
+		}
+	};
+}
@@ -0,0 +1,517 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SupportedFormats.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Typed model of the supported formats that UVCCamera#getSupportedSize returns.
+ * The json string is parsed once with a streaming parser that does not build any json objects,
+ * and parsed result can be cached per device with #getCached.
+ * Frames of all formats are indexed by their area to find the best size quickly.
+ * This class does not depend on Android framework.
+ */
+public class SupportedFormats {
+	private static final int MAX_CACHE_ENTRIES = 16;
+
+	private final List<FormatDescriptor> mFormats;
+	/** frames of all formats sorted by area, then by frame rate(descending) */
+	private final FrameDescriptor[] mFramesByArea;
+	private final int[] mAreas;
+	private final int mSkippedCount;
+
+	private SupportedFormats(final List<FormatDescriptor> formats, final int skippedCount) {
+		mFormats = Collections.unmodifiableList(formats);
+		mSkippedCount = skippedCount;
+		final List<FrameDescriptor> frames = new ArrayList<FrameDescriptor>();
+		for (final FormatDescriptor format: formats) {
+			frames.addAll(format.getFrames());
+		}
+		mFramesByArea = frames.toArray(new FrameDescriptor[frames.size()]);
+		Arrays.sort(mFramesByArea, new Comparator<FrameDescriptor>() {
+			@Override
+			public int compare(final FrameDescriptor lhs, final FrameDescriptor rhs) {
+				if (lhs.getArea() != rhs.getArea())
+					return lhs.getArea() < rhs.getArea() ? -1 : 1;
+				return Float.compare(rhs.getMaxFrameRate(), lhs.getMaxFrameRate());
+			}
+		});
+		mAreas = new int[mFramesByArea.length];
+		for (int i = 0; i < mFramesByArea.length; i++) {
+			mAreas[i] = mFramesByArea[i].getArea();
+		}
+	}
+
+	/**
+	 * @return formats in the order of the descriptors
+	 */
+	public List<FormatDescriptor> getFormats() {
+		return mFormats;
+	}
+
+	/**
+	 * @param type FormatDescriptor#TYPE_XXX
+	 * @return the first format of the type, null if not found
+	 */
+	public FormatDescriptor getFormat(final int type) {
+		for (final FormatDescriptor format: mFormats) {
+			if (format.type == type)
+				return format;
+		}
+		return null;
+	}
+
+	/**
+	 * @param type FormatDescriptor#TYPE_XXX, -1 for all formats
+	 * @return frames in the order of the descriptors
+	 */
+	public List<FrameDescriptor> getFrames(final int type) {
+		final List<FrameDescriptor> result = new ArrayList<FrameDescriptor>();
+		for (final FormatDescriptor format: mFormats) {
+			if ((type == -1) || (format.type == type))
+				result.addAll(format.getFrames());
+		}
+		return result;
+	}
+
+	/**
+	 * find the smallest frame that is equal to or larger than the size and can stream at the frame rate
+	 * @param type FormatDescriptor#TYPE_XXX, -1 for all formats
+	 * @param minWidth
+	 * @param minHeight
+	 * @param minFrameRate frame rate is not checked for frames whose frame intervals are unknown
+	 * @return null if not found
+	 */
+	public FrameDescriptor findFrame(final int type, final int minWidth, final int minHeight, final float minFrameRate) {
+		int pos = Arrays.binarySearch(mAreas, minWidth * minHeight);
+		if (pos < 0) {
+			pos = -pos - 1;
+		} else {
+			// binarySearch returns any one of same areas
+			while ((pos > 0) && (mAreas[pos - 1] == mAreas[pos])) pos--;
+		}
+		final int n = mFramesByArea.length;
+		for (int i = pos; i < n; i++) {
+			final FrameDescriptor frame = mFramesByArea[i];
+			if (((type == -1) || (frame.type == type))
+				&& (frame.width >= minWidth) && (frame.height >= minHeight)
+				&& frame.supportsFrameRate(minFrameRate)) {
+
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of malformed entries that were skipped while parsing
+	 */
+	public int getSkippedCount() {
+		return mSkippedCount;
+	}
+
+	@Override
+	public String toString() {
+		return "SupportedFormats" + mFormats;
+	}
+
+//================================================================================
+	private static final Map<String, SupportedFormats> sCache
+		= new LinkedHashMap<String, SupportedFormats>(MAX_CACHE_ENTRIES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, SupportedFormats> eldest) {
+			return size() > MAX_CACHE_ENTRIES;
+		}
+	};
+
+	/**
+	 * @param vendorId
+	 * @param productId
+	 * @param serial can be null
+	 * @return key of the cache
+	 */
+	public static String getKey(final int vendorId, final int productId, final String serial) {
+		return String.format(Locale.US, "%04x:%04x:%s", vendorId, productId, serial != null ? serial : "");
+	}
+
+	/**
+	 * @param key #getKey
+	 * @return null if not cached
+	 */
+	public static SupportedFormats getCached(final String key) {
+		synchronized (sCache) {
+			return sCache.get(key);
+		}
+	}
+
+	/**
+	 * get cached formats, parse and cache them if they are not cached yet
+	 * @param key #getKey
+	 * @param json
+	 * @return
+	 * @throws IllegalArgumentException if the json string is malformed
+	 */
+	public static SupportedFormats getCached(final String key, final String json) {
+		SupportedFormats result = getCached(key);
+		if (result == null) {
+			result = parse(json);
+			synchronized (sCache) {
+				sCache.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	public static void removeCached(final String key) {
+		synchronized (sCache) {
+			sCache.remove(key);
+		}
+	}
+
+	public static void clearCache() {
+		synchronized (sCache) {
+			sCache.clear();
+		}
+	}
+
+//================================================================================
+	/**
+	 * parse the json string that UVCCamera#getSupportedSize returns.
+	 * malformed size/frame entries are skipped(#getSkippedCount) and other entries are kept.
+	 * @param json
+	 * @return empty formats if json is null or empty
+	 * @throws IllegalArgumentException if the json string is malformed
+	 */
+	public static SupportedFormats parse(final String json) {
+		final List<FormatDescriptor> formats = new ArrayList<FormatDescriptor>();
+		if ((json == null) || (json.length() == 0))
+			return new SupportedFormats(formats, 0);
+		final Parser parser = new Parser(json);
+		parser.beginObject();
+		while (parser.hasNext()) {
+			if (parser.nextKey("formats")) {
+				parser.beginArray();
+				while (parser.hasNext()) {
+					parser.parseFormat(formats);
+				}
+				parser.endArray();
+			} else {
+				parser.skipValue();
+			}
+		}
+		parser.endObject();
+		return new SupportedFormats(formats, parser.mSkippedCount);
+	}
+
+	/**
+	 * minimum streaming json parser for the supported formats, keys and values are compared
+	 * in place without creating strings
+	 */
+	private static final class Parser {
+		private final String mJson;
+		private final int mLength;
+		private int mPos;
+		/** true if the next value is the first one in the current object/array */
+		private boolean mFirst;
+		private int mSkippedCount;
+		// position of the last string token, start inclusive and end exclusive
+		private int mStart, mEnd;
+		// work for the frames of current format
+		private final List<FrameDescriptor> mFrames = new ArrayList<FrameDescriptor>();
+		private final List<FrameDescriptor> mSizes = new ArrayList<FrameDescriptor>();
+		private int[] mIntervals = new int[16];
+
+		private Parser(final String json) {
+			mJson = json;
+			mLength = json.length();
+		}
+
+		private void parseFormat(final List<FormatDescriptor> formats) {
+			int index = 0, type = -1, defaultIndex = 0;
+			mFrames.clear();
+			mSizes.clear();
+			beginObject();
+			while (hasNext()) {
+				if (nextKey("index")) {
+					index = nextInt();
+				} else if (isKey("type")) {
+					type = nextInt();
+				} else if (isKey("default")) {
+					defaultIndex = nextInt();
+				} else if (isKey("size")) {
+					beginArray();
+					for (int j = 0; hasNext(); j++) {
+						parseSize(j);
+					}
+					endArray();
+				} else if (isKey("frames")) {
+					beginArray();
+					while (hasNext()) {
+						parseFrame();
+					}
+					endArray();
+				} else {
+					skipValue();
+				}
+			}
+			endObject();
+			if (type < 0) {
+				// formats other than uncompressed and MJPEG are written as empty object
+				return;
+			}
+			// "frames" has frame intervals, "size" is for old native library
+			final List<FrameDescriptor> frames = mFrames.isEmpty() ? mSizes : mFrames;
+			final FrameDescriptor[] result = new FrameDescriptor[frames.size()];
+			for (int i = 0; i < result.length; i++) {
+				final FrameDescriptor frame = frames.get(i);
+				// frames are parsed before knowing the type of the format if "type" comes after them
+				result[i] = new FrameDescriptor(type, frame.index,
+					frame.width, frame.height, frame.defaultInterval, frame.getIntervals(),
+					frame.getMinInterval(), frame.getMaxInterval(), frame.getIntervalStep());
+			}
+			formats.add(new FormatDescriptor(type, index, defaultIndex, result));
+		}
+
+		/**
+		 * parse "WIDTHxHEIGHT"
+		 */
+		private void parseSize(final int position) {
+			if (peek() != '"') {
+				skipValue();
+				mSkippedCount++;
+				return;
+			}
+			nextString();
+			final int x = mJson.indexOf('x', mStart);
+			final int width = (x > mStart) && (x < mEnd) ? parseInt(mStart, x) : -1;
+			final int height = width > 0 ? parseInt(x + 1, mEnd) : -1;
+			if ((width > 0) && (height > 0)) {
+				// bFrameIndex is 1-based
+				mSizes.add(new FrameDescriptor(-1, position + 1, width, height, 0, null, 0, 0, 0));
+			} else {
+				mSkippedCount++;
+			}
+		}
+
+		private void parseFrame() {
+			int index = 0, width = 0, height = 0, defaultInterval = 0;
+			int minInterval = 0, maxInterval = 0, step = 0, intervals = 0;
+			boolean valid = true;
+			beginObject();
+			while (hasNext()) {
+				if (nextKey("index")) {
+					index = nextInt();
+				} else if (isKey("width")) {
+					width = nextInt();
+				} else if (isKey("height")) {
+					height = nextInt();
+				} else if (isKey("defaultInterval")) {
+					defaultInterval = nextInt();
+				} else if (isKey("minInterval")) {
+					minInterval = nextInt();
+				} else if (isKey("maxInterval")) {
+					maxInterval = nextInt();
+				} else if (isKey("intervalStep")) {
+					step = nextInt();
+				} else if (isKey("intervals")) {
+					beginArray();
+					while (hasNext()) {
+						final int interval = nextInt();
+						if (interval <= 0) {
+							valid = false;
+							continue;
+						}
+						if (intervals == mIntervals.length)
+							mIntervals = Arrays.copyOf(mIntervals, intervals * 2);
+						mIntervals[intervals++] = interval;
+					}
+					endArray();
+				} else {
+					skipValue();
+				}
+			}
+			endObject();
+			if (valid && (width > 0) && (height > 0)) {
+				mFrames.add(new FrameDescriptor(-1, index, width, height, defaultInterval,
+					Arrays.copyOf(mIntervals, intervals), minInterval, maxInterval, step));
+			} else {
+				mSkippedCount++;
+			}
+		}
+
+//--------------------------------------------------------------------------------
+		private void beginObject() {
+			expect('{');
+			mFirst = true;
+		}
+
+		private void endObject() {
+			expect('}');
+			mFirst = false;
+		}
+
+		private void beginArray() {
+			expect('[');
+			mFirst = true;
+		}
+
+		private void endArray() {
+			expect(']');
+			mFirst = false;
+		}
+
+		/**
+		 * @return true if the current object/array has next value, consumes the separator
+		 */
+		private boolean hasNext() {
+			final char c = peek();
+			if ((c == '}') || (c == ']'))
+				return false;
+			if (!mFirst)
+				expect(',');
+			mFirst = false;
+			return true;
+		}
+
+		/**
+		 * read the next key and the colon
+		 * @param key
+		 * @return true if the key equals to the argument, use #isKey to compare with other keys
+		 */
+		private boolean nextKey(final String key) {
+			nextString();
+			expect(':');
+			return isKey(key);
+		}
+
+		private boolean isKey(final String key) {
+			return (mEnd - mStart == key.length()) && mJson.regionMatches(mStart, key, 0, key.length());
+		}
+
+		/**
+		 * read string token, escape sequences are skipped but not decoded
+		 */
+		private void nextString() {
+			expect('"');
+			mStart = mPos;
+			while (mPos < mLength) {
+				final char c = mJson.charAt(mPos);
+				if (c == '"') {
+					mEnd = mPos++;
+					return;
+				}
+				mPos += c == '\\' ? 2 : 1;
+			}
+			throw error("unterminated string");
+		}
+
+		private int nextInt() {
+			peek();
+			final int start = mPos;
+			while ((mPos < mLength) && isNumberChar(mJson.charAt(mPos))) mPos++;
+			if (start == mPos)
+				throw error("number expected");
+			// -1 for fraction or overflow, uint32 frame intervals in 100ns units should fit in int
+			return parseInt(start, mPos);
+		}
+
+		private void skipValue() {
+			final char c = peek();
+			switch (c) {
+			case '{':
+				beginObject();
+				while (hasNext()) {
+					nextString();
+					expect(':');
+					skipValue();
+				}
+				endObject();
+				break;
+			case '[':
+				beginArray();
+				while (hasNext()) {
+					skipValue();
+				}
+				endArray();
+				break;
+			case '"':
+				nextString();
+				break;
+			default:
+				final int start = mPos;
+				while ((mPos < mLength) && (isNumberChar(mJson.charAt(mPos)) || Character.isLetter(mJson.charAt(mPos)))) mPos++;
+				if (start == mPos)
+					throw error("unexpected character '" + c + "'");
+				break;
+			}
+			mFirst = false;
+		}
+
+		private int parseInt(final int start, final int end) {
+			int ix = start;
+			final boolean negative = (ix < end) && (mJson.charAt(ix) == '-');
+			if (negative) ix++;
+			if (ix == end)
+				return -1;
+			long result = 0;
+			for ( ; ix < end; ix++) {
+				final char c = mJson.charAt(ix);
+				if ((c < '0') || (c > '9') || (result > Integer.MAX_VALUE))
+					return -1;
+				result = result * 10 + (c - '0');
+			}
+			return negative ? (int)-result : (result > Integer.MAX_VALUE ? -1 : (int)result);
+		}
+
+		private char peek() {
+			while ((mPos < mLength) && Character.isWhitespace(mJson.charAt(mPos))) mPos++;
+			if (mPos >= mLength)
+				throw error("unexpected end of json");
+			return mJson.charAt(mPos);
+		}
+
+		private void expect(final char c) {
+			if (peek() != c)
+				throw error("'" + c + "' expected");
+			mPos++;
+		}
+
+		private static boolean isNumberChar(final char c) {
+			return ((c >= '0') && (c <= '9')) || (c == '-') || (c == '+') || (c == '.') || (c == 'e') || (c == 'E');
+		}
+
+		private IllegalArgumentException error(final String message) {
+			return new IllegalArgumentException(message + " at " + mPos + " of supported formats");
+		}
+	}
+}
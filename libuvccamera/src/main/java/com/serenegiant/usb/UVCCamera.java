@@ -23,12 +23,14 @@ package com.serenegiant.usb;
  * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
 */
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import android.graphics.SurfaceTexture;
 import android.hardware.usb.UsbDevice;
@@ -38,6 +40,9 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.serenegiant.usb.USBMonitor.UsbControlBlock;
+import com.serenegiant.usb.control.ControlBackend;
+import com.serenegiant.usb.control.ControlValueCache;
+import com.serenegiant.usb.control.UVCControlBackend;
 
 public class UVCCamera {
 	private static final boolean DEBUG = false;	// TODO set false when releasing
@@ -52,7 +57,7 @@ public class UVCCamera {
 	public static final int FRAME_FORMAT_YUYV = 0;
 	public static final int FRAME_FORMAT_MJPEG = 1;
 
-	public static final int PIXEL_FORMAT_RAW = 0;
+	public static final int PIXEL_FORMAT_RAW = 0;		// YUYV in YUYV mode, MJPEG data as is(variable length) in MJPEG mode
 	public static final int PIXEL_FORMAT_YUV = 1;
 	public static final int PIXEL_FORMAT_RGB565 = 2;
 	public static final int PIXEL_FORMAT_RGBX = 3;
@@ -115,6 +120,18 @@ public class UVCCamera {
     protected long mProcSupports;				// プロセッシングユニットでサポートしている機能フラグ
     protected int mCurrentPreviewMode = 0;
     protected String mSupportedSize;
+    protected int mCurrentWidth = DEFAULT_PREVIEW_WIDTH, mCurrentHeight = DEFAULT_PREVIEW_HEIGHT;
+    private FramePool mFramePool;
+    private volatile CapabilityCache mCapabilityCache;
+    private volatile boolean mCapabilitiesCached;
+    /**
+     * held while revalidating CapabilityCache instead of the lock of this instance,
+     * #close waits for it so that the native camera is not released during control transfers
+     */
+    private final Object mRevalidateSync = new Object();
+    private long mOpenDurationNs;
+    private final ControlValueCache mControlCache = new ControlValueCache();
+    private ScheduledExecutorService mControlRefresher;
 	// these fields from here are accessed from native code and do not change name and remove
     protected long mNativePtr;
     protected int mBrightnessMin, mBrightnessMax, mBrightnessDef;
@@ -144,28 +161,75 @@ public class UVCCamera {
      * @param ctrlBlock
      */
     public void open(final UsbControlBlock ctrlBlock) {
+		final long start = System.nanoTime();
 		mCtrlBlock = ctrlBlock;
 		nativeConnect(mNativePtr,
 			mCtrlBlock.getVenderId(), mCtrlBlock.getProductId(),
 			mCtrlBlock.getFileDescriptor(),
 			getUSBFSName(mCtrlBlock));
+		final CapabilityCache cache = mCapabilityCache;
+		if ((mNativePtr != 0) && (cache != null)) {
+			final String key = CapabilityCache.getKey(mCtrlBlock.getVenderId(), mCtrlBlock.getProductId(),
+				mCtrlBlock.getSerial(), mCtrlBlock.getRawDescriptors());
+			final CapabilityCache.Capabilities capabilities = cache.get(key);
+			if (capabilities != null) {
+				mCapabilitiesCached = setCapabilities(capabilities);
+			}
+			if (!mCapabilitiesCached || !cache.isValidated(key)) {
+				// query the device and update the cache after preview started
+				revalidateCapabilities(mCtrlBlock, cache, key);
+			}
+		}
     	if (mNativePtr != 0 && TextUtils.isEmpty(mSupportedSize)) {
     		mSupportedSize = nativeGetSupportedSize(mNativePtr);
     	}
 		nativeSetPreviewSize(mNativePtr, DEFAULT_PREVIEW_WIDTH, DEFAULT_PREVIEW_HEIGHT, DEFAULT_PREVIEW_MODE, DEFAULT_BANDWIDTH);
+		mCurrentWidth = DEFAULT_PREVIEW_WIDTH;
+		mCurrentHeight = DEFAULT_PREVIEW_HEIGHT;
+		mOpenDurationNs = System.nanoTime() - start;
     }
 
+	/**
+	 * set persistent cache of capabilities, this should be called before #open.
+	 * if the capabilities of the camera are cached, #open uses them instead of
+	 * querying the limits of controls from the camera, and the cache is revalidated
+	 * on the background thread after REVALIDATE_DELAY_MS.
+	 * the entry that was already revalidated since the cache was created is not revalidated again.
+	 * @param cache null to disable
+	 */
+	public void setCapabilityCache(final CapabilityCache cache) {
+		mCapabilityCache = cache;
+	}
+
+	/**
+	 * @return true if the capabilities were loaded from CapabilityCache on last #open
+	 */
+	public boolean isCapabilitiesCached() {
+		return mCapabilitiesCached;
+	}
+
+	/**
+	 * @return time that last #open took in milliseconds
+	 */
+	public float getOpenDurationMs() {
+		return mOpenDurationNs / 1000000.0f;
+	}
+
     /**
      * close and release UVC camera
      */
     public void close() {
     	stopPreview();
-    	if (mNativePtr != 0) {
-    		nativeRelease(mNativePtr);
+    	synchronized (mRevalidateSync) {
+    		if (mNativePtr != 0) {
+    			nativeRelease(mNativePtr);
+    		}
+    		mCtrlBlock = null;
     	}
-   		mCtrlBlock = null;
 		mControlSupports = mProcSupports = 0;
 		mCurrentPreviewMode = -1;
+		mCapabilitiesCached = false;
+		mControlCache.clear();
     }
 
 	public UsbDevice getDevice() {
@@ -209,44 +273,62 @@ public class UVCCamera {
 			if (result != 0)
 				throw new IllegalArgumentException("Failed to set preview size");
 			mCurrentPreviewMode = mode;
+			mCurrentWidth = width;
+			mCurrentHeight = height;
+		}
+	}
+
+	/**
+	 * get typed supported formats, they are parsed once and cached per vendor id/product id/serial
+	 * @return empty formats if the camera is not opened
+	 */
+	public synchronized SupportedFormats getSupportedFormats() {
+		final String supportedSize = getSupportedSize();
+		if (TextUtils.isEmpty(supportedSize))
+			return SupportedFormats.parse(null);
+		final String key = mCtrlBlock != null
+			? SupportedFormats.getKey(mCtrlBlock.getVenderId(), mCtrlBlock.getProductId(), mCtrlBlock.getSerial())
+			: null;
+		try {
+			return key != null ? SupportedFormats.getCached(key, supportedSize) : SupportedFormats.parse(supportedSize);
+		} catch (final IllegalArgumentException e) {
+			Log.w(TAG, "getSupportedFormats:", e);
+			return SupportedFormats.parse(null);
 		}
 	}
 
 	public List<Size> getSupportedSizeList() {
 		final int type = (mCurrentPreviewMode > 0) ? 6 : 4;
-		return getSupportedSize(type, mSupportedSize);
+		return getSupportedSize(getSupportedFormats(), type);
 	}
 
 	public static List<Size> getSupportedSize(final int type, final String supportedSize) {
-		final List<Size> result = new ArrayList<Size>();
-		if (!TextUtils.isEmpty(supportedSize))
 		try {
-			final JSONObject json = new JSONObject(supportedSize);
-			final JSONArray formats = json.getJSONArray("formats");
-			final int format_nums = formats.length();
-			for (int i = 0; i < format_nums; i++) {
-				final JSONObject format = formats.getJSONObject(i);
-				final int format_type = format.getInt("type");
-				if ((format_type == type) || (type == -1)) {
-					addSize(format, format_type, result);
-				}
-			}
-		} catch (final JSONException e) {
+			return getSupportedSize(SupportedFormats.parse(supportedSize), type);
+		} catch (final IllegalArgumentException e) {
+			Log.w(TAG, "getSupportedSize:", e);
+			return new ArrayList<Size>();
 		}
-		return result;
 	}
 
-	private static final void addSize(final JSONObject format, final int type, final List<Size> size_list) throws JSONException {
-		final JSONArray size = format.getJSONArray("size");
-		final int size_nums = size.length();
-		for (int j = 0; j < size_nums; j++) {
-			final String[] sz = size.getString(j).split("x");
-			try {
-				size_list.add(new Size(type, j, Integer.parseInt(sz[0]), Integer.parseInt(sz[1])));
-			} catch (final Exception e) {
-				break;
+	/**
+	 * @param formats
+	 * @param type 4:uncompressed(YUYV), 6:MJPEG, -1:all formats
+	 * @return index of Size is the position in the frames of its format
+	 */
+	public static List<Size> getSupportedSize(final SupportedFormats formats, final int type) {
+		final List<Size> result = new ArrayList<Size>();
+		for (final FormatDescriptor format: formats.getFormats()) {
+			if ((format.type == type) || (type == -1)) {
+				final List<FrameDescriptor> frames = format.getFrames();
+				final int n = frames.size();
+				for (int j = 0; j < n; j++) {
+					final FrameDescriptor frame = frames.get(j);
+					result.add(new Size(format.type, j, frame.width, frame.height));
+				}
 			}
 		}
+		return result;
 	}
 
     /**
@@ -285,6 +367,41 @@ public class UVCCamera {
     	if (mNativePtr != 0) {
         	nativeSetFrameCallback(mNativePtr, callback, pixelFormat);
     	}
+    	releaseFramePool(null);
+    }
+
+    /**
+     * set frame callback that receives reference counted frames from FramePool.
+     * the size of each frame is calculated from current preview size,
+     * so you should call this after #setPreviewSize
+     * @param callback
+     * @param pixelFormat
+     * @param maxFrames maximum number of frames that can be used at the same time
+     */
+    public void setFrameCallback(final IPooledFrameCallback callback, final int pixelFormat, final int maxFrames) {
+    	if (callback == null) {
+    		setFrameCallback((IFrameCallback)null, pixelFormat);
+    		return;
+    	}
+    	final FramePool pool = new FramePool(mCurrentWidth, mCurrentHeight, pixelFormat, maxFrames);
+    	if (mNativePtr != 0) {
+        	nativeSetFrameCallback(mNativePtr, new PooledFrameCallback(pool, callback), pixelFormat);
+    	}
+    	releaseFramePool(pool);
+    }
+
+    /**
+     * @return FramePool that is used for current frame callback, null if frame callback is not pooled one
+     */
+    public synchronized FramePool getFramePool() {
+    	return mFramePool;
+    }
+
+    private synchronized void releaseFramePool(final FramePool newPool) {
+    	if ((mFramePool != null) && (mFramePool != newPool)) {
+    		mFramePool.release();
+    	}
+    	mFramePool = newPool;
     }
 
     /**
@@ -300,7 +417,7 @@ public class UVCCamera {
      * stop preview
      */
     public void stopPreview() {
-    	setFrameCallback(null, 0);
+    	setFrameCallback((IFrameCallback)null, 0);
     	if (mCtrlBlock != null) {
     		nativeStopPreview(mNativePtr);
     	}
@@ -310,6 +427,7 @@ public class UVCCamera {
      * destroy UVCCamera object
      */
     public void destroy() {
+    	setControlRefreshInterval(0);
     	close();
     	if (mNativePtr != 0) {
     		nativeDestroy(mNativePtr);
@@ -321,23 +439,166 @@ public class UVCCamera {
     // it is better to wait several hundreads millseconds.
 	public boolean checkSupportFlag(final long flag) {
     	updateCameraParams();
+    	return hasSupportFlag(flag);
+    }
+
+	private boolean hasSupportFlag(final long flag) {
     	if ((flag & 0x80000000) == 0x80000000)
     		return ((mProcSupports & flag) == (flag & 0x7ffffffF));
     	else
     		return (mControlSupports & flag) == flag;
-    }
+	}
+
+//================================================================================
+	/**
+	 * @return cache of the control values, ranges and defaults of this camera,
+	 * you can add listener to it to get notified when the values changed
+	 */
+	public ControlValueCache getControlCache() {
+		return mControlCache;
+	}
+
+	/**
+	 * read the values of supported controls from the camera periodically on a background thread
+	 * to update the cache, listeners of the cache are notified on that thread when the values changed
+	 * @param intervalMs 0 to stop refreshing
+	 */
+	public synchronized void setControlRefreshInterval(final long intervalMs) {
+		if (mControlRefresher != null) {
+			mControlRefresher.shutdownNow();
+			mControlRefresher = null;
+		}
+		if (intervalMs > 0) {
+			mControlRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					return new Thread(r, "UVCControlRefresh");
+				}
+			});
+			mControlRefresher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refreshControls();
+				}
+			}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * read all supported controls from the camera, the lock is released between controls
+	 * so that setters are not blocked while refreshing
+	 */
+	private void refreshControls() {
+		synchronized (this) {
+			if ((mNativePtr == 0) || (mCtrlBlock == null))
+				return;
+			// limits and supported flags of the cache are set here if they are not yet
+			updateCameraParams();
+		}
+		for (int control = 0; control < ControlBackend.CONTROL_NUM; control++) {
+			final int value;
+			synchronized (this) {
+				if ((mNativePtr == 0) || (mCtrlBlock == null) || !mControlCache.isSupported(control))
+					continue;
+				value = readControl(control);
+			}
+			mControlCache.put(control, value);
+		}
+	}
+
+	/**
+	 * @return the cached value, or read it from the camera if it is unknown
+	 * or it can be changed by the camera itself with auto control
+	 */
+	private int getControlValue(final int control) {
+		if (!isAutoControlled(control) && mControlCache.isKnown(control))
+			return mControlCache.get(control, 0);
+		final int value = readControl(control);
+		if (mNativePtr != 0)
+			mControlCache.put(control, value);
+		return value;
+	}
+
+	private boolean isAutoControlled(final int control) {
+		// assume auto control is enabled when it is unknown
+		switch (control) {
+		case ControlBackend.CONTROL_FOCUS:
+			return mControlCache.get(ControlBackend.CONTROL_AUTO_FOCUS, 1) != 0;
+		case ControlBackend.CONTROL_WHITE_BLANCE:
+			return mControlCache.get(ControlBackend.CONTROL_AUTO_WHITE_BLANCE, 1) != 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * read the value of the control from the camera
+	 * @return [%], or 1/0 for auto controls
+	 */
+	private int readControl(final int control) {
+		switch (control) {
+		case ControlBackend.CONTROL_BRIGHTNESS:		return getBrightness(nativeGetBrightness(mNativePtr));
+		case ControlBackend.CONTROL_CONTRAST:		return getContrast(nativeGetContrast(mNativePtr));
+		case ControlBackend.CONTROL_SHARPNESS:		return getSharpness(nativeGetSharpness(mNativePtr));
+		case ControlBackend.CONTROL_GAIN:			return getGain(nativeGetGain(mNativePtr));
+		case ControlBackend.CONTROL_GAMMA:			return getGamma(nativeGetGamma(mNativePtr));
+		case ControlBackend.CONTROL_SATURATION:		return getSaturation(nativeGetSaturation(mNativePtr));
+		case ControlBackend.CONTROL_HUE:			return getHue(nativeGetHue(mNativePtr));
+		case ControlBackend.CONTROL_ZOOM:			return getZoom(nativeGetZoom(mNativePtr));
+		case ControlBackend.CONTROL_WHITE_BLANCE:	return getWhiteBlance(nativeGetWhiteBlance(mNativePtr));
+		case ControlBackend.CONTROL_FOCUS:			return getFocus(nativeGetFocus(mNativePtr));
+		case ControlBackend.CONTROL_AUTO_FOCUS:		return nativeGetAutoFocus(mNativePtr) > 0 ? 1 : 0;
+		case ControlBackend.CONTROL_AUTO_WHITE_BLANCE:	return nativeGetAutoWhiteBlance(mNativePtr) > 0 ? 1 : 0;
+		default:
+			throw new IllegalArgumentException("unknown control:" + control);
+		}
+	}
+
+	/**
+	 * update the cache after the setter wrote the value
+	 * @param control
+	 * @param value [%]
+	 * @param min
+	 * @param max
+	 */
+	private void setControlCache(final int control, final int value, final int min, final int max) {
+		// native code does not write anything when the range is unknown
+		if (max != min)
+			mControlCache.put(control, value < 0 ? 0 : (value > 100 ? 100 : value));
+	}
+
+	private static int toPercent(final int value, final int min, final int max) {
+		final float range = Math.abs(max - min);
+		return range > 0 ? (int)((value - min) * 100.f / range) : 0;
+	}
+
+	/**
+	 * set supported flags and limits of all controls into the cache
+	 */
+	private void updateControlLimits() {
+		final int[] limits = getCapabilities().getLimits();
+		for (int control = 0; control < CapabilityCache.CONTROL_NUM; control++) {
+			mControlCache.setLimits(control, hasSupportFlag(UVCControlBackend.getSupportFlag(control)),
+				limits[control * 3], limits[control * 3 + 1], limits[control * 3 + 2]);
+		}
+		mControlCache.setLimits(ControlBackend.CONTROL_AUTO_FOCUS,
+			hasSupportFlag(UVCControlBackend.getSupportFlag(ControlBackend.CONTROL_AUTO_FOCUS)), 0, 1, 1);
+		mControlCache.setLimits(ControlBackend.CONTROL_AUTO_WHITE_BLANCE,
+			hasSupportFlag(UVCControlBackend.getSupportFlag(ControlBackend.CONTROL_AUTO_WHITE_BLANCE)), 0, 1, 1);
+	}
 
 //================================================================================
 	public synchronized void setAutoFocus(final boolean autoFocus) {
     	if (mNativePtr != 0) {
     		nativeSetAutoFocus(mNativePtr, autoFocus);
+    		mControlCache.put(ControlBackend.CONTROL_AUTO_FOCUS, autoFocus ? 1 : 0);
     	}
     }
 
 	public synchronized boolean getAutoFocus() {
     	boolean result = true;
     	if (mNativePtr != 0) {
-    		result = nativeGetAutoFocus(mNativePtr) > 0;
+    		result = getControlValue(ControlBackend.CONTROL_AUTO_FOCUS) != 0;
     	}
     	return result;
     }
@@ -350,6 +611,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mFocusMax - mFocusMin);
  		   if (range > 0)
  			   nativeSetFocus(mNativePtr, (int)(focus / 100.f * range) + mFocusMin);
+    		setControlCache(ControlBackend.CONTROL_FOCUS, focus, mFocusMin, mFocusMax);
     	}
     }
 
@@ -373,12 +635,13 @@ public class UVCCamera {
      * @return focus[%]
      */
 	public synchronized int getFocus() {
-    	return getFocus(nativeGetFocus(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_FOCUS);
     }
 
 	public synchronized void resetFocus() {
     	if (mNativePtr != 0) {
     		nativeSetFocus(mNativePtr, mFocusDef);
+    		setControlCache(ControlBackend.CONTROL_FOCUS, toPercent(mFocusDef, mFocusMin, mFocusMax), mFocusMin, mFocusMax);
     	}
     }
 
@@ -386,13 +649,14 @@ public class UVCCamera {
 	public synchronized void setAutoWhiteBlance(final boolean autoWhiteBlance) {
     	if (mNativePtr != 0) {
     		nativeSetAutoWhiteBlance(mNativePtr, autoWhiteBlance);
+    		mControlCache.put(ControlBackend.CONTROL_AUTO_WHITE_BLANCE, autoWhiteBlance ? 1 : 0);
     	}
     }
 
 	public synchronized boolean getAutoWhiteBlance() {
     	boolean result = true;
     	if (mNativePtr != 0) {
-    		result = nativeGetAutoWhiteBlance(mNativePtr) > 0;
+    		result = getControlValue(ControlBackend.CONTROL_AUTO_WHITE_BLANCE) != 0;
     	}
     	return result;
     }
@@ -406,6 +670,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mWhiteBlanceMax - mWhiteBlanceMin);
  		   if (range > 0)
  			   nativeSetWhiteBlance(mNativePtr, (int)(whiteBlance / 100.f * range) + mWhiteBlanceMin);
+    		setControlCache(ControlBackend.CONTROL_WHITE_BLANCE, whiteBlance, mWhiteBlanceMin, mWhiteBlanceMax);
     	}
     }
 
@@ -429,12 +694,13 @@ public class UVCCamera {
      * @return white blance[%]
      */
 	public synchronized int getWhiteBlance() {
-    	return getFocus(nativeGetWhiteBlance(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_WHITE_BLANCE);
     }
 
 	public synchronized void resetWhiteBlance() {
     	if (mNativePtr != 0) {
     		nativeSetWhiteBlance(mNativePtr, mWhiteBlanceDef);
+    		setControlCache(ControlBackend.CONTROL_WHITE_BLANCE, toPercent(mWhiteBlanceDef, mWhiteBlanceMin, mWhiteBlanceMax), mWhiteBlanceMin, mWhiteBlanceMax);
     	}
     }
 //================================================================================
@@ -446,6 +712,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mBrightnessMax - mBrightnessMin);
  		   if (range > 0)
  			   nativeSetBrightness(mNativePtr, (int)(brightness / 100.f * range) + mBrightnessMin);
+    		setControlCache(ControlBackend.CONTROL_BRIGHTNESS, brightness, mBrightnessMin, mBrightnessMax);
     	}
     }
 
@@ -469,12 +736,13 @@ public class UVCCamera {
      * @return brightness[%]
      */
 	public synchronized int getBrightness() {
-    	return getBrightness(nativeGetBrightness(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_BRIGHTNESS);
     }
 
 	public synchronized void resetBrightness() {
     	if (mNativePtr != 0) {
     		nativeSetBrightness(mNativePtr, mBrightnessDef);
+    		setControlCache(ControlBackend.CONTROL_BRIGHTNESS, toPercent(mBrightnessDef, mBrightnessMin, mBrightnessMax), mBrightnessMin, mBrightnessMax);
     	}
     }
 
@@ -488,6 +756,7 @@ public class UVCCamera {
 	    	final float range = Math.abs(mContrastMax - mContrastMin);
 	    	if (range > 0)
 	    		nativeSetContrast(mNativePtr, (int)(contrast / 100.f * range) + mContrastMin);
+    		setControlCache(ControlBackend.CONTROL_CONTRAST, contrast, mContrastMin, mContrastMax);
     	}
     }
 
@@ -510,12 +779,13 @@ public class UVCCamera {
      * @return contrast[%]
      */
 	public synchronized int getContrast() {
-    	return getContrast(nativeGetContrast(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_CONTRAST);
     }
 
 	public synchronized void resetContrast() {
     	if (mNativePtr != 0) {
     		nativeSetContrast(mNativePtr, mContrastDef);
+    		setControlCache(ControlBackend.CONTROL_CONTRAST, toPercent(mContrastDef, mContrastMin, mContrastMax), mContrastMin, mContrastMax);
     	}
     }
 
@@ -528,6 +798,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mSharpnessMax - mSharpnessMin);
  		   if (range > 0)
  			   nativeSetSharpness(mNativePtr, (int)(sharpness / 100.f * range) + mSharpnessMin);
+    		setControlCache(ControlBackend.CONTROL_SHARPNESS, sharpness, mSharpnessMin, mSharpnessMax);
     	}
     }
 
@@ -551,12 +822,13 @@ public class UVCCamera {
      * @return sharpness[%]
      */
 	public synchronized int getSharpness() {
-    	return getSharpness(nativeGetSharpness(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_SHARPNESS);
     }
 
 	public synchronized void resetSharpness() {
     	if (mNativePtr != 0) {
     		nativeSetSharpness(mNativePtr, mSharpnessDef);
+    		setControlCache(ControlBackend.CONTROL_SHARPNESS, toPercent(mSharpnessDef, mSharpnessMin, mSharpnessMax), mSharpnessMin, mSharpnessMax);
     	}
     }
 //================================================================================
@@ -568,6 +840,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mGainMax - mGainMin);
  		   if (range > 0)
  			   nativeSetGain(mNativePtr, (int)(gain / 100.f * range) + mGainMin);
+    		setControlCache(ControlBackend.CONTROL_GAIN, gain, mGainMin, mGainMax);
     	}
     }
 
@@ -591,12 +864,13 @@ public class UVCCamera {
      * @return gain[%]
      */
 	public synchronized int getGain() {
-    	return getGain(nativeGetGain(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_GAIN);
     }
 
 	public synchronized void resetGain() {
     	if (mNativePtr != 0) {
     		nativeSetGain(mNativePtr, mGainDef);
+    		setControlCache(ControlBackend.CONTROL_GAIN, toPercent(mGainDef, mGainMin, mGainMax), mGainMin, mGainMax);
     	}
     }
 
@@ -609,6 +883,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mGammaMax - mGammaMin);
  		   if (range > 0)
  			   nativeSetGamma(mNativePtr, (int)(gamma / 100.f * range) + mGammaMin);
+    		setControlCache(ControlBackend.CONTROL_GAMMA, gamma, mGammaMin, mGammaMax);
     	}
     }
 
@@ -632,12 +907,13 @@ public class UVCCamera {
      * @return gamma[%]
      */
 	public synchronized int getGamma() {
-    	return getGamma(nativeGetGamma(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_GAMMA);
     }
 
 	public synchronized void resetGamma() {
     	if (mNativePtr != 0) {
     		nativeSetGamma(mNativePtr, mGammaDef);
+    		setControlCache(ControlBackend.CONTROL_GAMMA, toPercent(mGammaDef, mGammaMin, mGammaMax), mGammaMin, mGammaMax);
     	}
     }
 
@@ -650,6 +926,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mSaturationMax - mSaturationMin);
  		   if (range > 0)
  			   nativeSetSaturation(mNativePtr, (int)(saturation / 100.f * range) + mSaturationMin);
+    		setControlCache(ControlBackend.CONTROL_SATURATION, saturation, mSaturationMin, mSaturationMax);
     	}
     }
 
@@ -673,12 +950,13 @@ public class UVCCamera {
      * @return saturation[%]
      */
 	public synchronized int getSaturation() {
-    	return getSaturation(nativeGetSaturation(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_SATURATION);
     }
 
 	public synchronized void resetSaturation() {
     	if (mNativePtr != 0) {
     		nativeSetSaturation(mNativePtr, mSaturationDef);
+    		setControlCache(ControlBackend.CONTROL_SATURATION, toPercent(mSaturationDef, mSaturationMin, mSaturationMax), mSaturationMin, mSaturationMax);
     	}
     }
 //================================================================================
@@ -690,6 +968,7 @@ public class UVCCamera {
  		   final float range = Math.abs(mHueMax - mHueMin);
  		   if (range > 0)
  			   nativeSetHue(mNativePtr, (int)(hue / 100.f * range) + mHueMin);
+    		setControlCache(ControlBackend.CONTROL_HUE, hue, mHueMin, mHueMax);
     	}
     }
 
@@ -713,12 +992,13 @@ public class UVCCamera {
      * @return hue[%]
      */
 	public synchronized int getHue() {
-    	return getHue(nativeGetHue(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_HUE);
     }
 
 	public synchronized void resetHue() {
     	if (mNativePtr != 0) {
-    		nativeSetHue(mNativePtr, mSaturationDef);
+    		nativeSetHue(mNativePtr, mHueDef);
+    		setControlCache(ControlBackend.CONTROL_HUE, toPercent(mHueDef, mHueMin, mHueMax), mHueMin, mHueMax);
     	}
     }
 
@@ -745,6 +1025,7 @@ public class UVCCamera {
 // 			   Log.d(TAG, "setZoom:zoom=" + zoom + " ,value=" + z);
  			   nativeSetZoom(mNativePtr, z);
  		   }
+    		setControlCache(ControlBackend.CONTROL_ZOOM, zoom, mZoomMin, mZoomMax);
     	}
     }
 
@@ -768,16 +1049,178 @@ public class UVCCamera {
      * @return zoom[%]
      */
 	public synchronized int getZoom() {
-    	return getZoom(nativeGetZoom(mNativePtr));
+    	return getControlValue(ControlBackend.CONTROL_ZOOM);
     }
 
 	public synchronized void resetZoom() {
     	if (mNativePtr != 0) {
     		nativeSetZoom(mNativePtr, mZoomDef);
+    		setControlCache(ControlBackend.CONTROL_ZOOM, toPercent(mZoomDef, mZoomMin, mZoomMax), mZoomMin, mZoomMax);
     	}
     }
 
 //================================================================================
+	/**
+	 * delay of revalidating CapabilityCache after #open, so that the control transfers
+	 * do not delay the first frame
+	 */
+	public static final long REVALIDATE_DELAY_MS = 3000;
+
+	private void updateLimits() {
+		nativeUpdateBrightnessLimit(mNativePtr);
+		nativeUpdateContrastLimit(mNativePtr);
+		nativeUpdateSharpnessLimit(mNativePtr);
+		nativeUpdateGainLimit(mNativePtr);
+		nativeUpdateGammaLimit(mNativePtr);
+		nativeUpdateSaturationLimit(mNativePtr);
+		nativeUpdateHueLimit(mNativePtr);
+		nativeUpdateZoomLimit(mNativePtr);
+		nativeUpdateWhiteBlanceLimit(mNativePtr);
+		nativeUpdateFocusLimit(mNativePtr);
+		updateControlLimits();
+	}
+
+	/**
+	 * @return snapshot of current capabilities for CapabilityCache
+	 */
+	public synchronized CapabilityCache.Capabilities getCapabilities() {
+		final int[] limits = new int[] {
+			mBrightnessMin, mBrightnessMax, mBrightnessDef,
+			mContrastMin, mContrastMax, mContrastDef,
+			mSharpnessMin, mSharpnessMax, mSharpnessDef,
+			mGainMin, mGainMax, mGainDef,
+			mGammaMin, mGammaMax, mGammaDef,
+			mSaturationMin, mSaturationMax, mSaturationDef,
+			mHueMin, mHueMax, mHueDef,
+			mZoomMin, mZoomMax, mZoomDef,
+			mWhiteBlanceMin, mWhiteBlanceMax, mWhiteBlanceDef,
+			mFocusMin, mFocusMax, mFocusDef,
+		};
+		return new CapabilityCache.Capabilities(mSupportedSize, mControlSupports, mProcSupports, limits);
+	}
+
+	/**
+	 * apply cached capabilities instead of querying the limits of controls.
+	 * supported control flags are read from the descriptors again(this does not need control transfer)
+	 * because native code also needs them.
+	 * @param capabilities
+	 * @return false if the cached flags do not match with the camera and the capabilities were not applied
+	 */
+	private synchronized boolean setCapabilities(final CapabilityCache.Capabilities capabilities) {
+		mControlSupports = nativeGetCtrlSupports(mNativePtr);
+		mProcSupports = nativeGetProcSupports(mNativePtr);
+		if ((mControlSupports != capabilities.controlSupports) || (mProcSupports != capabilities.procSupports)) {
+			Log.w(TAG, "cached capabilities are different from the camera");
+			mControlSupports = mProcSupports = 0;
+			return false;
+		}
+		if (!TextUtils.isEmpty(capabilities.supportedSize))
+			mSupportedSize = capabilities.supportedSize;
+		setLimits(capabilities);
+		return true;
+	}
+
+	/**
+	 * set min/max/default of all controls
+	 * @param capabilities
+	 */
+	private void setLimits(final CapabilityCache.Capabilities capabilities) {
+		mBrightnessMin = capabilities.getMin(CapabilityCache.CONTROL_BRIGHTNESS);
+		mBrightnessMax = capabilities.getMax(CapabilityCache.CONTROL_BRIGHTNESS);
+		mBrightnessDef = capabilities.getDef(CapabilityCache.CONTROL_BRIGHTNESS);
+		mContrastMin = capabilities.getMin(CapabilityCache.CONTROL_CONTRAST);
+		mContrastMax = capabilities.getMax(CapabilityCache.CONTROL_CONTRAST);
+		mContrastDef = capabilities.getDef(CapabilityCache.CONTROL_CONTRAST);
+		mSharpnessMin = capabilities.getMin(CapabilityCache.CONTROL_SHARPNESS);
+		mSharpnessMax = capabilities.getMax(CapabilityCache.CONTROL_SHARPNESS);
+		mSharpnessDef = capabilities.getDef(CapabilityCache.CONTROL_SHARPNESS);
+		mGainMin = capabilities.getMin(CapabilityCache.CONTROL_GAIN);
+		mGainMax = capabilities.getMax(CapabilityCache.CONTROL_GAIN);
+		mGainDef = capabilities.getDef(CapabilityCache.CONTROL_GAIN);
+		mGammaMin = capabilities.getMin(CapabilityCache.CONTROL_GAMMA);
+		mGammaMax = capabilities.getMax(CapabilityCache.CONTROL_GAMMA);
+		mGammaDef = capabilities.getDef(CapabilityCache.CONTROL_GAMMA);
+		mSaturationMin = capabilities.getMin(CapabilityCache.CONTROL_SATURATION);
+		mSaturationMax = capabilities.getMax(CapabilityCache.CONTROL_SATURATION);
+		mSaturationDef = capabilities.getDef(CapabilityCache.CONTROL_SATURATION);
+		mHueMin = capabilities.getMin(CapabilityCache.CONTROL_HUE);
+		mHueMax = capabilities.getMax(CapabilityCache.CONTROL_HUE);
+		mHueDef = capabilities.getDef(CapabilityCache.CONTROL_HUE);
+		mZoomMin = capabilities.getMin(CapabilityCache.CONTROL_ZOOM);
+		mZoomMax = capabilities.getMax(CapabilityCache.CONTROL_ZOOM);
+		mZoomDef = capabilities.getDef(CapabilityCache.CONTROL_ZOOM);
+		mWhiteBlanceMin = capabilities.getMin(CapabilityCache.CONTROL_WHITE_BLANCE);
+		mWhiteBlanceMax = capabilities.getMax(CapabilityCache.CONTROL_WHITE_BLANCE);
+		mWhiteBlanceDef = capabilities.getDef(CapabilityCache.CONTROL_WHITE_BLANCE);
+		mFocusMin = capabilities.getMin(CapabilityCache.CONTROL_FOCUS);
+		mFocusMax = capabilities.getMax(CapabilityCache.CONTROL_FOCUS);
+		mFocusDef = capabilities.getDef(CapabilityCache.CONTROL_FOCUS);
+		updateControlLimits();
+	}
+
+	private static ScheduledExecutorService sRevalidator;
+
+	/**
+	 * @return executor that is shared by all cameras, its thread terminates when it is idle
+	 */
+	private static synchronized ScheduledExecutorService getRevalidator() {
+		if (sRevalidator == null) {
+			final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "CapabilityCache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setKeepAliveTime(REVALIDATE_DELAY_MS * 2, TimeUnit.MILLISECONDS);
+			executor.allowCoreThreadTimeOut(true);
+			sRevalidator = executor;
+		}
+		return sRevalidator;
+	}
+
+	/**
+	 * query capabilities from the camera on a background thread and store them into the cache.
+	 * control transfers are issued without the lock of this instance so that they do not block
+	 * controls and preview, and the results are applied at once under the lock.
+	 */
+	private void revalidateCapabilities(final UsbControlBlock ctrlBlock, final CapabilityCache cache, final String key) {
+		getRevalidator().schedule(new Runnable() {
+			@Override
+			public void run() {
+				final String supportedSize;
+				final long controlSupports, procSupports;
+				final int[] limits = new int[CapabilityCache.CONTROL_NUM * 3];
+				synchronized (mRevalidateSync) {
+					if ((mCtrlBlock != ctrlBlock) || (mNativePtr == 0))
+						return;	// closed or opened other camera
+					supportedSize = nativeGetSupportedSize(mNativePtr);
+					controlSupports = nativeGetCtrlSupports(mNativePtr);
+					procSupports = nativeGetProcSupports(mNativePtr);
+					if (TextUtils.isEmpty(supportedSize) || (controlSupports == 0) || (procSupports == 0)
+						|| (nativeGetLimits(mNativePtr, limits) != 0)) {
+
+						return;
+					}
+				}
+				final CapabilityCache.Capabilities capabilities
+					= new CapabilityCache.Capabilities(supportedSize, controlSupports, procSupports, limits);
+				synchronized (UVCCamera.this) {
+					if (mCtrlBlock != ctrlBlock)
+						return;
+					mSupportedSize = supportedSize;
+					mControlSupports = controlSupports;
+					mProcSupports = procSupports;
+					setLimits(capabilities);
+				}
+				// the file is not written if the entry is not changed
+				if (!cache.put(key, capabilities))
+					Log.w(TAG, "failed to write capability cache:" + key);
+			}
+		}, REVALIDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
 	public synchronized void updateCameraParams() {
     	if (mNativePtr != 0) {
     		if ((mControlSupports == 0) || (mProcSupports == 0)) {
@@ -788,16 +1231,7 @@ public class UVCCamera {
     				mProcSupports = nativeGetProcSupports(mNativePtr);
     	    	// 設定値を取得
     	    	if ((mControlSupports != 0) && (mProcSupports != 0)) {
-	    	    	nativeUpdateBrightnessLimit(mNativePtr);
-	    	    	nativeUpdateContrastLimit(mNativePtr);
-	    	    	nativeUpdateSharpnessLimit(mNativePtr);
-	    	    	nativeUpdateGainLimit(mNativePtr);
-	    	    	nativeUpdateGammaLimit(mNativePtr);
-	    	    	nativeUpdateSaturationLimit(mNativePtr);
-	    	    	nativeUpdateHueLimit(mNativePtr);
-	    	    	nativeUpdateZoomLimit(mNativePtr);
-	    	    	nativeUpdateWhiteBlanceLimit(mNativePtr);
-	    	    	nativeUpdateFocusLimit(mNativePtr);
+    	    		updateLimits();
     	    	}
     	    	if (DEBUG) {
 					dumpControls(mControlSupports);
@@ -942,6 +1376,7 @@ public class UVCCamera {
 
     private static final native long nativeGetCtrlSupports(final long id_camera);
     private static final native long nativeGetProcSupports(final long id_camera);
+    private static final native int nativeGetLimits(final long id_camera, final int[] limits);
 
     private static final native int nativeSetExposureMode(final long id_camera, final int exposureMode);
     private static final native int nativeGetExposureMode(final long id_camera);
@@ -0,0 +1,267 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AsyncCameraControl.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Asynchronous facade of camera controls, every access to the camera runs on the camera thread
+ * so the caller(e.g. UI thread) never blocks on USB control transfers.
+ * Writes to the same control are coalesced, the latest value wins:
+ * while a write of the control is queued or in flight, new values only replace the pending value,
+ * so dragging a slider issues only as many transfers as the camera can absorb.
+ * Latency of control transfers is recorded into LatencyHistogram for each control.
+ * This class does not depend on Android framework.
+ */
+public class AsyncCameraControl {
+
+	public interface Callback {
+		/**
+		 * called on the camera thread
+		 * @param control ControlBackend#CONTROL_XXX
+		 * @param value the value that was written or read, for a write request that was coalesced
+		 * this is the later value that superseded it
+		 * @param error null if success
+		 */
+		public void onComplete(int control, int value, Exception error);
+	}
+
+	private final Object mSync = new Object();
+	private final ControlBackend mBackend;
+	private final ControlValueCache mCache;
+	private final Executor mExecutor;
+	private final int[] mPendingValues = new int[ControlBackend.CONTROL_NUM];
+	private final boolean[] mHasPending = new boolean[ControlBackend.CONTROL_NUM];
+	private final boolean[] mScheduled = new boolean[ControlBackend.CONTROL_NUM];
+	private final List<List<Callback>> mPendingCallbacks = new ArrayList<List<Callback>>();
+	private final long[] mRequestCounts = new long[ControlBackend.CONTROL_NUM];
+	private final long[] mWriteCounts = new long[ControlBackend.CONTROL_NUM];
+	private final LatencyHistogram[] mHistograms = new LatencyHistogram[ControlBackend.CONTROL_NUM];
+
+	/**
+	 * @param backend
+	 * @param cache cache of control values that is shared with CameraControlTransaction of same camera
+	 * @param executor executor that runs on the camera thread
+	 */
+	public AsyncCameraControl(final ControlBackend backend,
+		final ControlValueCache cache, final Executor executor) {
+
+		if ((backend == null) || (cache == null) || (executor == null))
+			throw new NullPointerException();
+		mBackend = backend;
+		mCache = cache;
+		mExecutor = executor;
+		for (int i = 0; i < ControlBackend.CONTROL_NUM; i++) {
+			mPendingCallbacks.add(new ArrayList<Callback>());
+			mHistograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * write the value without waiting
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param value [%], or 1/0 for auto controls
+	 */
+	public void set(final int control, final int value) {
+		set(control, value, null);
+	}
+
+	/**
+	 * write the value without waiting
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param value [%], or 1/0 for auto controls
+	 * @param callback can be null
+	 */
+	public void set(final int control, final int value, final Callback callback) {
+		checkControl(control);
+		synchronized (mSync) {
+			mRequestCounts[control]++;
+			mPendingValues[control] = value;
+			mHasPending[control] = true;
+			if (callback != null)
+				mPendingCallbacks.get(control).add(callback);
+			if (mScheduled[control])
+				return;	// the queued task will write the latest value
+			mScheduled[control] = true;
+		}
+		mExecutor.execute(new WriteTask(control));
+	}
+
+	/**
+	 * read the value from the camera on the camera thread
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return
+	 */
+	public Future<Integer> get(final int control) {
+		checkControl(control);
+		final FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return read(control);
+			}
+		});
+		mExecutor.execute(task);
+		return task;
+	}
+
+	/**
+	 * read the value from the camera on the camera thread
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param callback
+	 */
+	public void get(final int control, final Callback callback) {
+		checkControl(control);
+		if (callback == null) throw new NullPointerException("callback is null");
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					callback.onComplete(control, read(control), null);
+				} catch (final Exception e) {
+					callback.onComplete(control, 0, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return latencies of control transfers of the control
+	 */
+	public LatencyHistogram getLatencyHistogram(final int control) {
+		checkControl(control);
+		return mHistograms[control];
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return number of write requests
+	 */
+	public long getRequestCount(final int control) {
+		checkControl(control);
+		synchronized (mSync) {
+			return mRequestCounts[control];
+		}
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return number of writes that were actually sent to the camera
+	 */
+	public long getWriteCount(final int control) {
+		checkControl(control);
+		synchronized (mSync) {
+			return mWriteCounts[control];
+		}
+	}
+
+//================================================================================
+	private static void checkControl(final int control) {
+		if ((control < 0) || (control >= ControlBackend.CONTROL_NUM))
+			throw new IllegalArgumentException("unknown control:" + control);
+	}
+
+	/**
+	 * called on the camera thread
+	 */
+	private int read(final int control) {
+		// the pending value should be written before reading so that the caller reads its own write
+		writePending(control);
+		if (!mBackend.isSupported(control))
+			throw new UnsupportedOperationException("unsupported control:" + control);
+		final long start = System.nanoTime();
+		final int value = mBackend.getValue(control);
+		mHistograms[control].record(System.nanoTime() - start);
+		mCache.put(control, value);
+		return value;
+	}
+
+	/**
+	 * write the latest value of the control if exists, called on the camera thread
+	 */
+	private void writePending(final int control) {
+		final int value;
+		final Callback[] callbacks;
+		synchronized (mSync) {
+			if (!mHasPending[control])
+				return;
+			value = mPendingValues[control];
+			mHasPending[control] = false;
+			final List<Callback> pending = mPendingCallbacks.get(control);
+			callbacks = pending.toArray(new Callback[pending.size()]);
+			pending.clear();
+		}
+		Exception error = null;
+		if (!mCache.isSame(control, value)) {
+			try {
+				if (!mBackend.isSupported(control))
+					throw new UnsupportedOperationException("unsupported control:" + control);
+				final long start = System.nanoTime();
+				mBackend.setValue(control, value);
+				mHistograms[control].record(System.nanoTime() - start);
+				mCache.put(control, value);
+				synchronized (mSync) {
+					mWriteCounts[control]++;
+				}
+			} catch (final Exception e) {
+				mCache.invalidate(control);
+				error = e;
+			}
+		}
+		for (final Callback callback: callbacks) {
+			callback.onComplete(control, value, error);
+		}
+	}
+
+	/**
+	 * write the latest value of the control, one write per run
+	 * so that writes of other controls are not delayed by a dragged slider
+	 */
+	private final class WriteTask implements Runnable {
+		private final int mControl;
+
+		private WriteTask(final int control) {
+			mControl = control;
+		}
+
+		@Override
+		public void run() {
+			writePending(mControl);
+			final boolean reschedule;
+			synchronized (mSync) {
+				reschedule = mHasPending[mControl];
+				mScheduled[mControl] = reschedule;
+			}
+			if (reschedule) {
+				// values came while writing, queue again behind other tasks
+				mExecutor.execute(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CameraControlTransaction.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.concurrent.Executor;
+
+/**
+ * Collect changes of several camera controls and apply them in one pass on the camera thread.
+ * Writes to the same control are coalesced(the last value wins),
+ * writes of the value that is same as ControlValueCache are skipped,
+ * and the callback is called once after all changes were applied.
+ * <pre>
+ * new CameraControlTransaction(backend, cache, executor)
+ *     .set(ControlBackend.CONTROL_BRIGHTNESS, 60)
+ *     .set(ControlBackend.CONTROL_CONTRAST, 40)
+ *     .commit(callback);
+ * </pre>
+ * This class does not depend on Android framework.
+ */
+public class CameraControlTransaction {
+
+	public interface Callback {
+		/**
+		 * called on the camera thread after all changes were applied
+		 * @param transaction
+		 * @param result
+		 */
+		public void onComplete(CameraControlTransaction transaction, Result result);
+	}
+
+	/**
+	 * result of the transaction
+	 */
+	public static class Result {
+		/** number of controls that were written to the camera */
+		public int applied;
+		/** number of controls that were not written because the values were same as the cache */
+		public int skipped;
+		/** number of writes that were overwritten by the later write to the same control */
+		public int coalesced;
+		/** number of controls that the camera does not support or failed to write, their cached values are invalidated */
+		public int failed;
+		/** the first exception that was thrown while writing, null if none */
+		public Exception error;
+
+		public boolean isSuccess() {
+			return failed == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Result{applied=" + applied + ",skipped=" + skipped
+				+ ",coalesced=" + coalesced + ",failed=" + failed + "}";
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final ControlBackend mBackend;
+	private final ControlValueCache mCache;
+	private final Executor mExecutor;
+	/** controls in the order of first write */
+	private final int[] mOrder = new int[ControlBackend.CONTROL_NUM];
+	private final int[] mValues = new int[ControlBackend.CONTROL_NUM];
+	private final boolean[] mPending = new boolean[ControlBackend.CONTROL_NUM];
+	private int mCount, mCoalesced;
+	private boolean mCommitted;
+
+	/**
+	 * @param backend
+	 * @param cache cache of control values that is shared with other transactions of same camera
+	 * @param executor executor that runs on the camera thread
+	 */
+	public CameraControlTransaction(final ControlBackend backend,
+		final ControlValueCache cache, final Executor executor) {
+
+		if ((backend == null) || (cache == null) || (executor == null))
+			throw new NullPointerException();
+		mBackend = backend;
+		mCache = cache;
+		mExecutor = executor;
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param value [%], or 1/0 for auto controls
+	 * @return this transaction
+	 * @throws IllegalStateException if this transaction was already committed
+	 */
+	public CameraControlTransaction set(final int control, final int value) {
+		if ((control < 0) || (control >= ControlBackend.CONTROL_NUM))
+			throw new IllegalArgumentException("unknown control:" + control);
+		synchronized (mSync) {
+			if (mCommitted) throw new IllegalStateException("already committed");
+			if (mPending[control]) {
+				mCoalesced++;
+			} else {
+				mPending[control] = true;
+				mOrder[mCount++] = control;
+			}
+			mValues[control] = value;
+		}
+		return this;
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_AUTO_XXX
+	 * @param enable
+	 * @return this transaction
+	 */
+	public CameraControlTransaction setAuto(final int control, final boolean enable) {
+		return set(control, enable ? 1 : 0);
+	}
+
+	/**
+	 * @return number of controls that will be written at most
+	 */
+	public int size() {
+		synchronized (mSync) {
+			return mCount;
+		}
+	}
+
+	/**
+	 * apply the changes on the camera thread
+	 * @param callback can be null
+	 * @throws IllegalStateException if this transaction was already committed
+	 */
+	public void commit(final Callback callback) {
+		markCommitted();
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final Result result = applyChanges();
+				if (callback != null)
+					callback.onComplete(CameraControlTransaction.this, result);
+			}
+		});
+	}
+
+	/**
+	 * apply the changes on the caller thread, this should be called on the camera thread
+	 * @return
+	 * @throws IllegalStateException if this transaction was already committed
+	 */
+	public Result apply() {
+		markCommitted();
+		return applyChanges();
+	}
+
+	private void markCommitted() {
+		synchronized (mSync) {
+			if (mCommitted) throw new IllegalStateException("already committed");
+			mCommitted = true;
+		}
+	}
+
+	private Result applyChanges() {
+		final Result result = new Result();
+		// the fields are not changed after committed
+		result.coalesced = mCoalesced;
+		for (int i = 0; i < mCount; i++) {
+			final int control = mOrder[i];
+			final int value = mValues[control];
+			if (mCache.isSame(control, value)) {
+				result.skipped++;
+				continue;
+			}
+			try {
+				if (mBackend.isSupported(control)) {
+					mBackend.setValue(control, value);
+					mCache.put(control, value);
+					result.applied++;
+				} else {
+					mCache.invalidate(control);
+					result.failed++;
+				}
+			} catch (final Exception e) {
+				// the camera may have changed the value partially
+				mCache.invalidate(control);
+				if (result.error == null)
+					result.error = e;
+				result.failed++;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,69 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ControlBackend.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import com.serenegiant.usb.CapabilityCache;
+
+/**
+ * Access to camera controls, UVCControlBackend for UVCCamera and FakeControlBackend for unit tests on JVM.
+ * Values of the controls are in percent same as UVCCamera#setBrightness etc.,
+ * values of auto controls are 1(on) or 0(off).
+ * Methods of this interface are called on the camera thread.
+ */
+public interface ControlBackend {
+	// same index as CapabilityCache
+	public static final int CONTROL_BRIGHTNESS = CapabilityCache.CONTROL_BRIGHTNESS;
+	public static final int CONTROL_CONTRAST = CapabilityCache.CONTROL_CONTRAST;
+	public static final int CONTROL_SHARPNESS = CapabilityCache.CONTROL_SHARPNESS;
+	public static final int CONTROL_GAIN = CapabilityCache.CONTROL_GAIN;
+	public static final int CONTROL_GAMMA = CapabilityCache.CONTROL_GAMMA;
+	public static final int CONTROL_SATURATION = CapabilityCache.CONTROL_SATURATION;
+	public static final int CONTROL_HUE = CapabilityCache.CONTROL_HUE;
+	public static final int CONTROL_ZOOM = CapabilityCache.CONTROL_ZOOM;
+	public static final int CONTROL_WHITE_BLANCE = CapabilityCache.CONTROL_WHITE_BLANCE;
+	public static final int CONTROL_FOCUS = CapabilityCache.CONTROL_FOCUS;
+	public static final int CONTROL_AUTO_FOCUS = 10;
+	public static final int CONTROL_AUTO_WHITE_BLANCE = 11;
+	public static final int CONTROL_NUM = 12;
+
+	/**
+	 * @param control CONTROL_XXX
+	 * @return true if the camera supports the control
+	 */
+	public boolean isSupported(int control);
+
+	/**
+	 * read current value from the camera
+	 * @param control CONTROL_XXX
+	 * @return
+	 */
+	public int getValue(int control);
+
+	/**
+	 * write the value to the camera
+	 * @param control CONTROL_XXX
+	 * @param value
+	 */
+	public void setValue(int control, int value);
+}
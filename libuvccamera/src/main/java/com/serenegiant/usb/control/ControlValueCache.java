@@ -0,0 +1,186 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ControlValueCache.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Last known values of camera controls, values that were written to or read from the camera,
+ * and whether the camera supports each control with its range and default value.
+ * CameraControlTransaction skips writes of the values that are same as this cache,
+ * UVCCamera returns values from this cache without accessing the camera.
+ * Listeners are notified when the known value changed.
+ * This class does not depend on Android framework.
+ */
+public class ControlValueCache {
+
+	public interface OnValueChangedListener {
+		/**
+		 * called on the thread that updated the value, e.g. the thread that called the setter of UVCCamera
+		 * or the refresh thread of UVCCamera
+		 * @param control ControlBackend#CONTROL_XXX
+		 * @param value
+		 */
+		public void onValueChanged(int control, int value);
+	}
+
+	private final Object mSync = new Object();
+	private final int[] mValues = new int[ControlBackend.CONTROL_NUM];
+	private final boolean[] mKnown = new boolean[ControlBackend.CONTROL_NUM];
+	private final boolean[] mSupported = new boolean[ControlBackend.CONTROL_NUM];
+	private final int[] mMins = new int[ControlBackend.CONTROL_NUM];
+	private final int[] mMaxs = new int[ControlBackend.CONTROL_NUM];
+	private final int[] mDefs = new int[ControlBackend.CONTROL_NUM];
+	private final CopyOnWriteArrayList<OnValueChangedListener> mListeners
+		= new CopyOnWriteArrayList<OnValueChangedListener>();
+
+	public void addListener(final OnValueChangedListener listener) {
+		if (listener != null)
+			mListeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(final OnValueChangedListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param supported
+	 * @param min minimum value of the camera
+	 * @param max maximum value of the camera
+	 * @param def default value of the camera
+	 */
+	public void setLimits(final int control, final boolean supported, final int min, final int max, final int def) {
+		synchronized (mSync) {
+			mSupported[control] = supported;
+			mMins[control] = min;
+			mMaxs[control] = max;
+			mDefs[control] = def;
+		}
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return false if the camera does not support the control or the limits are not set yet
+	 */
+	public boolean isSupported(final int control) {
+		synchronized (mSync) {
+			return mSupported[control];
+		}
+	}
+
+	public int getMin(final int control) {
+		synchronized (mSync) {
+			return mMins[control];
+		}
+	}
+
+	public int getMax(final int control) {
+		synchronized (mSync) {
+			return mMaxs[control];
+		}
+	}
+
+	public int getDef(final int control) {
+		synchronized (mSync) {
+			return mDefs[control];
+		}
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return true if the value of the control is known
+	 */
+	public boolean isKnown(final int control) {
+		synchronized (mSync) {
+			return mKnown[control];
+		}
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param defaultValue
+	 * @return defaultValue if the value of the control is unknown
+	 */
+	public int get(final int control, final int defaultValue) {
+		synchronized (mSync) {
+			return mKnown[control] ? mValues[control] : defaultValue;
+		}
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param value
+	 * @return true if the value is same as the known value
+	 */
+	public boolean isSame(final int control, final int value) {
+		synchronized (mSync) {
+			return mKnown[control] && (mValues[control] == value);
+		}
+	}
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @param value value that was written to or read from the camera
+	 */
+	public void put(final int control, final int value) {
+		final boolean changed;
+		synchronized (mSync) {
+			changed = !mKnown[control] || (mValues[control] != value);
+			mValues[control] = value;
+			mKnown[control] = true;
+		}
+		if (changed) {
+			for (final OnValueChangedListener listener: mListeners) {
+				try {
+					listener.onValueChanged(control, value);
+				} catch (final RuntimeException e) {
+					// keep notifying other listeners
+				}
+			}
+		}
+	}
+
+	/**
+	 * forget the value, e.g. when the control was reset or the camera changed it by auto control
+	 * @param control ControlBackend#CONTROL_XXX
+	 */
+	public void invalidate(final int control) {
+		synchronized (mSync) {
+			mKnown[control] = false;
+		}
+	}
+
+	/**
+	 * forget all values and limits, e.g. when the camera was closed
+	 */
+	public void clear() {
+		synchronized (mSync) {
+			for (int i = 0; i < mKnown.length; i++) {
+				mKnown[i] = mSupported[i] = false;
+				mMins[i] = mMaxs[i] = mDefs[i] = 0;
+			}
+		}
+	}
+}
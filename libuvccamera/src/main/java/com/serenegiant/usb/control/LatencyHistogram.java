@@ -0,0 +1,109 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: LatencyHistogram.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.Locale;
+
+/**
+ * Histogram of latencies with logarithmic buckets,
+ * bucket i counts latencies in [2^i, 2^(i+1)) microseconds(bucket 0 also counts less than 1 microsecond).
+ * This class does not depend on Android framework.
+ */
+public class LatencyHistogram {
+	/** the last bucket counts 2^(BUCKET_NUM-1) microseconds(about 33 seconds) or more */
+	public static final int BUCKET_NUM = 26;
+
+	private final long[] mBuckets = new long[BUCKET_NUM];
+	private long mCount;
+	private long mTotalUs, mMaxUs;
+	private long mMinUs = Long.MAX_VALUE;
+
+	/**
+	 * @param latencyNs
+	 */
+	public synchronized void record(final long latencyNs) {
+		final long us = latencyNs > 0 ? latencyNs / 1000L : 0;
+		final int bucket = us > 0 ? Math.min(63 - Long.numberOfLeadingZeros(us), BUCKET_NUM - 1) : 0;
+		mBuckets[bucket]++;
+		mCount++;
+		mTotalUs += us;
+		if (us > mMaxUs) mMaxUs = us;
+		if (us < mMinUs) mMinUs = us;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < BUCKET_NUM; i++) {
+			mBuckets[i] = 0;
+		}
+		mCount = mTotalUs = mMaxUs = 0;
+		mMinUs = Long.MAX_VALUE;
+	}
+
+	public synchronized long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return copy of buckets
+	 */
+	public synchronized long[] getBuckets() {
+		return mBuckets.clone();
+	}
+
+	public synchronized float getMeanMs() {
+		return mCount > 0 ? mTotalUs / (float)mCount / 1000.0f : 0;
+	}
+
+	public synchronized float getMinMs() {
+		return mCount > 0 ? mMinUs / 1000.0f : 0;
+	}
+
+	public synchronized float getMaxMs() {
+		return mMaxUs / 1000.0f;
+	}
+
+	/**
+	 * @param percentile [0, 100]
+	 * @return upper bound of the bucket that contains the percentile in milliseconds
+	 */
+	public synchronized float getPercentileMs(final float percentile) {
+		if (mCount == 0) return 0;
+		final long target = (long)Math.ceil(mCount * Math.max(0, Math.min(percentile, 100)) / 100.0);
+		long sum = 0;
+		for (int i = 0; i < BUCKET_NUM; i++) {
+			sum += mBuckets[i];
+			if ((sum >= target) && (sum > 0)) {
+				// the bucket can not exceed the max value
+				return Math.min(1L << (i + 1), mMaxUs) / 1000.0f;
+			}
+		}
+		return getMaxMs();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "count=%d,mean=%.2fms,p50=%.2fms,p90=%.2fms,p99=%.2fms,max=%.2fms",
+			mCount, getMeanMs(), getPercentileMs(50), getPercentileMs(90), getPercentileMs(99), getMaxMs());
+	}
+}
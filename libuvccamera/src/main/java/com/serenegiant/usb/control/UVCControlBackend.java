@@ -0,0 +1,107 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: UVCControlBackend.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * ControlBackend for UVCCamera
+ */
+public class UVCControlBackend implements ControlBackend {
+	/** support flags of UVCCamera for each control */
+	private static final int[] SUPPORT_FLAGS = {
+		UVCCamera.PU_BRIGHTNESS,	// CONTROL_BRIGHTNESS
+		UVCCamera.PU_CONTRAST,		// CONTROL_CONTRAST
+		UVCCamera.PU_SHARPNESS,		// CONTROL_SHARPNESS
+		UVCCamera.PU_GAIN,			// CONTROL_GAIN
+		UVCCamera.PU_GAMMA,			// CONTROL_GAMMA
+		UVCCamera.PU_SATURATION,	// CONTROL_SATURATION
+		UVCCamera.PU_HUE,			// CONTROL_HUE
+		UVCCamera.CTRL_ZOOM_ABS,	// CONTROL_ZOOM
+		UVCCamera.PU_WB_TEMP,		// CONTROL_WHITE_BLANCE
+		UVCCamera.CTRL_FOCUS_ABS,	// CONTROL_FOCUS
+		UVCCamera.CTRL_FOCUS_AUTO,	// CONTROL_AUTO_FOCUS
+		UVCCamera.PU_WB_TEMP_AUTO,	// CONTROL_AUTO_WHITE_BLANCE
+	};
+
+	/**
+	 * @param control ControlBackend#CONTROL_XXX
+	 * @return support flag for UVCCamera#checkSupportFlag
+	 */
+	public static int getSupportFlag(final int control) {
+		return SUPPORT_FLAGS[control];
+	}
+
+	private final UVCCamera mCamera;
+
+	public UVCControlBackend(final UVCCamera camera) {
+		if (camera == null) throw new NullPointerException("camera is null");
+		mCamera = camera;
+	}
+
+	@Override
+	public boolean isSupported(final int control) {
+		return mCamera.checkSupportFlag(SUPPORT_FLAGS[control]);
+	}
+
+	@Override
+	public int getValue(final int control) {
+		switch (control) {
+		case CONTROL_BRIGHTNESS:		return mCamera.getBrightness();
+		case CONTROL_CONTRAST:			return mCamera.getContrast();
+		case CONTROL_SHARPNESS:			return mCamera.getSharpness();
+		case CONTROL_GAIN:				return mCamera.getGain();
+		case CONTROL_GAMMA:				return mCamera.getGamma();
+		case CONTROL_SATURATION:		return mCamera.getSaturation();
+		case CONTROL_HUE:				return mCamera.getHue();
+		case CONTROL_ZOOM:				return mCamera.getZoom();
+		case CONTROL_WHITE_BLANCE:		return mCamera.getWhiteBlance();
+		case CONTROL_FOCUS:				return mCamera.getFocus();
+		case CONTROL_AUTO_FOCUS:		return mCamera.getAutoFocus() ? 1 : 0;
+		case CONTROL_AUTO_WHITE_BLANCE:	return mCamera.getAutoWhiteBlance() ? 1 : 0;
+		default:
+			throw new IllegalArgumentException("unknown control:" + control);
+		}
+	}
+
+	@Override
+	public void setValue(final int control, final int value) {
+		switch (control) {
+		case CONTROL_BRIGHTNESS:		mCamera.setBrightness(value); break;
+		case CONTROL_CONTRAST:			mCamera.setContrast(value); break;
+		case CONTROL_SHARPNESS:			mCamera.setSharpness(value); break;
+		case CONTROL_GAIN:				mCamera.setGain(value); break;
+		case CONTROL_GAMMA:				mCamera.setGamma(value); break;
+		case CONTROL_SATURATION:		mCamera.setSaturation(value); break;
+		case CONTROL_HUE:				mCamera.setHue(value); break;
+		case CONTROL_ZOOM:				mCamera.setZoom(value); break;
+		case CONTROL_WHITE_BLANCE:		mCamera.setWhiteBlance(value); break;
+		case CONTROL_FOCUS:				mCamera.setFocus(value); break;
+		case CONTROL_AUTO_FOCUS:		mCamera.setAutoFocus(value != 0); break;
+		case CONTROL_AUTO_WHITE_BLANCE:	mCamera.setAutoWhiteBlance(value != 0); break;
+		default:
+			throw new IllegalArgumentException("unknown control:" + control);
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AdaptiveBitrateController.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Control loop that adjusts bitrate and frame rate of video encoder from its back-pressure.
+ * Encoder reports submitted/encoded frames (and input timeouts if it has ByteBuffer input), and #update evaluates them
+ * every interval with AIMD(additive increase/multiplicative decrease):
+ * bitrate is decreased first on congestion and frame rate is decreased only when bitrate reached minimum,
+ * they are restored in reverse order after the encoder is stable for several intervals.
+ * All methods take current time as argument so this class can run with simulated time.
+ * This class does not depend on Android framework.
+ */
+public class AdaptiveBitrateController {
+
+	public interface Callback {
+		/**
+		 * called on the thread that called #update when bitrate should be changed
+		 * @param bitRate bits per second
+		 */
+		public void onBitRateChanged(int bitRate);
+		/**
+		 * called on the thread that called #update when frame rate changed.
+		 * frames are skipped by #shouldSkipFrame, so you don't need to do anything usually.
+		 * @param frameRate
+		 */
+		public void onFrameRateChanged(int frameRate);
+	}
+
+	public static final long DEFAULT_INTERVAL_NS = 1000000000L;		// 1[sec]
+	public static final int DEFAULT_MAX_QUEUE_DEPTH = 3;
+	public static final long DEFAULT_MAX_LATENCY_NS = 200000000L;	// 200[msec]
+	/**
+	 * upper bound of bitrate relative to the bitrate of EncoderConfig
+	 */
+	public static final float MAX_BIT_RATE_FACTOR = 1.5f;
+	/**
+	 * bitrate is multiplied by this value on congestion
+	 */
+	private static final float DECREASE_FACTOR = 0.75f;
+	/**
+	 * bitrate is increased by this ratio of maximum bitrate after stable intervals
+	 */
+	private static final float INCREASE_RATIO = 0.05f;
+	/**
+	 * number of stable intervals before increasing
+	 */
+	private static final int STABLE_INTERVALS = 3;
+	private static final int MAX_PENDING_FRAMES = 64;
+
+	private final Object mSync = new Object();
+	private final int mMinBitRate, mMaxBitRate;
+	private final int mMinFrameRate, mMaxFrameRate;
+	private long mIntervalNs = DEFAULT_INTERVAL_NS;
+	private int mMaxQueueDepth = DEFAULT_MAX_QUEUE_DEPTH;
+	private long mMaxLatencyNs = DEFAULT_MAX_LATENCY_NS;
+	private Callback mCallback;
+	// current targets
+	private int mBitRate, mFrameRate;
+	private int mSkipAccumulator;
+	private int mStableCount;
+	// submit time of frames that are not encoded yet
+	private final long[] mPendingNs = new long[MAX_PENDING_FRAMES];
+	private int mPendingHead, mPendingCount;
+	// measurement of current interval
+	private long mWindowStartNs = -1;
+	private long mWindowBytes, mWindowLatencyNs;
+	private int mWindowFrames, mWindowMaxDepth, mWindowTimeouts, mWindowStalls;
+	// result of the last interval
+	private long mOutputBytesPerSec, mAverageLatencyNs;
+	private int mQueueDepth;
+	private boolean mCongested;
+	// statistics
+	private long mSkippedFrames, mDecreaseCount, mIncreaseCount, mStallCount;
+
+	/**
+	 * Constructor
+	 * @param minBitRate lower bound of bitrate
+	 * @param maxBitRate upper bound of bitrate
+	 * @param initialBitRate
+	 * @param minFrameRate lower bound of frame rate, same as maxFrameRate disables frame skipping
+	 * @param maxFrameRate frame rate of the source
+	 */
+	public AdaptiveBitrateController(final int minBitRate, final int maxBitRate, final int initialBitRate,
+		final int minFrameRate, final int maxFrameRate) {
+
+		if ((minBitRate <= 0) || (minBitRate > maxBitRate))
+			throw new IllegalArgumentException("invalid bitrate range:" + minBitRate + "-" + maxBitRate);
+		if ((minFrameRate <= 0) || (minFrameRate > maxFrameRate))
+			throw new IllegalArgumentException("invalid frame rate range:" + minFrameRate + "-" + maxFrameRate);
+		mMinBitRate = minBitRate;
+		mMaxBitRate = maxBitRate;
+		mMinFrameRate = minFrameRate;
+		mMaxFrameRate = maxFrameRate;
+		mBitRate = Math.max(minBitRate, Math.min(maxBitRate, initialBitRate));
+		mFrameRate = maxFrameRate;
+	}
+
+	/**
+	 * Constructor with bounds from EncoderConfig,
+	 * bitrate between 1/4 of the planned bitrate and MAX_BIT_RATE_FACTOR times of it, frame rate down to 1/3 of the config
+	 * @param config
+	 */
+	public AdaptiveBitrateController(final EncoderConfig config) {
+		this(Math.max(BitratePlanner.MIN_BIT_RATE, config.getBitRate() / 4),
+			(int)(config.getBitRate() * MAX_BIT_RATE_FACTOR),
+			config.getBitRate(),
+			Math.max(1, config.getFrameRate() / 3), config.getFrameRate());
+	}
+
+	public void setCallback(final Callback callback) {
+		synchronized (mSync) {
+			mCallback = callback;
+		}
+	}
+
+	/**
+	 * set thresholds of congestion
+	 * @param intervalNs interval of evaluation
+	 * @param maxQueueDepth maximum number of frames in the encoder
+	 * @param maxLatencyNs maximum average latency from submit to output
+	 */
+	public void setThresholds(final long intervalNs, final int maxQueueDepth, final long maxLatencyNs) {
+		if ((intervalNs <= 0) || (maxQueueDepth <= 0) || (maxLatencyNs <= 0))
+			throw new IllegalArgumentException("thresholds should be positive");
+		synchronized (mSync) {
+			mIntervalNs = intervalNs;
+			mMaxQueueDepth = maxQueueDepth;
+			mMaxLatencyNs = maxLatencyNs;
+		}
+	}
+
+	/**
+	 * decide whether the next frame should be skipped to achieve current frame rate.
+	 * call this for each frame from the source before #onFrameSubmitted
+	 * @return true if the frame should not be passed to the encoder
+	 */
+	public boolean shouldSkipFrame() {
+		synchronized (mSync) {
+			if (mFrameRate >= mMaxFrameRate) return false;
+			mSkipAccumulator += mFrameRate;
+			if (mSkipAccumulator >= mMaxFrameRate) {
+				mSkipAccumulator -= mMaxFrameRate;
+				return false;
+			}
+			mSkippedFrames++;
+			return true;
+		}
+	}
+
+	/**
+	 * notify a frame was passed to the encoder.
+	 * Encoder with Surface input never times out on its input, so a frame submitted
+	 * while the oldest pending frame is still in the encoder longer than maximum latency
+	 * is counted as a stall instead.
+	 * @param nowNs
+	 */
+	public void onFrameSubmitted(final long nowNs) {
+		synchronized (mSync) {
+			if ((mPendingCount > 0) && (nowNs - mPendingNs[mPendingHead] > mMaxLatencyNs)) {
+				mWindowStalls++;
+				mStallCount++;
+			}
+			if (mPendingCount == MAX_PENDING_FRAMES) {
+				// encoder seems to drop frames, forget the oldest one
+				mPendingHead = (mPendingHead + 1) % MAX_PENDING_FRAMES;
+				mPendingCount--;
+			}
+			mPendingNs[(mPendingHead + mPendingCount) % MAX_PENDING_FRAMES] = nowNs;
+			mPendingCount++;
+			if (mPendingCount > mWindowMaxDepth)
+				mWindowMaxDepth = mPendingCount;
+		}
+	}
+
+	/**
+	 * notify encoded frame came out from the encoder
+	 * @param bytes size of encoded frame
+	 * @param nowNs
+	 */
+	public void onFrameEncoded(final int bytes, final long nowNs) {
+		synchronized (mSync) {
+			mWindowBytes += bytes;
+			if (mPendingCount > 0) {
+				mWindowLatencyNs += nowNs - mPendingNs[mPendingHead];
+				mWindowFrames++;
+				mPendingHead = (mPendingHead + 1) % MAX_PENDING_FRAMES;
+				mPendingCount--;
+			}
+		}
+	}
+
+	/**
+	 * notify the encoder did not accept input buffer within timeout,
+	 * only encoder with ByteBuffer input can call this
+	 */
+	public void onInputTimeout() {
+		synchronized (mSync) {
+			mWindowTimeouts++;
+		}
+	}
+
+	/**
+	 * evaluate measurement and adjust bitrate/frame rate if the interval elapsed.
+	 * Callback is called on this thread, call this from the thread that can access the encoder.
+	 * @param nowNs
+	 * @return true if bitrate or frame rate was changed
+	 */
+	public boolean update(final long nowNs) {
+		final Callback callback;
+		int bitRate = 0, frameRate = 0;
+		synchronized (mSync) {
+			if (mWindowStartNs < 0) {
+				mWindowStartNs = nowNs;
+				return false;
+			}
+			final long elapsed = nowNs - mWindowStartNs;
+			if (elapsed < mIntervalNs) return false;
+			mOutputBytesPerSec = mWindowBytes * 1000000000L / elapsed;
+			mAverageLatencyNs = mWindowFrames > 0 ? mWindowLatencyNs / mWindowFrames : 0;
+			mQueueDepth = Math.max(mWindowMaxDepth, mPendingCount);
+			mCongested = (mQueueDepth > mMaxQueueDepth)
+				|| (mAverageLatencyNs > mMaxLatencyNs)
+				|| (mWindowTimeouts > 0) || (mWindowStalls > 0)
+				|| ((mWindowFrames == 0) && (mPendingCount > 0));
+			final int prevBitRate = mBitRate, prevFrameRate = mFrameRate;
+			if (mCongested) {
+				mStableCount = 0;
+				if (mBitRate > mMinBitRate) {
+					mBitRate = Math.max(mMinBitRate, (int)(mBitRate * DECREASE_FACTOR));
+				} else if (mFrameRate > mMinFrameRate) {
+					mFrameRate = Math.max(mMinFrameRate, (mFrameRate * 3) / 4);
+					mSkipAccumulator = 0;
+				}
+			} else if ((mQueueDepth < mMaxQueueDepth) && (mAverageLatencyNs * 2 <= mMaxLatencyNs)) {
+				if (++mStableCount >= STABLE_INTERVALS) {
+					mStableCount = 0;
+					if (mFrameRate < mMaxFrameRate) {
+						mFrameRate = Math.min(mMaxFrameRate, mFrameRate + Math.max(1, mMaxFrameRate / 10));
+					} else if (mBitRate < mMaxBitRate) {
+						mBitRate = Math.min(mMaxBitRate, mBitRate + Math.max(1, (int)(mMaxBitRate * INCREASE_RATIO)));
+					}
+				}
+			} else {
+				// between thresholds, keep current values
+				mStableCount = 0;
+			}
+			if (mBitRate < prevBitRate) mDecreaseCount++;
+			else if (mBitRate > prevBitRate) mIncreaseCount++;
+			if (mBitRate != prevBitRate) bitRate = mBitRate;
+			if (mFrameRate != prevFrameRate) frameRate = mFrameRate;
+			// start next interval, pending frames are kept
+			mWindowStartNs = nowNs;
+			mWindowBytes = mWindowLatencyNs = 0;
+			mWindowFrames = mWindowTimeouts = mWindowStalls = 0;
+			mWindowMaxDepth = mPendingCount;
+			callback = mCallback;
+		}
+		if (callback != null) {
+			if (bitRate > 0) callback.onBitRateChanged(bitRate);
+			if (frameRate > 0) callback.onFrameRateChanged(frameRate);
+		}
+		return (bitRate > 0) || (frameRate > 0);
+	}
+
+	/**
+	 * clear measurement, call this when the encoder restarted
+	 */
+	public void reset() {
+		synchronized (mSync) {
+			mPendingHead = mPendingCount = 0;
+			mWindowStartNs = -1;
+			mWindowBytes = mWindowLatencyNs = 0;
+			mWindowFrames = mWindowMaxDepth = mWindowTimeouts = mWindowStalls = 0;
+			mStableCount = mSkipAccumulator = 0;
+		}
+	}
+
+	public int getBitRate() {
+		synchronized (mSync) {
+			return mBitRate;
+		}
+	}
+
+	public int getFrameRate() {
+		synchronized (mSync) {
+			return mFrameRate;
+		}
+	}
+
+	public int getMinBitRate() {
+		return mMinBitRate;
+	}
+
+	public int getMaxBitRate() {
+		return mMaxBitRate;
+	}
+
+	/**
+	 * @return output bytes per second of the last interval
+	 */
+	public long getOutputBytesPerSec() {
+		synchronized (mSync) {
+			return mOutputBytesPerSec;
+		}
+	}
+
+	/**
+	 * @return average latency from submit to output of the last interval in nanoseconds
+	 */
+	public long getAverageLatencyNs() {
+		synchronized (mSync) {
+			return mAverageLatencyNs;
+		}
+	}
+
+	/**
+	 * @return maximum number of frames in the encoder in the last interval
+	 */
+	public int getQueueDepth() {
+		synchronized (mSync) {
+			return mQueueDepth;
+		}
+	}
+
+	/**
+	 * @return whether the last interval was congested
+	 */
+	public boolean isCongested() {
+		synchronized (mSync) {
+			return mCongested;
+		}
+	}
+
+	public long getSkippedFrames() {
+		synchronized (mSync) {
+			return mSkippedFrames;
+		}
+	}
+
+	public long getDecreaseCount() {
+		synchronized (mSync) {
+			return mDecreaseCount;
+		}
+	}
+
+	public long getIncreaseCount() {
+		synchronized (mSync) {
+			return mIncreaseCount;
+		}
+	}
+
+	/**
+	 * @return number of frames that were submitted while the encoder stalled
+	 */
+	public long getStallCount() {
+		synchronized (mSync) {
+			return mStallCount;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BitmapStillEncoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import android.graphics.Bitmap;
+
+import com.serenegiant.usb.StillCapturePipeline;
+import com.serenegiant.usb.StillImageFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * encode a Bitmap with Bitmap#compress for StillCapturePipeline
+ */
+public class BitmapStillEncoder implements StillCapturePipeline.Encoder<Bitmap> {
+
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+
+    /**
+     * Constructor
+     * @param format
+     * @param quality 0-100, ignored for PNG
+     */
+    public BitmapStillEncoder(final Bitmap.CompressFormat format, final int quality) {
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * Constructor
+     * @param format StillImageFormat#FORMAT_JPEG, FORMAT_WEBP or FORMAT_PNG
+     * @param quality 0-100, ignored for PNG
+     */
+    public BitmapStillEncoder(final int format, final int quality) {
+        this(getCompressFormat(format), quality);
+    }
+
+    /**
+     * @param format StillImageFormat#FORMAT_XXX
+     * @return
+     * @throws IllegalArgumentException raw formats are not supported for Bitmap
+     */
+    public static Bitmap.CompressFormat getCompressFormat(final int format) {
+        switch (format) {
+        case StillImageFormat.FORMAT_JPEG:  return Bitmap.CompressFormat.JPEG;
+        case StillImageFormat.FORMAT_WEBP:  return Bitmap.CompressFormat.WEBP;
+        case StillImageFormat.FORMAT_PNG:   return Bitmap.CompressFormat.PNG;
+        default:
+            throw new IllegalArgumentException("unsupported format for Bitmap:" + format);
+        }
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    @Override
+    public void encode(final Bitmap pixels, final OutputStream out) throws IOException {
+        if (!pixels.compress(mFormat, mQuality, out))
+            throw new IOException("failed to compress bitmap:format=" + mFormat);
+    }
+}
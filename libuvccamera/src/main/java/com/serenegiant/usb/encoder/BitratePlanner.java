@@ -0,0 +1,152 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BitratePlanner.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Plan bitrate and GOP of video encoder from resolution and frame rate.
+ * Bits per pixel is DEFAULT_BPP at 640x480@15fps and decreases for larger frames and higher frame rates,
+ * because the encoder can predict from larger area and closer frames.
+ * This class does not depend on Android framework.
+ */
+public class BitratePlanner {
+	public static final float DEFAULT_BPP = 0.50f;
+	public static final int REFERENCE_PIXELS = 640 * 480;
+	public static final int REFERENCE_FRAME_RATE = 15;
+	public static final int MIN_BIT_RATE = 64 * 1024;
+
+	/**
+	 * result of planning
+	 */
+	public static final class Plan {
+		/**
+		 * target bitrate in bits per second
+		 */
+		public final int bitRate;
+		/**
+		 * bits per pixel that was used for planning
+		 */
+		public final float bpp;
+		/**
+		 * interval of I-frame in seconds, for MediaFormat#KEY_I_FRAME_INTERVAL
+		 */
+		public final int iFrameInterval;
+		/**
+		 * number of frames in a GOP
+		 */
+		public final int gopFrames;
+
+		private Plan(final int bitRate, final float bpp, final int iFrameInterval, final int gopFrames) {
+			this.bitRate = bitRate;
+			this.bpp = bpp;
+			this.iFrameInterval = iFrameInterval;
+			this.gopFrames = gopFrames;
+		}
+
+		@Override
+		public String toString() {
+			return "Plan(bitRate=" + bitRate + ",bpp=" + bpp
+				+ ",iFrameInterval=" + iFrameInterval + ",gopFrames=" + gopFrames + ")";
+		}
+	}
+
+	private BitratePlanner() {
+	}
+
+	/**
+	 * simple bitrate calculation, bpp * frameRate * width * height
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 * @param bpp bits per pixel
+	 * @return bitrate in bits per second
+	 */
+	public static int calcBitRate(final int width, final int height, final int frameRate, final float bpp) {
+		return (int)(bpp * frameRate * width * height);
+	}
+
+	/**
+	 * bits per pixel for the resolution and frame rate
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 * @return
+	 */
+	public static float calcBpp(final int width, final int height, final int frameRate) {
+		checkArgs(width, height, frameRate);
+		final double pixelScale = Math.pow(REFERENCE_PIXELS / (double)(width * height), 0.25);
+		final double rateScale = Math.pow(REFERENCE_FRAME_RATE / (double)frameRate, 0.25);
+		return (float)(DEFAULT_BPP * pixelScale * rateScale);
+	}
+
+	/**
+	 * plan bitrate and GOP
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 * @param iFrameInterval interval of I-frame in seconds, 0 means every frame is I-frame
+	 * @param maxBitRate upper limit of bitrate of the codec, 0 if unknown
+	 * @return
+	 */
+	public static Plan plan(final int width, final int height, final int frameRate,
+		final int iFrameInterval, final int maxBitRate) {
+
+		checkArgs(width, height, frameRate);
+		if (iFrameInterval < 0)
+			throw new IllegalArgumentException("invalid I-frame interval:" + iFrameInterval);
+		final float bpp = calcBpp(width, height, frameRate);
+		final int bitRate = clamp(calcBitRate(width, height, frameRate, bpp), maxBitRate);
+		final int gopFrames = iFrameInterval > 0 ? iFrameInterval * frameRate : 1;
+		return new Plan(bitRate, bpp, iFrameInterval, gopFrames);
+	}
+
+	/**
+	 * select I-frame interval in seconds so that the segment duration is multiple of GOP duration
+	 * @param segmentDurationSec
+	 * @param preferredIFrameInterval
+	 * @return largest divisor of segmentDurationSec that is not larger than preferredIFrameInterval
+	 */
+	public static int planIFrameInterval(final int segmentDurationSec, final int preferredIFrameInterval) {
+		if ((segmentDurationSec <= 0) || (preferredIFrameInterval <= 0))
+			throw new IllegalArgumentException("duration and interval should be positive");
+		for (int i = Math.min(segmentDurationSec, preferredIFrameInterval); i > 1; i--) {
+			if (segmentDurationSec % i == 0)
+				return i;
+		}
+		return 1;
+	}
+
+	private static int clamp(final int bitRate, final int maxBitRate) {
+		int result = bitRate < MIN_BIT_RATE ? MIN_BIT_RATE : bitRate;
+		if ((maxBitRate > 0) && (result > maxBitRate))
+			result = maxBitRate;
+		return result;
+	}
+
+	private static void checkArgs(final int width, final int height, final int frameRate) {
+		if ((width <= 0) || (height <= 0))
+			throw new IllegalArgumentException("invalid size:" + width + "x" + height);
+		if (frameRate <= 0)
+			throw new IllegalArgumentException("invalid frame rate:" + frameRate);
+	}
+}
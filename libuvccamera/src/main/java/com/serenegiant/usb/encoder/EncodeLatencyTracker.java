@@ -0,0 +1,150 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: EncodeLatencyTracker.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Measure latency of each frame from submitting it to the encoder
+ * until the encoded data come out of the encoder.
+ * Submitted frames are kept in a fixed size ring and matched with encoded data
+ * by presentation time or in submitted order.
+ * This class does not depend on Android framework.
+ */
+public class EncodeLatencyTracker {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private final long[] mPtsUs;
+	private final long[] mSubmitNs;
+	private final boolean mMatchByPts;
+	private int mHead, mCount;
+	private long mFrameCount;
+	private long mLastNs, mMinNs, mMaxNs, mTotalNs;
+
+	/**
+	 * Constructor
+	 * @param matchByPts true if presentation time of encoded data is same as the submitted one
+	 * (input from buffer), false if the encoder assigns presentation time by itself(input from Surface)
+	 * and encoded data are matched in submitted order.
+	 */
+	public EncodeLatencyTracker(final boolean matchByPts) {
+		this(matchByPts, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param matchByPts
+	 * @param capacity maximum number of frames in the encoder, older frames are discarded
+	 */
+	public EncodeLatencyTracker(final boolean matchByPts, final int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity should be positive");
+		mMatchByPts = matchByPts;
+		mPtsUs = new long[capacity];
+		mSubmitNs = new long[capacity];
+		reset();
+	}
+
+	public synchronized void reset() {
+		mHead = mCount = 0;
+		mFrameCount = 0;
+		mLastNs = mMaxNs = mTotalNs = 0;
+		mMinNs = Long.MAX_VALUE;
+	}
+
+	/**
+	 * call when a frame is submitted to the encoder
+	 * @param ptsUs presentation time of the frame
+	 * @param nowNs System#nanoTime
+	 */
+	public synchronized void onInput(final long ptsUs, final long nowNs) {
+		final int capacity = mPtsUs.length;
+		if (mCount == capacity) {
+			// encoder seems to drop frames, discard the oldest one
+			mHead = (mHead + 1) % capacity;
+			mCount--;
+		}
+		final int ix = (mHead + mCount) % capacity;
+		mPtsUs[ix] = ptsUs;
+		mSubmitNs[ix] = nowNs;
+		mCount++;
+	}
+
+	/**
+	 * call when encoded data come out of the encoder
+	 * @param ptsUs presentation time of encoded data
+	 * @param nowNs System#nanoTime
+	 * @return latency of this frame in nanoseconds, -1 if no submitted frame matched
+	 */
+	public synchronized long onOutput(final long ptsUs, final long nowNs) {
+		if (mCount == 0) return -1;
+		final int capacity = mPtsUs.length;
+		if (mMatchByPts) {
+			// discard frames that the encoder skipped.
+			// the head frame is kept because one input may produce multiple outputs(e.g. audio)
+			while ((mCount > 1) && (mPtsUs[(mHead + 1) % capacity] <= ptsUs)) {
+				mHead = (mHead + 1) % capacity;
+				mCount--;
+			}
+		}
+		final long latency = nowNs - mSubmitNs[mHead];
+		if (!mMatchByPts) {
+			mHead = (mHead + 1) % capacity;
+			mCount--;
+		}
+		mFrameCount++;
+		mLastNs = latency;
+		mTotalNs += latency;
+		if (latency < mMinNs) mMinNs = latency;
+		if (latency > mMaxNs) mMaxNs = latency;
+		return latency;
+	}
+
+	/**
+	 * @return number of measured frames
+	 */
+	public synchronized long getFrameCount() {
+		return mFrameCount;
+	}
+
+	public synchronized long getLastLatencyNs() {
+		return mLastNs;
+	}
+
+	public synchronized long getAverageLatencyNs() {
+		return mFrameCount > 0 ? mTotalNs / mFrameCount : 0;
+	}
+
+	public synchronized long getMinLatencyNs() {
+		return mFrameCount > 0 ? mMinNs : 0;
+	}
+
+	public synchronized long getMaxLatencyNs() {
+		return mMaxNs;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("EncodeLatencyTracker{frames=%d,last=%.2f,avg=%.2f,min=%.2f,max=%.2f[ms]}",
+			mFrameCount, mLastNs / 1e6, getAverageLatencyNs() / 1e6, getMinLatencyNs() / 1e6, mMaxNs / 1e6);
+	}
+}
@@ -0,0 +1,295 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: EncoderConfig.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.List;
+import java.util.Locale;
+
+import com.serenegiant.usb.FormatDescriptor;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * Parameters for video recording, that are passed to MediaMuxerWrapper, MediaVideoEncoder and MediaSurfaceEncoder.
+ * Width and height should be same as the camera preview size.
+ * Encoders copy this object when they are created, so changing this after that does not affect them.
+ */
+public class EncoderConfig {
+	/**
+	 * constant quality, same value as MediaCodecInfo.EncoderCapabilities#BITRATE_MODE_CQ(API >= 21)
+	 */
+	public static final int BITRATE_MODE_CQ = 0;
+	/**
+	 * variable bitrate, same value as MediaCodecInfo.EncoderCapabilities#BITRATE_MODE_VBR(API >= 21)
+	 */
+	public static final int BITRATE_MODE_VBR = 1;
+	/**
+	 * constant bitrate, same value as MediaCodecInfo.EncoderCapabilities#BITRATE_MODE_CBR(API >= 21)
+	 */
+	public static final int BITRATE_MODE_CBR = 2;
+
+	public static final int DEFAULT_FRAME_RATE = 15;
+	public static final int DEFAULT_I_FRAME_INTERVAL = 10;	// [sec]
+	/**
+	 * use default profile/level of the codec
+	 */
+	public static final int PROFILE_DEFAULT = 0;
+	public static final int LEVEL_DEFAULT = 0;
+
+	private int mWidth = UVCCamera.DEFAULT_PREVIEW_WIDTH;
+	private int mHeight = UVCCamera.DEFAULT_PREVIEW_HEIGHT;
+	private int mPreviewMode = UVCCamera.DEFAULT_PREVIEW_MODE;
+	private int mFrameRate = DEFAULT_FRAME_RATE;
+	private int mBitrateMode = BITRATE_MODE_VBR;
+	private int mBitRate;
+	private int mIFrameInterval = DEFAULT_I_FRAME_INTERVAL;
+	private int mProfile = PROFILE_DEFAULT;
+	private int mLevel = LEVEL_DEFAULT;
+
+	/**
+	 * Constructor, 640x480@15fps, YUYV, VBR and I-frame interval of 10 seconds
+	 */
+	public EncoderConfig() {
+	}
+
+	/**
+	 * Constructor
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 */
+	public EncoderConfig(final int width, final int height, final int frameRate) {
+		setSize(width, height);
+		setFrameRate(frameRate);
+	}
+
+	/**
+	 * Copy constructor
+	 * @param other
+	 */
+	public EncoderConfig(final EncoderConfig other) {
+		mWidth = other.mWidth;
+		mHeight = other.mHeight;
+		mPreviewMode = other.mPreviewMode;
+		mFrameRate = other.mFrameRate;
+		mBitrateMode = other.mBitrateMode;
+		mBitRate = other.mBitRate;
+		mIFrameInterval = other.mIFrameInterval;
+		mProfile = other.mProfile;
+		mLevel = other.mLevel;
+	}
+
+	public EncoderConfig setSize(final int width, final int height) {
+		if ((width <= 0) || (height <= 0))
+			throw new IllegalArgumentException("invalid size:" + width + "x" + height);
+		mWidth = width;
+		mHeight = height;
+		return this;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * set frame format of the camera
+	 * @param previewMode UVCCamera#FRAME_FORMAT_YUYV or UVCCamera#FRAME_FORMAT_MJPEG
+	 * @return
+	 */
+	public EncoderConfig setPreviewMode(final int previewMode) {
+		mPreviewMode = previewMode;
+		return this;
+	}
+
+	public int getPreviewMode() {
+		return mPreviewMode;
+	}
+
+	public EncoderConfig setFrameRate(final int frameRate) {
+		if (frameRate <= 0)
+			throw new IllegalArgumentException("invalid frame rate:" + frameRate);
+		mFrameRate = frameRate;
+		return this;
+	}
+
+	public int getFrameRate() {
+		return mFrameRate;
+	}
+
+	/**
+	 * @param bitrateMode BITRATE_MODE_CQ, BITRATE_MODE_VBR or BITRATE_MODE_CBR, this is ignored before API 21
+	 * @return
+	 */
+	public EncoderConfig setBitrateMode(final int bitrateMode) {
+		if ((bitrateMode < BITRATE_MODE_CQ) || (bitrateMode > BITRATE_MODE_CBR))
+			throw new IllegalArgumentException("unknown bitrate mode:" + bitrateMode);
+		mBitrateMode = bitrateMode;
+		return this;
+	}
+
+	public int getBitrateMode() {
+		return mBitrateMode;
+	}
+
+	/**
+	 * @param bitRate bits per second, 0 means planned by BitratePlanner
+	 * @return
+	 */
+	public EncoderConfig setBitRate(final int bitRate) {
+		if (bitRate < 0)
+			throw new IllegalArgumentException("invalid bitrate:" + bitRate);
+		mBitRate = bitRate;
+		return this;
+	}
+
+	/**
+	 * @return bitrate that was set by #setBitRate or planned by BitratePlanner
+	 */
+	public int getBitRate() {
+		return mBitRate > 0 ? mBitRate : getPlan(0).bitRate;
+	}
+
+	/**
+	 * @param iFrameInterval interval of I-frame in seconds
+	 * @return
+	 */
+	public EncoderConfig setIFrameInterval(final int iFrameInterval) {
+		if (iFrameInterval < 0)
+			throw new IllegalArgumentException("invalid I-frame interval:" + iFrameInterval);
+		mIFrameInterval = iFrameInterval;
+		return this;
+	}
+
+	public int getIFrameInterval() {
+		return mIFrameInterval;
+	}
+
+	/**
+	 * @param profile MediaCodecInfo.CodecProfileLevel#AVCProfileXXX, PROFILE_DEFAULT to use codec default, this is ignored before API 21
+	 * @param level MediaCodecInfo.CodecProfileLevel#AVCLevelXXX, LEVEL_DEFAULT to use codec default, this is ignored before API 23
+	 * @return
+	 */
+	public EncoderConfig setProfile(final int profile, final int level) {
+		mProfile = profile;
+		mLevel = level;
+		return this;
+	}
+
+	public int getProfile() {
+		return mProfile;
+	}
+
+	public int getLevel() {
+		return mLevel;
+	}
+
+	/**
+	 * plan bitrate and GOP with this config, bitrate that was set by #setBitRate has priority
+	 * @param maxBitRate upper limit of bitrate of the codec, 0 if unknown
+	 * @return
+	 */
+	public BitratePlanner.Plan getPlan(final int maxBitRate) {
+		return BitratePlanner.plan(mWidth, mHeight, mFrameRate, mIFrameInterval,
+			mBitRate > 0 ? mBitRate : maxBitRate);
+	}
+
+	/**
+	 * @return type of Size for current preview mode, same as UVCCamera#getSupportedSizeList
+	 */
+	public int getSizeType() {
+		return mPreviewMode == UVCCamera.FRAME_FORMAT_MJPEG
+			? FormatDescriptor.TYPE_MJPEG : FormatDescriptor.TYPE_UNCOMPRESSED;
+	}
+
+	/**
+	 * check whether the size list has the size of this config
+	 * @param sizes list from UVCCamera#getSupportedSizeList or UVCCamera#getSupportedSize
+	 * @return
+	 */
+	public boolean isSupported(final List<Size> sizes) {
+		if (sizes != null) {
+			final int type = getSizeType();
+			for (final Size size: sizes) {
+				if ((size.type == type) && (size.width == mWidth) && (size.height == mHeight))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * validate this config with the size list
+	 * @param sizes list from UVCCamera#getSupportedSizeList or UVCCamera#getSupportedSize
+	 * @throws IllegalArgumentException if the size of this config is not supported
+	 */
+	public void validate(final List<Size> sizes) {
+		if (!isSupported(sizes))
+			throw new IllegalArgumentException("unsupported size:" + this);
+	}
+
+	/**
+	 * validate this config with the sizes that the camera supports
+	 * @param camera opened camera
+	 * @throws IllegalArgumentException if the size of this config is not supported
+	 */
+	public void validate(final UVCCamera camera) {
+		validate(UVCCamera.getSupportedSize(getSizeType(), camera.getSupportedSize()));
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof EncoderConfig)) return false;
+		final EncoderConfig other = (EncoderConfig)o;
+		return (mWidth == other.mWidth) && (mHeight == other.mHeight)
+			&& (mPreviewMode == other.mPreviewMode) && (mFrameRate == other.mFrameRate)
+			&& (mBitrateMode == other.mBitrateMode) && (mBitRate == other.mBitRate)
+			&& (mIFrameInterval == other.mIFrameInterval)
+			&& (mProfile == other.mProfile) && (mLevel == other.mLevel);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = mWidth;
+		result = 31 * result + mHeight;
+		result = 31 * result + mPreviewMode;
+		result = 31 * result + mFrameRate;
+		result = 31 * result + mBitrateMode;
+		result = 31 * result + mBitRate;
+		result = 31 * result + mIFrameInterval;
+		result = 31 * result + mProfile;
+		result = 31 * result + mLevel;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "EncoderConfig(%dx%d@%d,mode:%d,bitrateMode:%d,bitRate:%d,iFrameInterval:%d,profile:%d,level:%d)",
+			mWidth, mHeight, mFrameRate, mPreviewMode, mBitrateMode, mBitRate, mIFrameInterval, mProfile, mLevel);
+	}
+}
@@ -0,0 +1,1101 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FragmentedMp4Muxer.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming muxer of fragmented MP4(ISO BMFF with moov/mvex and moof/mdat fragments)
+ * for H.264(video/avc) and AAC(audio/mp4a-latm) tracks.
+ * Unlike MediaMuxer, samples are written to the file fragment by fragment while recording,
+ * so the file can be read(e.g. streamed) while recording and only the last fragment is lost
+ * when the process is killed.
+ * Samples of the current fragment are kept in a fixed size direct buffer and written with
+ * gathering write of FileChannel. A fragment is written when the video track has a key frame
+ * after the fragment duration(any sample for audio only recording), when the buffer is full,
+ * or when the number of samples reached the limit.
+ * H.264 samples in Annex-B format(with start codes, as MediaCodec outputs) are converted
+ * to length prefixed format.
+ * Timestamps of all tracks are relative to the first sample and the decode time of a sample
+ * is same as its presentation time, so B-frames are not supported.
+ * A timestamp that is earlier than the previous sample of the same track(e.g. B-frames)
+ * is clamped to the previous one and counted by #getReorderedCount,
+ * so durations of samples never become negative.
+ * Methods are synchronized, so samples of each track can be written from the thread of its encoder.
+ * This class does not depend on Android framework.
+ */
+public class FragmentedMp4Muxer {
+	/**
+	 * same value as MediaCodec#BUFFER_FLAG_SYNC_FRAME
+	 */
+	public static final int FLAG_SYNC_FRAME = 1;
+	public static final String MIME_AVC = "video/avc";
+	public static final String MIME_AAC = "audio/mp4a-latm";
+	public static final long DEFAULT_FRAGMENT_DURATION_US = 1000000L;
+	public static final int DEFAULT_BUFFER_SIZE = 2 * 1024 * 1024;
+	public static final int DEFAULT_MAX_SAMPLES = 1024;
+
+	private static final int MOVIE_TIMESCALE = 1000;
+	private static final int VIDEO_TIMESCALE = 90000;
+	private static final int SAMPLE_FLAGS_SYNC = 0x02000000;		// sample_depends_on=2
+	private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;	// sample_depends_on=1, sample_is_non_sync_sample=1
+	private static final int TRUN_FLAGS = 0x000701;	// data offset, sample duration, sample size and sample flags
+	private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+
+	/**
+	 * format of a track, create with #createAvcFormat or #createAacFormat
+	 */
+	public static final class TrackFormat {
+		public final String mime;
+		public final int width, height;
+		public final int sampleRate, channelCount;
+		private final List<byte[]> mSps = new ArrayList<byte[]>();
+		private final List<byte[]> mPps = new ArrayList<byte[]>();
+		private final byte[] mAudioSpecificConfig;
+
+		private TrackFormat(final String mime, final int width, final int height,
+			final int sampleRate, final int channelCount, final byte[] audioSpecificConfig) {
+
+			this.mime = mime;
+			this.width = width;
+			this.height = height;
+			this.sampleRate = sampleRate;
+			this.channelCount = channelCount;
+			mAudioSpecificConfig = audioSpecificConfig;
+		}
+
+		public boolean isVideo() {
+			return MIME_AVC.equals(mime);
+		}
+	}
+
+	/**
+	 * create format of H.264 video track
+	 * @param width
+	 * @param height
+	 * @param csd0 SPS(csd-0 of MediaFormat), with or without start code. this may contain PPS too.
+	 * @param csd1 PPS(csd-1 of MediaFormat), with or without start code. null if csd0 contains PPS.
+	 * @return
+	 */
+	public static TrackFormat createAvcFormat(final int width, final int height,
+		final ByteBuffer csd0, final ByteBuffer csd1) {
+
+		final TrackFormat result = new TrackFormat(MIME_AVC, width, height, 0, 0, null);
+		addParameterSets(result, csd0);
+		if (csd1 != null)
+			addParameterSets(result, csd1);
+		if (result.mSps.isEmpty() || result.mPps.isEmpty())
+			throw new IllegalArgumentException("SPS or PPS not found");
+		return result;
+	}
+
+	/**
+	 * create format of AAC audio track
+	 * @param sampleRate
+	 * @param channelCount
+	 * @param audioSpecificConfig csd-0 of MediaFormat
+	 * @return
+	 */
+	public static TrackFormat createAacFormat(final int sampleRate, final int channelCount,
+		final ByteBuffer audioSpecificConfig) {
+
+		final byte[] asc = new byte[audioSpecificConfig.remaining()];
+		audioSpecificConfig.duplicate().get(asc);
+		if ((asc.length < 2) || (asc.length > 64))
+			throw new IllegalArgumentException("invalid AudioSpecificConfig");
+		return new TrackFormat(MIME_AAC, 0, 0, sampleRate, channelCount, asc);
+	}
+
+	private static void addParameterSets(final TrackFormat format, final ByteBuffer csd) {
+		final ByteBuffer buf = csd.duplicate();
+		final int[] nals = findNals(buf, buf.position(), buf.remaining(), null);
+		for (int i = 1; i < nals[0] * 2; i += 2) {
+			final byte[] nal = new byte[nals[i + 1]];
+			for (int j = 0; j < nal.length; j++) {
+				nal[j] = buf.get(nals[i] + j);
+			}
+			switch (nal.length > 0 ? nal[0] & 0x1f : 0) {
+			case 7:	format.mSps.add(nal); break;
+			case 8:	format.mPps.add(nal); break;
+			}
+		}
+	}
+
+	private static final class Track {
+		private final int mId;
+		private final TrackFormat mFormat;
+		private final int mTimescale;
+		private final int mDefaultDuration;
+		private int mLastDuration;
+		private long mSampleCount;
+		private long mLastTime;
+
+		private Track(final int id, final TrackFormat format) {
+			mId = id;
+			mFormat = format;
+			if (format.isVideo()) {
+				mTimescale = VIDEO_TIMESCALE;
+				mDefaultDuration = VIDEO_TIMESCALE / 30;
+			} else {
+				mTimescale = format.sampleRate;
+				mDefaultDuration = 1024;	// samples per AAC frame
+			}
+			mLastDuration = mDefaultDuration;
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final long mFragmentDurationUs;
+	private final int mMaxSamples;
+	private final List<Track> mTracks = new ArrayList<Track>();
+	private boolean mHasVideo;
+	private boolean mIsStarted, mIsStopped;
+	// samples of current fragment in order of arrival
+	private final ByteBuffer mData;
+	private final ByteBuffer mHeader;
+	private final int[] mSampleTrack, mSampleOffset, mSampleSize, mSampleFlags, mSampleDuration;
+	private final long[] mSampleTime;
+	private int mSampleNum;
+	private long mFragmentStartUs;
+	private int[] mNals = new int[33];
+	private long mBasePtsUs = -1, mLastPtsUs;
+	private int mSequence;
+	private long mPosition, mMehdPosition;
+	private long mDroppedCount;
+	private long mReorderedCount;
+
+	/**
+	 * Constructor with default fragment duration and buffer size
+	 * @param file
+	 * @throws IOException
+	 */
+	public FragmentedMp4Muxer(final File file) throws IOException {
+		this(file, DEFAULT_FRAGMENT_DURATION_US, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_SAMPLES);
+	}
+
+	/**
+	 * Constructor
+	 * @param file
+	 * @param fragmentDurationUs target duration of a fragment
+	 * @param bufferSize size of the buffer for samples of a fragment,
+	 * 	a sample larger than this is written as a fragment directly from the buffer of the caller
+	 * @param maxSamples maximum number of samples in a fragment
+	 * @throws IOException
+	 */
+	public FragmentedMp4Muxer(final File file, final long fragmentDurationUs,
+		final int bufferSize, final int maxSamples) throws IOException {
+
+		if ((fragmentDurationUs <= 0) || (bufferSize <= 0) || (maxSamples <= 0))
+			throw new IllegalArgumentException("invalid fragment duration, buffer size or number of samples");
+		mFragmentDurationUs = fragmentDurationUs;
+		mMaxSamples = maxSamples;
+		mData = ByteBuffer.allocateDirect(bufferSize);
+		// moof and mdat header for the maximum number of samples, traf for each track is added in #start
+		mSampleTrack = new int[maxSamples];
+		mSampleOffset = new int[maxSamples];
+		mSampleSize = new int[maxSamples];
+		mSampleFlags = new int[maxSamples];
+		mSampleDuration = new int[maxSamples];
+		mSampleTime = new long[maxSamples];
+		mHeader = ByteBuffer.allocate(8 + 16 + 2 * (8 + 16 + 20 + 20) + maxSamples * 12 + 8);
+		mFile = new RandomAccessFile(file, "rw");
+		mFile.setLength(0);
+		mChannel = mFile.getChannel();
+	}
+
+	/**
+	 * add track, this should be called before #start
+	 * @param format
+	 * @return track index
+	 */
+	public int addTrack(final TrackFormat format) {
+		synchronized (mSync) {
+			if (mIsStarted)
+				throw new IllegalStateException("muxer already started");
+			if (mTracks.size() >= 2)
+				throw new IllegalStateException("too many tracks");
+			if (format.isVideo()) {
+				if (mHasVideo)
+					throw new IllegalStateException("video track already added");
+				mHasVideo = true;
+			}
+			mTracks.add(new Track(mTracks.size() + 1, format));
+			return mTracks.size() - 1;
+		}
+	}
+
+	/**
+	 * write ftyp and moov
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		synchronized (mSync) {
+			if (mIsStarted)
+				throw new IllegalStateException("muxer already started");
+			if (mTracks.isEmpty())
+				throw new IllegalStateException("no track");
+			final ByteBuffer buf = ByteBuffer.allocate(4096);
+			writeFtyp(buf);
+			writeMoov(buf);
+			buf.flip();
+			writeFully(buf);
+			mIsStarted = true;
+		}
+	}
+
+	/**
+	 * write a sample, this may write a fragment to the file
+	 * @param trackIndex index that was returned by #addTrack
+	 * @param buffer
+	 * @param offset offset of the sample in the buffer(not from the position)
+	 * @param size
+	 * @param presentationTimeUs
+	 * @param flags FLAG_SYNC_FRAME if the sample is a key frame
+	 * @throws IOException
+	 */
+	public void writeSampleData(final int trackIndex, final ByteBuffer buffer,
+		final int offset, final int size, final long presentationTimeUs, final int flags) throws IOException {
+
+		synchronized (mSync) {
+			if (!mIsStarted || mIsStopped)
+				throw new IllegalStateException("muxer is not started");
+			final Track track = mTracks.get(trackIndex);
+			final boolean isVideo = track.mFormat.isVideo();
+			final boolean isSync = !isVideo || ((flags & FLAG_SYNC_FRAME) != 0);
+			if (isVideo && (track.mSampleCount == 0) && !isSync) {
+				// video should start with a key frame
+				mDroppedCount++;
+				return;
+			}
+			if (mBasePtsUs < 0)
+				mBasePtsUs = presentationTimeUs;
+			long time = toTimescale(presentationTimeUs, track.mTimescale);
+			if (time < track.mLastTime) {
+				// decode order of the samples is the order of arrival, keep decode time monotonic
+				time = track.mLastTime;
+				mReorderedCount++;
+			}
+			track.mLastTime = time;
+			final int bytes;
+			if (isVideo) {
+				mNals = findNals(buffer, offset, size, mNals);
+				bytes = getLengthPrefixedSize(mNals);
+			} else {
+				mNals[0] = 1;
+				mNals[1] = offset;
+				mNals[2] = size;
+				bytes = size;
+			}
+			if (mSampleNum > 0) {
+				final boolean reached = (presentationTimeUs - mFragmentStartUs >= mFragmentDurationUs)
+					&& (isVideo ? isSync : !mHasVideo);
+				if (reached || (mSampleNum == mMaxSamples) || (bytes > mData.remaining())) {
+					writeFragment(trackIndex, time);
+				}
+			}
+			if (mSampleNum == 0)
+				mFragmentStartUs = presentationTimeUs;
+			final int ix = mSampleNum;
+			mSampleTrack[ix] = trackIndex;
+			mSampleSize[ix] = bytes;
+			mSampleTime[ix] = time;
+			mSampleFlags[ix] = isSync ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC;
+			mSampleNum++;
+			track.mSampleCount++;
+			mLastPtsUs = Math.max(mLastPtsUs, presentationTimeUs);
+			if (bytes <= mData.remaining()) {
+				mSampleOffset[ix] = mData.position();
+				putSample(buffer, isVideo, mNals);
+			} else {
+				// too large for the buffer, write this sample as a fragment directly
+				writeFragment(-1, 0, buffer, isVideo);
+			}
+		}
+	}
+
+	/**
+	 * write remaining samples and close the file
+	 * @throws IOException
+	 */
+	public void stop() throws IOException {
+		synchronized (mSync) {
+			if (mIsStopped) return;
+			mIsStopped = true;
+			try {
+				if (mIsStarted) {
+					if (mSampleNum > 0) {
+						writeFragment(-1, 0);
+					}
+					// set total duration to mehd
+					final ByteBuffer buf = ByteBuffer.allocate(8);
+					buf.putLong(0, mBasePtsUs >= 0 ? toTimescale(mLastPtsUs, MOVIE_TIMESCALE) : 0);
+					mChannel.write(buf, mMehdPosition);
+				}
+			} finally {
+				mFile.close();
+			}
+		}
+	}
+
+	/**
+	 * @return number of fragments written to the file
+	 */
+	public int getFragmentCount() {
+		synchronized (mSync) {
+			return mSequence;
+		}
+	}
+
+	/**
+	 * @return bytes written to the file
+	 */
+	public long getWrittenBytes() {
+		synchronized (mSync) {
+			return mPosition;
+		}
+	}
+
+	/**
+	 * @return number of video samples that were dropped before the first key frame
+	 */
+	public long getDroppedCount() {
+		synchronized (mSync) {
+			return mDroppedCount;
+		}
+	}
+
+	/**
+	 * @return number of samples whose timestamp was earlier than the previous sample of the same track
+	 * 	and was clamped to it
+	 */
+	public long getReorderedCount() {
+		synchronized (mSync) {
+			return mReorderedCount;
+		}
+	}
+
+	private long toTimescale(final long ptsUs, final int timescale) {
+		final long us = ptsUs - mBasePtsUs;
+		return us > 0 ? us * timescale / 1000000L : 0;
+	}
+
+//================================================================================
+	private void writeFragment(final int nextTrack, final long nextTime) throws IOException {
+		writeFragment(nextTrack, nextTime, null, false);
+	}
+
+	/**
+	 * write samples in the buffer as a fragment
+	 * @param nextTrack index of the track of the sample that will be added next, -1 if no sample
+	 * @param nextTime time of the next sample, used as the end of the last sample of nextTrack
+	 * @param large data of the last sample if it is not in the buffer, null otherwise
+	 * @param isVideo true if large is H.264 sample
+	 * @throws IOException
+	 */
+	private void writeFragment(final int nextTrack, final long nextTime,
+		final ByteBuffer large, final boolean isVideo) throws IOException {
+
+		final int n = mSampleNum;
+		final int trackNum = mTracks.size();
+		// calculate duration of each sample from the time of the next sample of the same track
+		final int[] last = new int[trackNum];
+		for (int t = 0; t < trackNum; t++) last[t] = -1;
+		for (int i = 0; i < n; i++) {
+			final int t = mSampleTrack[i];
+			if (last[t] >= 0) {
+				mSampleDuration[last[t]] = duration(mSampleTime[i] - mSampleTime[last[t]]);
+				mTracks.get(t).mLastDuration = mSampleDuration[last[t]];
+			}
+			last[t] = i;
+		}
+		for (int t = 0; t < trackNum; t++) {
+			if (last[t] >= 0) {
+				final Track track = mTracks.get(t);
+				mSampleDuration[last[t]] = (t == nextTrack) && (nextTime > mSampleTime[last[t]])
+					? duration(nextTime - mSampleTime[last[t]]) : track.mLastDuration;
+			}
+		}
+		// moof
+		final ByteBuffer header = mHeader;
+		header.clear();
+		final int moof = beginBox(header, "moof");
+		final int mfhd = beginFullBox(header, "mfhd", 0, 0);
+		header.putInt(++mSequence);
+		endBox(header, mfhd);
+		final int[] dataOffsetPositions = new int[trackNum];
+		for (int t = 0; t < trackNum; t++) {
+			dataOffsetPositions[t] = -1;
+			if (last[t] < 0) continue;
+			final Track track = mTracks.get(t);
+			int count = 0, first = -1;
+			for (int i = 0; i < n; i++) {
+				if (mSampleTrack[i] == t) {
+					if (first < 0) first = i;
+					count++;
+				}
+			}
+			final int traf = beginBox(header, "traf");
+			final int tfhd = beginFullBox(header, "tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+			header.putInt(track.mId);
+			endBox(header, tfhd);
+			final int tfdt = beginFullBox(header, "tfdt", 1, 0);
+			header.putLong(mSampleTime[first]);
+			endBox(header, tfdt);
+			final int trun = beginFullBox(header, "trun", 0, TRUN_FLAGS);
+			header.putInt(count);
+			dataOffsetPositions[t] = header.position();
+			header.putInt(0);
+			for (int i = first; i < n; i++) {
+				if (mSampleTrack[i] == t) {
+					header.putInt(mSampleDuration[i]).putInt(mSampleSize[i]).putInt(mSampleFlags[i]);
+				}
+			}
+			endBox(header, trun);
+			endBox(header, traf);
+		}
+		endBox(header, moof);
+		// data of each track is placed in order of tracks in mdat
+		final int moofSize = header.position();
+		long dataBytes = 0;
+		for (int t = 0; t < trackNum; t++) {
+			if (dataOffsetPositions[t] < 0) continue;
+			header.putInt(dataOffsetPositions[t], (int)(moofSize + 8 + dataBytes));
+			for (int i = 0; i < n; i++) {
+				if (mSampleTrack[i] == t) dataBytes += mSampleSize[i];
+			}
+		}
+		header.putInt((int)(8 + dataBytes));
+		putFourcc(header, "mdat");
+		header.flip();
+		if (large == null) {
+			writeFully(gather(header, trackNum, n));
+		} else {
+			// the only sample of this fragment is in the buffer of the caller
+			writeFully(header);
+			writeLargeSample(large, isVideo);
+		}
+		mData.clear();
+		mSampleNum = 0;
+	}
+
+	/**
+	 * list header and data of samples in the order of tracks, contiguous samples are merged
+	 */
+	private ByteBuffer[] gather(final ByteBuffer header, final int trackNum, final int n) {
+		final List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+		result.add(header);
+		final ByteBuffer data = mData.duplicate();
+		for (int t = 0; t < trackNum; t++) {
+			int start = -1, end = -1;
+			for (int i = 0; i < n; i++) {
+				if (mSampleTrack[i] != t) continue;
+				if (mSampleOffset[i] != end) {
+					if (start >= 0) result.add(slice(data, start, end));
+					start = mSampleOffset[i];
+				}
+				end = mSampleOffset[i] + mSampleSize[i];
+			}
+			if (start >= 0) result.add(slice(data, start, end));
+		}
+		return result.toArray(new ByteBuffer[result.size()]);
+	}
+
+	private static ByteBuffer slice(final ByteBuffer data, final int start, final int end) {
+		data.limit(end).position(start);
+		final ByteBuffer result = data.slice();
+		data.clear();
+		return result;
+	}
+
+	private static int duration(final long duration) {
+		return (int)Math.max(0, Math.min(duration, Integer.MAX_VALUE));
+	}
+
+	private void putSample(final ByteBuffer src, final boolean isVideo, final int[] nals) {
+		final ByteBuffer buf = src.duplicate();
+		for (int i = 1; i < nals[0] * 2; i += 2) {
+			if (isVideo)
+				mData.putInt(nals[i + 1]);
+			buf.limit(nals[i] + nals[i + 1]).position(nals[i]);
+			mData.put(buf);
+			buf.clear();
+		}
+	}
+
+	private void writeLargeSample(final ByteBuffer src, final boolean isVideo) throws IOException {
+		final int[] nals = mNals;
+		final ByteBuffer length = ByteBuffer.allocate(4);
+		final ByteBuffer buf = src.duplicate();
+		for (int i = 1; i < nals[0] * 2; i += 2) {
+			if (isVideo) {
+				length.clear();
+				length.putInt(0, nals[i + 1]);
+				writeFully(length);
+			}
+			buf.limit(nals[i] + nals[i + 1]).position(nals[i]);
+			writeFully(buf);
+			buf.clear();
+		}
+	}
+
+	private void writeFully(final ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			mPosition += mChannel.write(buf);
+		}
+	}
+
+	private void writeFully(final ByteBuffer[] bufs) throws IOException {
+		final ByteBuffer lastBuf = bufs[bufs.length - 1];
+		while (lastBuf.hasRemaining()) {
+			mPosition += mChannel.write(bufs);
+		}
+	}
+
+	/**
+	 * find NAL units in Annex-B format
+	 * @param buf
+	 * @param offset
+	 * @param size
+	 * @param result array to reuse, may be null
+	 * @return [number of NALs, offset0, size0, offset1, size1...]. whole data is one NAL if there is no start code.
+	 */
+	private static int[] findNals(final ByteBuffer buf, final int offset, final int size, int[] result) {
+		if (result == null) result = new int[33];
+		final int end = offset + size;
+		int n = 0;
+		int start = findStartCode(buf, offset, end);
+		if ((start < 0) || (start > offset + 1)) {
+			// no start code at the beginning, already length prefixed or a single NAL
+			result[0] = 1;
+			result[1] = offset;
+			result[2] = size;
+			return result;
+		}
+		start += 3;
+		while (start < end) {
+			final int next = findStartCode(buf, start, end);
+			int nalEnd = next < 0 ? end : next;
+			// remove trailing zero bytes(including the first zero of 4 bytes start code)
+			while ((nalEnd > start) && (buf.get(nalEnd - 1) == 0)) nalEnd--;
+			if (nalEnd > start) {
+				if (n * 2 + 3 > result.length) {
+					final int[] temp = new int[result.length * 2 + 1];
+					System.arraycopy(result, 0, temp, 0, result.length);
+					result = temp;
+				}
+				result[n * 2 + 1] = start;
+				result[n * 2 + 2] = nalEnd - start;
+				n++;
+			}
+			if (next < 0) break;
+			start = next + 3;
+		}
+		result[0] = n;
+		return result;
+	}
+
+	/**
+	 * @return position of 0x000001 or -1
+	 */
+	private static int findStartCode(final ByteBuffer buf, final int from, final int end) {
+		for (int i = from; i + 2 < end; i++) {
+			if ((buf.get(i + 2) & 0xff) > 1) {
+				i += 2;	// none of next 3 bytes can be the start
+			} else if ((buf.get(i) == 0) && (buf.get(i + 1) == 0) && (buf.get(i + 2) == 1)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int getLengthPrefixedSize(final int[] nals) {
+		int result = 0;
+		for (int i = 1; i < nals[0] * 2; i += 2) {
+			result += 4 + nals[i + 1];
+		}
+		return result;
+	}
+
+//================================================================================
+	private void writeFtyp(final ByteBuffer buf) {
+		final int ftyp = beginBox(buf, "ftyp");
+		putFourcc(buf, "iso5");
+		buf.putInt(512);
+		putFourcc(buf, "iso5");
+		putFourcc(buf, "iso6");
+		putFourcc(buf, "mp41");
+		endBox(buf, ftyp);
+	}
+
+	private void writeMoov(final ByteBuffer buf) {
+		final int moov = beginBox(buf, "moov");
+		final int mvhd = beginFullBox(buf, "mvhd", 0, 0);
+		buf.putInt(0).putInt(0);	// creation_time, modification_time
+		buf.putInt(MOVIE_TIMESCALE);
+		buf.putInt(0);				// duration, see mehd
+		buf.putInt(0x00010000);		// rate
+		buf.putShort((short)0x0100);	// volume
+		buf.putShort((short)0).putInt(0).putInt(0);
+		putMatrix(buf);
+		for (int i = 0; i < 6; i++) buf.putInt(0);	// pre_defined
+		buf.putInt(mTracks.size() + 1);	// next_track_ID
+		endBox(buf, mvhd);
+		for (final Track track: mTracks) {
+			writeTrak(buf, track);
+		}
+		final int mvex = beginBox(buf, "mvex");
+		final int mehd = beginFullBox(buf, "mehd", 1, 0);
+		mMehdPosition = mPosition + buf.position();
+		buf.putLong(0);				// fragment_duration, set on #stop
+		endBox(buf, mehd);
+		for (final Track track: mTracks) {
+			final int trex = beginFullBox(buf, "trex", 0, 0);
+			buf.putInt(track.mId);
+			buf.putInt(1);			// default_sample_description_index
+			buf.putInt(0).putInt(0).putInt(0);
+			endBox(buf, trex);
+		}
+		endBox(buf, mvex);
+		endBox(buf, moov);
+	}
+
+	private void writeTrak(final ByteBuffer buf, final Track track) {
+		final TrackFormat format = track.mFormat;
+		final boolean isVideo = format.isVideo();
+		final int trak = beginBox(buf, "trak");
+		final int tkhd = beginFullBox(buf, "tkhd", 0, 0x000007);	// enabled, in movie, in preview
+		buf.putInt(0).putInt(0);	// creation_time, modification_time
+		buf.putInt(track.mId);
+		buf.putInt(0);				// reserved
+		buf.putInt(0);				// duration
+		buf.putInt(0).putInt(0);	// reserved
+		buf.putShort((short)0).putShort((short)0);	// layer, alternate_group
+		buf.putShort((short)(isVideo ? 0 : 0x0100));	// volume
+		buf.putShort((short)0);
+		putMatrix(buf);
+		buf.putInt(format.width << 16).putInt(format.height << 16);
+		endBox(buf, tkhd);
+		final int mdia = beginBox(buf, "mdia");
+		final int mdhd = beginFullBox(buf, "mdhd", 0, 0);
+		buf.putInt(0).putInt(0);
+		buf.putInt(track.mTimescale);
+		buf.putInt(0);
+		buf.putShort((short)0x55c4);	// language 'und'
+		buf.putShort((short)0);
+		endBox(buf, mdhd);
+		final int hdlr = beginFullBox(buf, "hdlr", 0, 0);
+		buf.putInt(0);
+		putFourcc(buf, isVideo ? "vide" : "soun");
+		buf.putInt(0).putInt(0).putInt(0);
+		putString(buf, isVideo ? "VideoHandler" : "SoundHandler");
+		endBox(buf, hdlr);
+		final int minf = beginBox(buf, "minf");
+		if (isVideo) {
+			final int vmhd = beginFullBox(buf, "vmhd", 0, 1);
+			buf.putShort((short)0).putShort((short)0).putShort((short)0).putShort((short)0);
+			endBox(buf, vmhd);
+		} else {
+			final int smhd = beginFullBox(buf, "smhd", 0, 0);
+			buf.putShort((short)0).putShort((short)0);
+			endBox(buf, smhd);
+		}
+		final int dinf = beginBox(buf, "dinf");
+		final int dref = beginFullBox(buf, "dref", 0, 0);
+		buf.putInt(1);
+		endBox(buf, beginFullBox(buf, "url ", 0, 1));	// media data is in this file
+		endBox(buf, dref);
+		endBox(buf, dinf);
+		final int stbl = beginBox(buf, "stbl");
+		final int stsd = beginFullBox(buf, "stsd", 0, 0);
+		buf.putInt(1);
+		if (isVideo) {
+			writeAvc1(buf, format);
+		} else {
+			writeMp4a(buf, format);
+		}
+		endBox(buf, stsd);
+		// sample tables are empty, samples are in fragments
+		endBox(buf, putEmptyFullBox(buf, "stts", 1));
+		endBox(buf, putEmptyFullBox(buf, "stsc", 1));
+		endBox(buf, putEmptyFullBox(buf, "stsz", 2));
+		endBox(buf, putEmptyFullBox(buf, "stco", 1));
+		endBox(buf, stbl);
+		endBox(buf, minf);
+		endBox(buf, mdia);
+		endBox(buf, trak);
+	}
+
+	private static void writeAvc1(final ByteBuffer buf, final TrackFormat format) {
+		final int avc1 = beginBox(buf, "avc1");
+		buf.putInt(0).putShort((short)0);	// reserved
+		buf.putShort((short)1);				// data_reference_index
+		buf.putShort((short)0).putShort((short)0);
+		buf.putInt(0).putInt(0).putInt(0);
+		buf.putShort((short)format.width).putShort((short)format.height);
+		buf.putInt(0x00480000).putInt(0x00480000);	// 72dpi
+		buf.putInt(0);
+		buf.putShort((short)1);				// frame_count
+		for (int i = 0; i < 8; i++) buf.putInt(0);	// compressorname
+		buf.putShort((short)0x0018);		// depth
+		buf.putShort((short)-1);
+		final int avcC = beginBox(buf, "avcC");
+		final byte[] sps = format.mSps.get(0);
+		buf.put((byte)1);
+		buf.put(sps.length > 1 ? sps[1] : 0).put(sps.length > 2 ? sps[2] : 0).put(sps.length > 3 ? sps[3] : 0);
+		buf.put((byte)0xff);				// 4 bytes NAL length
+		buf.put((byte)(0xe0 | format.mSps.size()));
+		for (final byte[] nal: format.mSps) {
+			buf.putShort((short)nal.length).put(nal);
+		}
+		buf.put((byte)format.mPps.size());
+		for (final byte[] nal: format.mPps) {
+			buf.putShort((short)nal.length).put(nal);
+		}
+		endBox(buf, avcC);
+		endBox(buf, avc1);
+	}
+
+	private static void writeMp4a(final ByteBuffer buf, final TrackFormat format) {
+		final byte[] asc = format.mAudioSpecificConfig;
+		final int mp4a = beginBox(buf, "mp4a");
+		buf.putInt(0).putShort((short)0);	// reserved
+		buf.putShort((short)1);				// data_reference_index
+		buf.putInt(0).putInt(0);
+		buf.putShort((short)format.channelCount);
+		buf.putShort((short)16);			// samplesize
+		buf.putShort((short)0).putShort((short)0);
+		buf.putInt(format.sampleRate << 16);
+		final int esds = beginFullBox(buf, "esds", 0, 0);
+		final int dsiSize = asc.length;
+		final int dcdSize = 13 + 2 + dsiSize;
+		buf.put((byte)0x03).put((byte)(3 + 2 + dcdSize + 3));	// ES_Descriptor
+		buf.putShort((short)0).put((byte)0);
+		buf.put((byte)0x04).put((byte)dcdSize);	// DecoderConfigDescriptor
+		buf.put((byte)0x40);				// objectTypeIndication, Audio ISO/IEC 14496-3
+		buf.put((byte)0x15);				// streamType=audio
+		buf.put((byte)0).putShort((short)0);	// bufferSizeDB
+		buf.putInt(0).putInt(0);			// maxBitrate, avgBitrate
+		buf.put((byte)0x05).put((byte)dsiSize).put(asc);	// DecoderSpecificInfo
+		buf.put((byte)0x06).put((byte)1).put((byte)0x02);	// SLConfigDescriptor
+		endBox(buf, esds);
+		endBox(buf, mp4a);
+	}
+
+	private static void putMatrix(final ByteBuffer buf) {
+		buf.putInt(0x00010000).putInt(0).putInt(0);
+		buf.putInt(0).putInt(0x00010000).putInt(0);
+		buf.putInt(0).putInt(0).putInt(0x40000000);
+	}
+
+	private static void putString(final ByteBuffer buf, final String s) {
+		for (int i = 0; i < s.length(); i++) buf.put((byte)s.charAt(i));
+		buf.put((byte)0);
+	}
+
+	private static void putFourcc(final ByteBuffer buf, final String type) {
+		putString(buf, type);
+		buf.position(buf.position() - 1);
+	}
+
+	private static int beginBox(final ByteBuffer buf, final String type) {
+		final int result = buf.position();
+		buf.putInt(0);
+		putFourcc(buf, type);
+		return result;
+	}
+
+	private static int beginFullBox(final ByteBuffer buf, final String type, final int version, final int flags) {
+		final int result = beginBox(buf, type);
+		buf.putInt((version << 24) | flags);
+		return result;
+	}
+
+	private static int putEmptyFullBox(final ByteBuffer buf, final String type, final int zeros) {
+		final int result = beginFullBox(buf, type, 0, 0);
+		for (int i = 0; i < zeros; i++) buf.putInt(0);
+		return result;
+	}
+
+	private static void endBox(final ByteBuffer buf, final int start) {
+		buf.putInt(start, buf.position() - start);
+	}
+
+//================================================================================
+	/**
+	 * a sample in a fragmented MP4 file that was read by #readIndex
+	 */
+	public static final class Sample {
+		public final int trackId;
+		/**
+		 * decode time in the timescale of the track
+		 */
+		public final long time;
+		public final int duration;
+		/**
+		 * absolute file offset of the sample data
+		 */
+		public final long offset;
+		public final int size;
+		public final boolean isSync;
+
+		private Sample(final int trackId, final long time, final int duration,
+			final long offset, final int size, final boolean isSync) {
+
+			this.trackId = trackId;
+			this.time = time;
+			this.duration = duration;
+			this.offset = offset;
+			this.size = size;
+			this.isSync = isSync;
+		}
+	}
+
+	/**
+	 * tracks and samples of a fragmented MP4 file that was read by #readIndex
+	 */
+	public static final class Index {
+		public final int[] trackIds;
+		public final int[] timescales;
+		/**
+		 * handler type of each track, "vide" or "soun"
+		 */
+		public final String[] handlers;
+		/**
+		 * fragment_duration of mehd in milliseconds, 0 if the file was not finished by #stop
+		 */
+		public final long durationMs;
+		public final int fragmentCount;
+		public final List<Sample> samples;
+
+		private Index(final int[] trackIds, final int[] timescales, final String[] handlers,
+			final long durationMs, final int fragmentCount, final List<Sample> samples) {
+
+			this.trackIds = trackIds;
+			this.timescales = timescales;
+			this.handlers = handlers;
+			this.durationMs = durationMs;
+			this.fragmentCount = fragmentCount;
+			this.samples = samples;
+		}
+
+		/**
+		 * read data of a sample
+		 * @param file
+		 * @param sample
+		 * @return
+		 * @throws IOException
+		 */
+		public byte[] readSample(final RandomAccessFile file, final Sample sample) throws IOException {
+			final byte[] result = new byte[sample.size];
+			file.seek(sample.offset);
+			file.readFully(result);
+			return result;
+		}
+	}
+
+	/**
+	 * read moov and all moof of the file and validate that the samples are in the following mdat.
+	 * a fragment that was not completely written(e.g. the process was killed) is ignored.
+	 * @param file
+	 * @return
+	 * @throws IOException the file is broken
+	 */
+	public static Index readIndex(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long length = channel.size();
+			final List<int[]> tracks = new ArrayList<int[]>();	// track_ID, timescale, handler_type
+			final List<Sample> samples = new ArrayList<Sample>();
+			long durationMs = 0;
+			int fragmentCount = 0, lastSequence = 0;
+			boolean hasMoov = false;
+			ByteBuffer moof = null;
+			long moofPosition = 0;
+			final ByteBuffer header = ByteBuffer.allocate(8);
+			long pos = 0;
+			while (pos + 8 <= length) {
+				header.clear();
+				readFully(channel, header, pos);
+				final long size = header.getInt(0) & 0xffffffffL;
+				final String type = fourcc(header, 4);
+				if ((size < 8) || (pos + size > length)) break;	// incomplete box
+				if ("moov".equals(type)) {
+					final ByteBuffer moov = readBox(channel, pos, size);
+					hasMoov = true;
+					for (final ByteBuffer trak: children(moov, "trak")) {
+						final ByteBuffer tkhd = child(trak, "tkhd");
+						final ByteBuffer mdia = child(trak, "mdia");
+						final ByteBuffer mdhd = child(mdia, "mdhd");
+						final ByteBuffer hdlr = child(mdia, "hdlr");
+						tracks.add(new int[] {
+							tkhd.getInt(tkhd.get(0) == 1 ? 20 : 12),
+							mdhd.getInt(mdhd.get(0) == 1 ? 20 : 12),
+							hdlr.getInt(8) });
+					}
+					final ByteBuffer mvex = child(moov, "mvex");
+					final ByteBuffer mehd = mvex != null ? child(mvex, "mehd") : null;
+					if (mehd != null)
+						durationMs = mehd.get(0) == 1 ? mehd.getLong(4) : mehd.getInt(4) & 0xffffffffL;
+				} else if ("moof".equals(type)) {
+					moof = readBox(channel, pos, size);
+					moofPosition = pos;
+				} else if ("mdat".equals(type) && (moof != null)) {
+					final ByteBuffer mfhd = child(moof, "mfhd");
+					final int sequence = mfhd.getInt(4);
+					if (sequence <= lastSequence)
+						throw new IOException("invalid sequence number:" + sequence);
+					lastSequence = sequence;
+					for (final ByteBuffer traf: children(moof, "traf")) {
+						readTraf(traf, moofPosition, pos + 8, pos + size, samples);
+					}
+					fragmentCount++;
+					moof = null;
+				}
+				pos += size;
+			}
+			if (!hasMoov)
+				throw new IOException("moov not found");
+			final int n = tracks.size();
+			final int[] trackIds = new int[n];
+			final int[] timescales = new int[n];
+			final String[] handlers = new String[n];
+			for (int i = 0; i < n; i++) {
+				final int[] track = tracks.get(i);
+				trackIds[i] = track[0];
+				timescales[i] = track[1];
+				header.putInt(0, track[2]);
+				handlers[i] = fourcc(header, 0);
+			}
+			return new Index(trackIds, timescales, handlers, durationMs, fragmentCount, samples);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void readTraf(final ByteBuffer traf, final long moofPosition,
+		final long mdatStart, final long mdatEnd, final List<Sample> samples) throws IOException {
+
+		final ByteBuffer tfhd = child(traf, "tfhd");
+		final int tfhdFlags = tfhd.getInt(0) & 0xffffff;
+		final int trackId = tfhd.getInt(4);
+		long base = moofPosition;
+		int p = 8;
+		if ((tfhdFlags & 0x01) != 0) { base = tfhd.getLong(p); p += 8; }
+		if ((tfhdFlags & 0x02) != 0) p += 4;
+		int defaultDuration = 0, defaultSize = 0, defaultFlags = 0;
+		if ((tfhdFlags & 0x08) != 0) { defaultDuration = tfhd.getInt(p); p += 4; }
+		if ((tfhdFlags & 0x10) != 0) { defaultSize = tfhd.getInt(p); p += 4; }
+		if ((tfhdFlags & 0x20) != 0) { defaultFlags = tfhd.getInt(p); }
+		final ByteBuffer tfdt = child(traf, "tfdt");
+		long time = tfdt == null ? 0 : (tfdt.get(0) == 1 ? tfdt.getLong(4) : tfdt.getInt(4) & 0xffffffffL);
+		long offset = base;
+		for (final ByteBuffer trun: children(traf, "trun")) {
+			final int flags = trun.getInt(0) & 0xffffff;
+			final int count = trun.getInt(4);
+			p = 8;
+			if ((flags & 0x01) != 0) { offset = base + trun.getInt(p); p += 4; }
+			int firstFlags = -1;
+			if ((flags & 0x04) != 0) { firstFlags = trun.getInt(p); p += 4; }
+			for (int i = 0; i < count; i++) {
+				int duration = defaultDuration, size = defaultSize, sampleFlags = defaultFlags;
+				if ((flags & 0x100) != 0) { duration = trun.getInt(p); p += 4; }
+				if ((flags & 0x200) != 0) { size = trun.getInt(p); p += 4; }
+				if ((flags & 0x400) != 0) { sampleFlags = trun.getInt(p); p += 4; }
+				if ((flags & 0x800) != 0) p += 4;
+				if ((i == 0) && (firstFlags >= 0)) sampleFlags = firstFlags;
+				if ((offset < mdatStart) || (offset + size > mdatEnd))
+					throw new IOException("sample data is out of mdat:track=" + trackId);
+				samples.add(new Sample(trackId, time, duration, offset, size, (sampleFlags & 0x00010000) == 0));
+				time += duration;
+				offset += size;
+			}
+		}
+	}
+
+	private static ByteBuffer readBox(final FileChannel channel, final long position, final long size)
+		throws IOException {
+
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("too large box");
+		final ByteBuffer result = ByteBuffer.allocate((int)size - 8);
+		readFully(channel, result, position + 8);
+		return result;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buf, final long position)
+		throws IOException {
+
+		long pos = position;
+		while (buf.hasRemaining()) {
+			final int n = channel.read(buf, pos);
+			if (n < 0)
+				throw new IOException("unexpected end of file");
+			pos += n;
+		}
+		buf.flip();
+	}
+
+	/**
+	 * @param parent payload of the parent box
+	 * @param type
+	 * @return payloads of the child boxes of the type
+	 */
+	private static List<ByteBuffer> children(final ByteBuffer parent, final String type) throws IOException {
+		final List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+		int pos = 0;
+		final int end = parent.limit();
+		while (pos + 8 <= end) {
+			final int size = parent.getInt(pos);
+			if ((size < 8) || (pos + size > end))
+				throw new IOException("invalid box size");
+			if (type.equals(fourcc(parent, pos + 4))) {
+				final ByteBuffer buf = parent.duplicate();
+				buf.limit(pos + size).position(pos + 8);
+				result.add(buf.slice());
+			}
+			pos += size;
+		}
+		return result;
+	}
+
+	private static ByteBuffer child(final ByteBuffer parent, final String type) throws IOException {
+		final List<ByteBuffer> result = children(parent, type);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	private static String fourcc(final ByteBuffer buf, final int pos) {
+		final char[] result = new char[4];
+		for (int i = 0; i < 4; i++) result[i] = (char)(buf.get(pos + i) & 0xff);
+		return new String(result);
+	}
+}
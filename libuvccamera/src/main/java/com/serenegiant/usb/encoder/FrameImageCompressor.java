@@ -0,0 +1,134 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameImageCompressor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import com.serenegiant.usb.FrameStillEncoder;
+import com.serenegiant.usb.PixelConverter;
+import com.serenegiant.usb.StillImageFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * compress frame data with Android framework for FrameStillEncoder.
+ * YUYV/NV21 is compressed into JPEG with YuvImage (libjpeg) directly,
+ * WebP/PNG go through ARGB_8888 Bitmap. Raw YUV dump of MJPEG frame is not supported.
+ */
+public class FrameImageCompressor implements FrameStillEncoder.Compressor {
+
+    /**
+     * work buffers, reused while the frame size is not changed
+     */
+    private byte[] mBytes;
+    private ByteBuffer mNV21, mRGBX;
+    private Bitmap mBitmap;
+
+    @Override
+    public synchronized void compress(final ByteBuffer data, final int width, final int height,
+        final int dataFormat, final int format, final int quality, final OutputStream out) throws IOException {
+
+        if ((format == StillImageFormat.FORMAT_JPEG) && (dataFormat != StillImageFormat.FORMAT_JPEG)) {
+            // YuvImage supports YUY2 and NV21 as is
+            final YuvImage image = new YuvImage(toBytes(data),
+                dataFormat == StillImageFormat.FORMAT_YUYV ? ImageFormat.YUY2 : ImageFormat.NV21,
+                width, height, null);
+            if (!image.compressToJpeg(new Rect(0, 0, width, height), quality, out))
+                throw new IOException("failed to compress YUV into JPEG");
+        } else if ((format == StillImageFormat.FORMAT_WEBP) || (format == StillImageFormat.FORMAT_PNG)) {
+            final Bitmap bitmap = toBitmap(data, width, height, dataFormat);
+            if (!bitmap.compress(format == StillImageFormat.FORMAT_PNG
+                ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.WEBP, quality, out))
+                throw new IOException("failed to compress bitmap");
+        } else {
+            throw new IOException("can not convert " + StillImageFormat.getExtension(dataFormat)
+                + " to " + StillImageFormat.getExtension(format));
+        }
+    }
+
+    /**
+     * release work buffers
+     */
+    public synchronized void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mBytes = null;
+        mNV21 = mRGBX = null;
+    }
+
+    private byte[] toBytes(final ByteBuffer data) {
+        final int bytes = data.remaining();
+        if ((mBytes == null) || (mBytes.length < bytes)) {
+            mBytes = new byte[bytes];
+        }
+        data.duplicate().get(mBytes, 0, bytes);
+        return mBytes;
+    }
+
+    private Bitmap toBitmap(final ByteBuffer data, final int width, final int height, final int dataFormat)
+        throws IOException {
+
+        if (dataFormat == StillImageFormat.FORMAT_JPEG) {
+            final Bitmap bitmap = BitmapFactory.decodeByteArray(toBytes(data), 0, data.remaining());
+            if (bitmap == null)
+                throw new IOException("failed to decode MJPEG frame");
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = bitmap;
+            return bitmap;
+        }
+        if ((mBitmap == null) || mBitmap.isRecycled() || !mBitmap.isMutable()
+            || (mBitmap.getWidth() != width) || (mBitmap.getHeight() != height)) {
+
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mNV21 = ByteBuffer.allocateDirect(width * height * 3 / 2).order(ByteOrder.nativeOrder());
+            mRGBX = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        }
+        final ByteBuffer nv21;
+        if (dataFormat == StillImageFormat.FORMAT_YUYV) {
+            PixelConverter.yuyv2nv21(data, mNV21, width, height);
+            nv21 = mNV21;
+        } else {
+            nv21 = data;
+        }
+        PixelConverter.nv212rgbx(nv21, mRGBX, width, height);
+        mRGBX.clear();
+        // byte order of RGBX is same as ARGB_8888 in memory
+        mBitmap.copyPixelsFromBuffer(mRGBX);
+        return mBitmap;
+    }
+}
@@ -41,6 +41,7 @@ public class MediaAudioEncoder extends MediaEncoder {
 	private static final String MIME_TYPE = "audio/mp4a-latm";
     private static final int SAMPLE_RATE = 44100;	// 44.1[KHz] is only setting guaranteed to be available on all devices.
     private static final int BIT_RATE = 64000;
+    private static final int BYTES_PER_SAMPLE = 2;	// 16bit PCM, mono
 
     private AudioThread mAudioThread = null;
 
@@ -69,7 +70,7 @@ public class MediaAudioEncoder extends MediaEncoder {
 //		audioFormat.setLong(MediaFormat.KEY_MAX_INPUT_SIZE, inputFile.length());
 //      audioFormat.setLong(MediaFormat.KEY_DURATION, (long)durationInMs );
 		if (DEBUG) Log.i(TAG, "format: " + audioFormat);
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mMediaCodec = createEncoder(MIME_TYPE, null);
         mMediaCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
@@ -116,14 +117,25 @@ public class MediaAudioEncoder extends MediaEncoder {
 	    				if (DEBUG) Log.v(TAG, "AudioThread:start audio recording");
 		                final byte[] buf = new byte[buf_sz];
 		                int readBytes;
+		                // audio clock derived from number of samples, origin is the capture time of the first sample
+		                long startUs = -1, samples = 0;
 		                audioRecord.startRecording();
 		                try {
 				    		while (mIsCapturing && !mRequestStop && !mIsEOS) {
 				    			// read audio data from internal mic
 				    			readBytes = audioRecord.read(buf, 0, buf_sz);
 				    			if (readBytes > 0) {
+				    				// the read returns when the last sample of this chunk was captured,
+				    				// so the first sample was captured the duration of this chunk ago
+				    				final long captureUs = System.nanoTime() / 1000L
+				    					- (readBytes / BYTES_PER_SAMPLE) * 1000000L / SAMPLE_RATE;
+				    				if (startUs < 0)
+				    					startUs = captureUs;
+				    				final long ptsUs = mTimestampNormalizer.normalize(
+				    					startUs + samples * 1000000L / SAMPLE_RATE, captureUs);
+				    				samples += readBytes / BYTES_PER_SAMPLE;
 				    			    // set audio data to encoder
-				    				encode(buf, readBytes, getPTSUs());
+				    				encode(buf, readBytes, ptsUs);
 				    				frameAvailableSoon();
 				    			}
 				    		}
@@ -29,6 +29,10 @@ import java.nio.ByteBuffer;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 public abstract class MediaEncoder implements Runnable {
@@ -36,6 +40,7 @@ public abstract class MediaEncoder implements Runnable {
 	private static final String TAG = "MediaEncoder";
 
 	protected static final int TIMEOUT_USEC = 10000;	// 10[msec]
+	private static final long EOS_TIMEOUT_MS = 1000;
 	protected static final int MSG_FRAME_AVAILABLE = 1;
 	protected static final int MSG_STOP_RECORDING = 9;
 
@@ -83,6 +88,47 @@ public abstract class MediaEncoder implements Runnable {
     private MediaCodec.BufferInfo mBufferInfo;		// API >= 16(Android4.1.2)
 
     protected final MediaEncoderListener mListener;
+    /**
+     * latency of each frame from submitting to the encoder until encoded data come out
+     */
+    protected final EncodeLatencyTracker mLatencyTracker;
+    /**
+     * convert capture timestamps into presentation time for the muxer
+     */
+    protected final TimestampNormalizer mTimestampNormalizer = new TimestampNormalizer();
+    /**
+     * Flag to request asynchronous mode with MediaCodec.Callback(API >= 21)
+     */
+    private volatile boolean mRequestAsync;
+    /**
+     * Flag that indicate MediaCodec is running in asynchronous mode
+     */
+    protected boolean mIsAsync;
+    /**
+     * thread for MediaCodec.Callback in asynchronous mode
+     */
+    private HandlerThread mCallbackThread;
+    /**
+     * indices of available input buffers in asynchronous mode, guarded by mSync
+     */
+    private int[] mInputIndices = new int[16];
+    private int mInputHead, mInputCount;
+    /**
+     * Flag that indicate EOS came out of the encoder in asynchronous mode, guarded by mSync
+     */
+    private boolean mOutputEOS;
+    /**
+     * output buffers that came out before muxer started in asynchronous mode, guarded by mSync.
+     * they are written on the encoder thread in #drain because the callback thread should not wait for muxer
+     */
+    private int[] mPendingIndices = new int[8];
+    private MediaCodec.BufferInfo[] mPendingInfos = new MediaCodec.BufferInfo[8];
+    private int mPendingCount;
+    /**
+     * Flag that indicate muxer started and pending output buffers were written
+     * in asynchronous mode, guarded by mSync
+     */
+    private boolean mOutputReady;
 
     public MediaEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
     	if (listener == null) throw new NullPointerException("MediaEncoderListener is null");
@@ -90,6 +136,8 @@ public abstract class MediaEncoder implements Runnable {
 		mWeakMuxer = new WeakReference<MediaMuxerWrapper>(muxer);
 		muxer.addEncoder(this);
 		mListener = listener;
+		// encoders with input Surface assign presentation time by themselves
+		mLatencyTracker = new EncodeLatencyTracker(!hasSurfaceInput());
         synchronized (mSync) {
             // create BufferInfo here for effectiveness(to reduce GC)
             mBufferInfo = new MediaCodec.BufferInfo();
@@ -102,6 +150,125 @@ public abstract class MediaEncoder implements Runnable {
         }
 	}
 
+    /**
+     * create MediaFormat for video encoder from EncoderConfig
+     * @param mimeType
+     * @param config
+     * @param colorFormat
+     * @return
+     */
+    protected static MediaFormat createVideoFormat(final String mimeType, final EncoderConfig config, final int colorFormat) {
+        final MediaFormat format = MediaFormat.createVideoFormat(mimeType, config.getWidth(), config.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.getBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.getFrameRate());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.getIFrameInterval());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        	format.setInteger("bitrate-mode", config.getBitrateMode());	// MediaFormat.KEY_BITRATE_MODE, API >= 21
+        	if (config.getProfile() != EncoderConfig.PROFILE_DEFAULT) {
+        		format.setInteger("profile", config.getProfile());		// MediaFormat.KEY_PROFILE, API >= 21
+        		if ((Build.VERSION.SDK_INT >= 23) && (config.getLevel() != EncoderConfig.LEVEL_DEFAULT))
+        			format.setInteger("level", config.getLevel());		// MediaFormat.KEY_LEVEL, API >= 23
+        	}
+        }
+        return format;
+    }
+
+    /**
+     * request asynchronous mode that MediaCodec notifies available input/output buffers
+     * with MediaCodec.Callback on private thread instead of polling them with timeout.
+     * this is ignored on API < 21 and the encoder runs in synchronous mode.
+     * you should call this before MediaMuxerWrapper#prepare
+     * @param async
+     */
+    public void setAsyncMode(final boolean async) {
+    	mRequestAsync = async;
+    }
+
+    /**
+     * @return true if the encoder is running in asynchronous mode
+     */
+    public boolean isAsyncMode() {
+    	return mIsAsync;
+    }
+
+    /**
+     * @return latency of each frame from submitting to the encoder until encoded data come out
+     */
+    public EncodeLatencyTracker getLatencyTracker() {
+    	return mLatencyTracker;
+    }
+
+    /**
+     * whether the encoder receives frames from Surface, override and return true
+     * if the encoder uses MediaCodec#createInputSurface
+     * @return
+     */
+    protected boolean hasSurfaceInput() {
+    	return false;
+    }
+
+    /**
+     * create MediaCodec for encoding, this should be called from #prepare before MediaCodec#configure.
+     * In asynchronous mode MediaCodec is created on private HandlerThread
+     * because MediaCodec.Callback is called on the Looper of the thread that created MediaCodec.
+     * @param mimeType
+     * @param codecName name of codec, null to create with mimeType
+     * @return
+     * @throws IOException
+     */
+    protected MediaCodec createEncoder(final String mimeType, final String codecName) throws IOException {
+    	mIsAsync = mRequestAsync && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+    	if (!mIsAsync) {
+    		return codecName != null ? MediaCodec.createByCodecName(codecName)
+    			: MediaCodec.createEncoderByType(mimeType);
+    	}
+    	synchronized (mSync) {
+    		mInputHead = mInputCount = 0;
+    		mOutputEOS = mOutputReady = false;
+    		mPendingCount = 0;
+    	}
+    	mCallbackThread = new HandlerThread(getClass().getSimpleName() + "Callback");
+    	mCallbackThread.start();
+    	final Object[] result = new Object[1];
+    	new Handler(mCallbackThread.getLooper()).post(new Runnable() {
+    		@Override
+    		public void run() {
+    			Object codec;
+    			try {
+    				codec = codecName != null ? MediaCodec.createByCodecName(codecName)
+    	    			: MediaCodec.createEncoderByType(mimeType);
+    			} catch (final Exception e) {
+    				codec = e;
+    			}
+    			synchronized (result) {
+    				result[0] = codec;
+    				result.notifyAll();
+    			}
+    		}
+    	});
+    	synchronized (result) {
+    		while (result[0] == null) {
+    			try {
+    				result.wait();
+    			} catch (final InterruptedException e) {
+    				// MediaCodec should be released if it was created, so wait for it
+    			}
+    		}
+    	}
+    	if (result[0] instanceof MediaCodec) {
+    		final MediaCodec codec = (MediaCodec)result[0];
+    		codec.setCallback(new CodecCallback());	// API >= 21
+    		return codec;
+    	}
+    	mCallbackThread.quitSafely();
+    	mCallbackThread = null;
+    	mIsAsync = false;
+    	if (result[0] instanceof IOException)
+    		throw (IOException)result[0];
+    	throw new IOException("failed to create encoder", (Exception)result[0]);
+    }
+
     public String getOutputPath() {
     	final MediaMuxerWrapper muxer = mWeakMuxer.get();
     	return muxer != null ? muxer.getOutputPath() : null;
@@ -227,6 +394,10 @@ public abstract class MediaEncoder implements Runnable {
 				Log.e(TAG, "failed releasing MediaCodec", e);
 			}
         }
+        if (mCallbackThread != null) {
+        	mCallbackThread.quitSafely();	// API >= 18
+        	mCallbackThread = null;
+        }
         if (mMuxerStarted) {
        		final MediaMuxerWrapper muxer = mWeakMuxer.get();
        		if (muxer != null) {
@@ -245,9 +416,84 @@ public abstract class MediaEncoder implements Runnable {
         // signalEndOfInputStream is only avairable for video encoding with surface
         // and equivalent sending a empty buffer with BUFFER_FLAG_END_OF_STREAM flag.
 //		mMediaCodec.signalEndOfInputStream();	// API >= 18
-        encode(null, 0, getPTSUs());
+        if (mIsAsync) {
+        	// in asynchronous mode, send EOS actually and wait for it in #drain
+        	if (hasSurfaceInput()) {
+        		try {
+        			mMediaCodec.signalEndOfInputStream();	// API >= 18
+        			mIsEOS = true;
+        		} catch (final IllegalStateException e) {
+        			Log.w(TAG, "signalEndOfInputStream:", e);
+        		}
+        	} else {
+        		final long presentationTimeUs = getPTSUs();
+        		// give up when no input buffer became available,
+        		// then #drain does not wait for EOS and the encoder is released
+        		final long deadline = System.currentTimeMillis() + EOS_TIMEOUT_MS;
+        		while (mIsCapturing && !mIsEOS) {
+        			final int inputBufferIndex = dequeueInputBuffer();
+        			if (inputBufferIndex >= 0) {
+    	            	mIsEOS = true;
+    	            	if (DEBUG) Log.i(TAG, "send BUFFER_FLAG_END_OF_STREAM");
+    	            	mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0,
+    	            		presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        			} else if (System.currentTimeMillis() > deadline) {
+        				Log.w(TAG, "signalEndOfInputStream:no input buffer for EOS, release encoder without it");
+        				break;
+        			}
+        		}
+        	}
+        	return;
+        }
+        encode((byte[])null, 0, getPTSUs());
 	}
 
+    /**
+     * get input buffers of MediaCodec for #getInputBuffer
+     * @return null in asynchronous mode
+     */
+    protected ByteBuffer[] getInputBuffers() {
+    	return mIsAsync ? null : mMediaCodec.getInputBuffers();
+    }
+
+    /**
+     * @param inputBuffers return value of #getInputBuffers
+     * @param index return value of #dequeueInputBuffer
+     * @return
+     */
+    protected ByteBuffer getInputBuffer(final ByteBuffer[] inputBuffers, final int index) {
+    	return inputBuffers != null ? inputBuffers[index] : mMediaCodec.getInputBuffer(index);	// API >= 21
+    }
+
+    /**
+     * get index of available input buffer with maximum timeout duration of TIMEOUT_USEC.
+     * In asynchronous mode this waits for MediaCodec.Callback#onInputBufferAvailable instead of polling.
+     * @return index of input buffer or MediaCodec#INFO_TRY_AGAIN_LATER
+     */
+    protected int dequeueInputBuffer() {
+    	if (!mIsAsync) {
+    		return mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
+    	}
+    	synchronized (mSync) {
+    		final long deadline = System.nanoTime() + TIMEOUT_USEC * 1000L;
+    		long remaining = TIMEOUT_USEC * 1000L;
+    		while (mIsCapturing && (mInputCount == 0) && (remaining > 0)) {
+    			try {
+    				mSync.wait(remaining / 1000000L, (int)(remaining % 1000000L));
+    			} catch (final InterruptedException e) {
+    				break;
+    			}
+    			remaining = deadline - System.nanoTime();
+    		}
+    		if (mInputCount == 0)
+    			return MediaCodec.INFO_TRY_AGAIN_LATER;
+    		final int result = mInputIndices[mInputHead];
+    		mInputHead = (mInputHead + 1) % mInputIndices.length;
+    		mInputCount--;
+    		return result;
+    	}
+    }
+
     /**
      * Method to set byte array to the MediaCodec encoder
      * @param buffer
@@ -257,11 +503,13 @@ public abstract class MediaEncoder implements Runnable {
     protected void encode(final byte[] buffer, final int length, final long presentationTimeUs) {
     	if (!mIsCapturing) return;
     	int ix = 0, sz;
-        final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
+        final ByteBuffer[] inputBuffers = getInputBuffers();
+        if (length > 0)
+        	mLatencyTracker.onInput(presentationTimeUs, System.nanoTime());
         while (mIsCapturing && ix < length) {
-	        final int inputBufferIndex = mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
+	        final int inputBufferIndex = dequeueInputBuffer();
 	        if (inputBufferIndex >= 0) {
-	            final ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
+	            final ByteBuffer inputBuffer = getInputBuffer(inputBuffers, inputBufferIndex);
 	            inputBuffer.clear();
 	            sz = inputBuffer.remaining();
 	            sz = (ix + sz < length) ? sz : length - ix;
@@ -285,15 +533,71 @@ public abstract class MediaEncoder implements Runnable {
 	        	// wait for MediaCodec encoder is ready to encode
 	        	// nothing to do here because MediaCodec#dequeueInputBuffer(TIMEOUT_USEC)
 	        	// will wait for maximum TIMEOUT_USEC(10msec) on each call
+	        	onInputTimeout();
 	        }
         }
     }
 
+    /**
+     * Method to set data in ByteBuffer to the MediaCodec encoder.
+     * data are copied directly from the buffer to the input buffers of MediaCodec
+     * without intermediate byte array, so you can pass direct ByteBuffer from IFrameCallback as is.
+     * position and limit of the buffer are restored before returning.
+     * @param buffer data from current position of this buffer are encoded
+     * @param length length of data, zero means EOS.
+     * @param presentationTimeUs
+     */
+    protected void encode(final ByteBuffer buffer, final int length, final long presentationTimeUs) {
+    	if (!mIsCapturing) return;
+    	if ((buffer == null) || (length <= 0)) {
+    		encode((byte[])null, 0, presentationTimeUs);
+    		return;
+    	}
+    	final int position = buffer.position();
+    	final int limit = buffer.limit();
+    	if (length > limit - position)
+    		throw new IllegalArgumentException("length exceeds remaining bytes of buffer");
+    	int ix = 0, sz;
+        final ByteBuffer[] inputBuffers = getInputBuffers();
+        mLatencyTracker.onInput(presentationTimeUs, System.nanoTime());
+        try {
+	        while (mIsCapturing && ix < length) {
+		        final int inputBufferIndex = dequeueInputBuffer();
+		        if (inputBufferIndex >= 0) {
+		            final ByteBuffer inputBuffer = getInputBuffer(inputBuffers, inputBufferIndex);
+		            inputBuffer.clear();
+		            sz = inputBuffer.remaining();
+		            sz = (ix + sz < length) ? sz : length - ix;
+		            // copy sz bytes without creating slice of the buffer
+		            buffer.limit(position + ix + sz);
+		            buffer.position(position + ix);
+		            inputBuffer.put(buffer);
+		            ix += sz;
+	            	mMediaCodec.queueInputBuffer(inputBufferIndex, 0, sz,
+	            		presentationTimeUs, 0);
+		        } else if (inputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+		        	onInputTimeout();
+		        }
+	        }
+        } finally {
+        	buffer.limit(limit);
+        	buffer.position(position);
+        }
+    }
+
     /**
      * drain encoded data and write them to muxer
      */
     protected void drain() {
     	if (mMediaCodec == null) return;
+    	if (mIsAsync) {
+    		// encoded data are written on the callback thread,
+    		// write output buffers that came out before muxer started and wait for EOS when stopping
+    		writePendingOutput();
+    		if (mIsEOS)
+    			waitOutputEOS();
+    		return;
+    	}
         ByteBuffer[] encoderOutputBuffers = mMediaCodec.getOutputBuffers();
         int encoderStatus, count = 0;
         final MediaMuxerWrapper muxer = mWeakMuxer.get();
@@ -321,25 +625,10 @@ LOOP:	while (mIsCapturing) {
                 // this should come only once before actual encoded data
             	// but this status never come on Android4.3 or less
             	// and in that case, you should treat when MediaCodec.BUFFER_FLAG_CODEC_CONFIG come.
-                if (mMuxerStarted) {	// second time request is error
-                    throw new RuntimeException("format changed twice");
-                }
 				// get output format from codec and pass them to muxer
 				// getOutputFormat should be called after INFO_OUTPUT_FORMAT_CHANGED otherwise crash.
-                final MediaFormat format = mMediaCodec.getOutputFormat(); // API >= 16
-               	mTrackIndex = muxer.addTrack(format);
-               	mMuxerStarted = true;
-               	if (!muxer.start()) {
-               		// we should wait until muxer is ready
-               		synchronized (muxer) {
-	               		while (!muxer.isStarted())
-						try {
-							muxer.wait(100);
-						} catch (final InterruptedException e) {
-							break LOOP;
-						}
-               		}
-               	}
+                if (!startMuxer(muxer, mMediaCodec.getOutputFormat())) // API >= 16
+                	break LOOP;
             } else if (encoderStatus < 0) {
             	// unexpected status
             	if (DEBUG) Log.w(TAG, "drain:unexpected result from encoder#dequeueOutputBuffer: " + encoderStatus);
@@ -349,26 +638,9 @@ LOOP:	while (mIsCapturing) {
                 	// this never should come...may be a MediaCodec internal error
                     throw new RuntimeException("encoderOutputBuffer " + encoderStatus + " was null");
                 }
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                	// You shoud set output format to muxer here when you target Android4.3 or less
-                	// but MediaCodec#getOutputFormat can not call here(because INFO_OUTPUT_FORMAT_CHANGED don't come yet)
-                	// therefor we should expand and prepare output format from buffer data.
-                	// This sample is for API>=18(>=Android 4.3), just ignore this flag here
-					if (DEBUG) Log.d(TAG, "drain:BUFFER_FLAG_CODEC_CONFIG");
-					mBufferInfo.size = 0;
-                }
-
-                if (mBufferInfo.size != 0) {
+                if (writeEncodedData(muxer, encodedData, mBufferInfo)) {
                 	// encoded data is ready, clear waiting counter
             		count = 0;
-                    if (!mMuxerStarted) {
-                    	// muxer is not ready...this will prrograming failure.
-                        throw new RuntimeException("drain:muxer hasn't started");
-                    }
-                    // write encoded data to muxer(need to adjust presentationTimeUs.
-                   	mBufferInfo.presentationTimeUs = getPTSUs();
-                   	muxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-					prevOutputPTSUs = mBufferInfo.presentationTimeUs;
                 }
                 // return buffer to encoder
                 mMediaCodec.releaseOutputBuffer(encoderStatus, false);
@@ -381,10 +653,197 @@ LOOP:	while (mIsCapturing) {
         }
     }
 
+    /**
+     * add track and start muxer with the output format of the encoder
+     * @param muxer
+     * @param format
+     * @return false if interrupted while waiting for muxer
+     */
+    private boolean startMuxer(final MediaMuxerWrapper muxer, final MediaFormat format) {
+        if (mMuxerStarted) {	// second time request is error
+            throw new RuntimeException("format changed twice");
+        }
+       	mTrackIndex = muxer.addTrack(format);
+       	mMuxerStarted = true;
+       	if (!muxer.start()) {
+       		// we should wait until muxer is ready
+       		synchronized (muxer) {
+           		while (!muxer.isStarted())
+				try {
+					muxer.wait(100);
+				} catch (final InterruptedException e) {
+					return false;
+				}
+       		}
+       	}
+       	return true;
+    }
+
+    /**
+     * write encoded data to muxer
+     * @param muxer
+     * @param encodedData
+     * @param info
+     * @return true if encoded data was written
+     */
+    private boolean writeEncodedData(final MediaMuxerWrapper muxer, final ByteBuffer encodedData, final MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+        	// You shoud set output format to muxer here when you target Android4.3 or less
+        	// but MediaCodec#getOutputFormat can not call here(because INFO_OUTPUT_FORMAT_CHANGED don't come yet)
+        	// therefor we should expand and prepare output format from buffer data.
+        	// This sample is for API>=18(>=Android 4.3), just ignore this flag here
+			if (DEBUG) Log.d(TAG, "drain:BUFFER_FLAG_CODEC_CONFIG");
+			info.size = 0;
+        }
+        if (info.size == 0) return false;
+        if (!mMuxerStarted) {
+        	// muxer is not ready...this will prrograming failure.
+            throw new RuntimeException("drain:muxer hasn't started");
+        }
+        mLatencyTracker.onOutput(info.presentationTimeUs, System.nanoTime());
+        // write encoded data to muxer with the capture time that was passed to the encoder
+       	info.presentationTimeUs = getOutputPTSUs(info.presentationTimeUs);
+       	muxer.writeSampleData(mTrackIndex, encodedData, info);
+		prevOutputPTSUs = info.presentationTimeUs;
+		onEncodedData(info);
+		return true;
+    }
+
+    /**
+     * write output buffer and return it to the encoder in asynchronous mode
+     * @param codec
+     * @param muxer
+     * @param index
+     * @param info
+     */
+    private void writeOutput(final MediaCodec codec, final MediaMuxerWrapper muxer, final int index, final MediaCodec.BufferInfo info) {
+		try {
+			if (mIsCapturing && (muxer != null)) {
+				writeEncodedData(muxer, codec.getOutputBuffer(index), info);	// API >= 21
+			}
+			codec.releaseOutputBuffer(index, false);
+		} catch (final IllegalStateException e) {
+			// MediaCodec was already stopped
+			Log.w(TAG, "writeOutput:", e);
+		}
+		if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+			synchronized (mSync) {
+				mOutputEOS = true;
+				mSync.notifyAll();
+			}
+		}
+    }
+
+    /**
+     * write output buffers that were kept until muxer started in asynchronous mode,
+     * this is called on the encoder thread and never waits for muxer.
+     */
+    private void writePendingOutput() {
+    	synchronized (mSync) {
+    		// mMuxerStarted is set on the callback thread before it requests drain with mSync
+    		if (mOutputReady || !mMuxerStarted) return;
+    	}
+    	final MediaCodec codec = mMediaCodec;
+		final MediaMuxerWrapper muxer = mWeakMuxer.get();
+		if ((codec == null) || (muxer == null) || !muxer.isStarted()) return;
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		for ( ; ; ) {
+			final int index;
+			synchronized (mSync) {
+				if (mOutputReady) return;
+				if (mPendingCount == 0) {
+					// following output buffers are written on the callback thread
+					mOutputReady = true;
+					return;
+				}
+				index = mPendingIndices[0];
+				final MediaCodec.BufferInfo pending = mPendingInfos[0];
+				info.set(pending.offset, pending.size, pending.presentationTimeUs, pending.flags);
+				mPendingCount--;
+				System.arraycopy(mPendingIndices, 1, mPendingIndices, 0, mPendingCount);
+				System.arraycopy(mPendingInfos, 1, mPendingInfos, 0, mPendingCount);
+			}
+			// output buffers are written in order because the callback thread keeps adding them while !mOutputReady
+			writeOutput(codec, muxer, index, info);
+		}
+    }
+
+    /**
+     * wait until EOS come out of the encoder in asynchronous mode
+     */
+    private void waitOutputEOS() {
+    	synchronized (mSync) {
+    		final long deadline = System.currentTimeMillis() + EOS_TIMEOUT_MS;
+    		long remaining = EOS_TIMEOUT_MS;
+    		while (!mOutputEOS && (remaining > 0)) {
+    			try {
+    				mSync.wait(remaining);
+    			} catch (final InterruptedException e) {
+    				break;
+    			}
+    			remaining = deadline - System.currentTimeMillis();
+    		}
+    		if (!mOutputEOS)
+    			Log.w(TAG, "EOS did not come from encoder");
+    	}
+    }
+
+    /**
+     * request key frame to the encoder, this only works on API >= 19
+     */
+    /*package*/ void requestSyncFrame() {
+    	if ((mMediaCodec != null) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)) {
+    		final Bundle params = new Bundle();
+    		params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);	// API >= 19
+    		try {
+    			mMediaCodec.setParameters(params);
+    		} catch (final IllegalStateException e) {
+    			Log.w(TAG, "requestSyncFrame:", e);
+    		}
+    	}
+    }
+
+    /**
+     * called on the encoder thread when MediaCodec#dequeueInputBuffer timed out in #encode
+     */
+    protected void onInputTimeout() {
+    }
+
+    /**
+     * called on the encoder thread after encoded data was written to the muxer
+     * @param info
+     */
+    protected void onEncodedData(final MediaCodec.BufferInfo info) {
+    }
+
     /**
      * previous presentationTimeUs for writing
      */
 	private long prevOutputPTSUs = 0;
+
+	/**
+	 * get presentationTimeUs of encoded data for writing
+	 * @param presentationTimeUs presentation time from the encoder, that is the capture time of the frame
+	 * @return
+	 */
+	protected long getOutputPTSUs(final long presentationTimeUs) {
+		if (presentationTimeUs <= 0) {
+			// the encoder did not keep presentation time
+			return getPTSUs();
+		}
+		// presentationTimeUs should be monotonic
+		// otherwise muxer fail to write
+		return presentationTimeUs < prevOutputPTSUs ? prevOutputPTSUs : presentationTimeUs;
+	}
+
+	/**
+	 * convert capture time of a frame into presentation time for the encoder
+	 * @param captureTimeNs System#nanoTime when the frame was captured, zero or negative if unknown
+	 * @return
+	 */
+	protected long getCapturePTSUs(final long captureTimeNs) {
+		return mTimestampNormalizer.normalize(captureTimeNs / 1000L, System.nanoTime() / 1000L);
+	}
 	/**
 	 * get next encoding presentationTimeUs
 	 * @return
@@ -398,4 +857,81 @@ LOOP:	while (mIsCapturing) {
 		return result;
     }
 
+//********************************************************************************
+    /**
+     * MediaCodec.Callback for asynchronous mode, these methods are called on mCallbackThread
+     */
+    private final class CodecCallback extends MediaCodec.Callback {
+    	@Override
+    	public void onInputBufferAvailable(final MediaCodec codec, final int index) {
+    		synchronized (mSync) {
+    			if (mInputCount == mInputIndices.length) {
+    				final int[] indices = new int[mInputIndices.length * 2];
+    				for (int i = 0; i < mInputCount; i++)
+    					indices[i] = mInputIndices[(mInputHead + i) % mInputIndices.length];
+    				mInputIndices = indices;
+    				mInputHead = 0;
+    			}
+    			mInputIndices[(mInputHead + mInputCount) % mInputIndices.length] = index;
+    			mInputCount++;
+    			mSync.notifyAll();
+    		}
+    	}
+
+    	@Override
+    	public void onOutputBufferAvailable(final MediaCodec codec, final int index, final MediaCodec.BufferInfo info) {
+    		synchronized (mSync) {
+    			if (!mOutputReady) {
+    				// muxer may not start yet, keep the buffer until #writePendingOutput on the encoder thread
+    				if (mPendingCount == mPendingIndices.length) {
+    					final int n = mPendingIndices.length * 2;
+    					final int[] indices = new int[n];
+    					final MediaCodec.BufferInfo[] infos = new MediaCodec.BufferInfo[n];
+    					System.arraycopy(mPendingIndices, 0, indices, 0, mPendingCount);
+    					System.arraycopy(mPendingInfos, 0, infos, 0, mPendingCount);
+    					mPendingIndices = indices;
+    					mPendingInfos = infos;
+    				}
+    				MediaCodec.BufferInfo pending = mPendingInfos[mPendingCount];
+    				if (pending == null)
+    					mPendingInfos[mPendingCount] = pending = new MediaCodec.BufferInfo();
+    				pending.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+    				mPendingIndices[mPendingCount++] = index;
+    				mRequestDrain++;
+    				mSync.notifyAll();
+    				return;
+    			}
+    		}
+    		writeOutput(codec, mWeakMuxer.get(), index, info);
+    	}
+
+    	@Override
+    	public void onOutputFormatChanged(final MediaCodec codec, final MediaFormat format) {
+        	if (DEBUG) Log.v(TAG, "onOutputFormatChanged:" + format);
+    		final MediaMuxerWrapper muxer = mWeakMuxer.get();
+    		if (muxer != null) {
+    			// add track and request starting muxer without waiting for the other encoders,
+    			// output buffers are kept until muxer started
+    	        if (mMuxerStarted) {	// second time request is error
+    	            throw new RuntimeException("format changed twice");
+    	        }
+    	       	mTrackIndex = muxer.addTrack(format);
+    	       	mMuxerStarted = true;
+    	       	muxer.start();
+    			synchronized (mSync) {
+    				mRequestDrain++;
+    				mSync.notifyAll();
+    			}
+    		} else {
+            	Log.w(TAG, "muxer is unexpectedly null");
+    		}
+    	}
+
+    	@Override
+    	public void onError(final MediaCodec codec, final MediaCodec.CodecException e) {
+    		Log.e(TAG, "onError:", e);
+    		stopRecording();
+    	}
+    }
+
 }
@@ -27,13 +27,17 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Locale;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -44,33 +48,194 @@ public class MediaMuxerWrapper {
 	private static final String DIR_NAME = "InstUSBCamera";
     private static final SimpleDateFormat mDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
 
+	/**
+	 * listener for segmented recording, methods are called on a private thread of the muxer in order
+	 */
+	public interface SegmentListener {
+		/**
+		 * called when writing to new segment file started
+		 * @param index index of the segment, starting from 0
+		 * @param path
+		 */
+		public void onSegmentStarted(int index, String path);
+		/**
+		 * called when the segment file was closed and it is ready to read
+		 * @param index index of the segment, starting from 0
+		 * @param path
+		 * @param durationUs duration of video in the segment
+		 * @param bytes bytes of samples in the segment
+		 */
+		public void onSegmentFinished(int index, String path, long durationUs, long bytes);
+	}
+
 	private String mOutputPath;
-	private final MediaMuxer mMediaMuxer;	// API >= 18
+	private MediaMuxer mMediaMuxer;	// API >= 18
+	private FragmentedMp4Muxer mFragmentedMuxer;	// used instead of mMediaMuxer for fragmented output
 	private int mEncoderCount, mStatredCount;
 	private boolean mIsStarted;
 	private MediaEncoder mVideoEncoder, mAudioEncoder;
+	private final EncoderConfig mEncoderConfig;
+	private final String mBasePath, mExt;
+	private final List<MediaFormat> mTrackFormats = new ArrayList<MediaFormat>();
+	private int mVideoTrackIndex = -1;
+	// for segmented recording
+	private long mMaxSegmentDurationUs, mMaxSegmentBytes;
+	private SegmentListener mSegmentListener;
+	private HandlerThread mSegmentThread;
+	private Handler mSegmentHandler;
+	private SegmentRotator<MediaMuxer> mSegmentRotator;
+	// for pre-event recording
+	private PreRollBuffer mPreRollBuffer;
+	private boolean mPreRolling;
+	private MediaCodec.BufferInfo mPreRollInfo;
+
+	/**
+	 * Constructor with default EncoderConfig
+	 * @param ext extension of output file
+	 * @throws IOException
+	 */
+	public MediaMuxerWrapper(final String ext) throws IOException {
+		this(ext, new EncoderConfig());
+	}
 
 	/**
 	 * Constructor
 	 * @param ext extension of output file
+	 * @param config default config of video encoders that are added to this muxer
 	 * @throws IOException
 	 */
-	public MediaMuxerWrapper(String ext) throws IOException {
+	public MediaMuxerWrapper(final String ext, final EncoderConfig config) throws IOException {
+		this(ext, config, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param ext extension of output file
+	 * @param config default config of video encoders that are added to this muxer
+	 * @param fragmented true if you want to write fragmented MP4 with FragmentedMp4Muxer instead of MediaMuxer,
+	 * 	samples are written to the file every fragment, so the file can be read while recording
+	 * 	and it is not lost when the process is killed. segmented recording is not available.
+	 * @throws IOException
+	 */
+	public MediaMuxerWrapper(String ext, final EncoderConfig config, final boolean fragmented) throws IOException {
+		if (config == null) throw new NullPointerException("EncoderConfig is null");
+		mEncoderConfig = new EncoderConfig(config);
 		if (TextUtils.isEmpty(ext)) ext = ".mp4";
 		try {
 			mOutputPath = getCaptureFile(Environment.DIRECTORY_MOVIES, ext).toString();
 		} catch (final NullPointerException e) {
 			throw new RuntimeException("This app has no permission of writing external storage");
 		}
-		mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		mExt = ext;
+		mBasePath = mOutputPath.substring(0, mOutputPath.length() - ext.length());
+		if (fragmented) {
+			mFragmentedMuxer = new FragmentedMp4Muxer(new File(mOutputPath));
+		} else {
+			mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		}
 		mEncoderCount = mStatredCount = 0;
 		mIsStarted = false;
 	}
 
-	public String getOutputPath() {
+	/**
+	 * @return path of current output file, that is the last segment for segmented recording
+	 */
+	public synchronized String getOutputPath() {
 		return mOutputPath;
 	}
 
+	/**
+	 * enable segmented recording, output file is switched to new file on a key frame
+	 * when the duration or the bytes of the current segment reached the limit.
+	 * The muxer for the next segment is created in background, so switching does not drop frames.
+	 * Key frame is requested to the video encoder on API >= 19, on older devices segments are switched
+	 * on the next key frame with I-frame interval of EncoderConfig (see BitratePlanner#planIFrameInterval).
+	 * The first segment is written to #getOutputPath and following segments have suffix _001, _002...
+	 * This should be called before MediaMuxerWrapper#startRecording.
+	 * @param maxDurationSec maximum duration of each segment in seconds, 0 for no limit
+	 * @param maxBytes maximum bytes of each segment, 0 for no limit
+	 * @param listener
+	 */
+	public synchronized void setSegmentation(final int maxDurationSec, final long maxBytes, final SegmentListener listener) {
+		if (mIsStarted)
+			throw new IllegalStateException("muxer already started");
+		if (mFragmentedMuxer != null)
+			throw new IllegalStateException("segmented recording is not available for fragmented output");
+		if ((maxDurationSec < 0) || (maxBytes < 0))
+			throw new IllegalArgumentException("limits should not be negative");
+		mMaxSegmentDurationUs = maxDurationSec * 1000000L;
+		mMaxSegmentBytes = maxBytes;
+		mSegmentListener = listener;
+	}
+
+	/**
+	 * enable pre-event recording. encoded samples are kept in memory until #trigger is called
+	 * and the samples of last maxDurationSec seconds(from a key frame) are written to the file
+	 * before live samples. Nothing is written to the file when recording stopped without #trigger.
+	 * I-frame interval of EncoderConfig should be shorter than maxDurationSec.
+	 * This should be called before MediaMuxerWrapper#startRecording.
+	 * @param maxDurationSec maximum duration of samples that are kept in memory
+	 * @param maxBytes maximum bytes of samples that are kept in memory, this memory is allocated here
+	 */
+	public synchronized void setPreRoll(final int maxDurationSec, final int maxBytes) {
+		if (mIsStarted)
+			throw new IllegalStateException("muxer already started");
+		if (maxDurationSec <= 0) {
+			mPreRollBuffer = null;
+			return;
+		}
+		// video frames and AAC frames(1024 samples at 44.1kHz) with some margin
+		final int maxSamples = maxDurationSec * (mEncoderConfig.getFrameRate() + 50) + 16;
+		mPreRollBuffer = new PreRollBuffer(maxDurationSec * 1000000L, maxBytes, maxSamples);
+		mPreRollInfo = new MediaCodec.BufferInfo();
+	}
+
+	/**
+	 * @return true if encoded samples are kept in memory and waiting for #trigger
+	 */
+	public synchronized boolean isPreRolling() {
+		return mPreRolling || ((mPreRollBuffer != null) && !mIsStarted);
+	}
+
+	/**
+	 * start writing to the file with pre-event samples in memory.
+	 * if this is called before encoders start, recording starts without pre-event samples.
+	 * @return false if pre-event recording is not enabled or already triggered
+	 */
+	public synchronized boolean trigger() {
+		if (mPreRollBuffer == null) return false;
+		if (!mPreRolling) {
+			if (mIsStarted) return false;
+			// encoders have not started yet, start writing to the file directly
+			mPreRollBuffer = null;
+			return true;
+		}
+		mPreRolling = false;
+		startMuxer();
+		final int n = mPreRollBuffer.drainTo(mPreRollWriter);
+		if (DEBUG) Log.v(TAG, "trigger:wrote " + n + " pre-event samples");
+		mPreRollBuffer = null;
+		return true;
+	}
+
+	public synchronized boolean isSegmented() {
+		return (mMaxSegmentDurationUs > 0) || (mMaxSegmentBytes > 0);
+	}
+
+	/**
+	 * @return index of the segment that is being written
+	 */
+	public synchronized int getSegmentIndex() {
+		return mSegmentRotator != null ? mSegmentRotator.getIndex() : 0;
+	}
+
+	/**
+	 * @return default config of video encoders, you should not change this
+	 */
+	public EncoderConfig getEncoderConfig() {
+		return mEncoderConfig;
+	}
+
 	public void prepare() throws IOException {
 		if (mVideoEncoder != null)
 			mVideoEncoder.prepare();
@@ -102,7 +267,7 @@ public class MediaMuxerWrapper {
 //**********************************************************************
 	/**
 	 * assign encoder to this calss. this is called from encoder.
-	 * @param encoder instance of MediaVideoEncoder or MediaAudioEncoder
+	 * @param encoder instance of MediaVideoEncoder, MediaSurfaceEncoder, MediaVideoBufferEncoder or MediaAudioEncoder
 	 */
 	/*package*/ void addEncoder(final MediaEncoder encoder) {
 		if (encoder instanceof MediaVideoEncoder) {
@@ -113,6 +278,10 @@ public class MediaMuxerWrapper {
 				if (mVideoEncoder != null)
 					throw new IllegalArgumentException("Video encoder already added.");
 				mVideoEncoder = encoder;
+		} else if (encoder instanceof MediaVideoBufferEncoder) {
+			if (mVideoEncoder != null)
+				throw new IllegalArgumentException("Video encoder already added.");
+			mVideoEncoder = encoder;
 		} else if (encoder instanceof MediaAudioEncoder) {
 			if (mAudioEncoder != null)
 				throw new IllegalArgumentException("Video encoder already added.");
@@ -130,14 +299,39 @@ public class MediaMuxerWrapper {
 		if (DEBUG) Log.v(TAG,  "start:");
 		mStatredCount++;
 		if ((mEncoderCount > 0) && (mStatredCount == mEncoderCount)) {
-			mMediaMuxer.start();
 			mIsStarted = true;
+			if (mPreRollBuffer != null) {
+				// keep samples in memory until #trigger
+				mPreRolling = true;
+			} else {
+				startMuxer();
+			}
 			notifyAll();
 			if (DEBUG) Log.v(TAG,  "MediaMuxer started:");
 		}
 		return mIsStarted;
 	}
 
+	private void startMuxer() {
+		if (mFragmentedMuxer != null) {
+			try {
+				mFragmentedMuxer.start();
+			} catch (final IOException e) {
+				throw new RuntimeException("failed to start FragmentedMp4Muxer", e);
+			}
+			return;
+		}
+		mMediaMuxer.start();
+		if (isSegmented()) {
+			mSegmentThread = new HandlerThread(TAG);
+			mSegmentThread.start();
+			mSegmentHandler = new Handler(mSegmentThread.getLooper());
+			mSegmentRotator = new SegmentRotator<MediaMuxer>(mBasePath, mExt,
+				mMaxSegmentDurationUs, mMaxSegmentBytes, mSegmentCallback);
+			mSegmentRotator.start(mMediaMuxer);
+		}
+	}
+
 	/**
 	 * request stop recording from encoder when encoder received EOS
 	*/
@@ -145,9 +339,32 @@ public class MediaMuxerWrapper {
 		if (DEBUG) Log.v(TAG,  "stop:mStatredCount=" + mStatredCount);
 		mStatredCount--;
 		if ((mEncoderCount > 0) && (mStatredCount <= 0)) {
-			mMediaMuxer.stop();
+			if (mPreRolling) {
+				// #trigger was not called, discard samples in memory and the output file
+				mPreRolling = mIsStarted = false;
+				mPreRollBuffer.clear();
+				mPreRollBuffer = null;
+				releaseMuxer();
+				new File(mOutputPath).delete();
+				mOutputPath = null;
+				if (DEBUG) Log.v(TAG,  "MediaMuxer discarded:");
+				return;
+			}
+			if (mFragmentedMuxer != null) {
+				releaseMuxer();
+			} else {
+				mMediaMuxer.stop();
+			}
 			mIsStarted = false;
 			if (DEBUG) Log.v(TAG,  "MediaMuxer stopped:");
+			if (mSegmentHandler != null) {
+				mMediaMuxer.release();
+				// the prepared muxer for the next segment is discarded
+				mSegmentRotator.stop();
+				mSegmentThread.quitSafely();	// API >= 18
+				mSegmentThread = null;
+				mSegmentHandler = null;
+			}
 		}
 	}
 
@@ -159,8 +376,13 @@ public class MediaMuxerWrapper {
 	/*package*/ synchronized int addTrack(final MediaFormat format) {
 		if (mIsStarted)
 			throw new IllegalStateException("muxer already started");
-		final int trackIx = mMediaMuxer.addTrack(format);
+		final int trackIx = mFragmentedMuxer != null
+			? mFragmentedMuxer.addTrack(getTrackFormat(format)) : mMediaMuxer.addTrack(format);
 		if (DEBUG) Log.i(TAG, "addTrack:trackNum=" + mEncoderCount + ",trackIx=" + trackIx + ",format=" + format);
+		mTrackFormats.add(format);
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if ((mime != null) && mime.startsWith("video/"))
+			mVideoTrackIndex = trackIx;
 		return trackIx;
 	}
 
@@ -170,9 +392,237 @@ public class MediaMuxerWrapper {
 	 * @param byteBuf
 	 * @param bufferInfo
 	 */
+	@SuppressWarnings("deprecation")
 	/*package*/ synchronized void writeSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
-		if (mStatredCount > 0)
+		if (mStatredCount > 0) {
+			if (mPreRolling) {
+				final boolean keyFrame = (trackIndex == mVideoTrackIndex)
+					? (bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0
+					: (mVideoTrackIndex < 0);	// all audio samples are key frame for audio only recording
+				mPreRollBuffer.add(trackIndex, byteBuf, bufferInfo.offset, bufferInfo.size,
+					bufferInfo.presentationTimeUs, bufferInfo.flags, keyFrame);
+			} else {
+				writeSample(trackIndex, byteBuf, bufferInfo);
+			}
+		}
+	}
+
+	private void writeSample(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
+		if ((mSegmentHandler != null) && (trackIndex == mVideoTrackIndex)) {
+			checkSegment(bufferInfo);
+		}
+		if (mFragmentedMuxer != null) {
+			try {
+				mFragmentedMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo.offset, bufferInfo.size,
+					bufferInfo.presentationTimeUs, bufferInfo.flags);
+			} catch (final IOException e) {
+				// samples of the fragments that were already written are still available
+				Log.e(TAG, "failed to write sample", e);
+			}
+		} else {
 			mMediaMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo);
+		}
+		if (mSegmentHandler != null) {
+			mSegmentRotator.onSampleWritten(bufferInfo.size);
+		}
+	}
+
+	/**
+	 * release the muxer without writing(MediaMuxer) or finish the file(FragmentedMp4Muxer)
+	 */
+	private void releaseMuxer() {
+		if (mFragmentedMuxer != null) {
+			try {
+				mFragmentedMuxer.stop();
+			} catch (final IOException e) {
+				Log.e(TAG, "failed to finish " + mOutputPath, e);
+			}
+		} else {
+			mMediaMuxer.release();
+		}
+	}
+
+	/**
+	 * convert output format of MediaCodec to the format of FragmentedMp4Muxer
+	 * @param format
+	 * @return
+	 */
+	private static FragmentedMp4Muxer.TrackFormat getTrackFormat(final MediaFormat format) {
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if (FragmentedMp4Muxer.MIME_AVC.equals(mime)) {
+			return FragmentedMp4Muxer.createAvcFormat(
+				format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT),
+				format.getByteBuffer("csd-0"),
+				format.containsKey("csd-1") ? format.getByteBuffer("csd-1") : null);
+		} else if (FragmentedMp4Muxer.MIME_AAC.equals(mime)) {
+			return FragmentedMp4Muxer.createAacFormat(
+				format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+				format.getByteBuffer("csd-0"));
+		}
+		throw new IllegalArgumentException("unsupported format for fragmented output:" + mime);
+	}
+
+	/**
+	 * write samples in PreRollBuffer to the muxer, this is called in #trigger
+	 */
+	private final PreRollBuffer.SampleWriter mPreRollWriter = new PreRollBuffer.SampleWriter() {
+		@Override
+		public void writeSample(final int track, final ByteBuffer buffer, final int offset, final int size,
+			final long presentationTimeUs, final int flags) {
+
+			mPreRollInfo.set(offset, size, presentationTimeUs, flags);
+			MediaMuxerWrapper.this.writeSample(track, buffer, mPreRollInfo);
+		}
+	};
+
+//**********************************************************************
+//**********************************************************************
+	/**
+	 * switch to the next segment if current segment reached the limit and the sample is a key frame.
+	 * this is called on the video encoder thread
+	 * @param bufferInfo video sample that will be written
+	 */
+	@SuppressWarnings("deprecation")
+	private void checkSegment(final MediaCodec.BufferInfo bufferInfo) {
+		if (mSegmentRotator.onVideoSample(bufferInfo.presentationTimeUs, bufferInfo.size,
+			(bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0)) {
+
+			mMediaMuxer = mSegmentRotator.getMuxer();
+			mOutputPath = mSegmentRotator.getPath();
+			if (DEBUG) Log.v(TAG, "switchSegment:" + mSegmentRotator.getIndex() + "," + mOutputPath);
+		}
+	}
+
+	private static MediaMuxer createMuxer(final String path, final List<MediaFormat> formats) throws IOException {
+		final MediaMuxer muxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		// track index is same as the order of adding
+		for (final MediaFormat format: formats) {
+			muxer.addTrack(format);
+		}
+		return muxer;
+	}
+
+	/**
+	 * side effects of SegmentRotator, called while holding the lock of MediaMuxerWrapper
+	 */
+	private final SegmentRotator.Callback<MediaMuxer> mSegmentCallback = new SegmentRotator.Callback<MediaMuxer>() {
+		@Override
+		public void prepareMuxer(final int index, final String path) {
+			postPrepareNextSegment(index, path);
+		}
+
+		@Override
+		public MediaMuxer createMuxer(final int index, final String path) {
+			try {
+				return MediaMuxerWrapper.createMuxer(path, mTrackFormats);
+			} catch (final IOException e) {
+				Log.e(TAG, "failed to create next segment, continue current segment", e);
+				return null;
+			}
+		}
+
+		@Override
+		public void startMuxer(final MediaMuxer muxer) {
+			muxer.start();
+		}
+
+		@Override
+		public void requestSyncFrame() {
+			if (mVideoEncoder != null) {
+				mVideoEncoder.requestSyncFrame();
+			}
+		}
+
+		@Override
+		public void onSegmentStarted(final int index, final String path) {
+			postSegmentStarted(index, path);
+		}
+
+		@Override
+		public void onSegmentFinished(final MediaMuxer muxer, final int index, final String path,
+			final long durationUs, final long bytes) {
+
+			postSegmentFinished(muxer, index, path, durationUs, bytes);
+		}
+
+		@Override
+		public void discardMuxer(final MediaMuxer muxer, final String path) {
+			muxer.release();
+			new File(path).delete();
+		}
+	};
+
+	/**
+	 * create the muxer for the next segment on the segment thread
+	 */
+	private void postPrepareNextSegment(final int index, final String path) {
+		final List<MediaFormat> formats = new ArrayList<MediaFormat>(mTrackFormats);
+		mSegmentHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				final MediaMuxer muxer;
+				try {
+					muxer = createMuxer(path, formats);
+				} catch (final IOException e) {
+					Log.w(TAG, "failed to prepare next segment", e);
+					return;
+				}
+				synchronized (MediaMuxerWrapper.this) {
+					if (mSegmentRotator.setNextMuxer(index, path, muxer)) {
+						return;
+					}
+				}
+				// recording stopped or the segment was already switched
+				muxer.release();
+				new File(path).delete();
+			}
+		});
+	}
+
+	private void postSegmentStarted(final int index, final String path) {
+		final SegmentListener listener = mSegmentListener;
+		if (listener != null) {
+			mSegmentHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						listener.onSegmentStarted(index, path);
+					} catch (final Exception e) {
+						Log.w(TAG, "onSegmentStarted:", e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * stop the muxer of finished segment on the segment thread and notify the listener
+	 * @param muxer null if the muxer was already stopped
+	 */
+	private void postSegmentFinished(final MediaMuxer muxer, final int index, final String path,
+		final long durationUs, final long bytes) {
+
+		final SegmentListener listener = mSegmentListener;
+		mSegmentHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (muxer != null) {
+					try {
+						muxer.stop();
+						muxer.release();
+					} catch (final Exception e) {
+						Log.e(TAG, "failed to finish segment " + path, e);
+					}
+				}
+				if (listener != null) {
+					try {
+						listener.onSegmentFinished(index, path, durationUs, bytes);
+					} catch (final Exception e) {
+						Log.w(TAG, "onSegmentFinished:", e);
+					}
+				}
+			}
+		});
 	}
 
 //**********************************************************************
@@ -37,17 +37,29 @@ public class MediaSurfaceEncoder extends MediaEncoder {
 	private static final String TAG = "MediaSurfaceEncoder";
 
 	private static final String MIME_TYPE = "video/avc";
-	// parameters for recording
-	// VIDEO_WITH and VIDEO_HEIGHT should be same as the camera preview size.
-    private static final int VIDEO_WIDTH = 640;
-    private static final int VIDEO_HEIGHT = 480;
-    private static final int FRAME_RATE = 15;
-    private static final float BPP = 0.50f;
+	// parameters for recording, width and height should be same as the camera preview size.
+	private final EncoderConfig mConfig;
 
     private Surface mSurface;
 
+	/**
+	 * Constructor, use EncoderConfig of the muxer
+	 * @param muxer
+	 * @param listener
+	 */
 	public MediaSurfaceEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
+		this(muxer, listener, muxer.getEncoderConfig());
+	}
+
+	/**
+	 * Constructor
+	 * @param muxer
+	 * @param listener
+	 * @param config
+	 */
+	public MediaSurfaceEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener, final EncoderConfig config) {
 		super(muxer, listener);
+		mConfig = new EncoderConfig(config);
 		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
 	}
 
@@ -58,6 +70,21 @@ public class MediaSurfaceEncoder extends MediaEncoder {
 		return mSurface;
 	}
 
+	@Override
+	public boolean frameAvailableSoon() {
+		final boolean result = super.frameAvailableSoon();
+		if (result) {
+			final long now = System.nanoTime();
+			mLatencyTracker.onInput(now / 1000L, now);
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean hasSurfaceInput() {
+		return true;
+	}
+
 	@Override
 	protected void prepare() throws IOException {
 		if (DEBUG) Log.i(TAG, "prepare: ");
@@ -71,14 +98,12 @@ public class MediaSurfaceEncoder extends MediaEncoder {
         }
 		if (DEBUG) Log.i(TAG, "selected codec: " + videoCodecInfo.getName());
 
-        final MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, VIDEO_WIDTH, VIDEO_HEIGHT);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
-        format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        final MediaFormat format = createVideoFormat(MIME_TYPE, mConfig,
+        	MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
+        Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", mConfig.getBitRate() / 1024f / 1024f));
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mMediaCodec = createEncoder(MIME_TYPE, null);
         mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         // get Surface for encoder input
         // this method only can call between #configure and #start
@@ -104,10 +129,8 @@ public class MediaSurfaceEncoder extends MediaEncoder {
 		super.release();
 	}
 
-	private int calcBitRate() {
-		final int bitrate = (int)(BPP * FRAME_RATE * VIDEO_WIDTH * VIDEO_HEIGHT);
-		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
-		return bitrate;
+	public EncoderConfig getEncoderConfig() {
+		return mConfig;
 	}
 
     /**
@@ -0,0 +1,264 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MediaVideoBufferEncoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.serenegiant.usb.FrameDispatcher;
+import com.serenegiant.usb.FramePool;
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IPooledFrameCallback;
+import com.serenegiant.usb.PixelConverter;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * Video encoder that encodes frame data in ByteBuffer from IFrameCallback.
+ * Frame data are written directly into the input buffers of MediaCodec
+ * without copying them to Java byte array.
+ * If the codec supports COLOR_FormatYUV420SemiPlanar, request UVCCamera#PIXEL_FORMAT_YUV420SP
+ * and the frame is copied as is, otherwise request UVCCamera#PIXEL_FORMAT_YUV(YUYV)
+ * and the frame is converted into COLOR_FormatYUV420Planar in the input buffer in one pass.
+ * Use #getPixelFormat after the encoder is prepared to know which pixel format is required:
+ * <pre>
+ * camera.setFrameCallback(encoder, encoder.getPixelFormat());
+ * </pre>
+ * This class also can be used as IPooledFrameCallback or FrameDispatcher.FrameConsumer,
+ * then the timestamp of the pooled frame is used as capture time even if the frame was queued.
+ */
+public class MediaVideoBufferEncoder extends MediaEncoder
+	implements IFrameCallback, IPooledFrameCallback, FrameDispatcher.FrameConsumer {
+
+	private static final boolean DEBUG = false;
+	private static final String TAG = "MediaVideoBufferEncoder";
+
+	private static final String MIME_TYPE = "video/avc";
+	private final EncoderConfig mConfig;
+	private int mColorFormat;
+	private int mFrameBytes;
+
+	/**
+	 * Constructor, use EncoderConfig of the muxer
+	 * @param muxer
+	 * @param listener
+	 */
+	public MediaVideoBufferEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
+		this(muxer, listener, muxer.getEncoderConfig());
+	}
+
+	/**
+	 * Constructor
+	 * @param muxer
+	 * @param listener
+	 * @param config
+	 */
+	public MediaVideoBufferEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener, final EncoderConfig config) {
+		super(muxer, listener);
+		mConfig = new EncoderConfig(config);
+		if (DEBUG) Log.i(TAG, "MediaVideoBufferEncoder: ");
+	}
+
+	@Override
+	protected void prepare() throws IOException {
+		if (DEBUG) Log.i(TAG, "prepare: ");
+        mTrackIndex = -1;
+        mMuxerStarted = mIsEOS = false;
+
+        final MediaCodecInfo videoCodecInfo = selectVideoCodec(MIME_TYPE);
+        if (videoCodecInfo == null) {
+            Log.e(TAG, "Unable to find an appropriate codec for " + MIME_TYPE);
+            return;
+        }
+		if (DEBUG) Log.i(TAG, "selected codec: " + videoCodecInfo.getName());
+		mColorFormat = selectColorFormat(videoCodecInfo, MIME_TYPE);
+		mFrameBytes = (mConfig.getWidth() * mConfig.getHeight() * 3) / 2;
+
+        final MediaFormat format = createVideoFormat(MIME_TYPE, mConfig, mColorFormat);
+        if (DEBUG) Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", mConfig.getBitRate() / 1024f / 1024f));
+		if (DEBUG) Log.i(TAG, "format: " + format);
+
+        mMediaCodec = createEncoder(MIME_TYPE, videoCodecInfo.getName());
+        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mMediaCodec.start();
+        if (DEBUG) Log.i(TAG, "prepare finishing");
+        if (mListener != null) {
+        	try {
+        		mListener.onPrepared(this);
+        	} catch (final Exception e) {
+        		Log.e(TAG, "prepare:", e);
+        	}
+        }
+	}
+
+	public EncoderConfig getEncoderConfig() {
+		return mConfig;
+	}
+
+	/**
+	 * pixel format that should be passed to UVCCamera#setFrameCallback with this encoder
+	 * @return UVCCamera#PIXEL_FORMAT_YUV420SP or UVCCamera#PIXEL_FORMAT_YUV
+	 */
+	public int getPixelFormat() {
+		return mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar
+			? UVCCamera.PIXEL_FORMAT_YUV : UVCCamera.PIXEL_FORMAT_YUV420SP;
+	}
+
+	/**
+	 * called from native library via JNI, encode the frame on the callback thread
+	 * and request draining to the encoder thread.
+	 * native library calls this right after the frame was captured and converted,
+	 * so the time of this call is used as capture time.
+	 */
+	@Override
+	public void onFrame(final ByteBuffer frame) {
+		encodeFrame(frame, System.nanoTime());
+	}
+
+	/**
+	 * encode the pooled frame with its timestamp as capture time,
+	 * called on the frame thread(IPooledFrameCallback) or the consumer thread(FrameDispatcher)
+	 */
+	@Override
+	public void onFrame(final FramePool.Frame frame) {
+		encodeFrame(frame.getBuffer().duplicate(), frame.getTimestamp());
+	}
+
+	/**
+	 * encode the frame on the caller thread and request draining to the encoder thread
+	 * @param frame frame data in the pixel format of #getPixelFormat
+	 * @param captureTimeNs System#nanoTime when the frame was captured, zero if unknown
+	 */
+	public void encodeFrame(final ByteBuffer frame, final long captureTimeNs) {
+		if (!mIsCapturing || mRequestStop) return;
+		final long ptsUs = getCapturePTSUs(captureTimeNs);
+		if (mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+			encodeYUYV(frame, ptsUs);
+		} else {
+			encode(frame, Math.min(frame.remaining(), mFrameBytes), ptsUs);
+		}
+		frameAvailableSoon();
+	}
+
+	/**
+	 * convert YUYV frame into I420 directly in the input buffer of MediaCodec
+	 * @param frame
+	 * @param presentationTimeUs
+	 */
+	private void encodeYUYV(final ByteBuffer frame, final long presentationTimeUs) {
+		final int width = mConfig.getWidth();
+		final int height = mConfig.getHeight();
+		if (frame.remaining() < width * height * 2) {
+			Log.w(TAG, "encodeYUYV:frame is too small, skipped");
+			return;
+		}
+		frame.order(ByteOrder.nativeOrder());
+        final ByteBuffer[] inputBuffers = getInputBuffers();
+        mLatencyTracker.onInput(presentationTimeUs, System.nanoTime());
+        while (mIsCapturing) {
+	        final int inputBufferIndex = dequeueInputBuffer();
+	        if (inputBufferIndex >= 0) {
+	            final ByteBuffer inputBuffer = getInputBuffer(inputBuffers, inputBufferIndex);
+	            inputBuffer.clear();
+	            if (inputBuffer.capacity() < mFrameBytes) {
+	            	Log.w(TAG, "encodeYUYV:input buffer is too small, skipped");
+	            	mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0, presentationTimeUs, 0);
+	            	return;
+	            }
+	            inputBuffer.order(ByteOrder.nativeOrder());
+	            PixelConverter.yuyv2i420(frame, inputBuffer, width, height);
+            	mMediaCodec.queueInputBuffer(inputBufferIndex, 0, mFrameBytes,
+            		presentationTimeUs, 0);
+            	break;
+	        } else if (inputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+	        	onInputTimeout();
+	        }
+        }
+	}
+
+    /**
+     * select the first encoder that match a specific MIME type and one of the recognized color formats
+     * @param mimeType
+     * @return null if no codec matched
+     */
+    protected static final MediaCodecInfo selectVideoCodec(final String mimeType) {
+    	if (DEBUG) Log.v(TAG, "selectVideoCodec:");
+
+    	// get the list of available codecs
+        final int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+        	final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+
+            if (!codecInfo.isEncoder()) {	// skipp decoder
+                continue;
+            }
+            final String[] types = codecInfo.getSupportedTypes();
+            for (int j = 0; j < types.length; j++) {
+                if (types[j].equalsIgnoreCase(mimeType)) {
+                	if (DEBUG) Log.i(TAG, "codec:" + codecInfo.getName() + ",MIME=" + types[j]);
+            		final int format = selectColorFormat(codecInfo, mimeType);
+                	if (format > 0) {
+                		return codecInfo;
+                	}
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * select color format, COLOR_FormatYUV420SemiPlanar is preferred
+     * because native library can provide the frame in the same layout(NV12).
+     * vendor specific formats are not used because they may need alignment of planes.
+     * @return 0 if no colorFormat is matched
+     */
+    protected static final int selectColorFormat(final MediaCodecInfo codecInfo, final String mimeType) {
+    	final MediaCodecInfo.CodecCapabilities caps;
+    	try {
+    		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+    		caps = codecInfo.getCapabilitiesForType(mimeType);
+    	} finally {
+    		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+    	}
+    	int result = 0;
+        for (int i = 0; i < caps.colorFormats.length; i++) {
+        	final int colorFormat = caps.colorFormats[i];
+        	if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+        		return colorFormat;
+        	} else if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+        		result = colorFormat;
+        	}
+        }
+        if ((result == 0) && DEBUG)
+        	Log.w(TAG, "couldn't find a good color format for " + codecInfo.getName() + " / " + mimeType);
+        return result;
+    }
+
+}
@@ -30,6 +30,8 @@ import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.opengl.EGLContext;
+import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
 import android.view.Surface;
 
@@ -41,37 +43,97 @@ public class MediaVideoEncoder extends MediaEncoder {
 	private static final String TAG = "MediaVideoEncoder";
 
 	private static final String MIME_TYPE = "video/avc";
-	// parameters for recording
-	// VIDEO_WITH and VIDEO_HEIGHT should be same as the camera preview size.
-    private static final int VIDEO_WIDTH = 640;
-    private static final int VIDEO_HEIGHT = 480;
-    private static final int FRAME_RATE = 15;
-    private static final float BPP = 0.50f;
+	// parameters for recording, width and height should be same as the camera preview size.
+	private final EncoderConfig mConfig;
 
     private RenderHandler mRenderHandler;
     private Surface mSurface;
+    private volatile AdaptiveBitrateController mBitrateController;
 
+	/**
+	 * Constructor, use EncoderConfig of the muxer
+	 * @param muxer
+	 * @param listener
+	 */
 	public MediaVideoEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
+		this(muxer, listener, muxer.getEncoderConfig());
+	}
+
+	/**
+	 * Constructor
+	 * @param muxer
+	 * @param listener
+	 * @param config
+	 */
+	public MediaVideoEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener, final EncoderConfig config) {
 		super(muxer, listener);
+		mConfig = new EncoderConfig(config);
 		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
 		mRenderHandler = RenderHandler.createHandler(TAG);
 	}
 
+	/**
+	 * set controller to adjust bitrate and frame rate with back-pressure of the encoder.
+	 * you should call this before MediaMuxerWrapper#prepare
+	 * @param controller null to disable
+	 */
+	public void setBitrateController(final AdaptiveBitrateController controller) {
+		if (mBitrateController != null)
+			mBitrateController.setCallback(null);
+		mBitrateController = controller;
+		if (controller != null)
+			controller.setCallback(mBitrateCallback);
+	}
+
+	public AdaptiveBitrateController getBitrateController() {
+		return mBitrateController;
+	}
+
 	public boolean frameAvailableSoon(final float[] tex_matrix) {
+		return frameAvailableSoon(tex_matrix, 0);
+	}
+
+	/**
+	 * @param tex_matrix
+	 * @param captureTimeNs capture time of the frame(e.g. SurfaceTexture#getTimestamp) in System#nanoTime base,
+	 * 	zero if unknown
+	 * @return
+	 */
+	public boolean frameAvailableSoon(final float[] tex_matrix, final long captureTimeNs) {
 		boolean result;
-		if (result = super.frameAvailableSoon())
-			mRenderHandler.draw(tex_matrix);
+		if (result = frameAvailableSoonControlled())
+			mRenderHandler.draw(tex_matrix, getCapturePTSUs(captureTimeNs) * 1000L);
 		return result;
 	}
 
 	@Override
 	public boolean frameAvailableSoon() {
-		boolean result;
-		if (result = super.frameAvailableSoon())
-			mRenderHandler.draw(null);
+		return frameAvailableSoon(null, 0);
+	}
+
+	/**
+	 * skip frames with AdaptiveBitrateController if it is set
+	 * @return
+	 */
+	private boolean frameAvailableSoonControlled() {
+		final AdaptiveBitrateController controller = mBitrateController;
+		if ((controller != null) && mIsCapturing && controller.shouldSkipFrame())
+			return false;
+		final boolean result = super.frameAvailableSoon();
+		if (result) {
+			final long now = System.nanoTime();
+			mLatencyTracker.onInput(now / 1000L, now);
+			if (controller != null)
+				controller.onFrameSubmitted(now);
+		}
 		return result;
 	}
 
+	@Override
+	protected boolean hasSurfaceInput() {
+		return true;
+	}
+
 	@Override
 	protected void prepare() throws IOException {
 		if (DEBUG) Log.i(TAG, "prepare: ");
@@ -85,19 +147,19 @@ public class MediaVideoEncoder extends MediaEncoder {
         }
 		if (DEBUG) Log.i(TAG, "selected codec: " + videoCodecInfo.getName());
 
-        final MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, VIDEO_WIDTH, VIDEO_HEIGHT);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
-        format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        final MediaFormat format = createVideoFormat(MIME_TYPE, mConfig,
+        	MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
+        Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", mConfig.getBitRate() / 1024f / 1024f));
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mMediaCodec = createEncoder(MIME_TYPE, null);
         mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         // get Surface for encoder input
         // this method only can call between #configure and #start
         mSurface = mMediaCodec.createInputSurface();	// API >= 18
         mMediaCodec.start();
+        if (mBitrateController != null)
+        	mBitrateController.reset();
         if (DEBUG) Log.i(TAG, "prepare finishing");
         if (mListener != null) {
         	try {
@@ -126,12 +188,50 @@ public class MediaVideoEncoder extends MediaEncoder {
 		super.release();
 	}
 
-	private int calcBitRate() {
-		final int bitrate = (int)(BPP * FRAME_RATE * VIDEO_WIDTH * VIDEO_HEIGHT);
-		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
-		return bitrate;
+	public EncoderConfig getEncoderConfig() {
+		return mConfig;
+	}
+
+	@Override
+	protected void drain() {
+		super.drain();
+		final AdaptiveBitrateController controller = mBitrateController;
+		if (controller != null)
+			controller.update(System.nanoTime());
+	}
+
+	@Override
+	protected void onEncodedData(final MediaCodec.BufferInfo info) {
+		final AdaptiveBitrateController controller = mBitrateController;
+		if (controller != null)
+			controller.onFrameEncoded(info.size, System.nanoTime());
 	}
 
+	/**
+	 * called on the encoder thread from AdaptiveBitrateController#update
+	 */
+	private final AdaptiveBitrateController.Callback mBitrateCallback = new AdaptiveBitrateController.Callback() {
+		@Override
+		public void onBitRateChanged(final int bitRate) {
+			if (DEBUG) Log.v(TAG, "onBitRateChanged:" + bitRate);
+			if ((mMediaCodec != null) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)) {
+				final Bundle params = new Bundle();
+				params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);	// API >= 19
+				try {
+					mMediaCodec.setParameters(params);
+				} catch (final IllegalStateException e) {
+					Log.w(TAG, "failed to change bitrate", e);
+				}
+			}
+		}
+
+		@Override
+		public void onFrameRateChanged(final int frameRate) {
+			if (DEBUG) Log.v(TAG, "onFrameRateChanged:" + frameRate);
+			// frames are skipped in #frameAvailableSoon
+		}
+	};
+
     /**
      * select the first codec that match a specific MIME type
      * @param mimeType
@@ -0,0 +1,158 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MjpegAviRecorder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import com.serenegiant.usb.FrameDispatcher;
+import com.serenegiant.usb.FramePool;
+import com.serenegiant.usb.IPooledFrameCallback;
+import com.serenegiant.usb.StillImageFormat;
+import com.serenegiant.usb.UVCCamera;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Record MJPEG frames from UVCCamera into Motion-JPEG AVI without decoding and encoding.
+ * Frames are received with UVCCamera#PIXEL_FORMAT_RAW in MJPEG mode and written as is by MjpegAviWriter
+ * on the consumer thread of FrameDispatcher, so the camera callback thread is not blocked by file I/O.
+ * Frames that are not MJPEG(e.g. in YUYV mode) are skipped.
+ * Recording stops writing when the file reached MjpegAviWriter#MAX_FILE_SIZE.
+ * This class does not depend on Android framework.
+ */
+public class MjpegAviRecorder implements FrameDispatcher.FrameConsumer {
+	public static final int DEFAULT_QUEUE_SIZE = 8;
+
+	private final Object mSync = new Object();
+	private final File mFile;
+	private final MjpegAviWriter mWriter;
+	private final FrameDispatcher mDispatcher = new FrameDispatcher();
+	private FrameDispatcher.Consumer mConsumer;
+	private long mFirstTimestampNs = -1;
+	private long mSkippedCount;
+	private boolean mIsFull;
+	private IOException mError;
+
+	/**
+	 * Constructor, the file is created here
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @param frameRate nominal frame rate
+	 * @throws IOException
+	 */
+	public MjpegAviRecorder(final File file, final int width, final int height, final float frameRate)
+		throws IOException {
+
+		mFile = file;
+		mWriter = new MjpegAviWriter(file, width, height, frameRate);
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * start recording, this takes over the frame callback of the camera
+	 * @param camera
+	 * @param queueSize maximum number of frames waiting for writing, frames are dropped when the queue is full
+	 */
+	public void start(final UVCCamera camera, final int queueSize) {
+		synchronized (mSync) {
+			if (mConsumer != null) throw new IllegalStateException("already started");
+			mConsumer = mDispatcher.addConsumer("MjpegAviRecorder", this,
+				queueSize, FrameDispatcher.POLICY_DROP_NEWEST, 0);
+		}
+		mDispatcher.attach(camera, UVCCamera.PIXEL_FORMAT_RAW);
+	}
+
+	/**
+	 * stop recording and finish the file
+	 * @param camera
+	 * @throws IOException failed to write the file
+	 */
+	public void stop(final UVCCamera camera) throws IOException {
+		if (camera != null) {
+			camera.setFrameCallback((IPooledFrameCallback)null, 0, 0);
+		}
+		mDispatcher.release();
+		synchronized (mSync) {
+			// wait for the frame that is being written
+			mWriter.close();
+			if (mError != null)
+				throw mError;
+		}
+	}
+
+	/**
+	 * @return number of frames written to the file
+	 */
+	public int getFrameCount() {
+		return mWriter.getFrameCount();
+	}
+
+	/**
+	 * @return number of frames that were dropped because writing could not keep up
+	 */
+	public long getDroppedCount() {
+		synchronized (mSync) {
+			return mConsumer != null ? mConsumer.getDroppedCount() : 0;
+		}
+	}
+
+	/**
+	 * @return number of frames that were not written because they are not MJPEG or the file is full
+	 */
+	public long getSkippedCount() {
+		synchronized (mSync) {
+			return mSkippedCount;
+		}
+	}
+
+	@Override
+	public void onFrame(final FramePool.Frame frame) {
+		final ByteBuffer data = frame.getBuffer();
+		synchronized (mSync) {
+			if ((mError != null) || mIsFull
+				|| !StillImageFormat.isMjpeg(data, frame.getWidth(), frame.getHeight())) {
+
+				mSkippedCount++;
+				return;
+			}
+			if (mFirstTimestampNs < 0)
+				mFirstTimestampNs = frame.getTimestamp();
+			try {
+				if (!mWriter.writeFrame(data, (frame.getTimestamp() - mFirstTimestampNs) / 1000L)) {
+					mIsFull = true;
+					mSkippedCount++;
+				}
+			} catch (final IOException e) {
+				mError = e;
+			} catch (final IllegalStateException e) {
+				// already closed
+				mSkippedCount++;
+			}
+		}
+	}
+}
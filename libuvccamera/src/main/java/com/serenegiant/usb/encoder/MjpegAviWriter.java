@@ -0,0 +1,455 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MjpegAviWriter.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming writer of Motion-JPEG AVI(RIFF AVI 1.0 with idx1 index).
+ * JPEG frames(e.g. MJPEG frames from UVCCamera#PIXEL_FORMAT_RAW in MJPEG mode) are written as is,
+ * so there is no decoding nor encoding.
+ * Frames are appended to the file through a bounded write buffer as they come and
+ * only the index(8 bytes per frame) is kept in memory until #close writes idx1 and fixes the headers.
+ * If the process is killed before #close, frames in the movi list are still there
+ * and players that can rebuild the index can play the file.
+ * Size of a file is limited to MAX_FILE_SIZE, #writeFrame returns false when the limit is reached,
+ * you should close this and continue with a new file.
+ * Frame rate of AVI is constant, the average frame rate of written frames is set on #close.
+ * This class does not depend on Android framework.
+ */
+public class MjpegAviWriter {
+	/**
+	 * maximum file size, some readers treat 32 bit sizes of RIFF as signed so keep enough margin
+	 */
+	public static final long MAX_FILE_SIZE = 1L << 30;
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private static final int AVIF_HASINDEX = 0x00000010;
+	private static final int AVIIF_KEYFRAME = 0x00000010;
+	private static final int FCC_RIFF = fourcc("RIFF");
+	private static final int FCC_AVI = fourcc("AVI ");
+	private static final int FCC_LIST = fourcc("LIST");
+	private static final int FCC_HDRL = fourcc("hdrl");
+	private static final int FCC_AVIH = fourcc("avih");
+	private static final int FCC_STRL = fourcc("strl");
+	private static final int FCC_STRH = fourcc("strh");
+	private static final int FCC_STRF = fourcc("strf");
+	private static final int FCC_VIDS = fourcc("vids");
+	private static final int FCC_MJPG = fourcc("MJPG");
+	private static final int FCC_MOVI = fourcc("movi");
+	private static final int FCC_00DC = fourcc("00dc");
+	private static final int FCC_IDX1 = fourcc("idx1");
+
+	// layout of the headers, they are written again on #close with actual values
+	private static final int OFFSET_MOVI_SIZE = 216;
+	private static final int OFFSET_MOVI = 220;	// position of 'movi' fourcc, base of idx1 offsets
+	private static final int HEADER_SIZE = 224;
+
+	private final Object mSync = new Object();
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer;
+	private final int mWidth, mHeight;
+	private final float mFrameRate;
+	private long mPosition;
+	private int[] mOffsets = new int[1024];
+	private int[] mSizes = new int[1024];
+	private int mFrameCount;
+	private int mMaxFrameBytes;
+	private long mFirstPtsUs = -1, mLastPtsUs;
+	private boolean mIsClosed;
+
+	/**
+	 * Constructor
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @param frameRate nominal frame rate, used when the frame rate can not be calculated from timestamps
+	 * @throws IOException
+	 */
+	public MjpegAviWriter(final File file, final int width, final int height, final float frameRate)
+		throws IOException {
+
+		this(file, width, height, frameRate, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 * @param bufferSize size of write buffer, frames that are larger than this are written directly
+	 * @throws IOException
+	 */
+	public MjpegAviWriter(final File file, final int width, final int height,
+		final float frameRate, final int bufferSize) throws IOException {
+
+		if ((width <= 0) || (height <= 0) || (frameRate <= 0))
+			throw new IllegalArgumentException("invalid size or frame rate");
+		if (bufferSize < HEADER_SIZE)
+			throw new IllegalArgumentException("too small buffer");
+		mWidth = width;
+		mHeight = height;
+		mFrameRate = frameRate;
+		mBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+		mFile = new RandomAccessFile(file, "rw");
+		mFile.setLength(0);
+		mChannel = mFile.getChannel();
+		putHeader(mBuffer, 0, 0, 0, frameRate);
+		mPosition = HEADER_SIZE;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public int getFrameCount() {
+		synchronized (mSync) {
+			return mFrameCount;
+		}
+	}
+
+	/**
+	 * @return current file size including data in the write buffer
+	 */
+	public long getFileSize() {
+		synchronized (mSync) {
+			return mPosition;
+		}
+	}
+
+	/**
+	 * append a JPEG frame
+	 * @param jpeg frame data from position to limit, position is not changed
+	 * @param presentationTimeUs
+	 * @return false if the file size would exceed MAX_FILE_SIZE, the frame is not written
+	 * @throws IOException
+	 * @throws IllegalStateException already closed
+	 */
+	public boolean writeFrame(final ByteBuffer jpeg, final long presentationTimeUs) throws IOException {
+		final int size = jpeg.remaining();
+		final int padded = size + (size & 1);
+		synchronized (mSync) {
+			if (mIsClosed) throw new IllegalStateException("already closed");
+			// idx1 of the frames including this frame should fit in the file too
+			if (mPosition + 8 + padded + 8 + (mFrameCount + 1) * 16L > MAX_FILE_SIZE)
+				return false;
+			if (mFrameCount == mOffsets.length) {
+				final int n = mFrameCount * 2;
+				final int[] offsets = new int[n];
+				final int[] sizes = new int[n];
+				System.arraycopy(mOffsets, 0, offsets, 0, mFrameCount);
+				System.arraycopy(mSizes, 0, sizes, 0, mFrameCount);
+				mOffsets = offsets;
+				mSizes = sizes;
+			}
+			mOffsets[mFrameCount] = (int)(mPosition - OFFSET_MOVI);
+			mSizes[mFrameCount] = size;
+			mFrameCount++;
+			if (size > mMaxFrameBytes)
+				mMaxFrameBytes = size;
+			if (mFirstPtsUs < 0)
+				mFirstPtsUs = presentationTimeUs;
+			mLastPtsUs = presentationTimeUs;
+
+			ensureBuffer(8);
+			mBuffer.putInt(FCC_00DC).putInt(size);
+			if (padded <= mBuffer.capacity()) {
+				ensureBuffer(padded);
+				mBuffer.put(jpeg.duplicate());
+				if (padded != size)
+					mBuffer.put((byte)0);
+			} else {
+				// too large for the buffer, write directly
+				flushBuffer();
+				final ByteBuffer data = jpeg.duplicate();
+				while (data.hasRemaining()) {
+					mChannel.write(data);
+				}
+				if (padded != size) {
+					mBuffer.put((byte)0);
+				}
+			}
+			mPosition += 8 + padded;
+			return true;
+		}
+	}
+
+	/**
+	 * write idx1 and fix the headers, and close the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized (mSync) {
+			if (mIsClosed) return;
+			mIsClosed = true;
+			try {
+				final long moviEnd = mPosition;
+				// write idx1
+				ensureBuffer(8);
+				mBuffer.putInt(FCC_IDX1).putInt(mFrameCount * 16);
+				for (int i = 0; i < mFrameCount; i++) {
+					ensureBuffer(16);
+					mBuffer.putInt(FCC_00DC).putInt(AVIIF_KEYFRAME).putInt(mOffsets[i]).putInt(mSizes[i]);
+				}
+				mPosition += 8 + mFrameCount * 16L;
+				flushBuffer();
+				// fix the headers with actual values
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				putHeader(header, mPosition, moviEnd, mMaxFrameBytes, getAverageFrameRate());
+				header.flip();
+				mChannel.position(0);
+				while (header.hasRemaining()) {
+					mChannel.write(header);
+				}
+			} finally {
+				mOffsets = mSizes = null;
+				mFile.close();
+			}
+		}
+	}
+
+	/**
+	 * @return frame rate calculated from timestamps of written frames, nominal frame rate if it is not available
+	 */
+	private float getAverageFrameRate() {
+		final long duration = mLastPtsUs - mFirstPtsUs;
+		if ((mFrameCount > 1) && (duration > 0)) {
+			return (mFrameCount - 1) * 1000000.0f / duration;
+		}
+		return mFrameRate;
+	}
+
+	/**
+	 * put RIFF, hdrl and the header of movi list
+	 * @param buf
+	 * @param fileSize 0 while writing
+	 * @param moviEnd end of movi list, 0 while writing
+	 * @param maxFrameBytes
+	 * @param frameRate
+	 */
+	private void putHeader(final ByteBuffer buf, final long fileSize, final long moviEnd,
+		final int maxFrameBytes, final float frameRate) {
+
+		final int rate = Math.round(frameRate * 1000);
+		final int microSecPerFrame = Math.round(1000000 / frameRate);
+		buf.putInt(FCC_RIFF).putInt(fileSize > 8 ? (int)(fileSize - 8) : 0).putInt(FCC_AVI);
+		buf.putInt(FCC_LIST).putInt(OFFSET_MOVI_SIZE - 4 - 20).putInt(FCC_HDRL);
+		// avih
+		buf.putInt(FCC_AVIH).putInt(56);
+		buf.putInt(microSecPerFrame);
+		buf.putInt(Math.round(maxFrameBytes * frameRate));	// dwMaxBytesPerSec
+		buf.putInt(0);					// dwPaddingGranularity
+		buf.putInt(AVIF_HASINDEX);		// dwFlags
+		buf.putInt(mFrameCount);		// dwTotalFrames
+		buf.putInt(0);					// dwInitialFrames
+		buf.putInt(1);					// dwStreams
+		buf.putInt(maxFrameBytes);		// dwSuggestedBufferSize
+		buf.putInt(mWidth).putInt(mHeight);
+		buf.putInt(0).putInt(0).putInt(0).putInt(0);	// dwReserved
+		buf.putInt(FCC_LIST).putInt(4 + 64 + 48).putInt(FCC_STRL);
+		// strh
+		buf.putInt(FCC_STRH).putInt(56);
+		buf.putInt(FCC_VIDS).putInt(FCC_MJPG);
+		buf.putInt(0);					// dwFlags
+		buf.putShort((short)0).putShort((short)0);	// wPriority, wLanguage
+		buf.putInt(0);					// dwInitialFrames
+		buf.putInt(1000).putInt(rate);	// dwScale, dwRate
+		buf.putInt(0);					// dwStart
+		buf.putInt(mFrameCount);		// dwLength
+		buf.putInt(maxFrameBytes);		// dwSuggestedBufferSize
+		buf.putInt(-1);					// dwQuality
+		buf.putInt(0);					// dwSampleSize
+		buf.putShort((short)0).putShort((short)0).putShort((short)mWidth).putShort((short)mHeight);
+		// strf, BITMAPINFOHEADER
+		buf.putInt(FCC_STRF).putInt(40);
+		buf.putInt(40).putInt(mWidth).putInt(mHeight);
+		buf.putShort((short)1).putShort((short)24);
+		buf.putInt(FCC_MJPG).putInt(mWidth * mHeight * 3);
+		buf.putInt(0).putInt(0).putInt(0).putInt(0);
+		// movi
+		buf.putInt(FCC_LIST).putInt(moviEnd > OFFSET_MOVI ? (int)(moviEnd - OFFSET_MOVI) : 0).putInt(FCC_MOVI);
+	}
+
+	private void ensureBuffer(final int bytes) throws IOException {
+		if (mBuffer.remaining() < bytes) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		mBuffer.flip();
+		while (mBuffer.hasRemaining()) {
+			mChannel.write(mBuffer);
+		}
+		mBuffer.clear();
+	}
+
+	private static int fourcc(final String s) {
+		// fourcc is in byte order of the string, that is little endian int
+		return (s.charAt(0)) | (s.charAt(1) << 8) | (s.charAt(2) << 16) | (s.charAt(3) << 24);
+	}
+
+//================================================================================
+	/**
+	 * index of a Motion-JPEG AVI file that was read by #readIndex
+	 */
+	public static final class Index {
+		public final int width, height;
+		public final int microSecPerFrame;
+		public final int totalFrames;
+		/**
+		 * absolute file offsets of frame data
+		 */
+		public final long[] offsets;
+		public final int[] sizes;
+
+		private Index(final int width, final int height, final int microSecPerFrame,
+			final int totalFrames, final long[] offsets, final int[] sizes) {
+
+			this.width = width;
+			this.height = height;
+			this.microSecPerFrame = microSecPerFrame;
+			this.totalFrames = totalFrames;
+			this.offsets = offsets;
+			this.sizes = sizes;
+		}
+
+		public int getFrameCount() {
+			return sizes.length;
+		}
+
+		/**
+		 * read data of a frame
+		 * @param file
+		 * @param index
+		 * @return
+		 * @throws IOException
+		 */
+		public byte[] readFrame(final RandomAccessFile file, final int index) throws IOException {
+			final byte[] result = new byte[sizes[index]];
+			file.seek(offsets[index]);
+			file.readFully(result);
+			return result;
+		}
+	}
+
+	/**
+	 * read and validate the headers and idx1 of the file, e.g. to check the recorded file.
+	 * each index entry is checked against the chunk header in movi list.
+	 * @param file
+	 * @return
+	 * @throws IOException the file is broken or has no index
+	 */
+	public static Index readIndex(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final long length = channel.size();
+			final ByteBuffer buf = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+			read(channel, buf, 0, 12);
+			if ((buf.getInt(0) != FCC_RIFF) || (buf.getInt(8) != FCC_AVI))
+				throw new IOException("not an AVI file");
+			int width = 0, height = 0, microSecPerFrame = 0, totalFrames = 0;
+			long movi = -1;
+			long[] offsets = null;
+			int[] sizes = null;
+			long pos = 12;
+			while (pos + 8 <= length) {
+				// idx1 without entries can be the last 8 bytes of the file
+				read(channel, buf, pos, (int)Math.min(12, length - pos));
+				final int id = buf.getInt(0);
+				final long size = buf.getInt(4) & 0xffffffffL;
+				if (id == FCC_LIST) {
+					if (buf.limit() < 12)
+						throw new IOException("unexpected end of file");
+					final int type = buf.getInt(8);
+					if (type == FCC_HDRL) {
+						// avih follows 'hdrl' directly
+						final ByteBuffer avih = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+						read(channel, avih, pos + 12, 64);
+						if (avih.getInt(0) != FCC_AVIH)
+							throw new IOException("avih not found");
+						microSecPerFrame = avih.getInt(8);
+						totalFrames = avih.getInt(8 + 16);
+						width = avih.getInt(8 + 32);
+						height = avih.getInt(8 + 36);
+					} else if (type == FCC_MOVI) {
+						movi = pos + 8;
+					}
+				} else if (id == FCC_IDX1) {
+					if (movi < 0)
+						throw new IOException("idx1 before movi");
+					final int n = (int)(size / 16);
+					final ByteBuffer entries = ByteBuffer.allocate(n * 16).order(ByteOrder.LITTLE_ENDIAN);
+					read(channel, entries, pos + 8, n * 16);
+					offsets = new long[n];
+					sizes = new int[n];
+					for (int i = 0; i < n; i++) {
+						final int chunkId = entries.getInt(i * 16);
+						final long chunk = movi + (entries.getInt(i * 16 + 8) & 0xffffffffL);
+						sizes[i] = entries.getInt(i * 16 + 12);
+						read(channel, buf, chunk, 8);
+						if ((buf.getInt(0) != chunkId) || (buf.getInt(4) != sizes[i])
+							|| (chunk + 8 + sizes[i] > length)) {
+							throw new IOException("index does not match the chunk:frame=" + i);
+						}
+						offsets[i] = chunk + 8;
+					}
+				}
+				pos += 8 + size + (size & 1);
+			}
+			if (offsets == null)
+				throw new IOException("idx1 not found");
+			return new Index(width, height, microSecPerFrame, totalFrames, offsets, sizes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void read(final FileChannel channel, final ByteBuffer buf,
+		final long position, final int bytes) throws IOException {
+
+		buf.clear();
+		buf.limit(bytes);
+		long pos = position;
+		while (buf.hasRemaining()) {
+			final int n = channel.read(buf, pos);
+			if (n < 0)
+				throw new IOException("unexpected end of file");
+			pos += n;
+		}
+		buf.flip();
+	}
+}
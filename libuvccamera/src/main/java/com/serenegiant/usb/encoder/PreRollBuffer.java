@@ -0,0 +1,232 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PreRollBuffer.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ring buffer of encoded samples(access units) for pre-event recording.
+ * Sample data is copied into one buffer that is allocated on construction
+ * and metadata is kept in fixed size arrays, so memory usage never grows while recording.
+ * The oldest samples are evicted when the duration, bytes or number of samples exceeds the limit,
+ * and samples before the first key frame are evicted at the same time,
+ * so the buffer always starts with a key frame(the first sample of a GOP).
+ * Therefore I-frame interval of the encoder should be shorter than maximum duration.
+ * This class is not thread safe and does not depend on Android framework.
+ */
+public class PreRollBuffer {
+
+	public interface SampleWriter {
+		/**
+		 * @param track track index that was passed to #add
+		 * @param buffer internal buffer of PreRollBuffer, sample data is in [offset, offset + size)
+		 * @param offset
+		 * @param size
+		 * @param presentationTimeUs
+		 * @param flags flags that were passed to #add
+		 */
+		public void writeSample(int track, ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags);
+	}
+
+	private final ByteBuffer mData;
+	private final long mMaxDurationUs;
+	private final int[] mTracks, mOffsets, mSizes, mFlags;
+	private final long[] mPTSUs;
+	private final boolean[] mKeyFrames;
+	private int mHead, mCount;
+	private int mWritePos;
+	private int mBytes;
+	private long mDroppedSamples;
+
+	/**
+	 * Constructor
+	 * @param maxDurationUs maximum duration from the first sample to the last sample
+	 * @param maxBytes size of buffer for sample data
+	 * @param maxSamples maximum number of samples
+	 */
+	public PreRollBuffer(final long maxDurationUs, final int maxBytes, final int maxSamples) {
+		if ((maxDurationUs <= 0) || (maxBytes <= 0) || (maxSamples <= 0))
+			throw new IllegalArgumentException("limits should be positive");
+		mMaxDurationUs = maxDurationUs;
+		mData = ByteBuffer.allocateDirect(maxBytes);
+		mTracks = new int[maxSamples];
+		mOffsets = new int[maxSamples];
+		mSizes = new int[maxSamples];
+		mFlags = new int[maxSamples];
+		mPTSUs = new long[maxSamples];
+		mKeyFrames = new boolean[maxSamples];
+	}
+
+	public long getMaxDurationUs() {
+		return mMaxDurationUs;
+	}
+
+	public int getCapacity() {
+		return mData.capacity();
+	}
+
+	public int getMaxSamples() {
+		return mTracks.length;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	/**
+	 * @return total bytes of samples in this buffer
+	 */
+	public int getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * @return duration from the first sample to the last sample
+	 */
+	public long getDurationUs() {
+		return mCount > 0 ? mPTSUs[index(mCount - 1)] - mPTSUs[mHead] : 0;
+	}
+
+	/**
+	 * @return number of samples that were evicted or rejected
+	 */
+	public long getDroppedSamples() {
+		return mDroppedSamples;
+	}
+
+	/**
+	 * copy a sample into this buffer, position and limit of src are not changed
+	 * @param track track index
+	 * @param src
+	 * @param offset offset of sample data in src
+	 * @param size size of sample data
+	 * @param presentationTimeUs
+	 * @param flags any flags, they are passed to SampleWriter as is
+	 * @param keyFrame true if the sample is a key frame, all samples should be key frame for audio only recording
+	 * @return false if the sample was rejected because it was larger than the buffer
+	 */
+	public boolean add(final int track, final ByteBuffer src, final int offset, final int size,
+		final long presentationTimeUs, final int flags, final boolean keyFrame) {
+
+		if (size <= 0) return true;
+		if (size > mData.capacity()) {
+			mDroppedSamples++;
+			return false;
+		}
+		boolean evicted = false;
+		while ((mCount > 0) && ((mCount == mTracks.length)
+			|| (presentationTimeUs - mPTSUs[mHead] > mMaxDurationUs)
+			|| (findSpace(size) < 0))) {
+
+			evict();
+			evicted = true;
+		}
+		if (evicted) {
+			// keep the buffer starting from a key frame
+			while ((mCount > 0) && !mKeyFrames[mHead]) {
+				evict();
+			}
+		}
+		if ((mCount == 0) && !keyFrame) {
+			// this sample can not be decoded without the preceding key frame
+			mDroppedSamples++;
+			return true;
+		}
+		final int pos = mCount > 0 ? findSpace(size) : 0;
+		final ByteBuffer dst = mData.duplicate();
+		dst.clear().position(pos);
+		final ByteBuffer s = src.duplicate();
+		s.clear().position(offset).limit(offset + size);
+		dst.put(s);
+		final int ix = index(mCount);
+		mTracks[ix] = track;
+		mOffsets[ix] = pos;
+		mSizes[ix] = size;
+		mFlags[ix] = flags;
+		mPTSUs[ix] = presentationTimeUs;
+		mKeyFrames[ix] = keyFrame;
+		mCount++;
+		mBytes += size;
+		mWritePos = pos + size;
+		return true;
+	}
+
+	/**
+	 * pass all samples to the writer in order and clear this buffer
+	 * @param writer
+	 * @return number of samples that were passed to the writer
+	 */
+	public int drainTo(final SampleWriter writer) {
+		final int n = mCount;
+		for (int i = 0; i < n; i++) {
+			final int ix = index(i);
+			writer.writeSample(mTracks[ix], mData, mOffsets[ix], mSizes[ix], mPTSUs[ix], mFlags[ix]);
+		}
+		clear();
+		return n;
+	}
+
+	public void clear() {
+		mHead = mCount = 0;
+		mWritePos = mBytes = 0;
+	}
+
+	private int index(final int i) {
+		return (mHead + i) % mTracks.length;
+	}
+
+	private void evict() {
+		mBytes -= mSizes[mHead];
+		mHead = (mHead + 1) % mTracks.length;
+		mCount--;
+		mDroppedSamples++;
+		if (mCount == 0) {
+			mHead = 0;
+			mWritePos = 0;
+		}
+	}
+
+	/**
+	 * find contiguous space for the sample after the last sample
+	 * @param size
+	 * @return offset of the space, -1 if there is no space
+	 */
+	private int findSpace(final int size) {
+		if (mCount == 0) return 0;
+		final int headPos = mOffsets[mHead];
+		if (mWritePos > headPos) {
+			// data is in [headPos, mWritePos)
+			if (mData.capacity() - mWritePos >= size) return mWritePos;
+			if (headPos >= size) return 0;
+		} else {
+			// data wrapped around, free space is [mWritePos, headPos)
+			if (headPos - mWritePos >= size) return mWritePos;
+		}
+		return -1;
+	}
+}
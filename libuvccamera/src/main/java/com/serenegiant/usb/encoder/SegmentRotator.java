@@ -0,0 +1,278 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SegmentRotator.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import java.util.Locale;
+
+/**
+ * Decides when segmented recording of MediaMuxerWrapper switches to the next file.
+ * The segment is switched on a video key frame when the duration or the bytes of
+ * the current segment reached the limit, a key frame is requested once when the limit
+ * is reached on a non-key frame. The muxer for the next segment is prepared in background
+ * via Callback#prepareMuxer and is created synchronously only if it is not ready on switching.
+ * The first segment is written to basePath + ext and following segments have suffix _001, _002...
+ * This class is not thread safe and does not depend on Android framework,
+ * the muxer is a type parameter so that this can be tested on JVM.
+ * @param <M> muxer
+ */
+public class SegmentRotator<M> {
+
+	/**
+	 * side effects of SegmentRotator, methods are called on the thread that calls SegmentRotator
+	 * @param <M>
+	 */
+	public interface Callback<M> {
+		/**
+		 * create the muxer for the segment in background and pass it to SegmentRotator#setNextMuxer
+		 * @param index index of the segment
+		 * @param path
+		 */
+		public void prepareMuxer(int index, String path);
+		/**
+		 * create the muxer for the segment synchronously because prepared one is not ready
+		 * @param index index of the segment
+		 * @param path
+		 * @return null if failed, the current segment continues
+		 */
+		public M createMuxer(int index, String path);
+		/**
+		 * start the muxer of the segment that will be written
+		 * @param muxer
+		 */
+		public void startMuxer(M muxer);
+		/**
+		 * request a key frame to the video encoder
+		 */
+		public void requestSyncFrame();
+		/**
+		 * writing to the segment started
+		 * @param index
+		 * @param path
+		 */
+		public void onSegmentStarted(int index, String path);
+		/**
+		 * stop and release the muxer of finished segment
+		 * @param muxer null if the muxer was already stopped
+		 * @param index
+		 * @param path
+		 * @param durationUs duration of video in the segment
+		 * @param bytes bytes of samples in the segment
+		 */
+		public void onSegmentFinished(M muxer, int index, String path, long durationUs, long bytes);
+		/**
+		 * release the prepared muxer that was not used and delete its file
+		 * @param muxer
+		 * @param path
+		 */
+		public void discardMuxer(M muxer, String path);
+	}
+
+	private final String mBasePath, mExt;
+	private final long mMaxDurationUs, mMaxBytes;
+	private final Callback<M> mCallback;
+	private boolean mIsRunning;
+	private M mMuxer;
+	private M mNextMuxer;
+	private String mNextPath;
+	private int mIndex;
+	private long mStartUs = -1, mLastPTSUs;
+	private long mBytes;
+	private boolean mSyncFrameRequested;
+
+	/**
+	 * Constructor
+	 * @param basePath path of output file without extension
+	 * @param ext extension of output file
+	 * @param maxDurationUs maximum duration of each segment, 0 for no limit
+	 * @param maxBytes maximum bytes of each segment, 0 for no limit
+	 * @param callback
+	 */
+	public SegmentRotator(final String basePath, final String ext,
+		final long maxDurationUs, final long maxBytes, final Callback<M> callback) {
+
+		if ((maxDurationUs < 0) || (maxBytes < 0))
+			throw new IllegalArgumentException("limits should not be negative");
+		if ((maxDurationUs == 0) && (maxBytes == 0))
+			throw new IllegalArgumentException("no limit");
+		if (callback == null) throw new NullPointerException("Callback is null");
+		mBasePath = basePath;
+		mExt = ext;
+		mMaxDurationUs = maxDurationUs;
+		mMaxBytes = maxBytes;
+		mCallback = callback;
+	}
+
+	/**
+	 * @param basePath path of output file without extension
+	 * @param ext extension of output file
+	 * @param index index of the segment
+	 * @return basePath + ext for the first segment, basePath + _NNN + ext for following segments
+	 */
+	public static String getSegmentPath(final String basePath, final String ext, final int index) {
+		return index == 0 ? basePath + ext
+			: basePath + String.format(Locale.US, "_%03d", index) + ext;
+	}
+
+	/**
+	 * start the first segment
+	 * @param muxer muxer of the first segment that was already started
+	 */
+	public void start(final M muxer) {
+		if (mIsRunning)
+			throw new IllegalStateException("already started");
+		mIsRunning = true;
+		mMuxer = muxer;
+		mCallback.onSegmentStarted(mIndex, getPath());
+		prepareNext();
+	}
+
+	/**
+	 * finish the current segment and discard the prepared muxer,
+	 * the muxer of the current segment should be stopped before calling this
+	 */
+	public void stop() {
+		if (!mIsRunning) return;
+		mIsRunning = false;
+		mCallback.onSegmentFinished(null, mIndex, getPath(),
+			mStartUs >= 0 ? mLastPTSUs - mStartUs : 0, mBytes);
+		mMuxer = null;
+		if (mNextMuxer != null) {
+			// the next segment was not used
+			mCallback.discardMuxer(mNextMuxer, mNextPath);
+			mNextMuxer = null;
+			mNextPath = null;
+		}
+	}
+
+	public boolean isRunning() {
+		return mIsRunning;
+	}
+
+	/**
+	 * @return index of the segment that is being written
+	 */
+	public int getIndex() {
+		return mIndex;
+	}
+
+	/**
+	 * @return path of the segment that is being written
+	 */
+	public String getPath() {
+		return getSegmentPath(mBasePath, mExt, mIndex);
+	}
+
+	/**
+	 * @return muxer of the segment that is being written
+	 */
+	public M getMuxer() {
+		return mMuxer;
+	}
+
+	/**
+	 * @return bytes of samples in the current segment
+	 */
+	public long getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * pass the muxer that was prepared by Callback#prepareMuxer
+	 * @param index
+	 * @param path
+	 * @param muxer
+	 * @return false if recording stopped or the segment was already switched,
+	 * the caller should release the muxer and delete its file
+	 */
+	public boolean setNextMuxer(final int index, final String path, final M muxer) {
+		if (mIsRunning && (mNextMuxer == null) && (mIndex + 1 == index)) {
+			mNextMuxer = muxer;
+			mNextPath = path;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * check the video sample before writing it, the segment is switched if necessary
+	 * and the sample should be written to #getMuxer after this returned.
+	 * @param ptsUs presentation time of the sample
+	 * @param size bytes of the sample
+	 * @param keyFrame
+	 * @return true if the segment was switched
+	 */
+	public boolean onVideoSample(final long ptsUs, final int size, final boolean keyFrame) {
+		if (!mIsRunning) return false;
+		if (mStartUs < 0)
+			mStartUs = ptsUs;
+		mLastPTSUs = ptsUs;
+		final boolean reached = ((mMaxDurationUs > 0) && (ptsUs - mStartUs >= mMaxDurationUs))
+			|| ((mMaxBytes > 0) && (mBytes + size > mMaxBytes));
+		if (!reached) return false;
+		if (keyFrame) {
+			return switchSegment(ptsUs);
+		} else if (!mSyncFrameRequested) {
+			mSyncFrameRequested = true;
+			mCallback.requestSyncFrame();
+		}
+		return false;
+	}
+
+	/**
+	 * count bytes of the sample that was written to the current segment, for all tracks
+	 * @param size
+	 */
+	public void onSampleWritten(final int size) {
+		mBytes += size;
+	}
+
+	private boolean switchSegment(final long ptsUs) {
+		M next = mNextMuxer;
+		String nextPath = mNextPath;
+		mNextMuxer = null;
+		mNextPath = null;
+		if (next == null) {
+			// background preparation has not finished yet
+			nextPath = getSegmentPath(mBasePath, mExt, mIndex + 1);
+			next = mCallback.createMuxer(mIndex + 1, nextPath);
+			if (next == null) return false;
+		}
+		mCallback.startMuxer(next);
+		mCallback.onSegmentFinished(mMuxer, mIndex, getPath(), ptsUs - mStartUs, mBytes);
+		mMuxer = next;
+		mIndex++;
+		mStartUs = ptsUs;
+		mBytes = 0;
+		mSyncFrameRequested = false;
+		mCallback.onSegmentStarted(mIndex, nextPath);
+		prepareNext();
+		return true;
+	}
+
+	private void prepareNext() {
+		final int index = mIndex + 1;
+		mCallback.prepareMuxer(index, getSegmentPath(mBasePath, mExt, index));
+	}
+}
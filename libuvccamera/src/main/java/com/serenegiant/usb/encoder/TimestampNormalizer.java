@@ -0,0 +1,143 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: TimestampNormalizer.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Convert capture timestamps into presentation times for the muxer.
+ * Presentation times are strictly increasing and follow the reference clock(System#nanoTime),
+ * small difference between the source clock and the reference clock(capture latency, jitter)
+ * is kept as is, larger drift (e.g. audio clock derived from sample count) is corrected
+ * gradually by slewing the offset, and a jump larger than the resync threshold
+ * (e.g. the source clock was reset) is corrected at once.
+ * This class does not depend on Android framework.
+ */
+public class TimestampNormalizer {
+	/**
+	 * drift that is allowed without correction
+	 */
+	public static final long DEFAULT_MAX_DRIFT_US = 100000L;	// 100[msec]
+	/**
+	 * maximum correction on each timestamp
+	 */
+	public static final long DEFAULT_MAX_SLEW_US = 1000L;		// 1[msec]
+	/**
+	 * drift that is corrected at once
+	 */
+	public static final long DEFAULT_RESYNC_US = 1000000L;		// 1[sec]
+
+	private final long mMaxDriftUs;
+	private final long mMaxSlewUs;
+	private final long mResyncUs;
+	private boolean mInitialized;
+	private long mOffsetUs;
+	private long mLastUs;
+	private long mMonotonicCorrectionCount;
+	private long mResyncCount;
+
+	public TimestampNormalizer() {
+		this(DEFAULT_MAX_DRIFT_US, DEFAULT_MAX_SLEW_US, DEFAULT_RESYNC_US);
+	}
+
+	/**
+	 * Constructor
+	 * @param maxDriftUs drift that is allowed without correction
+	 * @param maxSlewUs maximum correction on each timestamp
+	 * @param resyncUs drift that is corrected at once, should be larger than maxDriftUs
+	 */
+	public TimestampNormalizer(final long maxDriftUs, final long maxSlewUs, final long resyncUs) {
+		if ((maxDriftUs < 0) || (maxSlewUs <= 0) || (resyncUs <= maxDriftUs))
+			throw new IllegalArgumentException("invalid parameters");
+		mMaxDriftUs = maxDriftUs;
+		mMaxSlewUs = maxSlewUs;
+		mResyncUs = resyncUs;
+		reset();
+	}
+
+	public synchronized void reset() {
+		mInitialized = false;
+		mOffsetUs = 0;
+		mLastUs = Long.MIN_VALUE;
+		mMonotonicCorrectionCount = mResyncCount = 0;
+	}
+
+	/**
+	 * convert timestamp of source clock into presentation time
+	 * @param timestampUs timestamp of source clock, zero or negative value means unknown
+	 * and the reference time is used instead
+	 * @param referenceUs System#nanoTime / 1000 when the sample was captured
+	 * (or received if the capture time is unknown)
+	 * @return presentation time in microseconds that is larger than previous one
+	 */
+	public synchronized long normalize(final long timestampUs, final long referenceUs) {
+		final long ts = timestampUs > 0 ? timestampUs : referenceUs;
+		final long drift = referenceUs - ts - mOffsetUs;
+		if (!mInitialized) {
+			mInitialized = true;
+			// the source clock may have different origin
+			mOffsetUs = Math.abs(drift) > mMaxDriftUs ? referenceUs - ts : 0;
+		} else if (Math.abs(drift) > mResyncUs) {
+			mOffsetUs = referenceUs - ts;
+			mResyncCount++;
+		} else if (drift > mMaxDriftUs) {
+			mOffsetUs += Math.min(drift - mMaxDriftUs, mMaxSlewUs);
+		} else if (drift < -mMaxDriftUs) {
+			mOffsetUs -= Math.min(-mMaxDriftUs - drift, mMaxSlewUs);
+		}
+		long result = ts + mOffsetUs;
+		if ((mLastUs != Long.MIN_VALUE) && (result <= mLastUs)) {
+			result = mLastUs + 1;
+			mMonotonicCorrectionCount++;
+		}
+		mLastUs = result;
+		return result;
+	}
+
+	/**
+	 * @return current offset from the source clock to presentation time
+	 */
+	public synchronized long getOffsetUs() {
+		return mOffsetUs;
+	}
+
+	/**
+	 * @return last presentation time, Long#MIN_VALUE if no timestamp was normalized yet
+	 */
+	public synchronized long getLastUs() {
+		return mLastUs;
+	}
+
+	/**
+	 * @return number of timestamps that were adjusted to keep presentation time increasing
+	 */
+	public synchronized long getMonotonicCorrectionCount() {
+		return mMonotonicCorrectionCount;
+	}
+
+	/**
+	 * @return number of times that the offset was reset because of large drift
+	 */
+	public synchronized long getResyncCount() {
+		return mResyncCount;
+	}
+}
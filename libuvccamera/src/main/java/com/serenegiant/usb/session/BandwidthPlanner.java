@@ -0,0 +1,453 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BandwidthPlanner.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * Plan preview formats, sizes and bandwidth factors of cameras that share one USB bus.
+ * Each camera streams with isochronous transfer and the alternate setting is selected
+ * with (dwMaxPayloadTransferSize x bandwidth factor), so the planner estimates the payload
+ * of each candidate and chooses the combination that fits the bus budget
+ * and has the largest total frame rate.
+ * #plan returns the combinations ordered from the best, so you can fall back to the next plan
+ * when the cameras failed to start with a plan.
+ * This class also works as CameraSessionManager.BandwidthScheduler
+ * that assigns the bandwidth factor estimated from the size/mode/frame rate of each session.
+ * This class does not depend on Android framework.
+ */
+public class BandwidthPlanner implements CameraSessionManager.BandwidthScheduler {
+	/**
+	 * periodic transfers can use 80% of high speed micro frames, 6000 bytes x 8000 micro frames
+	 */
+	public static final long USB2_BUS_BYTES_PER_SEC = 6000L * 8000L;
+	/**
+	 * maximum payload of high bandwidth isochronous endpoint, 3 x 1024 bytes x 8000 micro frames
+	 */
+	public static final long USB2_MAX_PAYLOAD_BYTES_PER_SEC = 3L * 1024L * 8000L;
+	/**
+	 * native library requests 1-30fps to the camera
+	 */
+	public static final int DEFAULT_FRAME_RATE = 30;
+	/**
+	 * estimated compression ratio of MJPEG against YUYV
+	 */
+	public static final float DEFAULT_MJPEG_COMPRESSION = 5.0f;
+	/**
+	 * margin for payload headers and the variation of MJPEG frame size
+	 */
+	public static final float DEFAULT_HEADROOM = 1.2f;
+	public static final int DEFAULT_MAX_PLANS = 8;
+
+	/**
+	 * format/size/frame rate that the camera supports
+	 */
+	public static class Candidate {
+		/** UVCCamera#FRAME_FORMAT_YUYV or UVCCamera#FRAME_FORMAT_MJPEG */
+		public final int format;
+		public final int width;
+		public final int height;
+		public final int frameRate;
+
+		public Candidate(final int format, final int width, final int height, final int frameRate) {
+			if ((width <= 0) || (height <= 0) || (frameRate <= 0))
+				throw new IllegalArgumentException("invalid candidate:" + width + "x" + height + "@" + frameRate);
+			this.format = format;
+			this.width = width;
+			this.height = height;
+			this.frameRate = frameRate;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Candidate)) return false;
+			final Candidate other = (Candidate)o;
+			return (format == other.format) && (width == other.width)
+				&& (height == other.height) && (frameRate == other.frameRate);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((format * 31 + width) * 31 + height) * 31 + frameRate;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s %dx%d@%d",
+				format == UVCCamera.FRAME_FORMAT_YUYV ? "YUYV" : "MJPEG", width, height, frameRate);
+		}
+	}
+
+	/**
+	 * camera that shares the bus and its candidates
+	 */
+	public static class Camera {
+		public final String key;
+		private final List<Candidate> mCandidates;
+		private final long mMaxPayloadBytesPerSec;
+		private final int mMinFrameRate;
+
+		/**
+		 * @param key key of the camera, e.g. UVCCameraFactory#getKey
+		 * @param candidates
+		 */
+		public Camera(final String key, final List<Candidate> candidates) {
+			this(key, candidates, USB2_MAX_PAYLOAD_BYTES_PER_SEC, 0);
+		}
+
+		/**
+		 * @param key key of the camera, e.g. UVCCameraFactory#getKey
+		 * @param candidates
+		 * @param maxPayloadBytesPerSec dwMaxPayloadTransferSize x 8000 if it is known,
+		 * the bandwidth factor is the ratio against this value
+		 * @param minFrameRate candidates with lower frame rate than this value are ignored
+		 */
+		public Camera(final String key, final List<Candidate> candidates,
+			final long maxPayloadBytesPerSec, final int minFrameRate) {
+
+			if (key == null) throw new NullPointerException("key is null");
+			if (maxPayloadBytesPerSec <= 0)
+				throw new IllegalArgumentException("maxPayloadBytesPerSec should be positive");
+			this.key = key;
+			mCandidates = new ArrayList<Candidate>(candidates);
+			mMaxPayloadBytesPerSec = maxPayloadBytesPerSec;
+			mMinFrameRate = minFrameRate;
+		}
+
+		public List<Candidate> getCandidates() {
+			return Collections.unmodifiableList(mCandidates);
+		}
+
+		public long getMaxPayloadBytesPerSec() {
+			return mMaxPayloadBytesPerSec;
+		}
+
+		public int getMinFrameRate() {
+			return mMinFrameRate;
+		}
+	}
+
+	/**
+	 * candidate and bandwidth factor assigned to the camera
+	 */
+	public static class Assignment {
+		public final Camera camera;
+		public final Candidate candidate;
+		/** bandwidth factor for UVCCamera#setPreviewSize */
+		public final float bandwidth;
+		/** bus bandwidth that is reserved with the bandwidth factor */
+		public final long reservedBytesPerSec;
+
+		private Assignment(final Camera camera, final Candidate candidate,
+			final float bandwidth, final long reservedBytesPerSec) {
+
+			this.camera = camera;
+			this.candidate = candidate;
+			this.bandwidth = bandwidth;
+			this.reservedBytesPerSec = reservedBytesPerSec;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s:%s,bandwidth=%.2f", camera.key, candidate, bandwidth);
+		}
+	}
+
+	/**
+	 * one combination of assignments for all cameras
+	 */
+	public static class Plan {
+		private final Assignment[] mAssignments;
+		private final int mTotalFrameRate;
+		private final int mMinFrameRate;
+		private final long mTotalPixelRate;
+		private final long mReservedBytesPerSec;
+
+		private Plan(final Assignment[] assignments) {
+			mAssignments = assignments;
+			int total = 0, min = Integer.MAX_VALUE;
+			long pixels = 0, reserved = 0;
+			for (final Assignment assignment: assignments) {
+				final Candidate candidate = assignment.candidate;
+				total += candidate.frameRate;
+				min = Math.min(min, candidate.frameRate);
+				pixels += (long)candidate.width * candidate.height * candidate.frameRate;
+				reserved += assignment.reservedBytesPerSec;
+			}
+			mTotalFrameRate = total;
+			mMinFrameRate = assignments.length > 0 ? min : 0;
+			mTotalPixelRate = pixels;
+			mReservedBytesPerSec = reserved;
+		}
+
+		/**
+		 * @return assignments in the same order as the cameras passed to #plan
+		 */
+		public Assignment[] getAssignments() {
+			return mAssignments.clone();
+		}
+
+		/**
+		 * @param key
+		 * @return null if the camera is not in this plan
+		 */
+		public Assignment getAssignment(final String key) {
+			for (final Assignment assignment: mAssignments) {
+				if (assignment.camera.key.equals(key))
+					return assignment;
+			}
+			return null;
+		}
+
+		public int getTotalFrameRate() {
+			return mTotalFrameRate;
+		}
+
+		public long getReservedBytesPerSec() {
+			return mReservedBytesPerSec;
+		}
+
+		@Override
+		public String toString() {
+			return "Plan{fps=" + mTotalFrameRate + ",reserved=" + mReservedBytesPerSec + "," + Arrays.toString(mAssignments) + "}";
+		}
+	}
+
+	/**
+	 * order of plans, larger total frame rate, larger minimum frame rate(fairness),
+	 * larger total pixel rate and then smaller bus usage
+	 */
+	private static final Comparator<Plan> PLAN_ORDER = new Comparator<Plan>() {
+		@Override
+		public int compare(final Plan lhs, final Plan rhs) {
+			if (lhs.mTotalFrameRate != rhs.mTotalFrameRate)
+				return lhs.mTotalFrameRate > rhs.mTotalFrameRate ? -1 : 1;
+			if (lhs.mMinFrameRate != rhs.mMinFrameRate)
+				return lhs.mMinFrameRate > rhs.mMinFrameRate ? -1 : 1;
+			if (lhs.mTotalPixelRate != rhs.mTotalPixelRate)
+				return lhs.mTotalPixelRate > rhs.mTotalPixelRate ? -1 : 1;
+			if (lhs.mReservedBytesPerSec != rhs.mReservedBytesPerSec)
+				return lhs.mReservedBytesPerSec < rhs.mReservedBytesPerSec ? -1 : 1;
+			return 0;
+		}
+	};
+
+	private final long mBusBytesPerSec;
+	private float mMjpegCompression = DEFAULT_MJPEG_COMPRESSION;
+	private float mHeadroom = DEFAULT_HEADROOM;
+	private int mMaxPlans = DEFAULT_MAX_PLANS;
+
+	public BandwidthPlanner() {
+		this(USB2_BUS_BYTES_PER_SEC);
+	}
+
+	/**
+	 * @param busBytesPerSec bandwidth budget of the bus that the cameras share
+	 */
+	public BandwidthPlanner(final long busBytesPerSec) {
+		if (busBytesPerSec <= 0)
+			throw new IllegalArgumentException("busBytesPerSec should be positive");
+		mBusBytesPerSec = busBytesPerSec;
+	}
+
+	public long getBusBytesPerSec() {
+		return mBusBytesPerSec;
+	}
+
+	/**
+	 * @param compression ratio of YUYV frame size to MJPEG frame size, should be 1 or more
+	 */
+	public void setMjpegCompression(final float compression) {
+		if (compression < 1.0f)
+			throw new IllegalArgumentException("compression should be 1 or more");
+		mMjpegCompression = compression;
+	}
+
+	/**
+	 * @param headroom ratio of the reserved bandwidth to the estimated payload, should be 1 or more
+	 */
+	public void setHeadroom(final float headroom) {
+		if (headroom < 1.0f)
+			throw new IllegalArgumentException("headroom should be 1 or more");
+		mHeadroom = headroom;
+	}
+
+	/**
+	 * @param maxPlans maximum number of plans that #plan returns
+	 */
+	public void setMaxPlans(final int maxPlans) {
+		if (maxPlans <= 0)
+			throw new IllegalArgumentException("maxPlans should be positive");
+		mMaxPlans = maxPlans;
+	}
+
+	/**
+	 * @param format UVCCamera#FRAME_FORMAT_YUYV or UVCCamera#FRAME_FORMAT_MJPEG
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 * @return estimated payload of the stream in bytes per second
+	 */
+	public long estimatePayload(final int format, final int width, final int height, final int frameRate) {
+		final long yuyv = (long)width * height * 2 * frameRate;
+		return format == UVCCamera.FRAME_FORMAT_YUYV ? yuyv : (long)(yuyv / mMjpegCompression);
+	}
+
+	/**
+	 * @param camera
+	 * @param candidate
+	 * @return null if the camera can not stream the candidate even with the maximum payload
+	 */
+	public Assignment assign(final Camera camera, final Candidate candidate) {
+		final long required = (long)(estimatePayload(candidate.format,
+			candidate.width, candidate.height, candidate.frameRate) * mHeadroom);
+		final long max = camera.getMaxPayloadBytesPerSec();
+		if (required > max) return null;
+		float bandwidth = required / (float)max;
+		if (bandwidth < CameraSession.MIN_BANDWIDTH)
+			bandwidth = CameraSession.MIN_BANDWIDTH;
+		return new Assignment(camera, candidate, bandwidth, (long)Math.ceil(bandwidth * max));
+	}
+
+	/**
+	 * choose one candidate for each camera
+	 * @param cameras
+	 * @return plans that fit the bus budget ordered from the best,
+	 * empty if there is no combination for all cameras
+	 */
+	public List<Plan> plan(final List<Camera> cameras) {
+		final int n = cameras.size();
+		final Assignment[][] options = new Assignment[n][];
+		final int[] maxFrameRates = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			options[i] = getOptions(cameras.get(i));
+			if (options[i].length == 0)
+				return new ArrayList<Plan>();
+		}
+		// maxFrameRates[i] is the upper limit of total frame rate of cameras from i to the last one
+		for (int i = n - 1; i >= 0; i--) {
+			maxFrameRates[i] = maxFrameRates[i + 1] + options[i][0].candidate.frameRate;
+		}
+		final List<Plan> result = new ArrayList<Plan>();
+		search(options, maxFrameRates, 0, new Assignment[n], 0, 0, result);
+		return result;
+	}
+
+	/**
+	 * @param cameras
+	 * @return best plan, null if there is no combination for all cameras
+	 */
+	public Plan getBestPlan(final List<Camera> cameras) {
+		final List<Plan> plans = plan(cameras);
+		return plans.isEmpty() ? null : plans.get(0);
+	}
+
+	/**
+	 * BandwidthScheduler, bandwidth factor is estimated from size/mode/frame rate of the session
+	 * with the maximum payload of USB2 high bandwidth endpoint
+	 */
+	@Override
+	public float getBandwidth(final CameraSession session, final CameraSession[] sessions) {
+		final int format = session.getMode() == UVCCamera.FRAME_FORMAT_YUYV
+			? UVCCamera.FRAME_FORMAT_YUYV : UVCCamera.FRAME_FORMAT_MJPEG;
+		final int frameRate = session.getRequestedFrameRate() > 0
+			? session.getRequestedFrameRate() : DEFAULT_FRAME_RATE;
+		final long required = (long)(estimatePayload(format,
+			session.getWidth(), session.getHeight(), frameRate) * mHeadroom);
+		return required / (float)USB2_MAX_PAYLOAD_BYTES_PER_SEC;
+	}
+
+//================================================================================
+	/**
+	 * @return assignments that the camera can stream, ordered by frame rate and pixels
+	 */
+	private Assignment[] getOptions(final Camera camera) {
+		final List<Assignment> result = new ArrayList<Assignment>();
+		final List<Candidate> seen = new ArrayList<Candidate>();
+		for (final Candidate candidate: camera.getCandidates()) {
+			if ((candidate.frameRate < camera.getMinFrameRate()) || seen.contains(candidate))
+				continue;
+			seen.add(candidate);
+			final Assignment assignment = assign(camera, candidate);
+			if ((assignment != null) && (assignment.reservedBytesPerSec <= mBusBytesPerSec))
+				result.add(assignment);
+		}
+		Collections.sort(result, new Comparator<Assignment>() {
+			@Override
+			public int compare(final Assignment lhs, final Assignment rhs) {
+				if (lhs.candidate.frameRate != rhs.candidate.frameRate)
+					return lhs.candidate.frameRate > rhs.candidate.frameRate ? -1 : 1;
+				final long lp = (long)lhs.candidate.width * lhs.candidate.height;
+				final long rp = (long)rhs.candidate.width * rhs.candidate.height;
+				if (lp != rp)
+					return lp > rp ? -1 : 1;
+				return lhs.reservedBytesPerSec < rhs.reservedBytesPerSec ? -1
+					: (lhs.reservedBytesPerSec > rhs.reservedBytesPerSec ? 1 : 0);
+			}
+		});
+		return result.toArray(new Assignment[result.size()]);
+	}
+
+	/**
+	 * depth first search with pruning by bus budget and the upper limit of frame rate
+	 */
+	private void search(final Assignment[][] options, final int[] maxFrameRates,
+		final int ix, final Assignment[] current, final long reserved, final int frameRate,
+		final List<Plan> result) {
+
+		if (ix == options.length) {
+			addPlan(result, new Plan(current.clone()));
+			return;
+		}
+		if (result.size() >= mMaxPlans) {
+			final Plan worst = result.get(result.size() - 1);
+			if (frameRate + maxFrameRates[ix] < worst.mTotalFrameRate)
+				return;	// can not be better than the plans already found
+		}
+		for (final Assignment option: options[ix]) {
+			if (reserved + option.reservedBytesPerSec > mBusBytesPerSec)
+				continue;
+			current[ix] = option;
+			search(options, maxFrameRates, ix + 1, current,
+				reserved + option.reservedBytesPerSec, frameRate + option.candidate.frameRate, result);
+		}
+		current[ix] = null;
+	}
+
+	private void addPlan(final List<Plan> plans, final Plan plan) {
+		int pos = Collections.binarySearch(plans, plan, PLAN_ORDER);
+		if (pos < 0) pos = -pos - 1;
+		if (pos >= mMaxPlans) return;
+		plans.add(pos, plan);
+		if (plans.size() > mMaxPlans)
+			plans.remove(plans.size() - 1);
+	}
+}
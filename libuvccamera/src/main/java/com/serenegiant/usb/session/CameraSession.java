@@ -0,0 +1,492 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CameraSession.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * A camera with its own thread, preview target and frame consumers(e.g. encoders),
+ * that is created by CameraSessionManager#openSession.
+ * Methods of this class only post requests to the session thread and return immediately,
+ * state changes are notified with CameraSessionManager.SessionListener.
+ * If no frame comes within FIRST_FRAME_TIMEOUT_MS after starting preview
+ * (e.g. USB bus does not have enough bandwidth), the preview is restarted with lower bandwidth.
+ * The preview is also restarted when the scheduled bandwidth changed because
+ * another session was opened or closed, the state goes back to STATE_STARTING in that case.
+ * This class does not depend on Android framework.
+ */
+public class CameraSession {
+	public static final int STATE_IDLE = 0;
+	public static final int STATE_OPENED = 1;
+	/**
+	 * preview was started and waiting for the first frame
+	 */
+	public static final int STATE_STARTING = 2;
+	public static final int STATE_PREVIEWING = 3;
+	public static final int STATE_CLOSED = 4;
+	public static final int STATE_ERROR = 5;
+
+	public static final long FIRST_FRAME_TIMEOUT_MS = 3000;
+	/**
+	 * bandwidth is multiplied with this value on each retry
+	 */
+	public static final float BANDWIDTH_STEP = 0.75f;
+	public static final float MIN_BANDWIDTH = 0.1f;
+
+	private final Object mSync = new Object();
+	private final CameraSessionManager mManager;
+	private final String mKey;
+	private final Object mDevice;
+	private final int mWidth, mHeight, mMode, mFrameRate;
+	private final ScheduledExecutorService mExecutor;
+	private volatile int mState = STATE_IDLE;
+	private volatile IFrameCallback[] mCallbacks = new IFrameCallback[0];
+	// these fields are only accessed on the session thread
+	private ICamera mCamera;
+	private Object mPreviewTarget;
+	private int mPixelFormat = UVCCamera.PIXEL_FORMAT_YUV;
+	private float mBandwidth;
+	/**
+	 * bandwidth from BandwidthScheduler before retries
+	 */
+	private float mScheduledBandwidth;
+	private int mRetryCount;
+	private int mGeneration;
+	// metrics, guarded by mSync
+	private boolean mFirstFramePosted;
+	private long mFrameCount, mDropCount;
+	private long mLastFrameNs, mAvgIntervalNs;
+	private long mOpenNs, mTimeToFirstFrameNs;
+
+	/*package*/ CameraSession(final CameraSessionManager manager, final String key, final Object device,
+		final int width, final int height, final int mode, final int frameRate) {
+
+		if ((width <= 0) || (height <= 0) || (frameRate <= 0))
+			throw new IllegalArgumentException("invalid size or frame rate");
+		mManager = manager;
+		mKey = key;
+		mDevice = device;
+		mWidth = width;
+		mHeight = height;
+		mMode = mode;
+		mFrameRate = frameRate;
+		mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(r, "CameraSession:" + key);
+			}
+		});
+	}
+
+	public String getKey() {
+		return mKey;
+	}
+
+	public Object getDevice() {
+		return mDevice;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @return 0:YUYV, other:MJPEG
+	 */
+	public int getMode() {
+		return mMode;
+	}
+
+	public int getRequestedFrameRate() {
+		return mFrameRate;
+	}
+
+	public int getState() {
+		return mState;
+	}
+
+	/**
+	 * @return bandwidth factor that was used for current preview
+	 */
+	public float getBandwidth() {
+		synchronized (mSync) {
+			return mBandwidth;
+		}
+	}
+
+	/**
+	 * @return number of restarts of preview with lower bandwidth
+	 */
+	public int getRetryCount() {
+		synchronized (mSync) {
+			return mRetryCount;
+		}
+	}
+
+//================================================================================
+	/**
+	 * set surface to render preview, applied on next #startPreview
+	 * @param surface Surface, SurfaceTexture or SurfaceHolder, null to clear
+	 */
+	public void setPreviewTarget(final Object surface) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				mPreviewTarget = surface;
+			}
+		});
+	}
+
+	/**
+	 * set pixel format of frames passed to the callbacks, applied on next #startPreview
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 */
+	public void setPixelFormat(final int pixelFormat) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				mPixelFormat = pixelFormat;
+			}
+		});
+	}
+
+	/**
+	 * add frame consumer(e.g. MediaVideoBufferEncoder) of this session.
+	 * callbacks are called on the frame thread of the camera in the added order.
+	 * @param callback
+	 */
+	public void addFrameCallback(final IFrameCallback callback) {
+		if (callback == null) throw new NullPointerException("callback is null");
+		synchronized (mSync) {
+			final IFrameCallback[] callbacks = new IFrameCallback[mCallbacks.length + 1];
+			System.arraycopy(mCallbacks, 0, callbacks, 0, mCallbacks.length);
+			callbacks[mCallbacks.length] = callback;
+			mCallbacks = callbacks;
+		}
+	}
+
+	public void removeFrameCallback(final IFrameCallback callback) {
+		synchronized (mSync) {
+			final int n = mCallbacks.length;
+			for (int i = 0; i < n; i++) {
+				if (mCallbacks[i] == callback) {
+					final IFrameCallback[] callbacks = new IFrameCallback[n - 1];
+					System.arraycopy(mCallbacks, 0, callbacks, 0, i);
+					System.arraycopy(mCallbacks, i + 1, callbacks, i, n - i - 1);
+					mCallbacks = callbacks;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * start preview with the bandwidth from CameraSessionManager.BandwidthScheduler
+	 */
+	public void startPreview() {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if (mState != STATE_OPENED) return;
+				final float bandwidth = mManager.scheduleBandwidth(CameraSession.this);
+				synchronized (mSync) {
+					mBandwidth = mScheduledBandwidth = bandwidth;
+					mRetryCount = 0;
+				}
+				handleStartPreview();
+			}
+		});
+	}
+
+	public void stopPreview() {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if ((mState == STATE_STARTING) || (mState == STATE_PREVIEWING)) {
+					handleStopPreview();
+					setState(STATE_OPENED);
+				}
+			}
+		});
+	}
+
+	/**
+	 * close the camera and terminate the session thread,
+	 * the session is removed from CameraSessionManager
+	 */
+	public void close() {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				handleClose();
+			}
+		});
+	}
+
+//================================================================================
+	/**
+	 * @return number of received frames
+	 */
+	public long getFrameCount() {
+		synchronized (mSync) {
+			return mFrameCount;
+		}
+	}
+
+	/**
+	 * @return estimated number of frames that were dropped by the camera or USB transfer,
+	 * that is calculated from intervals of frames and the requested frame rate
+	 */
+	public long getDropCount() {
+		synchronized (mSync) {
+			return mDropCount;
+		}
+	}
+
+	/**
+	 * @return current frame rate, zero if no frame came in the last second
+	 */
+	public float getFrameRate() {
+		synchronized (mSync) {
+			if ((mAvgIntervalNs <= 0) || (System.nanoTime() - mLastFrameNs > 1000000000L))
+				return 0;
+			return 1000000000f / mAvgIntervalNs;
+		}
+	}
+
+	/**
+	 * @return time from opening the camera to the first frame in milliseconds,
+	 * zero if no frame came yet
+	 */
+	public float getTimeToFirstFrameMs() {
+		synchronized (mSync) {
+			return mTimeToFirstFrameNs / 1000000.0f;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CameraSession{%s,%dx%d,mode=%d,state=%d,bandwidth=%.2f,fps=%.1f,frames=%d,drops=%d}",
+			mKey, mWidth, mHeight, mMode, mState, getBandwidth(), getFrameRate(), getFrameCount(), getDropCount());
+	}
+
+//================================================================================
+	/*package*/ void open() {
+		synchronized (mSync) {
+			mOpenNs = System.nanoTime();
+		}
+		post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mCamera = mManager.createCamera(mDevice);
+					mCamera.open();
+					setState(STATE_OPENED);
+				} catch (final Exception e) {
+					handleError(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * schedule the bandwidth again and restart preview if it is lower than current bandwidth
+	 * or higher than the bandwidth that was scheduled last time,
+	 * this is called by CameraSessionManager when a session was opened or closed
+	 */
+	/*package*/ void rebalance() {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if ((mState != STATE_STARTING) && (mState != STATE_PREVIEWING)) return;
+				final float bandwidth = mManager.scheduleBandwidth(CameraSession.this);
+				synchronized (mSync) {
+					// keep lower bandwidth from retries unless more bandwidth became available
+					if ((bandwidth >= mBandwidth) && (bandwidth <= mScheduledBandwidth)) return;
+					mBandwidth = mScheduledBandwidth = bandwidth;
+					mRetryCount = 0;
+				}
+				handleStopPreview();
+				handleStartPreview();
+			}
+		});
+	}
+
+	private void post(final Runnable task) {
+		try {
+			mExecutor.execute(task);
+		} catch (final RuntimeException e) {
+			// already closed
+		}
+	}
+
+	private void setState(final int state) {
+		if (mState != state) {
+			mState = state;
+			mManager.notifyStateChanged(this, state);
+		}
+	}
+
+	private void handleError(final Exception e) {
+		if (mCamera != null) {
+			try {
+				mCamera.destroy();
+			} catch (final Exception e1) {
+				// ignore
+			}
+			mCamera = null;
+		}
+		setState(STATE_ERROR);
+		mManager.notifyError(this, e);
+	}
+
+	private void handleStartPreview() {
+		final float bandwidth = getBandwidth();
+		try {
+			mCamera.setPreviewSize(mWidth, mHeight, mMode, bandwidth);
+			mCamera.setPreviewTarget(mPreviewTarget);
+			synchronized (mSync) {
+				mFirstFramePosted = false;
+				mLastFrameNs = mAvgIntervalNs = 0;
+			}
+			mCamera.setFrameCallback(mFrameCallback, mPixelFormat);
+			setState(STATE_STARTING);
+			mCamera.startPreview();
+		} catch (final Exception e) {
+			handleError(e);
+			return;
+		}
+		final int generation = ++mGeneration;
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if ((generation == mGeneration) && (mState == STATE_STARTING))
+					handleFirstFrameTimeout();
+			}
+		}, FIRST_FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private void handleFirstFrameTimeout() {
+		handleStopPreview();
+		final float bandwidth;
+		synchronized (mSync) {
+			bandwidth = mBandwidth * BANDWIDTH_STEP;
+			if (bandwidth >= MIN_BANDWIDTH) {
+				mBandwidth = bandwidth;
+				mRetryCount++;
+			}
+		}
+		if (bandwidth < MIN_BANDWIDTH) {
+			handleError(new IllegalStateException("no frame came from camera with bandwidth " + mBandwidth));
+		} else {
+			handleStartPreview();
+		}
+	}
+
+	private void handleStopPreview() {
+		mGeneration++;
+		if (mCamera != null) {
+			mCamera.setFrameCallback(null, 0);
+			mCamera.stopPreview();
+		}
+	}
+
+	private void handleClose() {
+		if (mState == STATE_CLOSED) return;
+		if (mCamera != null) {
+			try {
+				handleStopPreview();
+				mCamera.destroy();
+			} catch (final Exception e) {
+				// ignore
+			}
+			mCamera = null;
+		}
+		setState(STATE_CLOSED);
+		mManager.onSessionClosed(this);
+		mExecutor.shutdown();
+	}
+
+	private void handleFirstFrame() {
+		if (mState == STATE_STARTING)
+			setState(STATE_PREVIEWING);
+	}
+
+	private final Runnable mFirstFrameTask = new Runnable() {
+		@Override
+		public void run() {
+			handleFirstFrame();
+		}
+	};
+
+	/**
+	 * called on the frame thread of the camera
+	 */
+	private final IFrameCallback mFrameCallback = new IFrameCallback() {
+		@Override
+		public void onFrame(final ByteBuffer frame) {
+			final long now = System.nanoTime();
+			synchronized (mSync) {
+				if (mLastFrameNs != 0) {
+					final long interval = now - mLastFrameNs;
+					mAvgIntervalNs = mAvgIntervalNs == 0 ? interval : (mAvgIntervalNs * 7 + interval) / 8;
+					final long expected = 1000000000L / mFrameRate;
+					if (interval > expected * 3 / 2) {
+						mDropCount += (interval + expected / 2) / expected - 1;
+					}
+				}
+				mLastFrameNs = now;
+				mFrameCount++;
+				if (mTimeToFirstFrameNs == 0)
+					mTimeToFirstFrameNs = now - mOpenNs;
+				if (!mFirstFramePosted) {
+					mFirstFramePosted = true;
+					post(mFirstFrameTask);
+				}
+			}
+			final IFrameCallback[] callbacks = mCallbacks;
+			final int n = callbacks.length;
+			final int position = frame.position();
+			for (int i = 0; i < n; i++) {
+				try {
+					callbacks[i].onFrame(frame);
+				} catch (final RuntimeException e) {
+					// keep other consumers running
+				}
+				frame.position(position);
+			}
+		}
+	};
+}
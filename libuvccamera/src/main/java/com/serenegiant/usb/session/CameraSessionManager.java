@@ -0,0 +1,280 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CameraSessionManager.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manage multiple UVC cameras that run at the same time.
+ * Each camera has its own CameraSession(thread, camera, preview target and frame consumers),
+ * USB bandwidth is shared among the sessions with BandwidthScheduler
+ * and frame rate/drops of all sessions are aggregated.
+ * When a session is opened or closed, sessions that are previewing are asked to schedule
+ * the bandwidth again and restart preview if it changed, so the total does not exceed the bus.
+ * <pre>
+ * final CameraSessionManager manager = new CameraSessionManager(new UVCCameraFactory());
+ * final CameraSession session = manager.openSession(UVCCameraFactory.getKey(ctrlBlock), ctrlBlock, 640, 480, 1, 30);
+ * session.setPreviewTarget(surface);
+ * session.startPreview();
+ * </pre>
+ * This class does not depend on Android framework.
+ */
+public class CameraSessionManager {
+
+	public interface CameraFactory {
+		/**
+		 * create camera for the device, this is called on the session thread
+		 * @param device the object passed to CameraSessionManager#openSession
+		 * @return
+		 */
+		public ICamera createCamera(Object device);
+	}
+
+	public interface SessionListener {
+		/**
+		 * called on the session thread when the state of session changed
+		 * @param session
+		 * @param state CameraSession#STATE_XXX
+		 */
+		public void onStateChanged(CameraSession session, int state);
+		/**
+		 * called on the session thread when the session failed, the state is CameraSession#STATE_ERROR
+		 * @param session
+		 * @param e
+		 */
+		public void onError(CameraSession session, Exception e);
+	}
+
+	public interface BandwidthScheduler {
+		/**
+		 * decide bandwidth factor for the session that is going to start preview,
+		 * or the session that is previewing when another session was opened or closed.
+		 * this is called on the session thread
+		 * @param session
+		 * @param sessions all sessions that are not closed including the session
+		 * @return [0.0f,1.0f], the ratio of maximum payload size that the camera requests
+		 */
+		public float getBandwidth(CameraSession session, CameraSession[] sessions);
+	}
+
+	/**
+	 * share bandwidth equally among all opened sessions
+	 */
+	public static final BandwidthScheduler EQUAL_SHARE = new BandwidthScheduler() {
+		@Override
+		public float getBandwidth(final CameraSession session, final CameraSession[] sessions) {
+			final float bandwidth = 1.0f / Math.max(sessions.length, 1);
+			return bandwidth < CameraSession.MIN_BANDWIDTH ? CameraSession.MIN_BANDWIDTH : bandwidth;
+		}
+	};
+
+	private final Object mSync = new Object();
+	private final CameraFactory mFactory;
+	private final List<CameraSession> mSessions = new ArrayList<CameraSession>();
+	private volatile SessionListener mListener;
+	private volatile BandwidthScheduler mScheduler = EQUAL_SHARE;
+
+	public CameraSessionManager(final CameraFactory factory) {
+		if (factory == null) throw new NullPointerException("CameraFactory is null");
+		mFactory = factory;
+	}
+
+	public void setListener(final SessionListener listener) {
+		mListener = listener;
+	}
+
+	public void setBandwidthScheduler(final BandwidthScheduler scheduler) {
+		mScheduler = scheduler != null ? scheduler : EQUAL_SHARE;
+	}
+
+	/**
+	 * create session and open the camera on the session thread
+	 * @param key unique key of the camera, e.g. UVCCameraFactory#getKey
+	 * @param device the object that is passed to CameraFactory#createCamera, e.g. USBMonitor.UsbControlBlock
+	 * @param width
+	 * @param height
+	 * @param mode 0:YUYV, other:MJPEG
+	 * @param frameRate requested frame rate, this is used to estimate dropped frames
+	 * @return
+	 * @throws IllegalStateException if the session with same key is already opened
+	 */
+	public CameraSession openSession(final String key, final Object device,
+		final int width, final int height, final int mode, final int frameRate) {
+
+		final CameraSession session;
+		synchronized (mSync) {
+			if (findSession(key) != null)
+				throw new IllegalStateException("session already opened:" + key);
+			session = new CameraSession(this, key, device, width, height, mode, frameRate);
+			mSessions.add(session);
+		}
+		session.open();
+		rebalance();
+		return session;
+	}
+
+	public CameraSession getSession(final String key) {
+		synchronized (mSync) {
+			return findSession(key);
+		}
+	}
+
+	public CameraSession[] getSessions() {
+		synchronized (mSync) {
+			return mSessions.toArray(new CameraSession[mSessions.size()]);
+		}
+	}
+
+	public int getSessionCount() {
+		synchronized (mSync) {
+			return mSessions.size();
+		}
+	}
+
+	/**
+	 * close the session, this is same as CameraSession#close
+	 * @param key
+	 */
+	public void closeSession(final String key) {
+		final CameraSession session = getSession(key);
+		if (session != null)
+			session.close();
+	}
+
+	/**
+	 * close all sessions
+	 */
+	public void release() {
+		final CameraSession[] sessions = getSessions();
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i].close();
+		}
+	}
+
+//================================================================================
+	/**
+	 * @return sum of current frame rate of all sessions
+	 */
+	public float getTotalFrameRate() {
+		final CameraSession[] sessions = getSessions();
+		float result = 0;
+		for (int i = 0; i < sessions.length; i++) {
+			result += sessions[i].getFrameRate();
+		}
+		return result;
+	}
+
+	public long getTotalFrameCount() {
+		final CameraSession[] sessions = getSessions();
+		long result = 0;
+		for (int i = 0; i < sessions.length; i++) {
+			result += sessions[i].getFrameCount();
+		}
+		return result;
+	}
+
+	public long getTotalDropCount() {
+		final CameraSession[] sessions = getSessions();
+		long result = 0;
+		for (int i = 0; i < sessions.length; i++) {
+			result += sessions[i].getDropCount();
+		}
+		return result;
+	}
+
+	/**
+	 * @return ratio of dropped frames to expected frames of all sessions, [0.0f,1.0f]
+	 */
+	public float getDropRate() {
+		final CameraSession[] sessions = getSessions();
+		long frames = 0, drops = 0;
+		for (int i = 0; i < sessions.length; i++) {
+			frames += sessions[i].getFrameCount();
+			drops += sessions[i].getDropCount();
+		}
+		return frames + drops > 0 ? drops / (float)(frames + drops) : 0;
+	}
+
+//================================================================================
+	private CameraSession findSession(final String key) {
+		for (final CameraSession session: mSessions) {
+			if (session.getKey().equals(key))
+				return session;
+		}
+		return null;
+	}
+
+	/*package*/ ICamera createCamera(final Object device) {
+		final ICamera camera = mFactory.createCamera(device);
+		if (camera == null)
+			throw new IllegalStateException("CameraFactory returned null");
+		return camera;
+	}
+
+	/*package*/ float scheduleBandwidth(final CameraSession session) {
+		final float bandwidth = mScheduler.getBandwidth(session, getSessions());
+		return bandwidth > 1.0f ? 1.0f : (bandwidth < CameraSession.MIN_BANDWIDTH ? CameraSession.MIN_BANDWIDTH : bandwidth);
+	}
+
+	/*package*/ void onSessionClosed(final CameraSession session) {
+		synchronized (mSync) {
+			mSessions.remove(session);
+		}
+		rebalance();
+	}
+
+	/**
+	 * schedule bandwidth of sessions that are previewing again
+	 * because the number of sessions changed
+	 */
+	private void rebalance() {
+		final CameraSession[] sessions = getSessions();
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i].rebalance();
+		}
+	}
+
+	/*package*/ void notifyStateChanged(final CameraSession session, final int state) {
+		final SessionListener listener = mListener;
+		if (listener != null) {
+			try {
+				listener.onStateChanged(session, state);
+			} catch (final RuntimeException e) {
+				// ignore
+			}
+		}
+	}
+
+	/*package*/ void notifyError(final CameraSession session, final Exception e) {
+		final SessionListener listener = mListener;
+		if (listener != null) {
+			try {
+				listener.onError(session, e);
+			} catch (final RuntimeException e1) {
+				// ignore
+			}
+		}
+	}
+}
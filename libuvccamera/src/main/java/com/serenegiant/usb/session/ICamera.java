@@ -0,0 +1,62 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ICamera.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import com.serenegiant.usb.IFrameCallback;
+
+/**
+ * Camera that CameraSession controls.
+ * UVCCameraFactory provides the implementation with UVCCamera, unit tests use FakeCamera that runs on JVM without devices.
+ * All methods are called on the thread of the session that owns the camera.
+ */
+public interface ICamera {
+	/**
+	 * connect to the camera
+	 * @throws RuntimeException if the camera can not be opened
+	 */
+	public void open();
+	/**
+	 * @param width
+	 * @param height
+	 * @param mode 0:YUYV, other:MJPEG
+	 * @param bandwidth [0.0f,1.0f], the ratio of maximum payload size that the camera requests
+	 * @throws IllegalArgumentException if the camera does not support the size
+	 */
+	public void setPreviewSize(int width, int height, int mode, float bandwidth);
+	/**
+	 * @param surface Surface, SurfaceTexture or SurfaceHolder, null to clear
+	 */
+	public void setPreviewTarget(Object surface);
+	/**
+	 * @param callback null to clear
+	 * @param pixelFormat UVCCamera#PIXEL_FORMAT_XXX
+	 */
+	public void setFrameCallback(IFrameCallback callback, int pixelFormat);
+	public void startPreview();
+	public void stopPreview();
+	/**
+	 * close the camera and release all related resources, the camera is not used after this call
+	 */
+	public void destroy();
+}
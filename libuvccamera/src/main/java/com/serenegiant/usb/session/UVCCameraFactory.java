@@ -0,0 +1,151 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: UVCCameraFactory.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.SurfaceTexture;
+import android.os.Looper;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.serenegiant.usb.CapabilityCache;
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.USBMonitor.UsbControlBlock;
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * CameraFactory that creates ICamera with UVCCamera,
+ * the device passed to CameraSessionManager#openSession should be USBMonitor.UsbControlBlock.
+ */
+public class UVCCameraFactory implements CameraSessionManager.CameraFactory {
+	private final CapabilityCache mCapabilityCache;
+
+	public UVCCameraFactory() {
+		this(null);
+	}
+
+	/**
+	 * @param cache persistent cache of capabilities that is shared by all cameras, can be null
+	 */
+	public UVCCameraFactory(final CapabilityCache cache) {
+		mCapabilityCache = cache;
+	}
+
+	/**
+	 * @param ctrlBlock
+	 * @return key of the camera for CameraSessionManager#openSession
+	 */
+	public static String getKey(final UsbControlBlock ctrlBlock) {
+		return ctrlBlock.getDeviceName();
+	}
+
+	/**
+	 * convert supported sizes of the camera to candidates of BandwidthPlanner
+	 * @param supportedSize UVCCamera#getSupportedSize
+	 * @param frameRate frame rate of all candidates, e.g. BandwidthPlanner#DEFAULT_FRAME_RATE
+	 * @return
+	 */
+	public static List<BandwidthPlanner.Candidate> getCandidates(final String supportedSize, final int frameRate) {
+		final List<BandwidthPlanner.Candidate> result = new ArrayList<BandwidthPlanner.Candidate>();
+		addCandidates(UVCCamera.getSupportedSize(4, supportedSize), UVCCamera.FRAME_FORMAT_YUYV, frameRate, result);
+		addCandidates(UVCCamera.getSupportedSize(6, supportedSize), UVCCamera.FRAME_FORMAT_MJPEG, frameRate, result);
+		return result;
+	}
+
+	private static void addCandidates(final List<Size> sizes, final int format, final int frameRate,
+		final List<BandwidthPlanner.Candidate> result) {
+
+		for (final Size size: sizes) {
+			result.add(new BandwidthPlanner.Candidate(format, size.width, size.height, frameRate));
+		}
+	}
+
+	@Override
+	public ICamera createCamera(final Object device) {
+		if (!(device instanceof UsbControlBlock))
+			throw new IllegalArgumentException("device should be UsbControlBlock:" + device);
+		if (Looper.myLooper() == null) {
+			// UVCCamera should be created on the thread that has a looper
+			Looper.prepare();
+		}
+		return new UVCCameraWrapper((UsbControlBlock)device, mCapabilityCache);
+	}
+
+	private static final class UVCCameraWrapper implements ICamera {
+		private final UsbControlBlock mCtrlBlock;
+		private final UVCCamera mCamera;
+
+		private UVCCameraWrapper(final UsbControlBlock ctrlBlock, final CapabilityCache cache) {
+			mCtrlBlock = ctrlBlock;
+			mCamera = new UVCCamera();
+			mCamera.setCapabilityCache(cache);
+		}
+
+		@Override
+		public void open() {
+			mCamera.open(mCtrlBlock);
+		}
+
+		@Override
+		public void setPreviewSize(final int width, final int height, final int mode, final float bandwidth) {
+			mCamera.setPreviewSize(width, height, mode, bandwidth);
+		}
+
+		@Override
+		public void setPreviewTarget(final Object surface) {
+			if (surface instanceof SurfaceHolder) {
+				mCamera.setPreviewDisplay((SurfaceHolder)surface);
+			} else if (surface instanceof SurfaceTexture) {
+				mCamera.setPreviewTexture((SurfaceTexture)surface);
+			} else if ((surface == null) || (surface instanceof Surface)) {
+				mCamera.setPreviewDisplay((Surface)surface);
+			} else {
+				throw new IllegalArgumentException("unsupported surface:" + surface);
+			}
+		}
+
+		@Override
+		public void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
+			mCamera.setFrameCallback(callback, pixelFormat);
+		}
+
+		@Override
+		public void startPreview() {
+			mCamera.startPreview();
+		}
+
+		@Override
+		public void stopPreview() {
+			mCamera.stopPreview();
+		}
+
+		@Override
+		public void destroy() {
+			mCamera.destroy();
+		}
+	}
+}
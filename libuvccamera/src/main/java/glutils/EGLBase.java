@@ -29,6 +29,7 @@ import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
 import android.os.Build;
 import android.util.Log;
@@ -77,6 +78,15 @@ public class EGLBase {	// API >= 17
 			mEgl.swap(mEglSurface);
 		}
 
+		/**
+		 * set presentation time of the frame that will be swapped next,
+		 * this is passed to MediaCodec as presentation time when this surface is an input of encoder
+		 * @param presentationTimeNs
+		 */
+		public void setPresentationTime(final long presentationTimeNs) {
+			mEgl.setPresentationTime(mEglSurface, presentationTimeNs);
+		}
+
 		public EGLContext getContext() {
 			return mEgl.getContext();
 		}
@@ -187,6 +197,12 @@ public class EGLBase {	// API >= 17
         }
 	}
 
+	private void setPresentationTime(final EGLSurface surface, final long presentationTimeNs) {
+		if (!EGLExt.eglPresentationTimeANDROID(mEglDisplay, surface, presentationTimeNs)) {	// API >= 18
+        	if (DEBUG) Log.w(TAG, "setPresentationTime:err=" + EGL14.eglGetError());
+		}
+	}
+
 	private int swap(final EGLSurface surface) {
 //		if (DEBUG) Log.v(TAG, "swap:");
         if (!EGL14.eglSwapBuffers(mEglDisplay, surface)) {
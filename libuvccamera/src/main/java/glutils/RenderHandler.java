@@ -43,6 +43,7 @@ public final class RenderHandler implements Runnable {
     private Object mSurface;
 	private int mTexId = -1;
 	private float[] mTexMatrix;
+	private long mPresentationTimeNs;
 
 	private boolean mRequestSetEglContext;
 	private boolean mRequestRelease;
@@ -93,10 +94,23 @@ public final class RenderHandler implements Runnable {
 	}
 
 	public final void draw(final int tex_id, final float[] tex_matrix) {
+		draw(tex_id, tex_matrix, 0);
+	}
+
+	/**
+	 * @param tex_matrix
+	 * @param presentationTimeNs presentation time of this frame, zero to use the time of swapping buffer
+	 */
+	public final void draw(final float[] tex_matrix, final long presentationTimeNs) {
+		draw(mTexId, tex_matrix, presentationTimeNs);
+	}
+
+	public final void draw(final int tex_id, final float[] tex_matrix, final long presentationTimeNs) {
 		synchronized (mSync) {
 			if (mRequestRelease) return;
 			mTexId = tex_id;
 			mTexMatrix = tex_matrix;
+			mPresentationTimeNs = presentationTimeNs;
 			mRequestDraw++;
 			mSync.notifyAll();
 			try {
@@ -143,6 +157,7 @@ public final class RenderHandler implements Runnable {
 		}
         boolean isRunning = true;
         boolean localRequestDraw;
+        long presentationTimeNs = 0;
         while (isRunning) {
         	synchronized (mSync) {
         		if (mRequestRelease) break;
@@ -151,13 +166,17 @@ public final class RenderHandler implements Runnable {
 	        		internalPrepare();
 	        	}
 	        	localRequestDraw = mRequestDraw > 0;
-	        	if (localRequestDraw)
+	        	if (localRequestDraw) {
 	        		mRequestDraw--;
+	        		presentationTimeNs = mPresentationTimeNs;
+	        	}
         	}
         	if (localRequestDraw) {
         		if ((mEgl != null) && mTexId >= 0) {
             		mInputSurface.makeCurrent();
             		mDrawer.draw(mTexId, mTexMatrix);
+            		if (presentationTimeNs > 0)
+            			mInputSurface.setPresentationTime(presentationTimeNs);
             		mInputSurface.swap();
         		}
         		synchronized (mSync) {
@@ -0,0 +1,56 @@
+package widget;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BitmapAllocator.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import android.graphics.Bitmap;
+
+import com.serenegiant.usb.PixelBufferPool;
+
+/**
+ * allocate Bitmaps of the same size for PixelBufferPool
+ */
+public class BitmapAllocator implements PixelBufferPool.Allocator<Bitmap> {
+	private final int mWidth, mHeight;
+	private final Bitmap.Config mConfig;
+
+	public BitmapAllocator(final int width, final int height) {
+		this(width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	public BitmapAllocator(final int width, final int height, final Bitmap.Config config) {
+		mWidth = width;
+		mHeight = height;
+		mConfig = config;
+	}
+
+	@Override
+	public Bitmap allocate() {
+		return Bitmap.createBitmap(mWidth, mHeight, mConfig);
+	}
+
+	@Override
+	public void free(final Bitmap buffer) {
+		buffer.recycle();
+	}
+}
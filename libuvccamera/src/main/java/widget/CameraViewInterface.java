@@ -26,12 +26,25 @@ package widget;
 import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 
+import com.serenegiant.usb.PixelBufferPool;
+import com.serenegiant.usb.StillCapturePipeline;
 import com.serenegiant.usb.encoder.MediaEncoder;
 
 
-public interface CameraViewInterface extends AspectRatioViewInterface {
+/**
+ * view that shows camera preview, it also works as StillCapturePipeline.Grabber
+ * that grabs preview image as a Bitmap without blocking the caller
+ */
+public interface CameraViewInterface extends AspectRatioViewInterface, StillCapturePipeline.Grabber<Bitmap> {
 	public SurfaceTexture getSurfaceTexture();
 	public boolean hasSurface();
 	public void setVideoEncoder(final MediaEncoder encoder);
 	public Bitmap captureStillImage();
+	/**
+	 * set pool of Bitmaps that #grab copies preview image into,
+	 * #grab allocates a new Bitmap for each request if this is not set.
+	 * set this before starting capture, Bitmaps from the previous pool are recycled when they are returned.
+	 * @param pool null to clear
+	 */
+	public void setStillImagePool(final PixelBufferPool<Bitmap> pool);
 }
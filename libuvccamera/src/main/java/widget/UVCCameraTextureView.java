@@ -33,6 +33,10 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.view.TextureView;
 
+import java.util.ArrayDeque;
+
+import com.serenegiant.usb.PixelBufferPool;
+import com.serenegiant.usb.StillCapturePipeline;
 import com.serenegiant.usb.encoder.MediaEncoder;
 import com.serenegiant.usb.encoder.MediaVideoEncoder;
 
@@ -58,6 +62,12 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
     private final Object mCaptureSync = new Object();
     private Bitmap mTempBitmap;
     private boolean mReqesutCaptureStillImage;
+	/**
+	 * requests from StillCapturePipeline, one request is served on each frame
+	 */
+	private final ArrayDeque<StillCapturePipeline.GrabCallback<Bitmap>> mGrabRequests
+		= new ArrayDeque<StillCapturePipeline.GrabCallback<Bitmap>>();
+	private volatile PixelBufferPool<Bitmap> mStillImagePool;
 
 	public UVCCameraTextureView(final Context context) {
 		this(context, null, 0);
@@ -91,6 +101,7 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
 			mTempBitmap.recycle();
 			mTempBitmap = null;
 		}
+		cancelGrabRequests();
 	}
 
 	@Override
@@ -157,11 +168,13 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
 			mRenderHandler = null;
 		}
 		mHasSurface = false;
+		cancelGrabRequests();
 		return true;
 	}
 
 	@Override
 	public void onSurfaceTextureUpdated(final SurfaceTexture surface) {
+		final StillCapturePipeline.GrabCallback<Bitmap> request;
 		synchronized (mCaptureSync) {
 			if (mReqesutCaptureStillImage) {
 				mReqesutCaptureStillImage = false;
@@ -171,6 +184,24 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
 					getBitmap(mTempBitmap);
 				mCaptureSync.notifyAll();
 			}
+			request = mGrabRequests.poll();
+		}
+		if (request != null) {
+			// only copying pixels runs on UI thread, encoding and writing run on StillCapturePipeline
+			final PixelBufferPool<Bitmap> pool = mStillImagePool;
+			final Bitmap bitmap;
+			if (pool != null) {
+				bitmap = pool.acquire();
+				if (bitmap != null)
+					getBitmap(bitmap);
+			} else {
+				bitmap = getBitmap();
+			}
+			if (bitmap != null)
+				request.onGrabbed(bitmap);
+			else
+				request.onError(new IllegalStateException(
+					pool != null ? "pixel buffer pool exhausted" : "failed to get bitmap"));
 		}
 	}
 
@@ -181,7 +212,8 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
 
 	/**
 	 * capture preview image as a bitmap
-	 * this method blocks current thread until bitmap is ready
+	 * this method blocks current thread until bitmap is ready,
+	 * use StillCapturePipeline with this view as Grabber not to block the camera thread
 	 * if you call this method at almost same time from different thread,
 	 * the returned bitmap will be changed while you are processing the bitmap
 	 * (because we return same instance of bitmap on each call for memory saving)
@@ -200,6 +232,45 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
 		}
 	}
 
+	/**
+	 * request preview image of the next frame as a Bitmap without blocking,
+	 * each request gets its own Bitmap so requests from multiple threads do not interfere
+	 * @param callback called on UI thread
+	 */
+	@Override
+	public void grab(final StillCapturePipeline.GrabCallback<Bitmap> callback) {
+		synchronized (mCaptureSync) {
+			if (mHasSurface) {
+				mGrabRequests.add(callback);
+				return;
+			}
+		}
+		callback.onError(new IllegalStateException("surface is not available"));
+	}
+
+	@Override
+	public void recycle(final Bitmap pixels) {
+		final PixelBufferPool<Bitmap> pool = mStillImagePool;
+		if ((pool == null) || !pool.recycle(pixels))
+			pixels.recycle();
+	}
+
+	@Override
+	public void setStillImagePool(final PixelBufferPool<Bitmap> pool) {
+		mStillImagePool = pool;
+	}
+
+	private void cancelGrabRequests() {
+		final StillCapturePipeline.GrabCallback<?>[] requests;
+		synchronized (mCaptureSync) {
+			requests = mGrabRequests.toArray(new StillCapturePipeline.GrabCallback<?>[mGrabRequests.size()]);
+			mGrabRequests.clear();
+		}
+		for (final StillCapturePipeline.GrabCallback<?> request: requests) {
+			request.onError(new IllegalStateException("surface was destroyed"));
+		}
+	}
+
 	@Override
 	public SurfaceTexture getSurfaceTexture() {
 		return mRenderHandler != null ? mRenderHandler.getPreviewTexture() : super.getSurfaceTexture();
@@ -386,7 +457,8 @@ public class UVCCameraTextureView extends TextureView	// API >= 14
 				if (mEncoder != null) {
 					// notify to capturing thread that the camera frame is available.
 					if (mEncoder instanceof MediaVideoEncoder)
-						((MediaVideoEncoder)mEncoder).frameAvailableSoon(mStMatrix);
+						// pass capture time of the frame to keep frame pacing of the movie
+						((MediaVideoEncoder)mEncoder).frameAvailableSoon(mStMatrix, mPreviewSurface.getTimestamp());
 					else
 						mEncoder.frameAvailableSoon();
 				}
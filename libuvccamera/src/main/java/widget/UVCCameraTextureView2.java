@@ -29,7 +29,10 @@ import android.graphics.SurfaceTexture;
 import android.util.AttributeSet;
 import android.view.TextureView;
 
+import com.serenegiant.usb.PixelBufferPool;
+import com.serenegiant.usb.StillCapturePipeline;
 import com.serenegiant.usb.encoder.MediaEncoder;
+import com.serenegiant.usb.encoder.MediaVideoEncoder;
 
 
 /**
@@ -47,6 +50,7 @@ public class UVCCameraTextureView2 extends TextureView	// API >= 14
 	private double mRequestedAspect = -1.0;
 	private boolean mHasSurface;
 	private MediaEncoder mEncoder;
+	private volatile PixelBufferPool<Bitmap> mStillImagePool;
 
 	public UVCCameraTextureView2(final Context context) {
 		this(context, null, 0);
@@ -130,7 +134,9 @@ public class UVCCameraTextureView2 extends TextureView	// API >= 14
 
 	@Override
 	public void onSurfaceTextureUpdated(final SurfaceTexture surface) {
-		if (mEncoder != null)
+		if (mEncoder instanceof MediaVideoEncoder)
+			((MediaVideoEncoder)mEncoder).frameAvailableSoon(null, surface.getTimestamp());
+		else if (mEncoder != null)
 			mEncoder.frameAvailableSoon();
 	}
 
@@ -149,4 +155,44 @@ public class UVCCameraTextureView2 extends TextureView	// API >= 14
 		return null;
 	}
 
+	@Override
+	public void grab(final StillCapturePipeline.GrabCallback<Bitmap> callback) {
+		// TextureView#getBitmap should be called on UI thread
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if (!mHasSurface) {
+					callback.onError(new IllegalStateException("surface is not available"));
+					return;
+				}
+				final PixelBufferPool<Bitmap> pool = mStillImagePool;
+				final Bitmap bitmap;
+				if (pool != null) {
+					bitmap = pool.acquire();
+					if (bitmap != null)
+						getBitmap(bitmap);
+				} else {
+					bitmap = getBitmap();
+				}
+				if (bitmap != null)
+					callback.onGrabbed(bitmap);
+				else
+					callback.onError(new IllegalStateException(
+						pool != null ? "pixel buffer pool exhausted" : "failed to get bitmap"));
+			}
+		});
+	}
+
+	@Override
+	public void recycle(final Bitmap pixels) {
+		final PixelBufferPool<Bitmap> pool = mStillImagePool;
+		if ((pool == null) || !pool.recycle(pixels))
+			pixels.recycle();
+	}
+
+	@Override
+	public void setStillImagePool(final PixelBufferPool<Bitmap> pool) {
+		mStillImagePool = pool;
+	}
+
 }
@@ -377,6 +377,35 @@ char *UVCDiags::getSupportedSize(const uvc_device_handle_t *deviceHandle) {
 								writer.String(buf);
 							}
 							writer.EndArray();
+							// frame descriptors with frame intervals, "size" is kept for backward compatibility
+							writer.String("frames");
+							writer.StartArray();
+							DL_FOREACH(fmt_desc->frame_descs, frame_desc)
+							{
+								writer.StartObject();
+								{
+									write(writer, "index", frame_desc->bFrameIndex);
+									write(writer, "width", frame_desc->wWidth);
+									write(writer, "height", frame_desc->wHeight);
+									write(writer, "defaultInterval", frame_desc->dwDefaultFrameInterval);
+									if (frame_desc->intervals) {
+										// discrete frame intervals in 100ns units
+										writer.String("intervals");
+										writer.StartArray();
+										for (uint32_t *interval = frame_desc->intervals; *interval; ++interval) {
+											writer.Uint(*interval);
+										}
+										writer.EndArray();
+									} else {
+										// continuous frame intervals
+										write(writer, "minInterval", frame_desc->dwMinFrameInterval);
+										write(writer, "maxInterval", frame_desc->dwMaxFrameInterval);
+										write(writer, "intervalStep", frame_desc->dwFrameIntervalStep);
+									}
+								}
+								writer.EndObject();
+							}
+							writer.EndArray();
 							break;
 						default:
 							break;
@@ -158,11 +158,12 @@ int UVCPreview::setPreviewSize(int width, int height, int mode, float bandwidth)
 	ENTER();
 	
 	int result = 0;
+	// bandwidth is applied on next start of streaming even if the size and the mode are same
+	requestBandwidth = bandwidth;
 	if ((requestWidth != width) || (requestHeight != height) || (requestMode != mode)) {
 		requestWidth = width;
 		requestHeight = height;
 		requestMode = mode;
-		requestBandwidth = bandwidth;
 
 		uvc_stream_ctrl_t ctrl;
 		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
@@ -514,15 +515,29 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 			for ( ; LIKELY(isRunning()) ; ) {
 				frame_mjpeg = waitPreviewFrame();
 				if (LIKELY(frame_mjpeg)) {
+					// with PIXEL_FORMAT_RAW, IFrameCallback receives MJPEG data as is
+					const bool passthrough = mFrameCallbackObj && (mPixelFormat == PIXEL_FORMAT_RAW) && !mCaptureWindow;
+					if (passthrough && !mPreviewWindow) {
+						// nothing to draw, skip decoding
+						addCaptureFrame(frame_mjpeg);
+						continue;
+					}
 					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
 					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-					recycle_frame(frame_mjpeg);
 					if (LIKELY(!result)) {
 						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+						if (passthrough) {
+							recycle_frame(frame);
+							frame = frame_mjpeg;
+							frame_mjpeg = NULL;
+						}
 						addCaptureFrame(frame);
 					} else {
 						recycle_frame(frame);
 					}
+					if (frame_mjpeg) {
+						recycle_frame(frame_mjpeg);
+					}
 				}
 			}
 		} else {
@@ -849,7 +864,10 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 					goto SKIP;
 				}
 			}
-			jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
+			// MJPEG frame(PIXEL_FORMAT_RAW in MJPEG mode) has variable length
+			const size_t bytes = callback_frame->frame_format == UVC_FRAME_FORMAT_MJPEG
+				? callback_frame->data_bytes : callbackPixelBytes;
+			jobject buf = env->NewDirectByteBuffer(callback_frame->data, bytes);
 			env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
 			env->ExceptionClear();
 			env->DeleteLocalRef(buf);
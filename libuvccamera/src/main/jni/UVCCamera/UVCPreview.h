@@ -40,7 +40,7 @@
 
 typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
 
-#define PIXEL_FORMAT_RAW 0		// same as PIXEL_FORMAT_YUV
+#define PIXEL_FORMAT_RAW 0		// same as PIXEL_FORMAT_YUV in YUYV mode, MJPEG data as is in MJPEG mode
 #define PIXEL_FORMAT_YUV 1
 #define PIXEL_FORMAT_RGB565 2
 #define PIXEL_FORMAT_RGBX 3
@@ -273,6 +273,44 @@ static jlong nativeGetProcSupports(JNIEnv *env, jobject thiz,
 	RETURN(result, jlong);
 }
 
+#define LIMITS_NUM 30
+#define GET_LIMIT(IX,FUNC) \
+	if (!camera->FUNC(min, max, def)) { \
+		limits[IX * 3] = min; \
+		limits[IX * 3 + 1] = max; \
+		limits[IX * 3 + 2] = def; \
+	}
+
+/**
+ * read min/max/default of all controls into the array without writing Java fields,
+ * so that the caller does not need to hold the lock of UVCCamera while control transfers.
+ * the order is same as CapabilityCache#CONTROL_XXX and the values of unsupported controls are 0.
+ */
+static jint nativeGetLimits(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray limits_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && limits_array && (env->GetArrayLength(limits_array) >= LIMITS_NUM))) {
+		jint limits[LIMITS_NUM] = { 0 };
+		int min, max, def;
+		GET_LIMIT(0, updateBrightnessLimit);
+		GET_LIMIT(1, updateContrastLimit);
+		GET_LIMIT(2, updateSharpnessLimit);
+		GET_LIMIT(3, updateGainLimit);
+		GET_LIMIT(4, updateGammaLimit);
+		GET_LIMIT(5, updateSaturationLimit);
+		GET_LIMIT(6, updateHueLimit);
+		GET_LIMIT(7, updateZoomLimit);
+		GET_LIMIT(8, updateWhiteBlanceLimit);
+		GET_LIMIT(9, updateFocusLimit);
+		env->SetIntArrayRegion(limits_array, 0, LIMITS_NUM, limits);
+		result = 0;
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 static jint nativeSetExposureMode(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, int exposureMode) {
@@ -849,6 +887,7 @@ static JNINativeMethod methods[] = {
 
 	{ "nativeGetCtrlSupports",			"(J)J", (void *) nativeGetCtrlSupports },
 	{ "nativeGetProcSupports",			"(J)J", (void *) nativeGetProcSupports },
+	{ "nativeGetLimits",				"(J[I)I", (void *) nativeGetLimits },
 
 	{ "nativeSetExposureMode",			"(JI)I", (void *) nativeSetExposureMode },
 	{ "nativeGetExposureMode",			"(J)I", (void *) nativeGetExposureMode },
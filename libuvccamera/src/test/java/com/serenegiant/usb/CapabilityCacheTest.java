@@ -0,0 +1,102 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CapabilityCacheTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * CapabilityCache decides whether UVCCamera#open queries the camera again
+ */
+public class CapabilityCacheTest {
+	private static final byte[] DESCRIPTORS = { 0x12, 0x01, 0x00, 0x02 };
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private static CapabilityCache.Capabilities createCapabilities(final int brightnessMax) {
+		final int[] limits = new int[CapabilityCache.CONTROL_NUM * 3];
+		limits[CapabilityCache.CONTROL_BRIGHTNESS * 3 + 1] = brightnessMax;
+		return new CapabilityCache.Capabilities("{\"formats\":[]}", 0x0aL, 0x05L, limits);
+	}
+
+	private int countFiles() {
+		final File[] files = mFolder.getRoot().listFiles();
+		return files != null ? files.length : 0;
+	}
+
+	@Test
+	public void keyContainsDescriptors() {
+		final String key = CapabilityCache.getKey(0x1234, 0x5678, "serial", DESCRIPTORS);
+		assertEquals(key, CapabilityCache.getKey(0x1234, 0x5678, "serial", DESCRIPTORS.clone()));
+		final byte[] updated = DESCRIPTORS.clone();
+		updated[3] = 0x03;
+		assertFalse(key.equals(CapabilityCache.getKey(0x1234, 0x5678, "serial", updated)));
+	}
+
+	@Test
+	public void loadedEntryIsNotValidated() {
+		final String key = CapabilityCache.getKey(0x1234, 0x5678, null, DESCRIPTORS);
+		final CapabilityCache cache = new CapabilityCache(mFolder.getRoot());
+		assertNull(cache.get(key));
+		assertFalse(cache.isValidated(key));
+		assertTrue(cache.put(key, createCapabilities(255)));
+		assertTrue(cache.isValidated(key));
+		// e.g. next launch of the app, the entry should be revalidated once
+		final CapabilityCache reloaded = new CapabilityCache(mFolder.getRoot());
+		assertEquals(createCapabilities(255), reloaded.get(key));
+		assertFalse(reloaded.isValidated(key));
+		assertTrue(reloaded.put(key, createCapabilities(255)));
+		assertTrue(reloaded.isValidated(key));
+		reloaded.remove(key);
+		assertFalse(reloaded.isValidated(key));
+		assertNull(reloaded.get(key));
+	}
+
+	@Test
+	public void sameEntryIsNotRewritten() {
+		final String key = CapabilityCache.getKey(0x1234, 0x5678, null, DESCRIPTORS);
+		final CapabilityCache cache = new CapabilityCache(mFolder.getRoot());
+		assertTrue(cache.put(key, createCapabilities(255)));
+		assertEquals(1, countFiles());
+		final File file = mFolder.getRoot().listFiles()[0];
+		assertTrue(file.delete());
+		// same capabilities, the file is not written
+		assertTrue(cache.put(key, createCapabilities(255)));
+		assertEquals(0, countFiles());
+		// changed capabilities are written
+		assertTrue(cache.put(key, createCapabilities(100)));
+		assertEquals(1, countFiles());
+		assertEquals(createCapabilities(100), new CapabilityCache(mFolder.getRoot()).get(key));
+	}
+}
@@ -0,0 +1,238 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FramePoolTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class FramePoolTest {
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int WARMUP_FRAMES = 10000;
+	private static final int FRAMES = 20000;
+	/**
+	 * allowance for the measurement itself, much smaller than one frame
+	 */
+	private static final long MAX_ALLOCATED_BYTES = 64 * 1024;
+
+	/**
+	 * synthetic frame producer that plays the role of the native library,
+	 * it passes the same direct buffer with new data on every frame like UVCPreview does
+	 */
+	private static final class SyntheticProducer {
+		private final ByteBuffer mNativeBuffer;
+		private final IFrameCallback mCallback;
+		private byte mValue;
+
+		private SyntheticProducer(final int frameBytes, final IFrameCallback callback) {
+			mNativeBuffer = ByteBuffer.allocateDirect(frameBytes);
+			mCallback = callback;
+		}
+
+		private void produce(final int frames) {
+			for (int i = 0; i < frames; i++) {
+				mNativeBuffer.clear();
+				mNativeBuffer.put(0, mValue++);
+				mCallback.onFrame(mNativeBuffer);
+			}
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadMXBean() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean)bean;
+		Assume.assumeTrue(result.isThreadAllocatedMemorySupported());
+		result.setThreadAllocatedMemoryEnabled(true);
+		return result;
+	}
+
+	@Test
+	public void frameSizeFromPixelFormat() {
+		assertEquals(WIDTH * HEIGHT * 2, FramePool.getFrameBytes(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_YUV));
+		assertEquals(WIDTH * HEIGHT * 3 / 2, FramePool.getFrameBytes(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21));
+		assertEquals(WIDTH * HEIGHT * 4, FramePool.getFrameBytes(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_RGBX));
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, 2);
+		final FramePool.Frame frame = pool.acquire();
+		assertEquals(WIDTH * HEIGHT * 3 / 2, frame.getBuffer().capacity());
+		assertTrue(frame.getBuffer().isDirect());
+		frame.release();
+	}
+
+	@Test
+	public void framesAreRecycled() {
+		final FramePool pool = new FramePool(4, 4, UVCCamera.PIXEL_FORMAT_YUV, 2);
+		final FramePool.Frame f1 = pool.acquire();
+		final FramePool.Frame f2 = pool.acquire();
+		assertNotNull(f1);
+		assertNotNull(f2);
+		// exhausted
+		assertNull(pool.acquire());
+		assertEquals(1, pool.getDropCount());
+		f1.release();
+		assertSame(f1, pool.acquire());
+		assertEquals(2, pool.getAllocatedCount());
+	}
+
+	@Test
+	public void retainedFrameIsNotRecycled() {
+		final FramePool pool = new FramePool(4, 4, UVCCamera.PIXEL_FORMAT_YUV, 1);
+		final FramePool.Frame frame = pool.acquire();
+		frame.retain();
+		frame.release();
+		assertEquals(1, frame.getRefCount());
+		assertNull(pool.acquire());
+		frame.release();
+		assertEquals(1, pool.getAvailableCount());
+		try {
+			frame.release();
+			fail("released too many times");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void tooLargeDataIsDropped() {
+		final FramePool pool = new FramePool(4, 4, UVCCamera.PIXEL_FORMAT_YUV, 1);
+		assertNull(pool.obtain(ByteBuffer.allocate(4 * 4 * 2 + 1)));
+		assertEquals(1, pool.getDropCount());
+	}
+
+	@Test
+	public void releasedPoolDiscardsFrames() {
+		final FramePool pool = new FramePool(4, 4, UVCCamera.PIXEL_FORMAT_YUV, 2);
+		final FramePool.Frame frame = pool.acquire();
+		pool.release();
+		frame.release();
+		assertNull(pool.acquire());
+	}
+
+	@Test
+	public void pooledCallbackCopiesFrame() {
+		final FramePool pool = new FramePool(4, 4, UVCCamera.PIXEL_FORMAT_YUV, 1);
+		final FramePool.Frame[] received = new FramePool.Frame[1];
+		final PooledFrameCallback callback = new PooledFrameCallback(pool, new IPooledFrameCallback() {
+			@Override
+			public void onFrame(final FramePool.Frame frame) {
+				assertEquals(1, frame.getRefCount());
+				received[0] = frame.retain();
+			}
+		});
+		final ByteBuffer data = ByteBuffer.allocateDirect(4 * 4 * 2);
+		data.put(0, (byte)123);
+		callback.onFrame(data);
+		final FramePool.Frame frame = received[0];
+		assertNotNull(frame);
+		assertEquals(4 * 4 * 2, frame.getBuffer().remaining());
+		assertEquals(123, frame.getBuffer().get(0));
+		// retained by the consumer, so the next frame is dropped
+		received[0] = null;
+		callback.onFrame(data);
+		assertNull(received[0]);
+		assertEquals(1, pool.getDropCount());
+		frame.release();
+	}
+
+	/**
+	 * frames are processed on the callback thread, there should be no allocation after warm up
+	 */
+	@Test
+	public void steadyStateIsAllocationFree() {
+		final com.sun.management.ThreadMXBean bean = getThreadMXBean();
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, 4);
+		final long[] checksum = new long[1];
+		final SyntheticProducer producer = new SyntheticProducer(pool.getFrameBytes(),
+			new PooledFrameCallback(pool, new IPooledFrameCallback() {
+				@Override
+				public void onFrame(final FramePool.Frame frame) {
+					checksum[0] += frame.getBuffer().get(0);
+				}
+			}));
+		producer.produce(WARMUP_FRAMES);
+		final long threadId = Thread.currentThread().getId();
+		final long before = bean.getThreadAllocatedBytes(threadId);
+		producer.produce(FRAMES);
+		final long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+		assertTrue("allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+		assertEquals(1, pool.getAllocatedCount());
+		assertEquals(0, pool.getDropCount());
+	}
+
+	/**
+	 * frames are retained on the callback thread and released on a worker thread,
+	 * neither thread should allocate after warm up
+	 */
+	@Test
+	public void handOffToWorkerIsAllocationFree() throws InterruptedException {
+		final com.sun.management.ThreadMXBean bean = getThreadMXBean();
+		final int queueSize = 8;
+		// queued frames, the frame on the worker and the frame on the callback thread, so no frame is dropped
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, queueSize + 2);
+		final FrameRingBuffer<FramePool.Frame> queue
+			= new FrameRingBuffer<FramePool.Frame>(queueSize, false, FrameRingBuffer.WAIT_YIELD);
+		final long[] workerAllocated = new long[1];
+		final Thread worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final long threadId = Thread.currentThread().getId();
+				long before = 0;
+				for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+					if (i == WARMUP_FRAMES)
+						before = bean.getThreadAllocatedBytes(threadId);
+					queue.take(Long.MAX_VALUE).release();
+				}
+				workerAllocated[0] = bean.getThreadAllocatedBytes(threadId) - before;
+			}
+		}, "FramePoolTest");
+		worker.start();
+		final SyntheticProducer producer = new SyntheticProducer(pool.getFrameBytes(),
+			new PooledFrameCallback(pool, new IPooledFrameCallback() {
+				@Override
+				public void onFrame(final FramePool.Frame frame) {
+					queue.put(frame.retain(), Long.MAX_VALUE);
+				}
+			}));
+		producer.produce(WARMUP_FRAMES);
+		final long threadId = Thread.currentThread().getId();
+		final long before = bean.getThreadAllocatedBytes(threadId);
+		producer.produce(FRAMES);
+		final long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+		worker.join();
+		assertTrue("producer allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+		assertTrue("worker allocated " + workerAllocated[0] + " bytes", workerAllocated[0] < MAX_ALLOCATED_BYTES);
+		assertEquals(0, pool.getDropCount());
+		assertEquals(queueSize + 2, pool.getAvailableCount());
+	}
+}
@@ -0,0 +1,265 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameRingBufferTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FrameRingBufferTest {
+	private static final int[] STRATEGIES = {
+		FrameRingBuffer.WAIT_BUSY_SPIN, FrameRingBuffer.WAIT_YIELD, FrameRingBuffer.WAIT_PARK,
+	};
+	private static final long TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(20);
+
+	@Test
+	public void capacityIsRoundedUpToPowerOf2() {
+		// a single slot can not tell a published element from a free slot
+		assertEquals(2, new FrameRingBuffer<Object>(1, false, FrameRingBuffer.WAIT_YIELD).capacity());
+		assertEquals(2, new FrameRingBuffer<Object>(2, false, FrameRingBuffer.WAIT_YIELD).capacity());
+		assertEquals(4, new FrameRingBuffer<Object>(3, false, FrameRingBuffer.WAIT_YIELD).capacity());
+		assertEquals(8, new FrameRingBuffer<Object>(5, true, FrameRingBuffer.WAIT_YIELD).capacity());
+		assertEquals(64, new FrameRingBuffer<Object>(64, true, FrameRingBuffer.WAIT_YIELD).capacity());
+		assertEquals(128, new FrameRingBuffer<Object>(65, false, FrameRingBuffer.WAIT_YIELD).capacity());
+	}
+
+	@Test
+	public void invalidArguments() {
+		final int[][] args = {{0, FrameRingBuffer.WAIT_YIELD}, {-1, FrameRingBuffer.WAIT_YIELD},
+			{(1 << 30) + 1, FrameRingBuffer.WAIT_YIELD}, {4, -1}, {4, FrameRingBuffer.WAIT_PARK + 1}};
+		for (final int[] arg: args) {
+			try {
+				new FrameRingBuffer<Object>(arg[0], false, arg[1]);
+				fail("capacity=" + arg[0] + ",waitStrategy=" + arg[1] + " should throw");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			new FrameRingBuffer<Object>(4, false, FrameRingBuffer.WAIT_YIELD).offer(null);
+			fail("null should throw");
+		} catch (final NullPointerException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void fullAndEmpty() {
+		for (final boolean multiProducer: new boolean[] {false, true}) {
+			final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(3, multiProducer, FrameRingBuffer.WAIT_YIELD);
+			assertTrue(ring.isEmpty());
+			assertNull(ring.poll());
+			for (int i = 0; i < 4; i++) {
+				assertTrue(ring.offer(i));
+				assertEquals(i + 1, ring.size());
+			}
+			assertFalse(ring.offer(4));
+			assertEquals(4, ring.size());
+			assertEquals(0, (int)ring.poll());
+			// a slot is free again
+			assertTrue(ring.offer(4));
+			assertFalse(ring.offer(5));
+			for (int i = 1; i <= 4; i++) {
+				assertEquals(i, (int)ring.poll());
+			}
+			assertNull(ring.poll());
+			assertTrue(ring.isEmpty());
+		}
+	}
+
+	/**
+	 * element that was not polled yet should not be overwritten, even with the smallest capacity
+	 */
+	@Test
+	public void smallestCapacity() {
+		final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(1, false, FrameRingBuffer.WAIT_YIELD);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(ring.offer(i * 2));
+			assertTrue(ring.offer(i * 2 + 1));
+			assertFalse(ring.offer(-1));
+			assertEquals(i * 2, (int)ring.poll());
+			assertEquals(i * 2 + 1, (int)ring.poll());
+			assertNull(ring.poll());
+		}
+	}
+
+	@Test
+	public void wrapAround() {
+		for (final boolean multiProducer: new boolean[] {false, true}) {
+			final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(4, multiProducer, FrameRingBuffer.WAIT_YIELD);
+			int next = 0, expected = 0;
+			// 1 to 4 elements at a time, so the head and the tail go around the slots in many phases
+			for (int lap = 0; lap < 100000; lap++) {
+				final int n = 1 + (lap % 4);
+				for (int i = 0; i < n; i++) {
+					assertTrue(ring.offer(next++));
+				}
+				for (int i = 0; i < n; i++) {
+					assertEquals(expected++, (int)ring.poll());
+				}
+				assertNull(ring.poll());
+			}
+		}
+	}
+
+	@Test
+	public void clear() {
+		final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(8, false, FrameRingBuffer.WAIT_YIELD);
+		for (int i = 0; i < 5; i++) ring.offer(i);
+		assertEquals(5, ring.clear());
+		assertTrue(ring.isEmpty());
+		assertTrue(ring.offer(5));
+		assertEquals(5, (int)ring.poll());
+	}
+
+	@Test
+	public void takeTimeout() {
+		for (final int strategy: STRATEGIES) {
+			final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(2, false, strategy);
+			final long start = System.nanoTime();
+			assertNull(ring.take(TIMEOUT_NS));
+			assertTrue("strategy " + strategy, System.nanoTime() - start >= TIMEOUT_NS);
+		}
+	}
+
+	@Test
+	public void putTimeout() {
+		for (final int strategy: STRATEGIES) {
+			final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(2, false, strategy);
+			assertTrue(ring.put(0, TIMEOUT_NS));
+			assertTrue(ring.put(1, TIMEOUT_NS));
+			final long start = System.nanoTime();
+			assertFalse(ring.put(2, TIMEOUT_NS));
+			assertTrue("strategy " + strategy, System.nanoTime() - start >= TIMEOUT_NS);
+			assertEquals(0, (int)ring.poll());
+			assertEquals(1, (int)ring.poll());
+			assertNull(ring.poll());
+		}
+	}
+
+	/**
+	 * take/put return as soon as the other thread offers/polls
+	 */
+	@Test
+	public void waitIsWokenUp() throws InterruptedException {
+		for (final int strategy: STRATEGIES) {
+			final FrameRingBuffer<Integer> ring = new FrameRingBuffer<Integer>(2, false, strategy);
+			final CountDownLatch taken = new CountDownLatch(1);
+			final Thread consumer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					if (ring.take(TimeUnit.SECONDS.toNanos(10)) != null)
+						taken.countDown();
+				}
+			});
+			consumer.start();
+			Thread.sleep(5);
+			assertTrue(ring.put(1, TIMEOUT_NS));
+			assertTrue("strategy " + strategy, taken.await(10, TimeUnit.SECONDS));
+			consumer.join();
+
+			assertTrue(ring.offer(2));
+			assertTrue(ring.offer(3));
+			assertFalse(ring.offer(4));
+			final Thread poller = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(5);
+					} catch (final InterruptedException e) {
+						// ignore
+					}
+					ring.poll();
+				}
+			});
+			poller.start();
+			assertTrue("strategy " + strategy, ring.put(4, TimeUnit.SECONDS.toNanos(10)));
+			poller.join();
+			assertEquals(3, (int)ring.poll());
+			assertEquals(4, (int)ring.poll());
+			assertNull(ring.poll());
+		}
+	}
+
+	@Test
+	public void singleProducerStress() throws InterruptedException {
+		stress(1, 200000, false, FrameRingBuffer.WAIT_YIELD);
+	}
+
+	@Test
+	public void multiProducerStress() throws InterruptedException {
+		for (final int strategy: STRATEGIES) {
+			// busy spinning threads only progress in their own time slice when there are fewer cores
+			stress(4, strategy == FrameRingBuffer.WAIT_BUSY_SPIN ? 2000 : 50000, true, strategy);
+		}
+	}
+
+	/**
+	 * producers put (producer index, sequence) pairs and the consumer checks
+	 * that each producer's elements arrive once and in order
+	 */
+	private static void stress(final int producers, final int perProducer,
+		final boolean multiProducer, final int strategy) throws InterruptedException {
+
+		final FrameRingBuffer<long[]> ring = new FrameRingBuffer<long[]>(16, multiProducer, strategy);
+		final Thread[] threads = new Thread[producers];
+		final boolean[] failed = new boolean[producers];
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perProducer; i++) {
+						if (!ring.put(new long[] {producer, i}, TimeUnit.SECONDS.toNanos(10))) {
+							failed[producer] = true;
+							return;
+						}
+					}
+				}
+			}, "producer" + p);
+		}
+		for (final Thread thread: threads) thread.start();
+		final int[] next = new int[producers];
+		for (int n = 0; n < producers * perProducer; n++) {
+			final long[] element = ring.take(TimeUnit.SECONDS.toNanos(10));
+			assertTrue("timeout after " + n + " elements", element != null);
+			final int producer = (int)element[0];
+			assertEquals("producer " + producer, next[producer]++, element[1]);
+		}
+		for (final Thread thread: threads) thread.join();
+		for (int p = 0; p < producers; p++) {
+			assertFalse("producer " + p + " timed out", failed[p]);
+			assertEquals(perProducer, next[p]);
+		}
+		assertNull(ring.poll());
+	}
+}
@@ -0,0 +1,188 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameRingTransportTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FrameRingTransportTest {
+	private static final int WIDTH = 32;
+	private static final int HEIGHT = 16;
+
+	private static FramePool.Frame obtain(final FramePool pool, final int value) {
+		final ByteBuffer data = ByteBuffer.allocate(pool.getFrameBytes());
+		data.put(0, (byte)value);
+		return pool.obtain(data);
+	}
+
+	/**
+	 * send frames like PooledFrameCallback does, the frame is released after #onFrame returned
+	 */
+	private static void send(final FrameRingTransport transport, final FramePool pool, final int value) {
+		final FramePool.Frame frame = obtain(pool, value);
+		try {
+			transport.onFrame(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static void awaitCount(final FrameRingTransport transport, final long count) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while ((transport.getDeliveredCount() + transport.getFailedCount() < count)
+			&& (System.nanoTime() < deadline)) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void framesAreDeliveredInOrder() throws InterruptedException {
+		final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final FrameRingTransport transport = new FrameRingTransport("consumer", new FrameDispatcher.FrameConsumer() {
+			@Override
+			public void onFrame(final FramePool.Frame frame) {
+				values.add((int)frame.getBuffer().get(0));
+				threads.add(Thread.currentThread());
+			}
+		}, 4, FrameRingBuffer.WAIT_PARK);
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, transport.getRequiredFrames());
+		for (int i = 0; i < 100; i++) {
+			send(transport, pool, i);
+			// wait for the consumer while the queue is full so that no frame is dropped
+			while (transport.getQueuedCount() == 4) Thread.yield();
+		}
+		awaitCount(transport, 100 - transport.getDroppedCount());
+		transport.release();
+		assertEquals(0, transport.getDroppedCount());
+		assertEquals(100, transport.getDeliveredCount());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int)values.get(i));
+			assertEquals("consumer", threads.get(i).getName());
+		}
+		assertEquals(0, pool.getDropCount());
+		assertEquals(pool.getMaxFrames(), pool.getAvailableCount());
+	}
+
+	@Test
+	public void framesAreDroppedWhenFull() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch resume = new CountDownLatch(1);
+		final FrameRingTransport transport = new FrameRingTransport("slow", new FrameDispatcher.FrameConsumer() {
+			@Override
+			public void onFrame(final FramePool.Frame frame) {
+				blocked.countDown();
+				try {
+					resume.await();
+				} catch (final InterruptedException e) {
+					// ignore
+				}
+			}
+		}, 2, FrameRingBuffer.WAIT_YIELD);
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, 10);
+		send(transport, pool, 0);
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		// the consumer is processing frame 0, frame 1 and 2 are queued and the others are dropped
+		for (int i = 1; i < 6; i++) {
+			send(transport, pool, i);
+		}
+		assertEquals(2, transport.getQueuedCount());
+		assertEquals(3, transport.getDroppedCount());
+		resume.countDown();
+		awaitCount(transport, 3);
+		transport.release();
+		assertEquals(3, transport.getDeliveredCount());
+		assertEquals(pool.getMaxFrames(), pool.getAvailableCount());
+	}
+
+	@Test
+	public void failedConsumerKeepsRunning() throws InterruptedException {
+		final FrameRingTransport transport = new FrameRingTransport("failing", new FrameDispatcher.FrameConsumer() {
+			@Override
+			public void onFrame(final FramePool.Frame frame) {
+				if ((frame.getBuffer().get(0) & 1) != 0)
+					throw new IllegalStateException("odd frame");
+			}
+		}, 8, FrameRingBuffer.WAIT_PARK);
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, transport.getRequiredFrames());
+		for (int i = 0; i < 6; i++) {
+			send(transport, pool, i);
+		}
+		awaitCount(transport, 6);
+		transport.release();
+		assertEquals(3, transport.getDeliveredCount());
+		assertEquals(3, transport.getFailedCount());
+		assertEquals(pool.getMaxFrames(), pool.getAvailableCount());
+	}
+
+	@Test
+	public void releaseReleasesQueuedFrames() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch resume = new CountDownLatch(1);
+		final FrameRingTransport transport = new FrameRingTransport("release", new FrameDispatcher.FrameConsumer() {
+			@Override
+			public void onFrame(final FramePool.Frame frame) {
+				blocked.countDown();
+				try {
+					resume.await();
+				} catch (final InterruptedException e) {
+					// ignore
+				}
+			}
+		}, 4, FrameRingBuffer.WAIT_PARK);
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_NV21, transport.getRequiredFrames());
+		send(transport, pool, 0);
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		for (int i = 1; i < 4; i++) {
+			send(transport, pool, i);
+		}
+		assertEquals(3, transport.getQueuedCount());
+		final Thread releaser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				transport.release();
+			}
+		});
+		releaser.start();
+		resume.countDown();
+		releaser.join(10000);
+		// frames that were queued are released without delivering
+		assertEquals(pool.getMaxFrames(), pool.getAvailableCount());
+		assertTrue(transport.getDeliveredCount() <= 4);
+		// frames after release are ignored
+		send(transport, pool, 4);
+		assertEquals(0, transport.getQueuedCount());
+		assertEquals(pool.getMaxFrames(), pool.getAvailableCount());
+	}
+}
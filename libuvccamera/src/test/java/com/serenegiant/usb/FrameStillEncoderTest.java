@@ -0,0 +1,221 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FrameStillEncoderTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * passthrough of MJPEG frames, UVC cameras usually omit Huffman tables(DHT)
+ * so the encoder should insert the default tables to make a standalone JPEG.
+ * JPEG data are made by javax.imageio that writes the default tables of ISO/IEC 10918-1 Annex K.3.
+ */
+public class FrameStillEncoderTest {
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	/**
+	 * length of DHT segment with 4 default tables without marker
+	 */
+	private static final int DHT_LENGTH = 2 + 4 * (1 + 16) + 12 + 12 + 162 + 162;
+
+	private static BufferedImage createImage() {
+		final BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				result.setRGB(x, y, ((x * 4) << 16) | ((y * 5) << 8) | ((x + y) * 2));
+			}
+		}
+		return result;
+	}
+
+	private static byte[] createJpeg() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(ImageIO.write(createImage(), "jpeg", out));
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return offset of the first segment with the marker before SOS, -1 if not found
+	 */
+	private static int findSegment(final byte[] jpeg, final int marker) {
+		int pos = 2;
+		while (pos + 3 < jpeg.length) {
+			final int m = jpeg[pos + 1] & 0xff;
+			if (m == marker) return pos;
+			if (m == 0xda) break;
+			pos += 2 + (((jpeg[pos + 2] & 0xff) << 8) | (jpeg[pos + 3] & 0xff));
+		}
+		return -1;
+	}
+
+	/**
+	 * remove all of DHT segments like MJPEG payload from UVC camera
+	 */
+	private static byte[] removeDht(final byte[] jpeg) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(jpeg, 0, 2);
+		int pos = 2;
+		for ( ; ; ) {
+			final int marker = jpeg[pos + 1] & 0xff;
+			if (marker == 0xda) break;
+			final int length = 2 + (((jpeg[pos + 2] & 0xff) << 8) | (jpeg[pos + 3] & 0xff));
+			if (marker != 0xc4) {
+				out.write(jpeg, pos, length);
+			}
+			pos += length;
+		}
+		out.write(jpeg, pos, jpeg.length - pos);
+		return out.toByteArray();
+	}
+
+	private static FramePool.Frame createFrame(final byte[] data) {
+		final FramePool pool = new FramePool(WIDTH, HEIGHT, UVCCamera.PIXEL_FORMAT_RAW, 1);
+		return pool.obtain(ByteBuffer.wrap(data));
+	}
+
+	private static byte[] encode(final FrameStillEncoder encoder, final FramePool.Frame frame) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final int position = frame.getBuffer().position();
+		encoder.encode(frame, out);
+		assertEquals(position, frame.getBuffer().position());
+		return out.toByteArray();
+	}
+
+	private static void assertSameImage(final BufferedImage expected, final BufferedImage actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals("(" + x + "," + y + ")", expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void defaultHuffmanTablesAreInserted() throws IOException {
+		final byte[] jpeg = createJpeg();
+		final byte[] mjpeg = removeDht(jpeg);
+		assertEquals(-1, findSegment(mjpeg, 0xc4));
+		final FrameStillEncoder encoder = new FrameStillEncoder(StillImageFormat.FORMAT_JPEG, 90, null);
+		final FramePool.Frame frame = createFrame(mjpeg);
+		assertTrue(encoder.isPassthrough(frame));
+		final byte[] result = encode(encoder, frame);
+		assertEquals(mjpeg.length + 2 + DHT_LENGTH, result.length);
+		final int dht = findSegment(result, 0xc4);
+		final int sos = findSegment(mjpeg, 0xda);
+		// inserted just before SOS and other segments are not changed
+		assertEquals(sos, dht);
+		assertEquals(ByteBuffer.wrap(mjpeg, 0, sos), ByteBuffer.wrap(result, 0, sos));
+		assertEquals(ByteBuffer.wrap(mjpeg, sos, mjpeg.length - sos),
+			ByteBuffer.wrap(result, sos + 2 + DHT_LENGTH, mjpeg.length - sos));
+		assertEquals(DHT_LENGTH, ((result[dht + 2] & 0xff) << 8) | (result[dht + 3] & 0xff));
+		// class/id, number of codes and values of each table
+		final int[] classIds = { 0x00, 0x10, 0x01, 0x11 };
+		final int[] numValues = { 12, 162, 12, 162 };
+		int pos = dht + 4;
+		for (int i = 0; i < classIds.length; i++) {
+			assertEquals(classIds[i], result[pos] & 0xff);
+			int n = 0;
+			for (int j = 1; j <= 16; j++) {
+				n += result[pos + j] & 0xff;
+			}
+			assertEquals(numValues[i], n);
+			pos += 1 + 16 + n;
+		}
+		assertEquals(sos + 2 + DHT_LENGTH, pos);
+		// decoded with the inserted tables same as the original JPEG
+		assertSameImage(ImageIO.read(new ByteArrayInputStream(jpeg)),
+			ImageIO.read(new ByteArrayInputStream(result)));
+		frame.release();
+	}
+
+	@Test
+	public void existingHuffmanTablesAreKept() throws IOException {
+		final byte[] jpeg = createJpeg();
+		assertTrue(findSegment(jpeg, 0xc4) > 0);
+		final FrameStillEncoder encoder = new FrameStillEncoder(StillImageFormat.FORMAT_JPEG, 90, null);
+		final FramePool.Frame frame = createFrame(jpeg);
+		assertArrayEquals(jpeg, encode(encoder, frame));
+		frame.release();
+	}
+
+	@Test
+	public void brokenJpegIsWrittenAsIs() throws IOException {
+		final byte[] data = { (byte)0xff, (byte)0xd8, 0x12, 0x34, (byte)0xff, (byte)0xda, 0x00 };
+		final FrameStillEncoder encoder = new FrameStillEncoder(StillImageFormat.FORMAT_JPEG, 90, null);
+		final FramePool.Frame frame = createFrame(data);
+		assertArrayEquals(data, encode(encoder, frame));
+		frame.release();
+		// truncated before SOS
+		final byte[] truncated = removeDht(createJpeg());
+		final int sos = findSegment(truncated, 0xda);
+		final byte[] head = new byte[sos - 1];
+		System.arraycopy(truncated, 0, head, 0, head.length);
+		final FramePool.Frame frame2 = createFrame(head);
+		assertArrayEquals(head, encode(encoder, frame2));
+		frame2.release();
+	}
+
+	@Test
+	public void sosAfterFillBytes() {
+		final byte[] data = {
+			(byte)0xff, (byte)0xd8,
+			(byte)0xff, (byte)0xe0, 0x00, 0x04, 0x00, 0x00,
+			(byte)0xff, (byte)0xff, (byte)0xda, 0x00, 0x02,
+		};
+		final ByteBuffer buf = ByteBuffer.wrap(data);
+		assertEquals(9, FrameStillEncoder.findDhtInsertPosition(buf));
+		buf.position(1);
+		assertEquals(-1, FrameStillEncoder.findDhtInsertPosition(buf));
+	}
+
+	@Test
+	public void rawFrameIsNotModified() throws IOException {
+		// YUYV frame that starts with SOI should not be parsed as JPEG
+		final byte[] data = new byte[WIDTH * HEIGHT * 2];
+		data[0] = (byte)0xff;
+		data[1] = (byte)0xd8;
+		data[2] = (byte)0xff;
+		data[3] = (byte)0xda;
+		final FrameStillEncoder encoder = new FrameStillEncoder(StillImageFormat.FORMAT_YUYV, 0, null);
+		final FramePool.Frame frame = createFrame(data);
+		assertTrue(encoder.isPassthrough(frame));
+		assertArrayEquals(data, encode(encoder, frame));
+		frame.release();
+	}
+}
@@ -0,0 +1,360 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PixelConverterTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * PixelConverter against per pixel reference conversions written with plain byte access.
+ * widths that are not multiple of 8 go through both of 64bit word loop and the tail loop.
+ */
+@RunWith(Parameterized.class)
+public class PixelConverterTest {
+	private static final byte SENTINEL = (byte)0xa5;
+
+	@Parameters(name = "{0}x{1},{2}")
+	public static Collection<Object[]> parameters() {
+		return Arrays.asList(new Object[][] {
+			{2, 2, ByteOrder.BIG_ENDIAN},
+			{6, 3, ByteOrder.LITTLE_ENDIAN},
+			{8, 2, ByteOrder.BIG_ENDIAN},
+			{14, 5, ByteOrder.LITTLE_ENDIAN},
+			{16, 4, ByteOrder.LITTLE_ENDIAN},
+			{22, 7, ByteOrder.BIG_ENDIAN},
+			{642, 481, ByteOrder.LITTLE_ENDIAN},
+			{640, 480, ByteOrder.BIG_ENDIAN},
+		});
+	}
+
+	private static StripeExecutor sExecutor;
+
+	@BeforeClass
+	public static void setUpClass() {
+		sExecutor = new StripeExecutor(4);
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		sExecutor.release();
+	}
+
+	private final int mWidth, mHeight;
+	private final ByteOrder mOrder;
+
+	public PixelConverterTest(final int width, final int height, final ByteOrder order) {
+		mWidth = width;
+		mHeight = height;
+		mOrder = order;
+	}
+
+//================================================================================
+	/**
+	 * size of YUV420 frame, chroma planes have (height + 1) / 2 rows
+	 */
+	static int yuv420Size(final int width, final int height) {
+		return width * height + width * ((height + 1) / 2);
+	}
+
+	static byte[] random(final int bytes, final long seed) {
+		final byte[] result = new byte[bytes];
+		new Random(seed).nextBytes(result);
+		return result;
+	}
+
+	static ByteBuffer direct(final byte[] data, final ByteOrder order) {
+		final ByteBuffer result = ByteBuffer.allocateDirect(data.length).order(order);
+		result.put(data).clear();
+		return result;
+	}
+
+	static ByteBuffer filled(final int bytes, final ByteOrder order) {
+		final ByteBuffer result = ByteBuffer.allocateDirect(bytes).order(order);
+		for (int i = 0; i < bytes; i++) result.put(i, SENTINEL);
+		return result;
+	}
+
+	static byte[] bytes(final ByteBuffer buf) {
+		final byte[] result = new byte[buf.capacity()];
+		for (int i = 0; i < result.length; i++) result[i] = buf.get(i);
+		return result;
+	}
+
+	/**
+	 * YUYV(Y0 U Y1 V) to NV21, chroma of even rows
+	 */
+	static byte[] refYuyv2nv21(final byte[] src, final int width, final int height) {
+		final byte[] result = new byte[yuv420Size(width, height)];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x += 2) {
+				final int ix = (y * width + x) * 2;
+				result[y * width + x] = src[ix];
+				result[y * width + x + 1] = src[ix + 2];
+				if ((y & 1) == 0) {
+					final int uv = width * height + (y / 2) * width + x;
+					result[uv] = src[ix + 3];
+					result[uv + 1] = src[ix + 1];
+				}
+			}
+		}
+		return result;
+	}
+
+	static byte[] refYuyv2i420(final byte[] src, final int width, final int height) {
+		final byte[] result = new byte[yuv420Size(width, height)];
+		final int chromaWidth = width / 2;
+		final int uPlane = width * height;
+		final int vPlane = uPlane + chromaWidth * ((height + 1) / 2);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x += 2) {
+				final int ix = (y * width + x) * 2;
+				result[y * width + x] = src[ix];
+				result[y * width + x + 1] = src[ix + 2];
+				if ((y & 1) == 0) {
+					result[uPlane + (y / 2) * chromaWidth + x / 2] = src[ix + 1];
+					result[vPlane + (y / 2) * chromaWidth + x / 2] = src[ix + 3];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * BT.601 limited range in floating point, R, G, B in [0, 255]
+	 */
+	static int[] refRgb(final int y, final int u, final int v) {
+		final double c = 1.164 * (y - 16);
+		return new int[] {
+			clip(c + 1.596 * (v - 128)),
+			clip(c - 0.391 * (u - 128) - 0.813 * (v - 128)),
+			clip(c + 2.018 * (u - 128)),
+		};
+	}
+
+	private static int clip(final double v) {
+		final long r = Math.round(v);
+		return r < 0 ? 0 : (r > 255 ? 255 : (int)r);
+	}
+
+	private static void assertRgbx(final byte[] nv21, final byte[] rgbx, final int width, final int height) {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int uv = width * height + (y / 2) * width + (x & ~1);
+				final int[] expected = refRgb(nv21[y * width + x] & 0xff, nv21[uv + 1] & 0xff, nv21[uv] & 0xff);
+				final int ix = (y * width + x) * 4;
+				for (int c = 0; c < 3; c++) {
+					final int actual = rgbx[ix + c] & 0xff;
+					assertTrue("pixel(" + x + "," + y + ")[" + c + "]:expected=" + expected[c] + ",actual=" + actual,
+						Math.abs(expected[c] - actual) <= 2);
+				}
+				assertEquals((byte)0xff, rgbx[ix + 3]);
+			}
+		}
+	}
+
+	/**
+	 * RGB565 should be the upper bits of RGBX of the same pixel
+	 */
+	private static void assertRgb565(final byte[] rgbx, final byte[] rgb565, final int pixels) {
+		for (int i = 0; i < pixels; i++) {
+			final int expected = (((rgbx[i * 4] & 0xff) >> 3) << 11)
+				| (((rgbx[i * 4 + 1] & 0xff) >> 2) << 5) | ((rgbx[i * 4 + 2] & 0xff) >> 3);
+			final int actual = (rgb565[i * 2] & 0xff) | ((rgb565[i * 2 + 1] & 0xff) << 8);
+			assertEquals("pixel " + i, expected, actual);
+		}
+	}
+
+//================================================================================
+	@Test
+	public void yuyv2nv21() {
+		final byte[] yuyv = random(mWidth * mHeight * 2, 1);
+		final ByteBuffer dst = filled(yuv420Size(mWidth, mHeight), mOrder);
+		PixelConverter.yuyv2nv21(direct(yuyv, mOrder), dst, mWidth, mHeight);
+		assertArrayEquals(refYuyv2nv21(yuyv, mWidth, mHeight), bytes(dst));
+	}
+
+	@Test
+	public void yuyv2i420() {
+		final byte[] yuyv = random(mWidth * mHeight * 2, 2);
+		final ByteBuffer dst = filled(yuv420Size(mWidth, mHeight), mOrder);
+		PixelConverter.yuyv2i420(direct(yuyv, mOrder), dst, mWidth, mHeight);
+		assertArrayEquals(refYuyv2i420(yuyv, mWidth, mHeight), bytes(dst));
+	}
+
+	@Test
+	public void nv212rgbx() {
+		final byte[] nv21 = random(yuv420Size(mWidth, mHeight), 3);
+		final ByteBuffer dst = filled(mWidth * mHeight * 4, mOrder);
+		PixelConverter.nv212rgbx(direct(nv21, mOrder), dst, mWidth, mHeight);
+		assertRgbx(nv21, bytes(dst), mWidth, mHeight);
+	}
+
+	@Test
+	public void nv212rgb565() {
+		final byte[] nv21 = random(yuv420Size(mWidth, mHeight), 4);
+		final ByteBuffer rgbx = filled(mWidth * mHeight * 4, mOrder);
+		final ByteBuffer rgb565 = filled(mWidth * mHeight * 2, mOrder);
+		PixelConverter.nv212rgbx(direct(nv21, mOrder), rgbx, mWidth, mHeight);
+		PixelConverter.nv212rgb565(direct(nv21, mOrder), rgb565, mWidth, mHeight);
+		assertRgb565(bytes(rgbx), bytes(rgb565), mWidth * mHeight);
+	}
+
+	/**
+	 * converting rows in two ranges gives the same result as whole frame
+	 * and rows out of the range are not touched
+	 */
+	@Test
+	public void rowRange() {
+		final int split = (mHeight / 2) & ~1;
+		final byte[] yuyv = random(mWidth * mHeight * 2, 5);
+		final ByteBuffer src = direct(yuyv, mOrder);
+		final ByteBuffer nv21 = filled(yuv420Size(mWidth, mHeight), mOrder);
+		PixelConverter.yuyv2nv21(src, nv21, mWidth, mHeight, split, mHeight);
+		final byte[] partial = bytes(nv21);
+		for (int i = 0; i < split * mWidth; i++) {
+			assertEquals("luma " + i, SENTINEL, partial[i]);
+		}
+		for (int i = mWidth * mHeight; i < mWidth * mHeight + (split / 2) * mWidth; i++) {
+			assertEquals("chroma " + i, SENTINEL, partial[i]);
+		}
+		PixelConverter.yuyv2nv21(src, nv21, mWidth, mHeight, 0, split);
+		assertArrayEquals(refYuyv2nv21(yuyv, mWidth, mHeight), bytes(nv21));
+
+		final ByteBuffer i420 = filled(yuv420Size(mWidth, mHeight), mOrder);
+		PixelConverter.yuyv2i420(src, i420, mWidth, mHeight, split, mHeight);
+		PixelConverter.yuyv2i420(src, i420, mWidth, mHeight, 0, split);
+		assertArrayEquals(refYuyv2i420(yuyv, mWidth, mHeight), bytes(i420));
+
+		final ByteBuffer rgbx = filled(mWidth * mHeight * 4, mOrder);
+		final ByteBuffer rgbxRange = filled(mWidth * mHeight * 4, mOrder);
+		PixelConverter.nv212rgbx(nv21, rgbx, mWidth, mHeight);
+		PixelConverter.nv212rgbx(nv21, rgbxRange, mWidth, mHeight, split, mHeight);
+		PixelConverter.nv212rgbx(nv21, rgbxRange, mWidth, mHeight, 0, split);
+		assertArrayEquals(bytes(rgbx), bytes(rgbxRange));
+
+		final ByteBuffer rgb565 = filled(mWidth * mHeight * 2, mOrder);
+		final ByteBuffer rgb565Range = filled(mWidth * mHeight * 2, mOrder);
+		PixelConverter.nv212rgb565(nv21, rgb565, mWidth, mHeight);
+		PixelConverter.nv212rgb565(nv21, rgb565Range, mWidth, mHeight, split, mHeight);
+		PixelConverter.nv212rgb565(nv21, rgb565Range, mWidth, mHeight, 0, split);
+		assertArrayEquals(bytes(rgb565), bytes(rgb565Range));
+	}
+
+	/**
+	 * parallel methods run on the calling thread for these sizes and should give the same result
+	 */
+	@Test
+	public void parallelBelowThreshold() {
+		assertStripedEqualsScalar(new PixelConverter(sExecutor), mWidth, mHeight, mOrder);
+	}
+
+	/**
+	 * frames of PARALLEL_THRESHOLD_PIXELS or more are split into stripes on StripeExecutor,
+	 * output should be byte identical to the single thread conversion
+	 */
+	@Test
+	public void striped() {
+		if (mWidth >= 8) return;	// large frames only once for each byte order
+		final PixelConverter converter = new PixelConverter(sExecutor);
+		assertStripedEqualsScalar(converter, 1920, 1080, mOrder);
+		assertStripedEqualsScalar(converter, 1926, 1083, mOrder);
+	}
+
+	private static void assertStripedEqualsScalar(final PixelConverter converter,
+		final int width, final int height, final ByteOrder order) {
+
+		final byte[] yuyv = random(width * height * 2, width + height);
+		final ByteBuffer src = direct(yuyv, order);
+		final int yuv420 = yuv420Size(width, height);
+
+		final ByteBuffer nv21 = filled(yuv420, order), nv21Striped = filled(yuv420, order);
+		PixelConverter.yuyv2nv21(src, nv21, width, height);
+		converter.yuyv2nv21Parallel(src, nv21Striped, width, height);
+		assertArrayEquals("yuyv2nv21", bytes(nv21), bytes(nv21Striped));
+
+		final ByteBuffer i420 = filled(yuv420, order), i420Striped = filled(yuv420, order);
+		PixelConverter.yuyv2i420(src, i420, width, height);
+		converter.yuyv2i420Parallel(src, i420Striped, width, height);
+		assertArrayEquals("yuyv2i420", bytes(i420), bytes(i420Striped));
+
+		final ByteBuffer rgbx = filled(width * height * 4, order), rgbxStriped = filled(width * height * 4, order);
+		PixelConverter.nv212rgbx(nv21, rgbx, width, height);
+		converter.nv212rgbxParallel(nv21, rgbxStriped, width, height);
+		assertArrayEquals("nv212rgbx", bytes(rgbx), bytes(rgbxStriped));
+
+		final ByteBuffer rgb565 = filled(width * height * 2, order), rgb565Striped = filled(width * height * 2, order);
+		PixelConverter.nv212rgb565(nv21, rgb565, width, height);
+		converter.nv212rgb565Parallel(nv21, rgb565Striped, width, height);
+		assertArrayEquals("nv212rgb565", bytes(rgb565), bytes(rgb565Striped));
+	}
+
+	/**
+	 * reference colors of BT.601
+	 */
+	@Test
+	public void referenceColors() {
+		// Y, U, V -> R, G, B
+		final int[][] colors = {
+			{16, 128, 128, 0, 0, 0},		// black
+			{235, 128, 128, 255, 255, 255},	// white
+			{81, 90, 240, 255, 0, 0},		// red
+			{145, 54, 34, 0, 255, 0},		// green
+			{41, 240, 110, 0, 0, 255},		// blue
+		};
+		final int width = 2 * colors.length, height = 2;
+		final byte[] nv21 = new byte[yuv420Size(width, height)];
+		for (int i = 0; i < colors.length; i++) {
+			for (int j = 0; j < 2; j++) {
+				nv21[i * 2 + j] = nv21[width + i * 2 + j] = (byte)colors[i][0];
+			}
+			nv21[width * height + i * 2] = (byte)colors[i][2];		// V
+			nv21[width * height + i * 2 + 1] = (byte)colors[i][1];	// U
+		}
+		final ByteBuffer dst = filled(width * height * 4, mOrder);
+		PixelConverter.nv212rgbx(direct(nv21, mOrder), dst, width, height);
+		final byte[] rgbx = bytes(dst);
+		for (int p = 0; p < width * height; p++) {
+			final int[] color = colors[(p % width) / 2];
+			for (int c = 0; c < 3; c++) {
+				assertTrue("color " + (p % width) / 2 + "[" + c + "]=" + (rgbx[p * 4 + c] & 0xff),
+					Math.abs(color[3 + c] - (rgbx[p * 4 + c] & 0xff)) <= 3);
+			}
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SupportedFormatsTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * parse json fixtures of UVCCamera#getSupportedSize,
+ * the old native library writes only "size" and the new one writes "frames" with frame intervals
+ */
+public class SupportedFormatsTest {
+	private static final float DELTA = 0.01f;
+
+	private static String load(final String name) throws IOException {
+		final InputStream in = SupportedFormatsTest.class.getResourceAsStream(name);
+		assertNotNull("fixture not found:" + name, in);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void assertFrame(final FrameDescriptor frame,
+		final int type, final int index, final int width, final int height) {
+
+		assertEquals(type, frame.type);
+		assertEquals(index, frame.index);
+		assertEquals(width, frame.width);
+		assertEquals(height, frame.height);
+	}
+
+	@After
+	public void tearDown() {
+		SupportedFormats.clearCache();
+	}
+
+	@Test
+	public void parseOldFormat() throws IOException {
+		final SupportedFormats formats = SupportedFormats.parse(load("supported_formats_old.json"));
+		// the empty object of unsupported format is ignored
+		assertEquals(2, formats.getFormats().size());
+		assertEquals(0, formats.getSkippedCount());
+
+		final FormatDescriptor yuyv = formats.getFormats().get(0);
+		assertEquals(FormatDescriptor.TYPE_UNCOMPRESSED, yuyv.type);
+		assertEquals(1, yuyv.index);
+		assertEquals(UVCCamera.FRAME_FORMAT_YUYV, yuyv.getPreviewMode());
+		final List<FrameDescriptor> frames = yuyv.getFrames();
+		assertEquals(3, frames.size());
+		// frame index is the 1-based position in "size"
+		assertFrame(frames.get(0), FormatDescriptor.TYPE_UNCOMPRESSED, 1, 640, 480);
+		assertFrame(frames.get(1), FormatDescriptor.TYPE_UNCOMPRESSED, 2, 320, 240);
+		assertFrame(frames.get(2), FormatDescriptor.TYPE_UNCOMPRESSED, 3, 1280, 720);
+		assertSame(frames.get(0), yuyv.getDefaultFrame());
+		for (final FrameDescriptor frame: frames) {
+			assertFalse(frame.hasFrameIntervals());
+			assertEquals(0, frame.getMaxFrameRate(), DELTA);
+			assertEquals(0, frame.getFrameRates().length);
+			// frame rate is unknown, so any frame rate is accepted
+			assertTrue(frame.supportsFrameRate(60));
+		}
+
+		final FormatDescriptor mjpeg = formats.getFormat(FormatDescriptor.TYPE_MJPEG);
+		assertEquals(2, mjpeg.index);
+		assertEquals(UVCCamera.FRAME_FORMAT_MJPEG, mjpeg.getPreviewMode());
+		assertFrame(mjpeg.getDefaultFrame(), FormatDescriptor.TYPE_MJPEG, 2, 1280, 720);
+
+		// smallest frame that covers the size, first format wins for the same area
+		assertFrame(formats.findFrame(-1, 600, 400, 30), FormatDescriptor.TYPE_UNCOMPRESSED, 1, 640, 480);
+		assertFrame(formats.findFrame(FormatDescriptor.TYPE_MJPEG, 1281, 720, 30), FormatDescriptor.TYPE_MJPEG, 3, 1920, 1080);
+		assertNull(formats.findFrame(-1, 3840, 2160, 0));
+	}
+
+	@Test
+	public void parseNewFormat() throws IOException {
+		final SupportedFormats formats = SupportedFormats.parse(load("supported_formats_new.json"));
+		assertEquals(2, formats.getFormats().size());
+		assertEquals(0, formats.getSkippedCount());
+
+		final FormatDescriptor yuyv = formats.getFormat(FormatDescriptor.TYPE_UNCOMPRESSED);
+		final List<FrameDescriptor> yuyvFrames = yuyv.getFrames();
+		assertEquals(3, yuyvFrames.size());
+		final FrameDescriptor vga = yuyvFrames.get(0);
+		assertFrame(vga, FormatDescriptor.TYPE_UNCOMPRESSED, 1, 640, 480);
+		assertTrue(vga.hasFrameIntervals());
+		assertFalse(vga.isContinuous());
+		assertArrayEquals(new int[] {333333, 666666, 1000000}, vga.getIntervals());
+		final float[] rates = vga.getFrameRates();
+		assertEquals(3, rates.length);
+		assertEquals(30, rates[0], DELTA);
+		assertEquals(15, rates[1], DELTA);
+		assertEquals(10, rates[2], DELTA);
+		assertEquals(30, vga.getDefaultFrameRate(), DELTA);
+		final FrameDescriptor hd = yuyvFrames.get(2);
+		assertEquals(10, hd.getMaxFrameRate(), DELTA);
+		assertEquals(5, hd.getMinFrameRate(), DELTA);
+		assertFalse(hd.supportsFrameRate(30));
+
+		final FormatDescriptor mjpeg = formats.getFormat(FormatDescriptor.TYPE_MJPEG);
+		final List<FrameDescriptor> mjpegFrames = mjpeg.getFrames();
+		assertEquals(3, mjpegFrames.size());
+		final FrameDescriptor continuous = mjpegFrames.get(0);
+		assertTrue(continuous.isContinuous());
+		assertEquals(0, continuous.getIntervals().length);
+		assertEquals(333333, continuous.getMinInterval());
+		assertEquals(10000000, continuous.getMaxInterval());
+		assertEquals(333333, continuous.getIntervalStep());
+		assertEquals(30, continuous.getMaxFrameRate(), DELTA);
+		assertEquals(1, continuous.getMinFrameRate(), DELTA);
+		assertFrame(mjpeg.getDefaultFrame(), FormatDescriptor.TYPE_MJPEG, 2, 1280, 720);
+
+		// YUYV 1280x720 can not stream at 30fps, so MJPEG is selected
+		assertFrame(formats.findFrame(-1, 1280, 720, 30), FormatDescriptor.TYPE_MJPEG, 2, 1280, 720);
+		assertFrame(formats.findFrame(-1, 1280, 720, 10), FormatDescriptor.TYPE_MJPEG, 2, 1280, 720);
+		assertFrame(formats.findFrame(FormatDescriptor.TYPE_UNCOMPRESSED, 1280, 720, 10),
+			FormatDescriptor.TYPE_UNCOMPRESSED, 3, 1280, 720);
+		assertNull(formats.findFrame(-1, 1920, 1080, 30));
+		assertFrame(formats.findFrame(-1, 1920, 1080, 15), FormatDescriptor.TYPE_MJPEG, 3, 1920, 1080);
+		assertFrame(formats.findFrame(-1, 1, 1, 30), FormatDescriptor.TYPE_UNCOMPRESSED, 2, 320, 240);
+	}
+
+	@Test
+	public void oldAndNewFormatHaveSameFrames() throws IOException {
+		final List<FrameDescriptor> old = SupportedFormats.parse(load("supported_formats_old.json")).getFrames(-1);
+		final List<FrameDescriptor> frames = SupportedFormats.parse(load("supported_formats_new.json")).getFrames(-1);
+		assertEquals(old.size(), frames.size());
+		for (int i = 0; i < old.size(); i++) {
+			final FrameDescriptor frame = frames.get(i);
+			assertFrame(old.get(i), frame.type, frame.index, frame.width, frame.height);
+		}
+	}
+
+	@Test
+	public void malformedEntriesAreSkipped() {
+		final SupportedFormats formats = SupportedFormats.parse("{\"formats\":[{\"index\":1,\"type\":4,\"default\":1,"
+			+ "\"size\":[\"640x480\",\"x\",320,\"0x240\"],"
+			+ "\"frames\":[{\"index\":1,\"width\":640,\"height\":480,\"intervals\":[333333]},"
+			+ "{\"index\":2,\"width\":0,\"height\":240},"
+			+ "{\"index\":3,\"width\":320,\"height\":240,\"intervals\":[0]}]}]}");
+		assertEquals(5, formats.getSkippedCount());
+		assertEquals(1, formats.getFrames(-1).size());
+		assertFrame(formats.getFrames(-1).get(0), FormatDescriptor.TYPE_UNCOMPRESSED, 1, 640, 480);
+	}
+
+	@Test
+	public void emptyAndBrokenJson() {
+		assertTrue(SupportedFormats.parse(null).getFormats().isEmpty());
+		assertTrue(SupportedFormats.parse("").getFormats().isEmpty());
+		assertTrue(SupportedFormats.parse("{}").getFormats().isEmpty());
+		try {
+			SupportedFormats.parse("{\"formats\":[{\"index\":1,");
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void cache() throws IOException {
+		final String key = SupportedFormats.getKey(0x046d, 0x0825, null);
+		assertEquals("046d:0825:", key);
+		assertNull(SupportedFormats.getCached(key));
+		final SupportedFormats formats = SupportedFormats.getCached(key, load("supported_formats_new.json"));
+		// cached instance is returned without parsing again
+		assertSame(formats, SupportedFormats.getCached(key, "broken"));
+		SupportedFormats.removeCached(key);
+		assertNull(SupportedFormats.getCached(key));
+	}
+}
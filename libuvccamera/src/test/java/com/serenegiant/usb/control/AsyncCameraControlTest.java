@@ -0,0 +1,292 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AsyncCameraControlTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * runs AsyncCameraControl with FakeControlBackend on a manual executor,
+ * so the order of tasks on the camera thread is deterministic
+ */
+public class AsyncCameraControlTest {
+	private static final int BRIGHTNESS = ControlBackend.CONTROL_BRIGHTNESS;
+	private static final int CONTRAST = ControlBackend.CONTROL_CONTRAST;
+
+	/**
+	 * executor that runs queued tasks only when the test requests
+	 */
+	private static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(final Runnable task) {
+			mTasks.add(task);
+		}
+
+		int size() {
+			return mTasks.size();
+		}
+
+		boolean runNext() {
+			final Runnable task = mTasks.poll();
+			if (task != null)
+				task.run();
+			return task != null;
+		}
+
+		void runAll() {
+			while (runNext()) {
+				// run tasks that are queued while running
+			}
+		}
+	}
+
+	/**
+	 * backend that runs a hook while the write is in flight, e.g. the user keeps dragging a slider
+	 */
+	private static class HookBackend extends FakeControlBackend {
+		final List<String> writes = new ArrayList<String>();
+		Runnable mHook;
+
+		@Override
+		public void setValue(final int control, final int value) {
+			final Runnable hook = mHook;
+			mHook = null;
+			if (hook != null)
+				hook.run();
+			super.setValue(control, value);
+			writes.add(control + "=" + value);
+		}
+	}
+
+	private static class Result implements AsyncCameraControl.Callback {
+		final List<Integer> values = new ArrayList<Integer>();
+		final List<Exception> errors = new ArrayList<Exception>();
+
+		@Override
+		public void onComplete(final int control, final int value, final Exception error) {
+			values.add(value);
+			errors.add(error);
+		}
+	}
+
+	private HookBackend mBackend;
+	private ControlValueCache mCache;
+	private ManualExecutor mExecutor;
+	private AsyncCameraControl mControl;
+
+	@Before
+	public void setUp() {
+		mBackend = new HookBackend();
+		mCache = new ControlValueCache();
+		mExecutor = new ManualExecutor();
+		mControl = new AsyncCameraControl(mBackend, mCache, mExecutor);
+	}
+
+	@Test
+	public void queuedWritesAreCoalesced() {
+		final Result result = new Result();
+		for (int i = 1; i <= 100; i++) {
+			mControl.set(BRIGHTNESS, i, result);
+		}
+		// only one task is queued for the control
+		assertEquals(1, mExecutor.size());
+		mExecutor.runAll();
+		assertEquals(100, mControl.getRequestCount(BRIGHTNESS));
+		assertEquals(1, mControl.getWriteCount(BRIGHTNESS));
+		assertEquals(1, mBackend.getWriteCount(BRIGHTNESS));
+		assertEquals(100, mCache.get(BRIGHTNESS, -1));
+		// callbacks of superseded writes are called with the value that superseded them
+		assertEquals(100, result.values.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(100, (int)result.values.get(i));
+			assertNull(result.errors.get(i));
+		}
+		assertEquals(1, mControl.getLatencyHistogram(BRIGHTNESS).getCount());
+	}
+
+	@Test
+	public void writesWhileInFlightAreCoalesced() {
+		final Result first = new Result();
+		final Result later = new Result();
+		mControl.set(BRIGHTNESS, 10, first);
+		mBackend.mHook = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 11; i <= 20; i++)
+					mControl.set(BRIGHTNESS, i, later);
+			}
+		};
+		mExecutor.runAll();
+		// the write in flight and one write of the latest value
+		assertEquals(11, mControl.getRequestCount(BRIGHTNESS));
+		assertEquals(2, mControl.getWriteCount(BRIGHTNESS));
+		assertEquals("[0=10, 0=20]", mBackend.writes.toString());
+		assertEquals(1, first.values.size());
+		assertEquals(10, (int)first.values.get(0));
+		assertEquals(10, later.values.size());
+		for (final int value: later.values)
+			assertEquals(20, value);
+	}
+
+	@Test
+	public void readSeesOwnPendingWrite() throws Exception {
+		mControl.set(BRIGHTNESS, 30);
+		final Future<Integer> future = mControl.get(BRIGHTNESS);
+		mExecutor.runAll();
+		assertEquals(30, (int)future.get());
+		assertEquals(1, mBackend.getWriteCount(BRIGHTNESS));
+	}
+
+	@Test
+	public void readBeforeRescheduledWrite() throws Exception {
+		final Future<?>[] future = new Future<?>[1];
+		mControl.set(BRIGHTNESS, 10);
+		mBackend.mHook = new Runnable() {
+			@Override
+			public void run() {
+				// the read is queued before the write task is queued again
+				mControl.set(BRIGHTNESS, 20);
+				future[0] = mControl.get(BRIGHTNESS);
+			}
+		};
+		mExecutor.runAll();
+		assertEquals(20, future[0].get());
+		// the read wrote the pending value, the write task found nothing to write
+		assertEquals(2, mControl.getWriteCount(BRIGHTNESS));
+		assertEquals("[0=10, 0=20]", mBackend.writes.toString());
+		assertEquals(1, mBackend.getReadCount());
+	}
+
+	@Test
+	public void readCallbackSeesOwnPendingWrite() {
+		final Result result = new Result();
+		mControl.set(CONTRAST, 40);
+		mControl.set(CONTRAST, 45);
+		mControl.get(CONTRAST, result);
+		mExecutor.runAll();
+		assertEquals(45, (int)result.values.get(0));
+		assertNull(result.errors.get(0));
+		assertEquals(1, mBackend.getWriteCount(CONTRAST));
+	}
+
+	@Test
+	public void sameValueIsNotWritten() {
+		final Result result = new Result();
+		mControl.set(BRIGHTNESS, 50);
+		mExecutor.runAll();
+		mControl.set(BRIGHTNESS, 50, result);
+		mExecutor.runAll();
+		assertEquals(2, mControl.getRequestCount(BRIGHTNESS));
+		assertEquals(1, mControl.getWriteCount(BRIGHTNESS));
+		assertEquals(50, (int)result.values.get(0));
+		assertNull(result.errors.get(0));
+	}
+
+	@Test
+	public void otherControlsAreNotDelayed() {
+		mControl.set(BRIGHTNESS, 1);
+		mControl.set(CONTRAST, 1);
+		mBackend.mHook = new Runnable() {
+			@Override
+			public void run() {
+				mControl.set(BRIGHTNESS, 2);
+			}
+		};
+		mExecutor.runAll();
+		// the rescheduled write of brightness runs after contrast
+		assertEquals("[0=1, 1=1, 0=2]", mBackend.writes.toString());
+	}
+
+	@Test
+	public void failedWriteIsReported() {
+		final Result result = new Result();
+		mBackend.setFailControl(BRIGHTNESS);
+		mControl.set(BRIGHTNESS, 60, result);
+		mControl.set(BRIGHTNESS, 70, result);
+		mExecutor.runAll();
+		assertEquals(2, result.errors.size());
+		assertTrue(result.errors.get(0) instanceof IllegalStateException);
+		assertTrue(result.errors.get(1) instanceof IllegalStateException);
+		assertEquals(0, mControl.getWriteCount(BRIGHTNESS));
+		assertFalse(mCache.isKnown(BRIGHTNESS));
+		// the same value is written again after the failure
+		mBackend.setFailControl(-1);
+		final Result retry = new Result();
+		mControl.set(BRIGHTNESS, 70, retry);
+		mExecutor.runAll();
+		assertNull(retry.errors.get(0));
+		assertEquals(1, mControl.getWriteCount(BRIGHTNESS));
+	}
+
+	@Test
+	public void unsupportedControl() throws InterruptedException {
+		mBackend.setSupported(CONTRAST, false);
+		final Result result = new Result();
+		mControl.set(CONTRAST, 10, result);
+		final Future<Integer> future = mControl.get(CONTRAST);
+		mExecutor.runAll();
+		assertTrue(result.errors.get(0) instanceof UnsupportedOperationException);
+		try {
+			future.get();
+			fail();
+		} catch (final ExecutionException e) {
+			assertNotNull(e.getCause());
+			assertTrue(e.getCause() instanceof UnsupportedOperationException);
+		}
+		assertEquals(0, mBackend.getTotalWriteCount());
+	}
+
+	@Test
+	public void unknownControl() {
+		try {
+			mControl.set(ControlBackend.CONTROL_NUM, 0);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			mControl.get(-1);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CameraControlTransactionTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * runs CameraControlTransaction with FakeControlBackend on a manual executor
+ */
+public class CameraControlTransactionTest {
+	private static final int BRIGHTNESS = ControlBackend.CONTROL_BRIGHTNESS;
+	private static final int CONTRAST = ControlBackend.CONTROL_CONTRAST;
+	private static final int GAIN = ControlBackend.CONTROL_GAIN;
+	private static final int HUE = ControlBackend.CONTROL_HUE;
+	private static final int AUTO_FOCUS = ControlBackend.CONTROL_AUTO_FOCUS;
+
+	/**
+	 * executor that runs queued tasks only when the test requests
+	 */
+	private static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(final Runnable task) {
+			mTasks.add(task);
+		}
+
+		int size() {
+			return mTasks.size();
+		}
+
+		void runAll() {
+			Runnable task;
+			while ((task = mTasks.poll()) != null) {
+				task.run();
+			}
+		}
+	}
+
+	/**
+	 * backend that records the order of writes
+	 */
+	private static class OrderBackend extends FakeControlBackend {
+		final List<Integer> writes = new ArrayList<Integer>();
+
+		@Override
+		public void setValue(final int control, final int value) {
+			super.setValue(control, value);
+			writes.add(control);
+		}
+	}
+
+	private static class Callback implements CameraControlTransaction.Callback {
+		final List<CameraControlTransaction.Result> results = new ArrayList<CameraControlTransaction.Result>();
+		final List<Thread> threads = new ArrayList<Thread>();
+		CameraControlTransaction transaction;
+
+		@Override
+		public void onComplete(final CameraControlTransaction transaction,
+			final CameraControlTransaction.Result result) {
+
+			this.transaction = transaction;
+			results.add(result);
+			threads.add(Thread.currentThread());
+		}
+	}
+
+	private OrderBackend mBackend;
+	private ControlValueCache mCache;
+	private ManualExecutor mExecutor;
+
+	@Before
+	public void setUp() {
+		mBackend = new OrderBackend();
+		mCache = new ControlValueCache();
+		mExecutor = new ManualExecutor();
+	}
+
+	private CameraControlTransaction newTransaction() {
+		return new CameraControlTransaction(mBackend, mCache, mExecutor);
+	}
+
+	@Test
+	public void lastValueWins() {
+		final CameraControlTransaction transaction = newTransaction();
+		for (int i = 1; i <= 10; i++) {
+			transaction.set(BRIGHTNESS, i);
+		}
+		transaction.set(CONTRAST, 40).set(CONTRAST, 45).setAuto(AUTO_FOCUS, true);
+		assertEquals(3, transaction.size());
+		final CameraControlTransaction.Result result = transaction.apply();
+		assertEquals(3, result.applied);
+		assertEquals(10, result.coalesced);
+		assertEquals(0, result.skipped);
+		assertTrue(result.isSuccess());
+		assertEquals(1, mBackend.getWriteCount(BRIGHTNESS));
+		assertEquals(1, mBackend.getWriteCount(CONTRAST));
+		assertEquals(10, mBackend.getValue(BRIGHTNESS));
+		assertEquals(45, mBackend.getValue(CONTRAST));
+		assertEquals(1, mBackend.getValue(AUTO_FOCUS));
+		assertEquals(10, mCache.get(BRIGHTNESS, -1));
+		assertEquals(45, mCache.get(CONTRAST, -1));
+	}
+
+	@Test
+	public void sameValueAsCacheIsSkipped() {
+		mCache.put(BRIGHTNESS, 50);
+		mCache.put(CONTRAST, 30);
+		final CameraControlTransaction.Result result = newTransaction()
+			.set(BRIGHTNESS, 50)
+			.set(CONTRAST, 31)
+			.apply();
+		assertEquals(1, result.skipped);
+		assertEquals(1, result.applied);
+		assertEquals(0, mBackend.getWriteCount(BRIGHTNESS));
+		assertEquals(1, mBackend.getWriteCount(CONTRAST));
+		// the cache was updated by the previous transaction
+		final CameraControlTransaction.Result second = newTransaction().set(CONTRAST, 31).apply();
+		assertEquals(1, second.skipped);
+		assertEquals(0, second.applied);
+		assertEquals(1, mBackend.getTotalWriteCount());
+	}
+
+	@Test
+	public void writesInOrderOfFirstSet() {
+		newTransaction()
+			.set(HUE, 1)
+			.set(BRIGHTNESS, 2)
+			.set(GAIN, 3)
+			.set(HUE, 4)		// coalesced, keeps the first position
+			.set(CONTRAST, 5)
+			.apply();
+		assertEquals(Arrays.asList(HUE, BRIGHTNESS, GAIN, CONTRAST), mBackend.writes);
+		assertEquals(4, mBackend.getValue(HUE));
+	}
+
+	@Test
+	public void unsupportedAndFailedControls() {
+		mBackend.setSupported(GAIN, false);
+		mBackend.setFailControl(HUE);
+		mCache.put(GAIN, 10);
+		mCache.put(HUE, 20);
+		final CameraControlTransaction.Result result = newTransaction()
+			.set(GAIN, 11)
+			.set(HUE, 21)
+			.set(BRIGHTNESS, 22)
+			.apply();
+		assertEquals(2, result.failed);
+		assertEquals(1, result.applied);
+		assertFalse(result.isSuccess());
+		assertNotNull(result.error);
+		assertTrue(result.error instanceof IllegalStateException);
+		// values of the camera are unknown
+		assertFalse(mCache.isKnown(GAIN));
+		assertFalse(mCache.isKnown(HUE));
+		assertEquals(22, mCache.get(BRIGHTNESS, -1));
+		// failed controls do not stop the following writes
+		assertEquals(Arrays.asList(BRIGHTNESS), mBackend.writes);
+	}
+
+	@Test
+	public void setAfterCommit() {
+		final CameraControlTransaction transaction = newTransaction().set(BRIGHTNESS, 1);
+		transaction.commit(null);
+		try {
+			transaction.set(BRIGHTNESS, 2);
+			fail("set after commit should throw");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		try {
+			transaction.commit(null);
+			fail("commit twice should throw");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		try {
+			transaction.apply();
+			fail("apply after commit should throw");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		mExecutor.runAll();
+		assertEquals(1, mBackend.getValue(BRIGHTNESS));
+	}
+
+	@Test
+	public void applyAfterApply() {
+		final CameraControlTransaction transaction = newTransaction().set(BRIGHTNESS, 1);
+		transaction.apply();
+		try {
+			transaction.commit(null);
+			fail("commit after apply should throw");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void commitCallsBackOnceOnExecutor() throws InterruptedException {
+		final Callback callback = new Callback();
+		final CameraControlTransaction transaction = newTransaction()
+			.set(BRIGHTNESS, 1)
+			.set(CONTRAST, 2)
+			.set(BRIGHTNESS, 3);
+		transaction.commit(callback);
+		// nothing is written until the executor runs the task
+		assertEquals(1, mExecutor.size());
+		assertEquals(0, mBackend.getTotalWriteCount());
+		assertTrue(callback.results.isEmpty());
+		// run the task on another thread like the camera thread
+		final Thread camera = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				mExecutor.runAll();
+			}
+		}, "camera");
+		camera.start();
+		camera.join();
+		assertEquals(1, callback.results.size());
+		assertSame(camera, callback.threads.get(0));
+		assertSame(transaction, callback.transaction);
+		final CameraControlTransaction.Result result = callback.results.get(0);
+		assertEquals(2, result.applied);
+		assertEquals(1, result.coalesced);
+		assertNull(result.error);
+		assertEquals(2, mBackend.getTotalWriteCount());
+	}
+
+	@Test
+	public void unknownControl() {
+		try {
+			newTransaction().set(ControlBackend.CONTROL_NUM, 0);
+			fail("unknown control should throw");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
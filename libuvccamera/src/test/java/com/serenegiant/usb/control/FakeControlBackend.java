@@ -0,0 +1,154 @@
+package com.serenegiant.usb.control;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeControlBackend.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * ControlBackend that keeps values in memory and counts reads/writes,
+ * to run CameraControlTransaction and AsyncCameraControl in unit tests on JVM.
+ * Each read/write can take a time to simulate USB control transfers.
+ * This class does not depend on Android framework.
+ */
+public class FakeControlBackend implements ControlBackend {
+	private final Object mSync = new Object();
+	private final int[] mValues = new int[CONTROL_NUM];
+	private final boolean[] mSupported = new boolean[CONTROL_NUM];
+	private final int[] mWriteCounts = new int[CONTROL_NUM];
+	private int mReadCount;
+	private long mTransferNs;
+	private int mFailControl = -1;
+
+	/**
+	 * all controls are supported
+	 */
+	public FakeControlBackend() {
+		for (int i = 0; i < CONTROL_NUM; i++) {
+			mSupported[i] = true;
+		}
+	}
+
+	public void setSupported(final int control, final boolean supported) {
+		synchronized (mSync) {
+			mSupported[control] = supported;
+		}
+	}
+
+	/**
+	 * @param transferNs time that each read/write takes
+	 */
+	public void setTransferTime(final long transferNs) {
+		synchronized (mSync) {
+			mTransferNs = transferNs;
+		}
+	}
+
+	/**
+	 * @param control writing to this control throws IllegalStateException, -1 to disable
+	 */
+	public void setFailControl(final int control) {
+		synchronized (mSync) {
+			mFailControl = control;
+		}
+	}
+
+	/**
+	 * change the value without counting the write, e.g. camera changed it by auto control
+	 */
+	public void changeValue(final int control, final int value) {
+		synchronized (mSync) {
+			mValues[control] = value;
+		}
+	}
+
+	public int getWriteCount(final int control) {
+		synchronized (mSync) {
+			return mWriteCounts[control];
+		}
+	}
+
+	public int getTotalWriteCount() {
+		synchronized (mSync) {
+			int result = 0;
+			for (final int count: mWriteCounts) {
+				result += count;
+			}
+			return result;
+		}
+	}
+
+	public int getReadCount() {
+		synchronized (mSync) {
+			return mReadCount;
+		}
+	}
+
+	public void resetCounts() {
+		synchronized (mSync) {
+			for (int i = 0; i < CONTROL_NUM; i++) {
+				mWriteCounts[i] = 0;
+			}
+			mReadCount = 0;
+		}
+	}
+
+	@Override
+	public boolean isSupported(final int control) {
+		synchronized (mSync) {
+			return mSupported[control];
+		}
+	}
+
+	@Override
+	public int getValue(final int control) {
+		transfer();
+		synchronized (mSync) {
+			mReadCount++;
+			return mValues[control];
+		}
+	}
+
+	@Override
+	public void setValue(final int control, final int value) {
+		transfer();
+		synchronized (mSync) {
+			if (control == mFailControl)
+				throw new IllegalStateException("failed to write control " + control);
+			mWriteCounts[control]++;
+			mValues[control] = value;
+		}
+	}
+
+	private void transfer() {
+		final long transferNs;
+		synchronized (mSync) {
+			transferNs = mTransferNs;
+		}
+		if (transferNs > 0) {
+			try {
+				Thread.sleep(transferNs / 1000000L, (int)(transferNs % 1000000L));
+			} catch (final InterruptedException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AdaptiveBitrateControllerTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * runs AdaptiveBitrateController with SimulatedVideoEncoder in simulated time
+ */
+public class AdaptiveBitrateControllerTest {
+	private static final int FRAME_RATE = 30;
+	private static final int BIT_RATE = 4000000;
+	private static final long FRAME_NS = 1000000000L / FRAME_RATE;
+	private static final long SEC_NS = 1000000000L;
+
+	private long mNowNs;
+
+	private AdaptiveBitrateController createController() {
+		return new AdaptiveBitrateController(BIT_RATE / 4, BIT_RATE * 3 / 2, BIT_RATE,
+			FRAME_RATE / 3, FRAME_RATE);
+	}
+
+	private void run(final SimulatedVideoEncoder encoder, final AdaptiveBitrateController controller, final int seconds) {
+		for (int i = 0; i < seconds * FRAME_RATE; i++) {
+			encoder.step(controller, mNowNs);
+			mNowNs += FRAME_NS;
+		}
+	}
+
+	@Test
+	public void stableWithEnoughThroughput() {
+		final AdaptiveBitrateController controller = createController();
+		final SimulatedVideoEncoder encoder = new SimulatedVideoEncoder(FRAME_RATE, BIT_RATE,
+			BIT_RATE * 4L, SimulatedVideoEncoder.DEFAULT_INPUT_SLOTS);
+		controller.setCallback(encoder);
+		run(encoder, controller, 30);
+		assertEquals(0, controller.getDecreaseCount());
+		assertEquals(0, encoder.getRejectedFrames());
+		assertEquals(0, controller.getStallCount());
+		assertEquals(FRAME_RATE, controller.getFrameRate());
+		// bitrate goes up to its upper bound but not beyond
+		assertEquals(controller.getMaxBitRate(), controller.getBitRate());
+		assertEquals(controller.getBitRate(), encoder.getBitRate());
+	}
+
+	@Test
+	public void convergesWhenThrottled() {
+		final AdaptiveBitrateController controller = createController();
+		final SimulatedVideoEncoder encoder = new SimulatedVideoEncoder(FRAME_RATE, BIT_RATE,
+			BIT_RATE * 2L, SimulatedVideoEncoder.DEFAULT_INPUT_SLOTS);
+		controller.setCallback(encoder);
+		run(encoder, controller, 5);
+		// throttled to 60% of the initial bitrate
+		final long throughput = BIT_RATE * 6L / 10;
+		encoder.setThroughput(throughput);
+		run(encoder, controller, 20);
+		assertTrue(controller.getDecreaseCount() > 0);
+		assertEquals(FRAME_RATE, controller.getFrameRate());
+		// AIMD probes above the throughput periodically, bitrate should stay around it
+		// without collapsing to the lower bound or dropping many frames
+		final long rejected = encoder.getRejectedFrames();
+		long sum = 0;
+		for (int i = 0; i < 60; i++) {
+			run(encoder, controller, 1);
+			final int bitRate = controller.getBitRate();
+			assertTrue("bitrate=" + bitRate, bitRate >= throughput / 2);
+			assertTrue("bitrate=" + bitRate, bitRate <= throughput * 115 / 100);
+			sum += bitRate;
+		}
+		final long average = sum / 60;
+		assertTrue("average=" + average, average >= throughput * 6 / 10);
+		assertTrue("average=" + average, average <= throughput);
+		assertEquals(FRAME_RATE, controller.getFrameRate());
+		assertTrue(encoder.getRejectedFrames() - rejected < 60 * FRAME_RATE / 100);
+	}
+
+	@Test
+	public void dropsFrameRateAtMinimumBitRate() {
+		final AdaptiveBitrateController controller = createController();
+		final SimulatedVideoEncoder encoder = new SimulatedVideoEncoder(FRAME_RATE, BIT_RATE,
+			BIT_RATE / 8, SimulatedVideoEncoder.DEFAULT_INPUT_SLOTS);
+		controller.setCallback(encoder);
+		run(encoder, controller, 30);
+		assertEquals(controller.getMinBitRate(), controller.getBitRate());
+		assertTrue(controller.getFrameRate() < FRAME_RATE);
+		assertTrue(controller.getFrameRate() >= FRAME_RATE / 3);
+		assertTrue(controller.getSkippedFrames() > 0);
+	}
+
+	@Test
+	public void recoversAfterThrottling() {
+		final AdaptiveBitrateController controller = createController();
+		final SimulatedVideoEncoder encoder = new SimulatedVideoEncoder(FRAME_RATE, BIT_RATE,
+			BIT_RATE / 8, SimulatedVideoEncoder.DEFAULT_INPUT_SLOTS);
+		controller.setCallback(encoder);
+		run(encoder, controller, 30);
+		final int lowBitRate = controller.getBitRate();
+		encoder.setThroughput(BIT_RATE * 4L);
+		run(encoder, controller, 120);
+		assertEquals(FRAME_RATE, controller.getFrameRate());
+		assertTrue(controller.getBitRate() > lowBitRate);
+		assertFalse(controller.isCongested());
+	}
+
+	@Test
+	public void surfaceInputStallIsCongestion() {
+		// Surface input never rejects frames, only the backlog tells the stall
+		final AdaptiveBitrateController controller = createController();
+		controller.setThresholds(SEC_NS, 64, 200000000L);
+		controller.update(0);
+		controller.onFrameSubmitted(0);
+		// next frame is submitted while the first one is still in the encoder after 300ms
+		controller.onFrameSubmitted(300000000L);
+		controller.onFrameEncoded(1000, 300000000L);
+		controller.onFrameEncoded(1000, 300000000L);
+		// average latency 150ms and queue depth 2 are below thresholds
+		assertTrue(controller.update(SEC_NS));
+		assertEquals(150000000L, controller.getAverageLatencyNs());
+		assertEquals(2, controller.getQueueDepth());
+		assertTrue(controller.isCongested());
+		assertEquals(1, controller.getStallCount());
+		assertTrue(controller.getBitRate() < BIT_RATE);
+	}
+
+	@Test
+	public void noStallWhileEncoderKeepsUp() {
+		final AdaptiveBitrateController controller = createController();
+		controller.update(0);
+		for (int i = 0; i < FRAME_RATE; i++) {
+			controller.onFrameSubmitted(i * FRAME_NS);
+			controller.onFrameSubmitted(i * FRAME_NS + 1);
+			controller.onFrameEncoded(1000, i * FRAME_NS + FRAME_NS / 2);
+			controller.onFrameEncoded(1000, i * FRAME_NS + FRAME_NS / 2);
+		}
+		controller.update(SEC_NS);
+		assertFalse(controller.isCongested());
+		assertEquals(0, controller.getStallCount());
+	}
+}
@@ -0,0 +1,110 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BitratePlannerTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class BitratePlannerTest {
+	private static final float DELTA = 1e-4f;
+
+	@Test
+	public void referenceBpp() {
+		assertEquals(BitratePlanner.DEFAULT_BPP, BitratePlanner.calcBpp(640, 480, 15), DELTA);
+		// 16 times of pixels and frame rate halve bpp
+		assertEquals(BitratePlanner.DEFAULT_BPP / 2, BitratePlanner.calcBpp(2560, 1920, 15), DELTA);
+		assertEquals(BitratePlanner.DEFAULT_BPP / 2, BitratePlanner.calcBpp(640, 480, 240), DELTA);
+	}
+
+	@Test
+	public void bppDecreasesForLargerFramesAndHigherFrameRates() {
+		final int[][] sizes = { {320, 240}, {640, 480}, {1280, 720}, {1920, 1080} };
+		for (int i = 1; i < sizes.length; i++) {
+			assertTrue(BitratePlanner.calcBpp(sizes[i][0], sizes[i][1], 30)
+				< BitratePlanner.calcBpp(sizes[i - 1][0], sizes[i - 1][1], 30));
+			// bitrate itself still increases
+			assertTrue(BitratePlanner.plan(sizes[i][0], sizes[i][1], 30, 1, 0).bitRate
+				> BitratePlanner.plan(sizes[i - 1][0], sizes[i - 1][1], 30, 1, 0).bitRate);
+		}
+		assertTrue(BitratePlanner.calcBpp(1280, 720, 30) < BitratePlanner.calcBpp(1280, 720, 15));
+	}
+
+	@Test
+	public void planBitRate() {
+		final BitratePlanner.Plan plan = BitratePlanner.plan(640, 480, 15, 10, 0);
+		assertEquals(BitratePlanner.calcBitRate(640, 480, 15, BitratePlanner.DEFAULT_BPP), plan.bitRate);
+		assertEquals(2304000, plan.bitRate);
+		assertEquals(BitratePlanner.DEFAULT_BPP, plan.bpp, DELTA);
+		// 1280x720@30: 0.5 * (307200 / 921600)^0.25 * (15 / 30)^0.25 * 30 * 921600
+		final BitratePlanner.Plan hd = BitratePlanner.plan(1280, 720, 30, 2, 0);
+		assertEquals(0.5 * Math.pow(1 / 3.0, 0.25) * Math.pow(0.5, 0.25) * 30 * 921600, hd.bitRate, 1000);
+	}
+
+	@Test
+	public void planBitRateIsClamped() {
+		assertEquals(BitratePlanner.MIN_BIT_RATE, BitratePlanner.plan(16, 16, 1, 1, 0).bitRate);
+		assertEquals(1000000, BitratePlanner.plan(1920, 1080, 30, 1, 1000000).bitRate);
+		// the limit does not raise the bitrate
+		assertEquals(2304000, BitratePlanner.plan(640, 480, 15, 1, 10000000).bitRate);
+	}
+
+	@Test
+	public void planGop() {
+		assertEquals(300, BitratePlanner.plan(1280, 720, 30, 10, 0).gopFrames);
+		assertEquals(10, BitratePlanner.plan(1280, 720, 30, 10, 0).iFrameInterval);
+		// all frames are I-frame
+		assertEquals(1, BitratePlanner.plan(1280, 720, 30, 0, 0).gopFrames);
+	}
+
+	@Test
+	public void planIFrameInterval() {
+		assertEquals(5, BitratePlanner.planIFrameInterval(60, 5));
+		assertEquals(6, BitratePlanner.planIFrameInterval(60, 7));
+		assertEquals(3, BitratePlanner.planIFrameInterval(9, 4));
+		assertEquals(1, BitratePlanner.planIFrameInterval(7, 5));
+		assertEquals(2, BitratePlanner.planIFrameInterval(2, 10));
+	}
+
+	@Test
+	public void invalidArguments() {
+		final int[][] args = { {0, 480, 15, 1}, {640, -1, 15, 1}, {640, 480, 0, 1}, {640, 480, 15, -1} };
+		for (final int[] a: args) {
+			try {
+				BitratePlanner.plan(a[0], a[1], a[2], a[3], 0);
+				fail("accepted " + a[0] + "x" + a[1] + "@" + a[2] + ",interval=" + a[3]);
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			BitratePlanner.planIFrameInterval(0, 1);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: EncoderConfigTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.serenegiant.usb.FormatDescriptor;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+public class EncoderConfigTest {
+
+	@Test
+	public void sizeTypeFollowsPreviewMode() {
+		final EncoderConfig config = new EncoderConfig(1280, 720, 30);
+		assertEquals(FormatDescriptor.TYPE_UNCOMPRESSED, config.getSizeType());
+		config.setPreviewMode(UVCCamera.FRAME_FORMAT_MJPEG);
+		assertEquals(FormatDescriptor.TYPE_MJPEG, config.getSizeType());
+	}
+
+	@Test
+	public void supportedSize() {
+		final List<Size> sizes = new ArrayList<Size>();
+		sizes.add(new Size(FormatDescriptor.TYPE_UNCOMPRESSED, 0, 640, 480));
+		sizes.add(new Size(FormatDescriptor.TYPE_MJPEG, 0, 1280, 720));
+		final EncoderConfig config = new EncoderConfig(1280, 720, 30);
+		// 1280x720 is available only in MJPEG mode
+		assertFalse(config.isSupported(sizes));
+		config.setPreviewMode(UVCCamera.FRAME_FORMAT_MJPEG);
+		assertTrue(config.isSupported(sizes));
+		config.validate(sizes);
+		assertFalse(config.setSize(640, 480).isSupported(sizes));
+		assertFalse(config.isSupported(null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void validateUnsupportedSize() {
+		new EncoderConfig(1920, 1080, 30).validate(new ArrayList<Size>());
+	}
+
+	@Test
+	public void bitRateFromPlanUnlessSpecified() {
+		final EncoderConfig config = new EncoderConfig(640, 480, 15);
+		assertEquals(BitratePlanner.plan(640, 480, 15, EncoderConfig.DEFAULT_I_FRAME_INTERVAL, 0).bitRate,
+			config.getBitRate());
+		config.setBitRate(1000000);
+		assertEquals(1000000, config.getBitRate());
+	}
+
+	@Test
+	public void copyIsEqual() {
+		final EncoderConfig config = new EncoderConfig(1280, 720, 30)
+			.setPreviewMode(UVCCamera.FRAME_FORMAT_MJPEG).setIFrameInterval(2);
+		final EncoderConfig copy = new EncoderConfig(config);
+		assertEquals(config, copy);
+		assertEquals(config.hashCode(), copy.hashCode());
+		copy.setFrameRate(15);
+		assertFalse(config.equals(copy));
+	}
+}
@@ -0,0 +1,485 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FragmentedMp4MuxerTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FragmentedMp4MuxerTest {
+	private static final byte[] SPS = {0x67, 0x42, (byte)0xc0, 0x1f, 0x11, 0x22};
+	private static final byte[] PPS = {0x68, (byte)0xce, 0x3c, (byte)0x80};
+	private static final byte[] ASC = {0x12, 0x08};	// AAC LC, 44100Hz, mono
+	private static final int SAMPLE_RATE = 44100;
+	private static final long BASE_US = 123456789L;
+	private static final long FRAME_US = 33333L;
+	private static final int GOP = 30;
+	// a little shorter than a GOP so that each fragment has a GOP
+	private static final long FRAGMENT_US = 900000L;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	/**
+	 * box in the file, payload includes version and flags of full box
+	 */
+	private static final class Box {
+		final String type;
+		final int position;
+		final int size;
+		final ByteBuffer payload;
+
+		Box(final ByteBuffer file, final int position) {
+			this.position = position;
+			size = file.getInt(position);
+			final char[] fourcc = new char[4];
+			for (int i = 0; i < 4; i++) fourcc[i] = (char)file.get(position + 4 + i);
+			type = new String(fourcc);
+			final ByteBuffer buf = file.duplicate();
+			buf.limit(position + size).position(position + 8);
+			payload = buf.slice();
+		}
+
+		List<Box> children(final int offset) {
+			return parse(payload, offset);
+		}
+
+		Box child(final String type, final int offset) {
+			for (final Box box: children(offset)) {
+				if (type.equals(box.type)) return box;
+			}
+			return null;
+		}
+
+		Box child(final String type) {
+			return child(type, 0);
+		}
+
+		int version() {
+			return payload.get(0) & 0xff;
+		}
+
+		int flags() {
+			return payload.getInt(0) & 0xffffff;
+		}
+	}
+
+	private static List<Box> parse(final ByteBuffer buf, final int offset) {
+		final List<Box> result = new ArrayList<Box>();
+		int pos = offset;
+		while (pos + 8 <= buf.limit()) {
+			final Box box = new Box(buf, pos);
+			assertTrue("size of " + box.type, (box.size >= 8) && (pos + box.size <= buf.limit()));
+			result.add(box);
+			pos += box.size;
+		}
+		assertEquals(buf.limit(), pos);
+		return result;
+	}
+
+	/**
+	 * H.264 and AAC samples that were written, video samples are in length prefixed format
+	 */
+	private static final class Recording {
+		final List<byte[]> video = new ArrayList<byte[]>();
+		final List<Long> videoPts = new ArrayList<Long>();
+		final List<byte[]> audio = new ArrayList<byte[]>();
+		final List<Long> audioPts = new ArrayList<Long>();
+		long lastPtsUs;
+	}
+
+	private static byte[] cat(final byte[]... arrays) {
+		int n = 0;
+		for (final byte[] a: arrays) n += a.length;
+		final byte[] result = new byte[n];
+		int pos = 0;
+		for (final byte[] a: arrays) {
+			System.arraycopy(a, 0, result, pos, a.length);
+			pos += a.length;
+		}
+		return result;
+	}
+
+	private static byte[] length(final int n) {
+		return new byte[] {(byte)(n >>> 24), (byte)(n >>> 16), (byte)(n >>> 8), (byte)n};
+	}
+
+	private static FragmentedMp4Muxer createMuxer(final File file, final int bufferSize, final int[] tracks)
+		throws IOException {
+
+		final FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(file, FRAGMENT_US, bufferSize, 1024);
+		tracks[0] = muxer.addTrack(FragmentedMp4Muxer.createAvcFormat(640, 480,
+			ByteBuffer.wrap(cat(new byte[] {0, 0, 0, 1}, SPS)), ByteBuffer.wrap(cat(new byte[] {0, 0, 0, 1}, PPS))));
+		tracks[1] = muxer.addTrack(FragmentedMp4Muxer.createAacFormat(SAMPLE_RATE, 1, ByteBuffer.wrap(ASC)));
+		muxer.start();
+		return muxer;
+	}
+
+	/**
+	 * write interleaved 30fps H.264 in Annex-B format and 44.1kHz AAC like MediaCodec outputs
+	 * @param largeFrame index of the video frame that is larger than the buffer of the muxer, -1 if none
+	 */
+	private static Recording mux(final FragmentedMp4Muxer muxer, final int[] tracks,
+		final int frames, final int largeFrame, final int largeSize) throws IOException {
+
+		final Recording result = new Recording();
+		final Random random = new Random(2);
+		double audioPts = BASE_US;
+		for (int i = 0; i < frames; i++) {
+			final long pts = BASE_US + i * FRAME_US;
+			while (audioPts <= pts) {
+				final byte[] sample = new byte[200 + random.nextInt(200)];
+				random.nextBytes(sample);
+				// sample is at the offset of the buffer
+				final ByteBuffer buf = ByteBuffer.allocateDirect(sample.length + 8);
+				buf.position(8);
+				buf.put(sample);
+				muxer.writeSampleData(tracks[1], buf, 8, sample.length, (long)audioPts, 0);
+				result.audio.add(sample);
+				result.audioPts.add((long)audioPts);
+				result.lastPtsUs = Math.max(result.lastPtsUs, (long)audioPts);
+				audioPts += 1024 * 1000000.0 / SAMPLE_RATE;
+			}
+			final boolean isKey = (i % GOP) == 0;
+			final int size = (i == largeFrame) ? largeSize : (isKey ? 8000 : 1000 + random.nextInt(2000));
+			final byte[] slice = new byte[size];
+			random.nextBytes(slice);
+			slice[0] = (byte)(isKey ? 0x65 : 0x41);
+			for (int j = 1; j < size; j++) {
+				if (slice[j] == 0) slice[j] = 7;	// no start code in the payload
+			}
+			final byte[] sei = {0x06, 5, 1, 2, 3, (byte)0x80};
+			final byte[] annexB;
+			if (isKey) {
+				// 4 bytes start code for the first NAL and 3 bytes for the second
+				annexB = cat(new byte[] {0, 0, 0, 1}, slice, new byte[] {0, 0, 1}, sei);
+				result.video.add(cat(length(size), slice, length(sei.length), sei));
+			} else {
+				annexB = cat(new byte[] {0, 0, 0, 1}, slice);
+				result.video.add(cat(length(size), slice));
+			}
+			muxer.writeSampleData(tracks[0], ByteBuffer.wrap(annexB), 0, annexB.length,
+				pts, isKey ? FragmentedMp4Muxer.FLAG_SYNC_FRAME : 0);
+			result.videoPts.add(pts);
+			result.lastPtsUs = Math.max(result.lastPtsUs, pts);
+		}
+		muxer.stop();
+		return result;
+	}
+
+	private static ByteBuffer readAll(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int)raf.length()];
+			raf.readFully(bytes);
+			return ByteBuffer.wrap(bytes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static long toTimescale(final long ptsUs, final int timescale) {
+		return (ptsUs - BASE_US) * timescale / 1000000L;
+	}
+
+	@Test
+	public void boxes() throws IOException {
+		final File file = mFolder.newFile("boxes.mp4");
+		final int[] tracks = new int[2];
+		final FragmentedMp4Muxer muxer = createMuxer(file, 256 * 1024, tracks);
+		final int frames = GOP * 10;
+		final Recording recording = mux(muxer, tracks, frames, -1, 0);
+		final ByteBuffer mp4 = readAll(file);
+		assertEquals(mp4.capacity(), muxer.getWrittenBytes());
+
+		final List<Box> boxes = parse(mp4, 0);
+		assertEquals("ftyp", boxes.get(0).type);
+		final Box moov = boxes.get(1);
+		assertEquals("moov", moov.type);
+		// moov has the tracks but no samples
+		assertEquals(1000, moov.child("mvhd").payload.getInt(12));
+		final List<Box> traks = new ArrayList<Box>();
+		for (final Box box: moov.children(0)) {
+			if ("trak".equals(box.type)) traks.add(box);
+		}
+		assertEquals(2, traks.size());
+		assertEquals(90000, traks.get(0).child("mdia").child("mdhd").payload.getInt(12));
+		assertEquals(SAMPLE_RATE, traks.get(1).child("mdia").child("mdhd").payload.getInt(12));
+		final Box mvex = moov.child("mvex");
+		assertNotNull(mvex);
+		final Box mehd = mvex.child("mehd");
+		assertEquals(1, mehd.version());
+		assertEquals((recording.lastPtsUs - BASE_US) / 1000, mehd.payload.getLong(4));
+		int trex = 0;
+		for (final Box box: mvex.children(0)) {
+			if ("trex".equals(box.type)) {
+				assertEquals(++trex, box.payload.getInt(4));	// track_ID
+			}
+		}
+		assertEquals(2, trex);
+
+		// moof and mdat pairs, each fragment starts with a key frame
+		final int[] timescales = {90000, SAMPLE_RATE};
+		final long[] nextTime = {0, 0};
+		final int[] sampleIndex = {0, 0};
+		final List<List<byte[]>> expected = Arrays.asList(recording.video, recording.audio);
+		int sequence = 0;
+		for (int i = 2; i < boxes.size(); i += 2) {
+			final Box moof = boxes.get(i);
+			final Box mdat = boxes.get(i + 1);
+			assertEquals("moof", moof.type);
+			assertEquals("mdat", mdat.type);
+			assertEquals(++sequence, moof.child("mfhd").payload.getInt(4));
+			// data of each traf follows that of the previous traf in mdat
+			int dataPosition = mdat.position + 8;
+			for (final Box traf: moof.children(0)) {
+				if (!"traf".equals(traf.type)) continue;
+				final Box tfhd = traf.child("tfhd");
+				assertEquals(0x020000, tfhd.flags());	// default-base-is-moof only
+				final int t = tfhd.payload.getInt(4) - 1;
+				final Box tfdt = traf.child("tfdt");
+				assertEquals(1, tfdt.version());
+				final long baseTime = tfdt.payload.getLong(4);
+				final Box trun = traf.child("trun");
+				assertEquals(0x000701, trun.flags());
+				final int count = trun.payload.getInt(4);
+				assertEquals("data_offset of fragment " + sequence,
+					dataPosition, moof.position + trun.payload.getInt(8));
+				if (t == 0) {
+					assertEquals(GOP, count);
+					assertEquals(toTimescale(recording.videoPts.get(sampleIndex[0]), 90000), baseTime);
+					assertEquals(nextTime[0], baseTime);
+				} else {
+					assertEquals(toTimescale(recording.audioPts.get(sampleIndex[1]), SAMPLE_RATE), baseTime);
+					// duration of the last audio sample of a fragment is estimated
+					assertTrue(Math.abs(nextTime[1] - baseTime) <= 1);
+				}
+				long time = baseTime;
+				for (int j = 0; j < count; j++) {
+					final int index = sampleIndex[t]++;
+					final int duration = trun.payload.getInt(12 + j * 12);
+					final int size = trun.payload.getInt(16 + j * 12);
+					final int flags = trun.payload.getInt(20 + j * 12);
+					final byte[] data = new byte[size];
+					((ByteBuffer)mp4.duplicate().position(dataPosition)).get(data);
+					assertArrayEquals("track " + t + ", sample " + index, expected.get(t).get(index), data);
+					if ((t == 0) && ((index % GOP) == 0)) {
+						assertEquals(0, j);
+						assertEquals(0x02000000, flags);
+					} else if (t == 0) {
+						assertEquals(0x01010000, flags);
+					} else {
+						assertEquals(0x02000000, flags);	// all AAC frames are sync samples
+					}
+					if ((t == 0) && (index + 1 < frames)) {
+						assertEquals(toTimescale(recording.videoPts.get(index + 1), timescales[t]), time + duration);
+					}
+					time += duration;
+					dataPosition += size;
+				}
+				nextTime[t] = time;
+			}
+			assertEquals(mdat.position + mdat.size, dataPosition);
+		}
+		assertEquals(frames / GOP, sequence);
+		assertEquals(sequence, muxer.getFragmentCount());
+		assertEquals(recording.video.size(), sampleIndex[0]);
+		assertEquals(recording.audio.size(), sampleIndex[1]);
+	}
+
+	@Test
+	public void readIndex() throws IOException {
+		final File file = mFolder.newFile("index.mp4");
+		final int[] tracks = new int[2];
+		final FragmentedMp4Muxer muxer = createMuxer(file, 256 * 1024, tracks);
+		final Recording recording = mux(muxer, tracks, GOP * 4, -1, 0);
+		final FragmentedMp4Muxer.Index index = FragmentedMp4Muxer.readIndex(file);
+		assertArrayEquals(new int[] {1, 2}, index.trackIds);
+		assertArrayEquals(new int[] {90000, SAMPLE_RATE}, index.timescales);
+		assertArrayEquals(new String[] {"vide", "soun"}, index.handlers);
+		assertEquals((recording.lastPtsUs - BASE_US) / 1000, index.durationMs);
+		assertEquals(4, index.fragmentCount);
+		assertEquals(recording.video.size() + recording.audio.size(), index.samples.size());
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			int video = 0, audio = 0;
+			for (final FragmentedMp4Muxer.Sample sample: index.samples) {
+				if (sample.trackId == 1) {
+					assertEquals(toTimescale(recording.videoPts.get(video), 90000), sample.time);
+					assertEquals((video % GOP) == 0, sample.isSync);
+					assertArrayEquals(recording.video.get(video++), index.readSample(raf, sample));
+				} else {
+					assertTrue(sample.isSync);
+					assertArrayEquals(recording.audio.get(audio++), index.readSample(raf, sample));
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void largeSample() throws IOException {
+		final File file = mFolder.newFile("large.mp4");
+		final int[] tracks = new int[2];
+		final int bufferSize = 64 * 1024;
+		final FragmentedMp4Muxer muxer = createMuxer(file, bufferSize, tracks);
+		// key frame in the middle of the 3rd GOP that is larger than the buffer
+		final int large = GOP * 2;
+		final Recording recording = mux(muxer, tracks, GOP * 4, large, bufferSize * 2);
+		final FragmentedMp4Muxer.Index index = FragmentedMp4Muxer.readIndex(file);
+		assertEquals(muxer.getFragmentCount(), index.fragmentCount);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			int video = 0, audio = 0;
+			FragmentedMp4Muxer.Sample prev = null;
+			for (final FragmentedMp4Muxer.Sample sample: index.samples) {
+				if (sample.trackId == 1) {
+					if (video == large) {
+						// written as a fragment of its own
+						assertTrue(sample.size > bufferSize);
+						assertFalse((prev != null) && (prev.offset + prev.size == sample.offset));
+					}
+					assertArrayEquals("video " + video, recording.video.get(video++), index.readSample(raf, sample));
+				} else {
+					assertArrayEquals("audio " + audio, recording.audio.get(audio++), index.readSample(raf, sample));
+				}
+				prev = sample;
+			}
+			assertEquals(recording.video.size(), video);
+			assertEquals(recording.audio.size(), audio);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void dropUntilKeyFrame() throws IOException {
+		final File file = mFolder.newFile("drop.mp4");
+		final int[] tracks = new int[2];
+		final FragmentedMp4Muxer muxer = createMuxer(file, 256 * 1024, tracks);
+		final byte[] nonKey = {0, 0, 0, 1, 0x41, 1, 2};
+		muxer.writeSampleData(tracks[0], ByteBuffer.wrap(nonKey), 0, nonKey.length, BASE_US - 1000, 0);
+		final Recording recording = mux(muxer, tracks, GOP, -1, 0);
+		assertEquals(1, muxer.getDroppedCount());
+		final FragmentedMp4Muxer.Index index = FragmentedMp4Muxer.readIndex(file);
+		assertEquals(recording.video.size() + recording.audio.size(), index.samples.size());
+		for (final FragmentedMp4Muxer.Sample sample: index.samples) {
+			if (sample.trackId == 1) {
+				// timestamps start from the first key frame, not the dropped frame
+				assertEquals(0, sample.time);
+				assertTrue(sample.isSync);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * B-frames(presentation order I0 B1 B2 P3, decode order I0 P3 B1 B2) and audio that goes back in time,
+	 * durations in trun should not be negative(huge as unsigned)
+	 */
+	@Test
+	public void outOfOrderTimestamps() throws IOException {
+		final File file = mFolder.newFile("reorder.mp4");
+		final int[] tracks = new int[2];
+		final FragmentedMp4Muxer muxer = createMuxer(file, 256 * 1024, tracks);
+		final int groups = 40;
+		final List<byte[]> video = new ArrayList<byte[]>();
+		final List<Long> pts = new ArrayList<Long>();
+		pts.add(0L);
+		for (int k = 0; k < groups; k++) {
+			pts.add(3L * k + 3);
+			pts.add(3L * k + 1);
+			pts.add(3L * k + 2);
+		}
+		for (int i = 0; i < pts.size(); i++) {
+			final byte[] slice = {(byte)(i == 0 ? 0x65 : 0x41), (byte)i, 1, 2, 3};
+			final byte[] annexB = cat(new byte[] {0, 0, 0, 1}, slice);
+			video.add(cat(length(slice.length), slice));
+			muxer.writeSampleData(tracks[0], ByteBuffer.wrap(annexB), 0, annexB.length,
+				BASE_US + pts.get(i) * FRAME_US, i == 0 ? FragmentedMp4Muxer.FLAG_SYNC_FRAME : 0);
+			// audio sample with a timestamp that is a little earlier than the previous one
+			final byte[] audio = {(byte)i, 2, 3};
+			final long audioPts = BASE_US + i * FRAME_US - ((i % 5) == 4 ? 2 * FRAME_US : 0);
+			muxer.writeSampleData(tracks[1], ByteBuffer.wrap(audio), 0, audio.length, Math.max(BASE_US, audioPts), 0);
+		}
+		muxer.stop();
+		// 2 B-frames of each group and every 5th audio sample
+		assertEquals(2 * groups + pts.size() / 5, muxer.getReorderedCount());
+
+		final ByteBuffer mp4 = readAll(file);
+		final long[] nextTime = {-1, -1};
+		for (final Box box: parse(mp4, 0)) {
+			if (!"moof".equals(box.type)) continue;
+			for (final Box traf: box.children(0)) {
+				if (!"traf".equals(traf.type)) continue;
+				final int t = traf.child("tfhd").payload.getInt(4) - 1;
+				long time = traf.child("tfdt").payload.getLong(4);
+				if (nextTime[t] >= 0) {
+					assertTrue("tfdt of track " + t, time >= nextTime[t]);
+				}
+				final Box trun = traf.child("trun");
+				final int count = trun.payload.getInt(4);
+				for (int j = 0; j < count; j++) {
+					final int duration = trun.payload.getInt(12 + j * 12);
+					assertTrue("duration of track " + t + ":" + duration, (duration >= 0) && (duration <= 90000));
+					time += duration;
+				}
+				nextTime[t] = time;
+			}
+		}
+		// all samples are kept in decode order
+		final FragmentedMp4Muxer.Index index = FragmentedMp4Muxer.readIndex(file);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			int v = 0;
+			long last = -1;
+			for (final FragmentedMp4Muxer.Sample sample: index.samples) {
+				if (sample.trackId != 1) continue;
+				assertTrue(sample.time >= last);
+				last = sample.time;
+				assertArrayEquals("video " + v, video.get(v++), index.readSample(raf, sample));
+			}
+			assertEquals(video.size(), v);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MjpegAviWriterTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MjpegAviWriterTest {
+	// layout of the headers that MjpegAviWriter writes
+	private static final int OFFSET_TOTAL_FRAMES = 48;	// avih.dwTotalFrames
+	private static final int OFFSET_MOVI = 220;
+	private static final int HEADER_SIZE = 224;
+	private static final int BUFFER_SIZE = 4096;
+	private static final long FRAME_US = 40000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	/**
+	 * odd and even sized frames, and frames larger than the write buffer(odd one too)
+	 */
+	private static List<byte[]> createFrames(final int n) {
+		final Random random = new Random(1);
+		final List<byte[]> result = new ArrayList<byte[]>(n);
+		for (int i = 0; i < n; i++) {
+			final int size;
+			switch (i % 10) {
+			case 3:	size = BUFFER_SIZE * 2 + 1; break;
+			case 7:	size = BUFFER_SIZE + 100; break;
+			default: size = 100 + random.nextInt(1000); break;
+			}
+			final byte[] frame = new byte[size];
+			random.nextBytes(frame);
+			frame[0] = (byte)0xff;
+			frame[1] = (byte)0xd8;
+			result.add(frame);
+		}
+		return result;
+	}
+
+	private static File write(final File file, final List<byte[]> frames) throws IOException {
+		final MjpegAviWriter writer = new MjpegAviWriter(file, 640, 480, 30, BUFFER_SIZE);
+		for (int i = 0; i < frames.size(); i++) {
+			final byte[] frame = frames.get(i);
+			// frame is not at the start of the buffer and position should not be changed
+			final ByteBuffer buf = ByteBuffer.allocateDirect(frame.length + 10);
+			buf.position(5);
+			buf.put(frame).flip();
+			buf.position(5);
+			assertTrue(writer.writeFrame(buf, i * FRAME_US));
+			assertEquals(5, buf.position());
+		}
+		assertEquals(frames.size(), writer.getFrameCount());
+		writer.close();
+		return file;
+	}
+
+	private static ByteBuffer readAll(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int)raf.length()];
+			raf.readFully(bytes);
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static String fourcc(final ByteBuffer buf, final int offset) {
+		final StringBuilder sb = new StringBuilder(4);
+		for (int i = 0; i < 4; i++)
+			sb.append((char)buf.get(offset + i));
+		return sb.toString();
+	}
+
+	@Test
+	public void layout() throws IOException {
+		final List<byte[]> frames = createFrames(25);
+		final File file = write(mFolder.newFile("layout.avi"), frames);
+		final ByteBuffer avi = readAll(file);
+		final int length = avi.capacity();
+
+		assertEquals("RIFF", fourcc(avi, 0));
+		assertEquals(length - 8, avi.getInt(4));
+		assertEquals("AVI ", fourcc(avi, 8));
+		assertEquals("avih", fourcc(avi, OFFSET_TOTAL_FRAMES - 24));
+		assertEquals(frames.size(), avi.getInt(OFFSET_TOTAL_FRAMES));
+		assertEquals(1000000 / 25, avi.getInt(OFFSET_TOTAL_FRAMES - 16));	// dwMicroSecPerFrame from timestamps
+		assertEquals("movi", fourcc(avi, OFFSET_MOVI));
+
+		// movi list, chunks are padded to even size
+		int pos = HEADER_SIZE;
+		final int[] expectedOffsets = new int[frames.size()];
+		for (int i = 0; i < frames.size(); i++) {
+			final byte[] frame = frames.get(i);
+			expectedOffsets[i] = pos - OFFSET_MOVI;
+			assertEquals("00dc", fourcc(avi, pos));
+			assertEquals(frame.length, avi.getInt(pos + 4));
+			final byte[] data = new byte[frame.length];
+			((ByteBuffer)avi.duplicate().position(pos + 8)).get(data);
+			assertArrayEquals("frame " + i, frame, data);
+			pos += 8 + frame.length;
+			if ((frame.length & 1) != 0) {
+				assertEquals("padding of frame " + i, 0, avi.get(pos));
+				pos++;
+			}
+		}
+		assertEquals(pos - OFFSET_MOVI, avi.getInt(OFFSET_MOVI - 4));
+
+		// idx1 just after movi list, offsets are relative to 'movi' fourcc
+		assertEquals("idx1", fourcc(avi, pos));
+		assertEquals(frames.size() * 16, avi.getInt(pos + 4));
+		pos += 8;
+		for (int i = 0; i < frames.size(); i++, pos += 16) {
+			assertEquals("00dc", fourcc(avi, pos));
+			assertEquals(0x10, avi.getInt(pos + 4));	// AVIIF_KEYFRAME
+			assertEquals("offset of frame " + i, expectedOffsets[i], avi.getInt(pos + 8));
+			assertEquals("size of frame " + i, frames.get(i).length, avi.getInt(pos + 12));
+		}
+		assertEquals(length, pos);
+	}
+
+	@Test
+	public void readIndex() throws IOException {
+		final List<byte[]> frames = createFrames(1500);
+		final File file = write(mFolder.newFile("index.avi"), frames);
+		final MjpegAviWriter.Index index = MjpegAviWriter.readIndex(file);
+		assertEquals(640, index.width);
+		assertEquals(480, index.height);
+		assertEquals(frames.size(), index.totalFrames);
+		assertEquals(frames.size(), index.getFrameCount());
+		assertEquals(1000000 / 25, index.microSecPerFrame);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long pos = HEADER_SIZE;
+			for (int i = 0; i < frames.size(); i++) {
+				final byte[] frame = frames.get(i);
+				assertEquals("offset of frame " + i, pos + 8, index.offsets[i]);
+				assertEquals("size of frame " + i, frame.length, index.sizes[i]);
+				assertArrayEquals("frame " + i, frame, index.readFrame(raf, i));
+				pos += 8 + frame.length + (frame.length & 1);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void noFrames() throws IOException {
+		final File file = mFolder.newFile("empty.avi");
+		new MjpegAviWriter(file, 320, 240, 15).close();
+		final MjpegAviWriter.Index index = MjpegAviWriter.readIndex(file);
+		assertEquals(0, index.totalFrames);
+		assertEquals(0, index.getFrameCount());
+		// nominal frame rate is used
+		assertEquals(Math.round(1000000 / 15.0f), index.microSecPerFrame);
+		assertEquals(HEADER_SIZE + 8, file.length());
+	}
+
+	@Test
+	public void writeAfterClose() throws IOException {
+		final MjpegAviWriter writer = new MjpegAviWriter(mFolder.newFile("closed.avi"), 320, 240, 15);
+		writer.close();
+		try {
+			writer.writeFrame(ByteBuffer.allocate(10), 0);
+			fail("writeFrame after close should throw");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void brokenIndex() throws IOException {
+		final File file = write(mFolder.newFile("broken.avi"), createFrames(5));
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// size of the last idx1 entry
+			raf.seek(raf.length() - 4);
+			raf.write(new byte[] {1, 0, 0, 0});
+		} finally {
+			raf.close();
+		}
+		try {
+			MjpegAviWriter.readIndex(file);
+			fail("readIndex should detect the mismatch");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PreRollBufferTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PreRollBufferTest {
+	private static final int FLAG_KEY = 1;
+	private static final long FRAME_US = 33333;
+
+	private static class Sample {
+		final int track, flags;
+		final long ptsUs;
+		final byte[] data;
+
+		Sample(final int track, final ByteBuffer buffer, final int offset, final int size, final long ptsUs, final int flags) {
+			this.track = track;
+			this.ptsUs = ptsUs;
+			this.flags = flags;
+			data = new byte[size];
+			final ByteBuffer b = buffer.duplicate();
+			b.clear().position(offset);
+			b.get(data);
+		}
+	}
+
+	private static class Collector implements PreRollBuffer.SampleWriter {
+		final List<Sample> samples = new ArrayList<Sample>();
+
+		@Override
+		public void writeSample(final int track, final ByteBuffer buffer, final int offset, final int size,
+			final long presentationTimeUs, final int flags) {
+
+			samples.add(new Sample(track, buffer, offset, size, presentationTimeUs, flags));
+		}
+	}
+
+	/**
+	 * sample data is filled with the low byte of its index so the order can be checked
+	 */
+	private static ByteBuffer sample(final int index, final int size) {
+		final ByteBuffer buf = ByteBuffer.allocate(size);
+		for (int i = 0; i < size; i++)
+			buf.put((byte)(index + i));
+		buf.flip();
+		return buf;
+	}
+
+	private static void assertSample(final int index, final Sample sample) {
+		assertEquals(index * FRAME_US, sample.ptsUs);
+		for (int i = 0; i < sample.data.length; i++)
+			assertEquals((byte)(index + i), sample.data[i]);
+	}
+
+	/**
+	 * add video frames with key frame every gop frames
+	 */
+	private static void addFrames(final PreRollBuffer buffer, final int from, final int to, final int gop, final int size) {
+		for (int i = from; i < to; i++) {
+			final boolean key = (i % gop) == 0;
+			assertTrue(buffer.add(0, sample(i, size), 0, size, i * FRAME_US, key ? FLAG_KEY : 0, key));
+		}
+	}
+
+	@Test
+	public void drainInOrder() {
+		final PreRollBuffer buffer = new PreRollBuffer(10000000L, 64 * 1024, 256);
+		addFrames(buffer, 0, 20, 10, 100);
+		assertEquals(20, buffer.size());
+		assertEquals(2000, buffer.getBytes());
+		assertEquals(19 * FRAME_US, buffer.getDurationUs());
+		final Collector collector = new Collector();
+		assertEquals(20, buffer.drainTo(collector));
+		assertTrue(buffer.isEmpty());
+		assertEquals(0, buffer.getBytes());
+		for (int i = 0; i < 20; i++)
+			assertSample(i, collector.samples.get(i));
+		assertEquals(FLAG_KEY, collector.samples.get(0).flags);
+		assertEquals(0, collector.samples.get(1).flags);
+		assertEquals(0, buffer.getDroppedSamples());
+	}
+
+	@Test
+	public void evictionByDurationIsGopAligned() {
+		// 1 second, GOP is 10 frames(333ms)
+		final PreRollBuffer buffer = new PreRollBuffer(1000000L, 64 * 1024, 256);
+		addFrames(buffer, 0, 100, 10, 100);
+		final Collector collector = new Collector();
+		buffer.drainTo(collector);
+		final Sample first = collector.samples.get(0);
+		assertEquals(FLAG_KEY, first.flags);
+		assertEquals(0, (first.ptsUs / FRAME_US) % 10);
+		// the last sample is always kept and duration does not exceed the limit
+		final Sample last = collector.samples.get(collector.samples.size() - 1);
+		assertSample(99, last);
+		assertTrue(last.ptsUs - first.ptsUs <= 1000000L);
+		// 30 frames(3 GOPs) fit in 1 second
+		assertEquals(30, collector.samples.size());
+		assertEquals(100 - 30, buffer.getDroppedSamples());
+		for (int i = 0; i < collector.samples.size(); i++)
+			assertSample(70 + i, collector.samples.get(i));
+	}
+
+	@Test
+	public void evictionBySampleCountIsGopAligned() {
+		final PreRollBuffer buffer = new PreRollBuffer(100000000L, 64 * 1024, 25);
+		addFrames(buffer, 0, 47, 10, 16);
+		// adding the 26th sample evicts a whole GOP, so at most 25 and at least 16 samples
+		final Collector collector = new Collector();
+		buffer.drainTo(collector);
+		assertEquals(17, collector.samples.size());
+		assertSample(30, collector.samples.get(0));
+		assertEquals(FLAG_KEY, collector.samples.get(0).flags);
+	}
+
+	@Test
+	public void wrapAroundOfBuffer() {
+		// 1000 bytes holds 7 samples of 130 bytes, samples wrap around the end of the buffer
+		final PreRollBuffer buffer = new PreRollBuffer(100000000L, 1000, 256);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(buffer.add(i % 2, sample(i, 130), 0, 130, i * FRAME_US, 0, true));
+			assertTrue(buffer.getBytes() <= buffer.getCapacity());
+		}
+		final Collector collector = new Collector();
+		final int n = buffer.drainTo(collector);
+		assertEquals(7, n);
+		for (int i = 0; i < n; i++) {
+			final Sample s = collector.samples.get(i);
+			assertSample(43 + i, s);
+			assertEquals((43 + i) % 2, s.track);
+		}
+	}
+
+	@Test
+	public void wrapAroundWithVariableSize() {
+		final PreRollBuffer buffer = new PreRollBuffer(100000000L, 4096, 256);
+		final int[] sizes = { 1500, 300, 700, 1, 999, 2048, 513, 77 };
+		for (int i = 0; i < 200; i++) {
+			final int size = sizes[i % sizes.length];
+			assertTrue(buffer.add(0, sample(i, size), 0, size, i * FRAME_US, 0, true));
+			assertTrue(buffer.getBytes() <= buffer.getCapacity());
+		}
+		final Collector collector = new Collector();
+		buffer.drainTo(collector);
+		assertFalse(collector.samples.isEmpty());
+		final int first = 200 - collector.samples.size();
+		int bytes = 0;
+		for (int i = 0; i < collector.samples.size(); i++) {
+			final Sample s = collector.samples.get(i);
+			assertEquals(sizes[(first + i) % sizes.length], s.data.length);
+			assertSample(first + i, s);
+			bytes += s.data.length;
+		}
+		assertTrue(bytes <= 4096);
+	}
+
+	@Test
+	public void sourceOffsetIsRespected() {
+		final PreRollBuffer buffer = new PreRollBuffer(1000000L, 1024, 16);
+		final ByteBuffer src = ByteBuffer.allocate(64);
+		final ByteBuffer data = sample(5, 32);
+		src.position(16);
+		src.put(data);
+		src.position(3).limit(7);
+		assertTrue(buffer.add(0, src, 16, 32, 5 * FRAME_US, 0, true));
+		// position and limit of the source are kept
+		assertEquals(3, src.position());
+		assertEquals(7, src.limit());
+		final Collector collector = new Collector();
+		buffer.drainTo(collector);
+		assertSample(5, collector.samples.get(0));
+	}
+
+	@Test
+	public void drainStartsFromKeyFrame() {
+		final PreRollBuffer buffer = new PreRollBuffer(1000000L, 64 * 1024, 256);
+		// frames before the first key frame can not be decoded and are dropped
+		for (int i = 1; i < 5; i++)
+			assertTrue(buffer.add(0, sample(i, 10), 0, 10, i * FRAME_US, 0, false));
+		assertTrue(buffer.isEmpty());
+		assertEquals(4, buffer.getDroppedSamples());
+		addFrames(buffer, 10, 25, 10, 10);
+		// trigger in the middle of GOP
+		final Collector collector = new Collector();
+		assertEquals(15, buffer.drainTo(collector));
+		assertSample(10, collector.samples.get(0));
+		assertEquals(FLAG_KEY, collector.samples.get(0).flags);
+		// the buffer can be reused after drain, it starts from a key frame again
+		assertTrue(buffer.add(0, sample(25, 10), 0, 10, 25 * FRAME_US, 0, false));
+		assertTrue(buffer.isEmpty());
+		addFrames(buffer, 30, 32, 10, 10);
+		collector.samples.clear();
+		assertEquals(2, buffer.drainTo(collector));
+		assertSample(30, collector.samples.get(0));
+	}
+
+	@Test
+	public void tooLargeSampleIsRejected() {
+		final PreRollBuffer buffer = new PreRollBuffer(1000000L, 100, 16);
+		assertTrue(buffer.add(0, sample(0, 50), 0, 50, 0, 0, true));
+		assertFalse(buffer.add(0, sample(1, 101), 0, 101, FRAME_US, 0, true));
+		assertEquals(1, buffer.size());
+		assertEquals(1, buffer.getDroppedSamples());
+	}
+}
@@ -0,0 +1,282 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SegmentRotatorTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * segment rotation of MediaMuxerWrapper without MediaMuxer,
+ * muxers are strings and side effects are recorded as events
+ */
+public class SegmentRotatorTest {
+	private static final String BASE = "/movies/2016-01-01-00-00-00";
+	private static final String EXT = ".mp4";
+	private static final String PATH0 = BASE + EXT;
+	private static final String PATH1 = BASE + "_001" + EXT;
+	private static final String PATH2 = BASE + "_002" + EXT;
+	private static final long FRAME_US = 33333;
+	private static final int FRAME_BYTES = 1000;
+
+	private static class Recorder implements SegmentRotator.Callback<String> {
+		final List<String> events = new ArrayList<String>();
+		boolean failCreate;
+
+		@Override
+		public void prepareMuxer(final int index, final String path) {
+			events.add("prepare " + index + " " + path);
+		}
+
+		@Override
+		public String createMuxer(final int index, final String path) {
+			events.add("create " + index + " " + path);
+			return failCreate ? null : "sync:" + path;
+		}
+
+		@Override
+		public void startMuxer(final String muxer) {
+			events.add("start " + muxer);
+		}
+
+		@Override
+		public void requestSyncFrame() {
+			events.add("sync frame");
+		}
+
+		@Override
+		public void onSegmentStarted(final int index, final String path) {
+			events.add("started " + index + " " + path);
+		}
+
+		@Override
+		public void onSegmentFinished(final String muxer, final int index, final String path,
+			final long durationUs, final long bytes) {
+
+			events.add("finished " + muxer + " " + index + " " + path + " " + durationUs + " " + bytes);
+		}
+
+		@Override
+		public void discardMuxer(final String muxer, final String path) {
+			events.add("discard " + muxer + " " + path);
+		}
+
+		List<String> take() {
+			final List<String> result = new ArrayList<String>(events);
+			events.clear();
+			return result;
+		}
+	}
+
+	/**
+	 * write a video frame like MediaMuxerWrapper#writeSample
+	 * @return true if the segment was switched
+	 */
+	private static boolean write(final SegmentRotator<String> rotator, final int frame, final boolean keyFrame) {
+		final boolean result = rotator.onVideoSample(frame * FRAME_US, FRAME_BYTES, keyFrame);
+		rotator.onSampleWritten(FRAME_BYTES);
+		return result;
+	}
+
+	private static SegmentRotator<String> start(final Recorder recorder,
+		final long maxDurationUs, final long maxBytes) {
+
+		final SegmentRotator<String> result
+			= new SegmentRotator<String>(BASE, EXT, maxDurationUs, maxBytes, recorder);
+		result.start("muxer0");
+		assertEquals(Arrays.asList("started 0 " + PATH0, "prepare 1 " + PATH1), recorder.take());
+		return result;
+	}
+
+	@Test
+	public void segmentPath() {
+		assertEquals(PATH0, SegmentRotator.getSegmentPath(BASE, EXT, 0));
+		assertEquals(PATH1, SegmentRotator.getSegmentPath(BASE, EXT, 1));
+		assertEquals(BASE + "_042" + EXT, SegmentRotator.getSegmentPath(BASE, EXT, 42));
+		assertEquals(BASE + "_1000" + EXT, SegmentRotator.getSegmentPath(BASE, EXT, 1000));
+	}
+
+	@Test
+	public void durationLimit() {
+		final Recorder recorder = new Recorder();
+		// 30 frames per segment
+		final SegmentRotator<String> rotator = start(recorder, 30 * FRAME_US, 0);
+		assertTrue(rotator.setNextMuxer(1, PATH1, "muxer1"));
+		for (int i = 0; i < 30; i++) {
+			assertFalse(write(rotator, i, i == 0));
+		}
+		assertTrue(recorder.take().isEmpty());
+		// limit reached on non-key frames, key frame is requested only once
+		for (int i = 30; i < 35; i++) {
+			assertFalse(write(rotator, i, false));
+		}
+		assertEquals(Arrays.asList("sync frame"), recorder.take());
+		assertEquals(0, rotator.getIndex());
+		assertEquals("muxer0", rotator.getMuxer());
+		// switched on the key frame with the prepared muxer
+		assertTrue(rotator.onVideoSample(35 * FRAME_US, FRAME_BYTES, true));
+		assertEquals(Arrays.asList(
+			"start muxer1",
+			"finished muxer0 0 " + PATH0 + " " + (35 * FRAME_US) + " " + (35 * FRAME_BYTES),
+			"started 1 " + PATH1,
+			"prepare 2 " + PATH2), recorder.take());
+		assertEquals(1, rotator.getIndex());
+		assertEquals(PATH1, rotator.getPath());
+		assertEquals("muxer1", rotator.getMuxer());
+		// the key frame is written to the new segment
+		rotator.onSampleWritten(FRAME_BYTES);
+		assertEquals(FRAME_BYTES, rotator.getBytes());
+		// duration of the next segment starts from the key frame
+		for (int i = 36; i < 65; i++) {
+			assertFalse(write(rotator, i, false));
+		}
+		assertTrue(recorder.take().isEmpty());
+		assertFalse(write(rotator, 65, false));
+		assertEquals(Arrays.asList("sync frame"), recorder.take());
+	}
+
+	@Test
+	public void byteLimit() {
+		final Recorder recorder = new Recorder();
+		// 10 frames per segment
+		final SegmentRotator<String> rotator = start(recorder, 0, 10 * FRAME_BYTES);
+		assertTrue(rotator.setNextMuxer(1, PATH1, "muxer1"));
+		for (int i = 0; i < 10; i++) {
+			assertFalse(write(rotator, i, true));
+		}
+		assertTrue(recorder.take().isEmpty());
+		// the 11th frame exceeds the limit
+		assertTrue(write(rotator, 10, true));
+		assertEquals(Arrays.asList(
+			"start muxer1",
+			"finished muxer0 0 " + PATH0 + " " + (10 * FRAME_US) + " " + (10 * FRAME_BYTES),
+			"started 1 " + PATH1,
+			"prepare 2 " + PATH2), recorder.take());
+		assertEquals(1, rotator.getIndex());
+	}
+
+	@Test
+	public void bytesOfAllTracksAreCounted() {
+		final Recorder recorder = new Recorder();
+		final SegmentRotator<String> rotator = start(recorder, 0, 10 * FRAME_BYTES);
+		assertFalse(write(rotator, 0, true));
+		// audio samples
+		rotator.onSampleWritten(9 * FRAME_BYTES);
+		assertFalse(write(rotator, 1, false));
+		assertEquals(Arrays.asList("sync frame"), recorder.take());
+	}
+
+	@Test
+	public void nonKeyFrameDoesNotSwitch() {
+		final Recorder recorder = new Recorder();
+		final SegmentRotator<String> rotator = start(recorder, FRAME_US, FRAME_BYTES);
+		assertTrue(rotator.setNextMuxer(1, PATH1, "muxer1"));
+		assertFalse(write(rotator, 0, true));
+		for (int i = 1; i < 100; i++) {
+			assertFalse(write(rotator, i, false));
+		}
+		assertEquals(Arrays.asList("sync frame"), recorder.take());
+		assertEquals(0, rotator.getIndex());
+		assertEquals("muxer0", rotator.getMuxer());
+		assertEquals(100 * FRAME_BYTES, rotator.getBytes());
+	}
+
+	@Test
+	public void muxerIsCreatedIfNotPrepared() {
+		final Recorder recorder = new Recorder();
+		final SegmentRotator<String> rotator = start(recorder, 10 * FRAME_US, 0);
+		for (int i = 0; i < 10; i++) {
+			assertFalse(write(rotator, i, i == 0));
+		}
+		assertTrue(write(rotator, 10, true));
+		assertEquals(Arrays.asList(
+			"create 1 " + PATH1,
+			"start sync:" + PATH1,
+			"finished muxer0 0 " + PATH0 + " " + (10 * FRAME_US) + " " + (10 * FRAME_BYTES),
+			"started 1 " + PATH1,
+			"prepare 2 " + PATH2), recorder.take());
+		assertEquals("sync:" + PATH1, rotator.getMuxer());
+		// preparation of the segment that was already switched is rejected
+		assertFalse(rotator.setNextMuxer(1, PATH1, "muxer1"));
+		assertTrue(rotator.setNextMuxer(2, PATH2, "muxer2"));
+		assertFalse(rotator.setNextMuxer(2, PATH2, "muxer2'"));
+	}
+
+	@Test
+	public void currentSegmentContinuesIfCreationFailed() {
+		final Recorder recorder = new Recorder();
+		recorder.failCreate = true;
+		final SegmentRotator<String> rotator = start(recorder, 10 * FRAME_US, 0);
+		for (int i = 0; i < 10; i++) {
+			assertFalse(write(rotator, i, i == 0));
+		}
+		assertFalse(write(rotator, 10, true));
+		assertEquals(Arrays.asList("create 1 " + PATH1), recorder.take());
+		assertEquals(0, rotator.getIndex());
+		// retried on the next key frame
+		recorder.failCreate = false;
+		assertFalse(write(rotator, 11, false));
+		assertEquals(Arrays.asList("sync frame"), recorder.take());
+		assertTrue(write(rotator, 12, true));
+		assertEquals("create 1 " + PATH1, recorder.take().get(0));
+		assertEquals(1, rotator.getIndex());
+	}
+
+	@Test
+	public void preparedMuxerIsDiscardedOnStop() {
+		final Recorder recorder = new Recorder();
+		final SegmentRotator<String> rotator = start(recorder, 10 * FRAME_US, 0);
+		assertTrue(rotator.setNextMuxer(1, PATH1, "muxer1"));
+		for (int i = 0; i < 5; i++) {
+			assertFalse(write(rotator, i, i == 0));
+		}
+		rotator.stop();
+		assertEquals(Arrays.asList(
+			"finished null 0 " + PATH0 + " " + (4 * FRAME_US) + " " + (5 * FRAME_BYTES),
+			"discard muxer1 " + PATH1), recorder.take());
+		assertFalse(rotator.isRunning());
+		assertNull(rotator.getMuxer());
+		// preparation that finished after stopping is rejected and samples are ignored
+		assertFalse(rotator.setNextMuxer(1, PATH1, "muxer1"));
+		assertFalse(rotator.onVideoSample(100 * FRAME_US, FRAME_BYTES, true));
+		rotator.stop();
+		assertTrue(recorder.take().isEmpty());
+	}
+
+	@Test
+	public void stopWithoutSamples() {
+		final Recorder recorder = new Recorder();
+		final SegmentRotator<String> rotator = start(recorder, 10 * FRAME_US, 0);
+		rotator.stop();
+		assertEquals(Arrays.asList("finished null 0 " + PATH0 + " 0 0"), recorder.take());
+	}
+}
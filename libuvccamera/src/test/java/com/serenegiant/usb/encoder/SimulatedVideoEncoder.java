@@ -0,0 +1,153 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SimulatedVideoEncoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+/**
+ * Simulated video encoder to run AdaptiveBitrateController on JVM without MediaCodec.
+ * Frames are encoded one by one and each frame takes (bitrate / frame rate) / throughput seconds,
+ * so lowering the throughput with #setThroughput behaves like a thermally throttled codec.
+ * The encoder has limited number of input slots and #submit fails when they are full,
+ * same as MediaCodec#dequeueInputBuffer returns INFO_TRY_AGAIN_LATER.
+ * Set input slots large enough to simulate Surface input that never rejects frames.
+ */
+public class SimulatedVideoEncoder implements AdaptiveBitrateController.Callback {
+	public static final int DEFAULT_INPUT_SLOTS = 4;
+
+	private final int mFrameRate;
+	private final long[] mFinishNs;
+	private int mHead, mCount;
+	private int mBitRate;
+	private long mThroughputBitsPerSec;
+	private long mLastFinishNs;
+	private long mEncodedFrames, mRejectedFrames;
+
+	/**
+	 * Constructor
+	 * @param frameRate nominal frame rate that is used to calculate the size of each frame
+	 * @param bitRate initial bitrate
+	 * @param throughputBitsPerSec bits that the encoder can produce per second
+	 * @param inputSlots number of frames that the encoder can hold
+	 */
+	public SimulatedVideoEncoder(final int frameRate, final int bitRate, final long throughputBitsPerSec, final int inputSlots) {
+		if ((frameRate <= 0) || (bitRate <= 0) || (throughputBitsPerSec <= 0) || (inputSlots <= 0))
+			throw new IllegalArgumentException("parameters should be positive");
+		mFrameRate = frameRate;
+		mBitRate = bitRate;
+		mThroughputBitsPerSec = throughputBitsPerSec;
+		mFinishNs = new long[inputSlots];
+	}
+
+	/**
+	 * change throughput, frames that are already submitted are not affected
+	 * @param throughputBitsPerSec
+	 */
+	public void setThroughput(final long throughputBitsPerSec) {
+		if (throughputBitsPerSec <= 0)
+			throw new IllegalArgumentException("throughput should be positive");
+		mThroughputBitsPerSec = throughputBitsPerSec;
+	}
+
+	public int getBitRate() {
+		return mBitRate;
+	}
+
+	public long getEncodedFrames() {
+		return mEncodedFrames;
+	}
+
+	/**
+	 * @return number of frames that were not accepted because all input slots were used
+	 */
+	public long getRejectedFrames() {
+		return mRejectedFrames;
+	}
+
+	/**
+	 * @return size of a encoded frame in bytes with current bitrate
+	 */
+	public int getFrameBytes() {
+		return mBitRate / mFrameRate / 8;
+	}
+
+	/**
+	 * pass a frame to this encoder
+	 * @param nowNs
+	 * @return false if all input slots are used
+	 */
+	public boolean submit(final long nowNs) {
+		if (mCount == mFinishNs.length) {
+			mRejectedFrames++;
+			return false;
+		}
+		final long start = Math.max(nowNs, mLastFinishNs);
+		final long bits = (long)getFrameBytes() * 8;
+		mLastFinishNs = start + bits * 1000000000L / mThroughputBitsPerSec;
+		mFinishNs[(mHead + mCount) % mFinishNs.length] = mLastFinishNs;
+		mCount++;
+		return true;
+	}
+
+	/**
+	 * get a encoded frame that finished until nowNs
+	 * @param nowNs
+	 * @return size of encoded frame in bytes, -1 if no frame finished
+	 */
+	public int poll(final long nowNs) {
+		if ((mCount == 0) || (mFinishNs[mHead] > nowNs))
+			return -1;
+		mHead = (mHead + 1) % mFinishNs.length;
+		mCount--;
+		mEncodedFrames++;
+		return getFrameBytes();
+	}
+
+	/**
+	 * run one frame period of the source with the controller
+	 * @param controller
+	 * @param nowNs
+	 */
+	public void step(final AdaptiveBitrateController controller, final long nowNs) {
+		if (!controller.shouldSkipFrame()) {
+			if (submit(nowNs)) {
+				controller.onFrameSubmitted(nowNs);
+			} else {
+				controller.onInputTimeout();
+			}
+		}
+		int bytes;
+		while ((bytes = poll(nowNs)) >= 0) {
+			controller.onFrameEncoded(bytes, nowNs);
+		}
+		controller.update(nowNs);
+	}
+
+	@Override
+	public void onBitRateChanged(final int bitRate) {
+		mBitRate = bitRate;
+	}
+
+	@Override
+	public void onFrameRateChanged(final int frameRate) {
+	}
+}
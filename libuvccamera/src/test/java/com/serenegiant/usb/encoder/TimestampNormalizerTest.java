@@ -0,0 +1,187 @@
+package com.serenegiant.usb.encoder;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: TimestampNormalizerTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimestampNormalizerTest {
+	private static final long FRAME_US = 33333;
+	/**
+	 * 1024 samples of 44.1kHz audio
+	 */
+	private static final long AUDIO_CHUNK_US = 1024L * 1000000L / 44100;
+
+	@Test
+	public void invalidParameters() {
+		try {
+			new TimestampNormalizer(-1, 1000, 1000000);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new TimestampNormalizer(100000, 0, 1000000);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new TimestampNormalizer(100000, 1000, 100000);
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void sameClockIsKept() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		final long base = 5000000L;
+		for (int i = 0; i < 100; i++) {
+			final long ts = base + i * FRAME_US;
+			// received a little later than captured
+			assertEquals(ts, normalizer.normalize(ts, ts + 20000));
+		}
+		assertEquals(0, normalizer.getOffsetUs());
+		assertEquals(0, normalizer.getMonotonicCorrectionCount());
+		assertEquals(0, normalizer.getResyncCount());
+	}
+
+	@Test
+	public void unknownTimestampUsesReference() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		assertEquals(1000000L, normalizer.normalize(0, 1000000L));
+		assertEquals(1033333L, normalizer.normalize(-1, 1033333L));
+	}
+
+	@Test
+	public void differentOriginIsAlignedToReference() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		final long reference = 123456789L;
+		// source clock starts from 1000
+		assertEquals(reference, normalizer.normalize(1000, reference));
+		assertEquals(reference - 1000, normalizer.getOffsetUs());
+		assertEquals(reference + FRAME_US, normalizer.normalize(1000 + FRAME_US, reference + FRAME_US));
+		assertEquals(0, normalizer.getResyncCount());
+	}
+
+	@Test
+	public void monotonicWithJitterAndDuplicates() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		final Random random = new Random(12345);
+		long last = Long.MIN_VALUE;
+		long ts = 1000000L;
+		for (int i = 0; i < 10000; i++) {
+			// duplicated, reordered and jittered timestamps
+			switch (random.nextInt(4)) {
+			case 0:		break;
+			case 1:		ts -= random.nextInt(20000); break;
+			default:	ts += random.nextInt((int)FRAME_US * 2); break;
+			}
+			final long result = normalizer.normalize(ts, ts + random.nextInt(30000));
+			assertTrue("not increasing at " + i, result > last);
+			last = result;
+		}
+		assertEquals(last, normalizer.getLastUs());
+		assertTrue(normalizer.getMonotonicCorrectionCount() > 0);
+		assertEquals(0, normalizer.getResyncCount());
+	}
+
+	@Test
+	public void monotonicOnResync() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		long last = Long.MIN_VALUE;
+		for (int i = 0; i < 10; i++) {
+			last = normalizer.normalize(10000000L + i * FRAME_US, 10000000L + i * FRAME_US);
+		}
+		// the source clock was reset to zero-ish value, but reference goes on
+		final long reference = 10000000L + 10 * FRAME_US;
+		final long result = normalizer.normalize(1000, reference);
+		assertEquals(1, normalizer.getResyncCount());
+		assertTrue(result > last);
+		assertEquals(reference, result);
+		// following timestamps follow the new origin
+		assertEquals(reference + FRAME_US, normalizer.normalize(1000 + FRAME_US, reference + FRAME_US));
+	}
+
+	@Test
+	public void driftIsSlewedGradually() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		// audio clock from sample count runs 0.5% slower than reference clock
+		final long start = 2000000L;
+		long prevOffset = 0;
+		long last = Long.MIN_VALUE;
+		long maxError = 0;
+		for (int i = 0; i < 20000; i++) {
+			final long sourceUs = start + i * AUDIO_CHUNK_US;
+			final long referenceUs = start + i * AUDIO_CHUNK_US * 1005 / 1000;
+			final long result = normalizer.normalize(sourceUs, referenceUs);
+			assertTrue(result > last);
+			last = result;
+			final long offset = normalizer.getOffsetUs();
+			// offset changes at most maxSlew on each timestamp
+			assertTrue(Math.abs(offset - prevOffset) <= TimestampNormalizer.DEFAULT_MAX_SLEW_US);
+			prevOffset = offset;
+			if (i > 1000)
+				maxError = Math.max(maxError, Math.abs(referenceUs - result));
+		}
+		// drift is kept within the allowed range(+slew) once the correction caught up
+		assertTrue("maxError=" + maxError,
+			maxError <= TimestampNormalizer.DEFAULT_MAX_DRIFT_US + TimestampNormalizer.DEFAULT_MAX_SLEW_US);
+		assertTrue(normalizer.getOffsetUs() > 0);
+		assertEquals(0, normalizer.getResyncCount());
+	}
+
+	@Test
+	public void smallDriftIsNotCorrected() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		for (int i = 0; i < 1000; i++) {
+			final long ts = 1000000L + i * FRAME_US;
+			// within maximum drift
+			normalizer.normalize(ts, ts + (i % 2 == 0 ? 90000 : -90000));
+		}
+		assertEquals(0, normalizer.getOffsetUs());
+	}
+
+	@Test
+	public void resetClearsState() {
+		final TimestampNormalizer normalizer = new TimestampNormalizer();
+		normalizer.normalize(1000, 5000000L);
+		normalizer.normalize(1000, 5000000L);
+		assertEquals(1, normalizer.getMonotonicCorrectionCount());
+		normalizer.reset();
+		assertEquals(Long.MIN_VALUE, normalizer.getLastUs());
+		assertEquals(0, normalizer.getOffsetUs());
+		assertEquals(0, normalizer.getMonotonicCorrectionCount());
+		// new origin after reset
+		assertEquals(100, normalizer.normalize(100, 100));
+	}
+}
@@ -0,0 +1,146 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: BandwidthPlannerTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.serenegiant.usb.UVCCamera;
+
+/**
+ * plans with default bus budget(48MB/s) and the maximum payload of USB2 high bandwidth endpoint(24.576MB/s),
+ * the bandwidth factor is (payload x 1.2 headroom) / maximum payload and MJPEG is 1/5 of YUYV
+ */
+@RunWith(Parameterized.class)
+public class BandwidthPlannerTest {
+	private static final int YUYV = UVCCamera.FRAME_FORMAT_YUYV;
+	private static final int MJPEG = UVCCamera.FRAME_FORMAT_MJPEG;
+	private static final float REJECTED = 0;
+
+	@Parameters(name = "{index}: {1}x{2} format={0} x{3}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+			// format, width, height, cameras, bandwidth factor at 30fps(REJECTED if no plan),
+			// total frame rate when each camera also offers 15fps
+			{ YUYV,   320,  240,  1, 0.225f, 30 },
+			{ YUYV,   320,  240,  8, 0.225f, 240 },
+			{ YUYV,   320,  240,  9, REJECTED, 255 },
+			{ YUYV,   640,  480,  1, 0.9f, 30 },
+			{ YUYV,   640,  480,  2, 0.9f, 60 },
+			{ YUYV,   640,  480,  3, REJECTED, 60 },
+			// larger than the maximum payload even at 15fps
+			{ YUYV,  1280,  720,  1, REJECTED, 0 },
+			// MJPEG 320x240 is below the minimum bandwidth factor
+			{ MJPEG,  320,  240,  1, CameraSession.MIN_BANDWIDTH, 30 },
+			{ MJPEG,  320,  240, 19, CameraSession.MIN_BANDWIDTH, 570 },
+			{ MJPEG,  320,  240, 20, REJECTED, 0 },
+			{ MJPEG,  640,  480, 10, 0.18f, 300 },
+			{ MJPEG,  640,  480, 11, REJECTED, 315 },
+			{ MJPEG, 1280,  720,  3, 0.54f, 90 },
+			{ MJPEG, 1280,  720,  4, REJECTED, 105 },
+			{ MJPEG, 1920, 1080,  1, REJECTED, 15 },
+			{ MJPEG, 1920, 1080,  3, REJECTED, 45 },
+			{ MJPEG, 1920, 1080,  4, REJECTED, 0 },
+		});
+	}
+
+	private final int mFormat, mWidth, mHeight, mCameras;
+	private final float mBandwidth;
+	private final int mFallbackFrameRate;
+
+	public BandwidthPlannerTest(final int format, final int width, final int height, final int cameras,
+		final float bandwidth, final int fallbackFrameRate) {
+
+		mFormat = format;
+		mWidth = width;
+		mHeight = height;
+		mCameras = cameras;
+		mBandwidth = bandwidth;
+		mFallbackFrameRate = fallbackFrameRate;
+	}
+
+	private List<BandwidthPlanner.Camera> createCameras(final int... frameRates) {
+		final List<BandwidthPlanner.Camera> result = new ArrayList<BandwidthPlanner.Camera>();
+		for (int i = 0; i < mCameras; i++) {
+			final List<BandwidthPlanner.Candidate> candidates = new ArrayList<BandwidthPlanner.Candidate>();
+			for (final int frameRate: frameRates)
+				candidates.add(new BandwidthPlanner.Candidate(mFormat, mWidth, mHeight, frameRate));
+			result.add(new BandwidthPlanner.Camera("cam" + i, candidates));
+		}
+		return result;
+	}
+
+	@Test
+	public void planAt30fps() {
+		final BandwidthPlanner planner = new BandwidthPlanner();
+		final BandwidthPlanner.Plan plan = planner.getBestPlan(createCameras(30));
+		if (mBandwidth == REJECTED) {
+			assertNull(String.valueOf(plan), plan);
+			return;
+		}
+		final BandwidthPlanner.Assignment[] assignments = plan.getAssignments();
+		assertEquals(mCameras, assignments.length);
+		for (int i = 0; i < mCameras; i++) {
+			final BandwidthPlanner.Assignment assignment = assignments[i];
+			assertEquals("cam" + i, assignment.camera.key);
+			assertEquals(new BandwidthPlanner.Candidate(mFormat, mWidth, mHeight, 30), assignment.candidate);
+			assertEquals(mBandwidth, assignment.bandwidth, 1e-4f);
+		}
+		assertEquals(30 * mCameras, plan.getTotalFrameRate());
+		assertTrue(plan.getReservedBytesPerSec() <= planner.getBusBytesPerSec());
+	}
+
+	@Test
+	public void fallbackTo15fps() {
+		final BandwidthPlanner planner = new BandwidthPlanner();
+		final List<BandwidthPlanner.Plan> plans = planner.plan(createCameras(30, 15));
+		if (mFallbackFrameRate == 0) {
+			assertTrue(plans.isEmpty());
+			return;
+		}
+		final BandwidthPlanner.Plan best = plans.get(0);
+		assertEquals(mFallbackFrameRate, best.getTotalFrameRate());
+		// the other plans are ordered and all of them fit the bus
+		int prev = Integer.MAX_VALUE;
+		for (final BandwidthPlanner.Plan plan: plans) {
+			assertTrue(plan.getTotalFrameRate() <= prev);
+			assertTrue(plan.getReservedBytesPerSec() <= planner.getBusBytesPerSec());
+			assertEquals(mCameras, plan.getAssignments().length);
+			prev = plan.getTotalFrameRate();
+		}
+		assertTrue(plans.size() <= BandwidthPlanner.DEFAULT_MAX_PLANS);
+	}
+}
@@ -0,0 +1,359 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CameraSessionTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.serenegiant.usb.IFrameCallback;
+
+/**
+ * runs CameraSessionManager with FakeCamera
+ */
+public class CameraSessionTest {
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+	private static final int FRAME_RATE = 30;
+	private static final long TIMEOUT_MS = 2000;
+
+	/**
+	 * records states of all sessions and cameras that were created
+	 */
+	private static class Recorder implements CameraSessionManager.SessionListener, CameraSessionManager.CameraFactory {
+		private final FakeCamera.Factory mFactory;
+		final List<FakeCamera> cameras = new ArrayList<FakeCamera>();
+		final List<Integer> states = new ArrayList<Integer>();
+		final List<Exception> errors = new ArrayList<Exception>();
+
+		Recorder(final FakeCamera.Factory factory) {
+			mFactory = factory;
+		}
+
+		@Override
+		public synchronized ICamera createCamera(final Object device) {
+			final FakeCamera camera = (FakeCamera)mFactory.createCamera(device);
+			cameras.add(camera);
+			return camera;
+		}
+
+		@Override
+		public synchronized void onStateChanged(final CameraSession session, final int state) {
+			states.add(state);
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void onError(final CameraSession session, final Exception e) {
+			errors.add(e);
+			notifyAll();
+		}
+
+		/**
+		 * SessionListener#onError is called after the state changed to STATE_ERROR
+		 */
+		synchronized Exception awaitError(final long timeoutMs) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + timeoutMs;
+			while (errors.isEmpty()) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					fail("no error");
+				wait(remaining);
+			}
+			return errors.get(0);
+		}
+
+		synchronized FakeCamera getCamera(final int index) {
+			return cameras.get(index);
+		}
+
+		synchronized void awaitState(final CameraSession session, final int state, final long timeoutMs)
+			throws InterruptedException {
+
+			final long deadline = System.currentTimeMillis() + timeoutMs;
+			while (session.getState() != state) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					fail("state did not change to " + state + ", " + session);
+				wait(remaining);
+			}
+		}
+	}
+
+	private static class CountingCallback implements IFrameCallback {
+		final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void onFrame(final ByteBuffer frame) {
+			count.incrementAndGet();
+		}
+
+		void await(final int n, final long timeoutMs) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + timeoutMs;
+			while (count.get() < n) {
+				if (System.currentTimeMillis() > deadline)
+					fail("only " + count.get() + " frames came");
+				Thread.sleep(5);
+			}
+		}
+	}
+
+	private CameraSessionManager mManager;
+
+	/**
+	 * the session is removed from the manager after the state changed to STATE_CLOSED
+	 */
+	private void awaitRemoved(final String key) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (mManager.getSession(key) != null) {
+			if (System.currentTimeMillis() > deadline)
+				fail("session was not removed:" + key);
+			Thread.sleep(5);
+		}
+	}
+
+	private Recorder create(final float busCapacity, final float requiredBandwidth) {
+		final Recorder recorder = new Recorder(new FakeCamera.Factory(
+			new FakeCamera.Bus(busCapacity), requiredBandwidth, FRAME_RATE));
+		mManager = new CameraSessionManager(recorder);
+		mManager.setListener(recorder);
+		return recorder;
+	}
+
+	@Before
+	public void setUp() {
+		mManager = null;
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (mManager != null) {
+			mManager.release();
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while ((mManager.getSessionCount() > 0) && (System.currentTimeMillis() < deadline))
+				Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void lifecycle() throws InterruptedException {
+		final Recorder recorder = create(1.0f, 0.0f);
+		final CameraSession session = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		assertSame(session, mManager.getSession("cam0"));
+		recorder.awaitState(session, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		final CountingCallback callback = new CountingCallback();
+		session.addFrameCallback(callback);
+		session.startPreview();
+		recorder.awaitState(session, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+		callback.await(10, TIMEOUT_MS);
+		assertTrue(session.getFrameCount() >= 10);
+		assertEquals(1.0f, session.getBandwidth(), 1e-4f);
+		assertEquals(0, session.getRetryCount());
+		assertTrue(session.getTimeToFirstFrameMs() > 0);
+		final FakeCamera camera = recorder.getCamera(0);
+		assertTrue(camera.isStreaming());
+
+		session.stopPreview();
+		recorder.awaitState(session, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		assertFalse(camera.isStreaming());
+		final int frames = callback.count.get();
+		Thread.sleep(100);
+		assertEquals(frames, callback.count.get());
+
+		// preview can be restarted on the same camera
+		session.startPreview();
+		recorder.awaitState(session, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+		callback.await(frames + 5, TIMEOUT_MS);
+		assertEquals(2, camera.getStartCount());
+
+		session.close();
+		recorder.awaitState(session, CameraSession.STATE_CLOSED, TIMEOUT_MS);
+		assertFalse(camera.isStreaming());
+		awaitRemoved("cam0");
+		assertEquals(0, mManager.getSessionCount());
+		synchronized (recorder) {
+			assertEquals(CameraSession.STATE_OPENED, (int)recorder.states.get(0));
+			assertEquals(CameraSession.STATE_STARTING, (int)recorder.states.get(1));
+			assertEquals(CameraSession.STATE_PREVIEWING, (int)recorder.states.get(2));
+			assertEquals(CameraSession.STATE_CLOSED, (int)recorder.states.get(recorder.states.size() - 1));
+			assertTrue(recorder.errors.isEmpty());
+		}
+	}
+
+	@Test
+	public void duplicateKeyIsRejected() throws InterruptedException {
+		final Recorder recorder = create(1.0f, 0.0f);
+		final CameraSession session = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		try {
+			mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+			fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		recorder.awaitState(session, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		assertEquals(1, mManager.getSessionCount());
+	}
+
+	@Test
+	public void reopenAfterClose() throws InterruptedException {
+		final Recorder recorder = create(1.0f, 0.0f);
+		CameraSession session = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		recorder.awaitState(session, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		session.startPreview();
+		recorder.awaitState(session, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+		// e.g. the device was detached and attached again
+		mManager.closeSession("cam0");
+		recorder.awaitState(session, CameraSession.STATE_CLOSED, TIMEOUT_MS);
+		awaitRemoved("cam0");
+		// requests to the closed session are ignored
+		session.startPreview();
+
+		session = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		recorder.awaitState(session, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		final CountingCallback callback = new CountingCallback();
+		session.addFrameCallback(callback);
+		session.startPreview();
+		recorder.awaitState(session, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+		callback.await(5, TIMEOUT_MS);
+		// new camera for the new session and the bandwidth of the old one was released
+		assertEquals(2, recorder.cameras.size());
+		assertFalse(recorder.getCamera(0).isStreaming());
+		assertTrue(recorder.getCamera(1).isStreaming());
+	}
+
+	@Test
+	public void restartWithLowerBandwidth() throws InterruptedException {
+		// the bus can not transfer full bandwidth of a camera
+		final Recorder recorder = create(0.8f, 0.0f);
+		final CameraSession session = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		recorder.awaitState(session, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		session.startPreview();
+		recorder.awaitState(session, CameraSession.STATE_PREVIEWING,
+			CameraSession.FIRST_FRAME_TIMEOUT_MS + TIMEOUT_MS);
+		assertEquals(1, session.getRetryCount());
+		assertEquals(CameraSession.BANDWIDTH_STEP, session.getBandwidth(), 1e-4f);
+		assertEquals(2, recorder.getCamera(0).getStartCount());
+		assertTrue(recorder.getCamera(0).isStreaming());
+		assertTrue(session.getTimeToFirstFrameMs() >= CameraSession.FIRST_FRAME_TIMEOUT_MS);
+	}
+
+	@Test
+	public void camerasShareBandwidth() throws InterruptedException {
+		final Recorder recorder = create(1.0f, 0.0f);
+		final CameraSession[] sessions = new CameraSession[2];
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i] = mManager.openSession("cam" + i, null, WIDTH, HEIGHT, 0, FRAME_RATE);
+			recorder.awaitState(sessions[i], CameraSession.STATE_OPENED, TIMEOUT_MS);
+		}
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i].startPreview();
+			recorder.awaitState(sessions[i], CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+			assertEquals(0.5f, sessions[i].getBandwidth(), 1e-4f);
+			assertEquals(0, sessions[i].getRetryCount());
+		}
+		Thread.sleep(200);
+		assertTrue(mManager.getTotalFrameCount() > 0);
+	}
+
+	/**
+	 * wait until the session restarted preview and the first frame came
+	 */
+	private static void awaitRestart(final Recorder recorder, final CameraSession session,
+		final FakeCamera camera, final int startCount) throws InterruptedException {
+
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (camera.getStartCount() < startCount) {
+			if (System.currentTimeMillis() > deadline)
+				fail("preview was not restarted, " + session);
+			Thread.sleep(5);
+		}
+		recorder.awaitState(session, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+	}
+
+	@Test
+	public void bandwidthIsRebalanced() throws InterruptedException {
+		// the bus can transfer only one camera with full bandwidth
+		final Recorder recorder = create(1.0f, 0.0f);
+		final CameraSession session0 = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		recorder.awaitState(session0, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		session0.startPreview();
+		recorder.awaitState(session0, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+		assertEquals(1.0f, session0.getBandwidth(), 1e-4f);
+
+		// the running session is restarted with half bandwidth when the second session is opened
+		final CameraSession session1 = mManager.openSession("cam1", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		recorder.awaitState(session1, CameraSession.STATE_OPENED, TIMEOUT_MS);
+		awaitRestart(recorder, session0, recorder.getCamera(0), 2);
+		assertEquals(0.5f, session0.getBandwidth(), 1e-4f);
+		session1.startPreview();
+		recorder.awaitState(session1, CameraSession.STATE_PREVIEWING, TIMEOUT_MS);
+		assertTrue(session0.getBandwidth() + session1.getBandwidth() <= 1.0f + 1e-4f);
+		assertEquals(0, session0.getRetryCount());
+		assertEquals(0, session1.getRetryCount());
+		assertTrue(recorder.getCamera(0).isStreaming());
+		assertTrue(recorder.getCamera(1).isStreaming());
+
+		// the remaining session gets full bandwidth again when the other one is closed
+		session1.close();
+		recorder.awaitState(session1, CameraSession.STATE_CLOSED, TIMEOUT_MS);
+		awaitRemoved("cam1");
+		awaitRestart(recorder, session0, recorder.getCamera(0), 3);
+		assertEquals(1.0f, session0.getBandwidth(), 1e-4f);
+		assertTrue(recorder.getCamera(0).isStreaming());
+		synchronized (recorder) {
+			assertTrue(recorder.errors.isEmpty());
+		}
+	}
+
+	@Test
+	public void openFailure() throws InterruptedException {
+		final Recorder recorder = new Recorder(null) {
+			@Override
+			public synchronized ICamera createCamera(final Object device) {
+				throw new IllegalStateException("no device");
+			}
+		};
+		mManager = new CameraSessionManager(recorder);
+		mManager.setListener(recorder);
+		final CameraSession session = mManager.openSession("cam0", null, WIDTH, HEIGHT, 0, FRAME_RATE);
+		recorder.awaitState(session, CameraSession.STATE_ERROR, TIMEOUT_MS);
+		assertEquals("no device", recorder.awaitError(TIMEOUT_MS).getMessage());
+		// the session in error state can be closed
+		session.close();
+		recorder.awaitState(session, CameraSession.STATE_CLOSED, TIMEOUT_MS);
+		awaitRemoved("cam0");
+	}
+}
@@ -0,0 +1,243 @@
+package com.serenegiant.usb.session;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeCamera.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.serenegiant.usb.FramePool;
+import com.serenegiant.usb.IFrameCallback;
+
+/**
+ * ICamera that generates frames on its own thread without devices,
+ * to run CameraSessionManager in unit tests on JVM.
+ * Cameras share a Bus and a preview only streams frames when the bus can reserve its bandwidth
+ * and the bandwidth is enough for the camera, otherwise no frame comes like real cameras.
+ * This class does not depend on Android framework.
+ */
+public class FakeCamera implements ICamera {
+
+	/**
+	 * USB bus shared by fake cameras
+	 */
+	public static class Bus {
+		private final float mCapacity;
+		private float mReserved;
+
+		/**
+		 * @param capacity total of bandwidth factors that this bus can transfer at the same time
+		 */
+		public Bus(final float capacity) {
+			mCapacity = capacity;
+		}
+
+		public synchronized float getReserved() {
+			return mReserved;
+		}
+
+		private synchronized boolean reserve(final float bandwidth) {
+			if (mReserved + bandwidth > mCapacity + 1e-4f)
+				return false;
+			mReserved += bandwidth;
+			return true;
+		}
+
+		private synchronized void release(final float bandwidth) {
+			mReserved = Math.max(0, mReserved - bandwidth);
+		}
+	}
+
+	/**
+	 * CameraFactory that creates FakeCamera on the same bus
+	 */
+	public static class Factory implements CameraSessionManager.CameraFactory {
+		private final Bus mBus;
+		private final float mRequiredBandwidth;
+		private final int mFrameRate;
+
+		/**
+		 * @param bus
+		 * @param requiredBandwidth minimum bandwidth factor to stream frames
+		 * @param frameRate
+		 */
+		public Factory(final Bus bus, final float requiredBandwidth, final int frameRate) {
+			mBus = bus;
+			mRequiredBandwidth = requiredBandwidth;
+			mFrameRate = frameRate;
+		}
+
+		@Override
+		public ICamera createCamera(final Object device) {
+			return new FakeCamera(mBus, mRequiredBandwidth, mFrameRate);
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final Bus mBus;
+	private final float mRequiredBandwidth;
+	private final int mFrameRate;
+	private boolean mOpened;
+	private int mWidth, mHeight;
+	private float mBandwidth = 1.0f;
+	private float mReservedBandwidth;
+	private IFrameCallback mCallback;
+	private int mPixelFormat;
+	private Thread mStreamThread;
+	private volatile boolean mStreaming;
+	private int mStartCount;
+
+	public FakeCamera(final Bus bus, final float requiredBandwidth, final int frameRate) {
+		if (frameRate <= 0)
+			throw new IllegalArgumentException("frame rate should be positive");
+		mBus = bus;
+		mRequiredBandwidth = requiredBandwidth;
+		mFrameRate = frameRate;
+	}
+
+	/**
+	 * @return number of calls of #startPreview
+	 */
+	public int getStartCount() {
+		synchronized (mSync) {
+			return mStartCount;
+		}
+	}
+
+	/**
+	 * @return true if frames are streaming now
+	 */
+	public boolean isStreaming() {
+		return mStreaming;
+	}
+
+	@Override
+	public void open() {
+		synchronized (mSync) {
+			mOpened = true;
+		}
+	}
+
+	@Override
+	public void setPreviewSize(final int width, final int height, final int mode, final float bandwidth) {
+		if ((width <= 0) || (height <= 0))
+			throw new IllegalArgumentException("invalid preview size");
+		synchronized (mSync) {
+			if (!mOpened) throw new IllegalStateException("not opened");
+			mWidth = width;
+			mHeight = height;
+			mBandwidth = bandwidth;
+		}
+	}
+
+	@Override
+	public void setPreviewTarget(final Object surface) {
+	}
+
+	@Override
+	public void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
+		synchronized (mSync) {
+			mCallback = callback;
+			mPixelFormat = pixelFormat;
+		}
+	}
+
+	@Override
+	public void startPreview() {
+		synchronized (mSync) {
+			if (!mOpened || (mStreamThread != null)) return;
+			mStartCount++;
+			if ((mBandwidth < mRequiredBandwidth) || !mBus.reserve(mBandwidth)) {
+				// streaming fails silently on the native thread
+				return;
+			}
+			mReservedBandwidth = mBandwidth;
+			mStreaming = true;
+			mStreamThread = new Thread(mStreamTask, "FakeCamera");
+			mStreamThread.start();
+		}
+	}
+
+	@Override
+	public void stopPreview() {
+		final Thread thread;
+		synchronized (mSync) {
+			thread = mStreamThread;
+			mStreamThread = null;
+			mStreaming = false;
+			mBus.release(mReservedBandwidth);
+			mReservedBandwidth = 0;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		stopPreview();
+		synchronized (mSync) {
+			mOpened = false;
+			mCallback = null;
+		}
+	}
+
+	private final Runnable mStreamTask = new Runnable() {
+		@Override
+		public void run() {
+			final ByteBuffer frame;
+			synchronized (mSync) {
+				frame = ByteBuffer.allocateDirect(FramePool.getFrameBytes(mWidth, mHeight, mPixelFormat))
+					.order(ByteOrder.nativeOrder());
+			}
+			final long intervalNs = 1000000000L / mFrameRate;
+			long next = System.nanoTime();
+			int count = 0;
+			while (mStreaming) {
+				final IFrameCallback callback;
+				synchronized (mSync) {
+					callback = mCallback;
+				}
+				if (callback != null) {
+					frame.clear();
+					frame.put(0, (byte)count++);
+					callback.onFrame(frame);
+				}
+				next += intervalNs;
+				final long wait = next - System.nanoTime();
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+					} catch (final InterruptedException e) {
+						break;
+					}
+				}
+			}
+		}
+	};
+}